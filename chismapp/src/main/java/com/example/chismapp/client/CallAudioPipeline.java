@@ -0,0 +1,148 @@
+package com.example.chismapp.client;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.example.chismapp.util.AudioCodec;
+import com.example.chismapp.util.SpscRing;
+
+/**
+ * The {@code CallAudioPipeline} class takes call audio from the microphone reads to the network without
+ * producing garbage. On the capture thread each read goes through the {@link VoiceActivityDetector} and,
+ * if it is speech, is encoded straight into a frame from a fixed pool; silences become comfort noise
+ * markers in the same frames. A sender thread sends the frames and gives them back to the pool. Frames
+ * travel both ways through {@link SpscRing}s, so the capture thread never blocks on the network and
+ * neither side locks or allocates once the call is running. If the network falls behind and the pool
+ * runs dry, new frames are dropped, which for live audio is better than delaying them.
+ */
+public class CallAudioPipeline {
+
+    private static final long IDLE_PARK_NANOS = 50_000_000;
+
+    private final SpscRing<Frame> submitted;
+    private final SpscRing<Frame> free;
+    private final Sink sink;
+    private final AudioCodec codec;
+    private final VoiceActivityDetector voiceActivity = new VoiceActivityDetector();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private long droppedFrames;
+
+    /**
+     * Creates the frame pool and starts the sender thread.
+     *
+     * @param codec         the codec the audio is compressed with.
+     * @param maxReadLength the largest microphone read, in bytes of PCM.
+     * @param poolSize      the number of frames in the pool, the most that can wait to be sent.
+     * @param sink          where the sender thread sends each frame.
+     */
+    public CallAudioPipeline(AudioCodec codec, int maxReadLength, int poolSize, Sink sink) {
+        this.codec = codec;
+        int frameCapacity = Math.max(2, 1 + codec.encodedLength(maxReadLength));
+        this.submitted = new SpscRing<>(poolSize);
+        this.free = new SpscRing<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            free.offer(new Frame(frameCapacity));
+        }
+        this.sink = sink;
+        this.thread = new Thread(this::sendLoop, "call-audio-send");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Processes one microphone read on the capture thread: speech is encoded and queued for sending, and
+     * silence is dropped, queuing a comfort noise marker when one is due.
+     *
+     * @param pcm          the buffer holding the 16-bit PCM read, at most {@code maxReadLength} bytes.
+     * @param offset       the index of the first byte.
+     * @param length       the number of bytes read.
+     * @param comfortNoise whether comfort noise markers should be sent, which only the UDP media channel carries.
+     */
+    public void capture(byte[] pcm, int offset, int length, boolean comfortNoise) {
+        boolean speech = voiceActivity.isSpeech(pcm, offset, length);
+        if (!speech && !(comfortNoise && voiceActivity.isComfortNoiseDue())) {
+            return;
+        }
+        Frame frame = free.poll();
+        if (frame == null) {
+            droppedFrames++;
+            return;
+        }
+        if (speech) {
+            // Each read travels as one unit: the codec id followed by the compressed audio
+            frame.data[0] = (byte) codec.getId();
+            frame.length = 1 + codec.encode(pcm, offset, length, frame.data, 1);
+        } else {
+            frame.data[0] = (byte) AudioCodec.COMFORT_NOISE_ID;
+            frame.data[1] = (byte) voiceActivity.getNoiseLevel();
+            frame.length = 2;
+        }
+        submitted.offer(frame);  // Never full: the ring holds the whole pool
+        LockSupport.unpark(thread);
+    }
+
+    private void sendLoop() {
+        while (running) {
+            Frame frame = submitted.poll();
+            if (frame == null) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                sink.send(frame.data, 0, frame.length);
+            } catch (RuntimeException e) {
+                System.out.println("Error sending call audio: " + e.getMessage());
+            }
+            free.offer(frame);
+        }
+    }
+
+    /**
+     * Stops the sender thread once it is done with the current frame. Frames still waiting are not sent.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Returns the number of frames dropped because the pool was empty. Read it once the capture thread stopped.
+     *
+     * @return the dropped frame count.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Returns the detector that decides which reads are sent, whose counts give the suppression ratio.
+     *
+     * @return the {@code VoiceActivityDetector} of the call.
+     */
+    public VoiceActivityDetector getVoiceActivity() {
+        return voiceActivity;
+    }
+
+    long getSenderThreadId() {
+        return thread.getId();
+    }
+
+    /**
+     * A reusable buffer of encoded audio, owned by the pool.
+     */
+    static final class Frame {
+        final byte[] data;
+        int length;
+
+        Frame(int capacity) {
+            this.data = new byte[capacity];
+        }
+    }
+
+    /**
+     * Receives the frames on the sender thread. The data is only valid during the call.
+     */
+    public interface Sink {
+        void send(byte[] data, int offset, int length);
+    }
+}
@@ -1,23 +1,34 @@
 package com.example.chismapp.client;
 
+import java.io.IOException;
+
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.TargetDataLine;
 
+import com.example.chismapp.util.AudioCodec;
 import com.example.chismapp.util.eTypeRecord;
 
-import java.util.Arrays;
-import java.util.Base64;
-
 /**
  * The {@code CallManager} class is responsible for managing audio call sessions between users.
  * It provides functionality to initiate, accept, reject, and end calls, as well as managing audio capture and transmission during a call.
  * The class interacts with the {@code ChatClient} for sending messages related to call state and session management.
+ * Once the server opens a media session for the call, the audio goes over UDP through a {@link MediaChannel};
+ * until then, or if the channel cannot be opened, it is sent over the TCP connection. Silent microphone frames are not
+ * sent at all: a {@link VoiceActivityDetector} picks out the speech, and the other side plays comfort noise meanwhile.
+ * A conference call with a group works the same way, except that its audio only goes over UDP: the server mixes the
+ * other participants into the one stream this client receives.
  */
 public class CallManager {
     private ChatClient chatClient;
     public String currentCallParticipant;
+    private volatile String currentConference;
     private Thread recordThread;
+    private volatile MediaChannel mediaChannel;
+    private CallAudioPipeline audioPipeline;
+
+    private static final int MICROPHONE_READ_BYTES = 1024;
+    private static final int AUDIO_FRAME_POOL_SIZE = 16;  // About half a second of audio waiting to be sent
 
     /**
      * Constructs a new {@code CallManager} with the specified {@code ChatClient}.
@@ -55,6 +66,11 @@ public class CallManager {
             sendRejectCall(caller);
             return;
         }
+        if (currentConference != null) {
+            chatClient.displayMessage("SYSTEM: Ya estás en la conferencia de " + currentConference);
+            sendRejectCall(caller);
+            return;
+        }
         chatClient.sendMessage("CALL_ACCEPT:" + caller);
         chatClient.getRecorder().addMessage("Called by: " + caller, eTypeRecord.RECEIVED);
         currentCallParticipant = caller;
@@ -114,7 +130,93 @@ public class CallManager {
         chatClient.displayMessage("SYSTEM: Llamada finalizada con " + participant);
         chatClient.getRecorder().addMessage("Call ended with " + participant, eTypeRecord.RECEIVED);
         currentCallParticipant = null;
+        finishAudioSession();
+    }
+
+    /**
+     * Joins the conference call of a group.
+     *
+     * @param group the group whose conference to join.
+     */
+    public void joinConference(String group) {
+        if (currentCallParticipant != null) {
+            chatClient.displayMessage("SYSTEM: Ya estás en una llamada con " + currentCallParticipant);
+            return;
+        }
+        chatClient.sendMessage("CONF_JOIN:" + group);
+    }
+
+    /**
+     * Leaves the conference call of a group.
+     *
+     * @param group the group whose conference to leave.
+     */
+    public void leaveConference(String group) {
+        if (currentConference == null || !currentConference.equals(group)) {
+            chatClient.displayMessage("SYSTEM: No estás en la conferencia de " + group);
+            return;
+        }
+        chatClient.sendMessage("CONF_LEAVE:" + group);
+    }
+
+    /**
+     * Handles the server's confirmation that this client joined a conference, and starts capturing audio for it.
+     * The audio is sent once the {@code MEDIA:} line of the conference arrives.
+     *
+     * @param group the group whose conference was joined.
+     */
+    public void handleConferenceJoined(String group) {
+        if (currentConference != null) {
+            finishAudioSession();  // The server moved us from another conference
+        }
+        currentConference = group;
+        chatClient.displayMessage("SYSTEM: Te uniste a la conferencia de " + group);
+        chatClient.getRecorder().addMessage("Joined the conference of " + group, eTypeRecord.CALL);
+        if (ChatClient.recordPlayer != null) {
+            ChatClient.recordPlayer.stopPlayback();
+            ChatClient.recordPlayer.restartPlayback();
+        }
+        startAudioSession();
+    }
+
+    /**
+     * Handles the server's confirmation that this client left a conference.
+     *
+     * @param group the group whose conference was left.
+     */
+    public void handleConferenceLeft(String group) {
+        if (!group.equals(currentConference)) {
+            return;
+        }
+        chatClient.displayMessage("SYSTEM: Saliste de la conferencia de " + group);
+        chatClient.getRecorder().addMessage("Left the conference of " + group, eTypeRecord.CALL);
+        currentConference = null;
+        finishAudioSession();
+    }
+
+    /**
+     * Tells whether this client is in a call or a conference, which keeps the microphone capture running.
+     *
+     * @return {@code true} during a call or a conference.
+     */
+    private boolean isInSession() {
+        return currentCallParticipant != null || currentConference != null;
+    }
+
+    /**
+     * Stops the audio of the call or conference that just ended, shows how it went and closes its media channel.
+     */
+    private void finishAudioSession() {
         stopAudioSession();
+        if (audioPipeline != null && audioPipeline.getVoiceActivity().getFrames() > 0) {
+            VoiceActivityDetector voiceActivity = audioPipeline.getVoiceActivity();
+            chatClient.displayMessage(String.format("SYSTEM: Silencio suprimido: %.0f%% de %d tramas, %d descartadas por red lenta.",
+                    100 * voiceActivity.getSuppressionRatio(), voiceActivity.getFrames(), audioPipeline.getDroppedFrames()));
+        }
+        if (mediaChannel != null && ChatClient.recordPlayer != null) {
+            showCallAudioStats(ChatClient.recordPlayer.getJitterBuffer());
+        }
+        closeMediaChannel();
         if (chatClient.recordPlayer != null) {
             chatClient.recordPlayer.stopPlayback();
         }
@@ -133,6 +235,52 @@ public class CallManager {
         startAudioSession();
     }
 
+    /**
+     * Handles the media session the server opened for the active call or conference, switching its audio to UDP.
+     *
+     * @param host  the address of the server's media relay.
+     * @param port  the UDP port of the media relay.
+     * @param token the session token assigned to this participant, as an unsigned decimal number.
+     */
+    public void handleMedia(String host, int port, String token) {
+        if (!isInSession()) {
+            return;
+        }
+        closeMediaChannel();
+        if (ChatClient.recordPlayer != null) {
+            ChatClient.recordPlayer.resetCallAudio();
+        }
+        try {
+            MediaChannel channel = new MediaChannel(host, port, Long.parseUnsignedLong(token), ChatClient.recordPlayer);
+            channel.start();
+            mediaChannel = channel;
+        } catch (IOException e) {
+            chatClient.displayMessage("SYSTEM: No se pudo abrir el canal de audio, se usará la conexión TCP.");
+        }
+    }
+
+    /**
+     * Shows how the received call audio fared in the jitter buffer.
+     *
+     * @param jitterBuffer the jitter buffer that received the audio of the call.
+     */
+    private void showCallAudioStats(JitterBuffer jitterBuffer) {
+        chatClient.displayMessage(String.format("SYSTEM: Audio recibido: jitter %.1f ms, búfer %d/%d tramas, %d tardías, %d perdidas, %d saltadas.",
+                jitterBuffer.getJitterMillis(), jitterBuffer.getDepth(), jitterBuffer.getTargetDepth(),
+                jitterBuffer.getLateFrames(), jitterBuffer.getLostFrames(), jitterBuffer.getSkippedFrames()));
+    }
+
+    /**
+     * Closes the media channel of the call, if one is open.
+     */
+    private void closeMediaChannel() {
+        MediaChannel channel = mediaChannel;
+        mediaChannel = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
     /**
      * Stops the current audio session, interrupting the recording thread if it is running.
      * Ensures that resources are properly cleaned up and the audio system is stopped.
@@ -151,7 +299,7 @@ public class CallManager {
     }
 
     /**
-     * Starts an audio session by capturing audio from the microphone and sending it to the participant.
+     * Starts an audio session by capturing audio from the microphone, compressing it with the client's codec and sending it to the participant.
      * The session runs in a separate thread for continuous audio capture and transmission.
      */
     private void startAudioSession() {
@@ -162,22 +310,22 @@ public class CallManager {
             microphone.open(format);
             microphone.start();
 
+            AudioCodec codec = chatClient.getCodec();
+            CallAudioPipeline pipeline = new CallAudioPipeline(codec, MICROPHONE_READ_BYTES, AUDIO_FRAME_POOL_SIZE, this::sendCallAudio);
+            audioPipeline = pipeline;
             recordThread = new Thread(() -> {
                 try {
-                    byte[] buffer = new byte[1024];
-                    while (!Thread.currentThread().isInterrupted() && currentCallParticipant != null) {
+                    byte[] buffer = new byte[MICROPHONE_READ_BYTES];
+                    while (!Thread.currentThread().isInterrupted() && isInSession()) {
                         int bytesRead = microphone.read(buffer, 0, buffer.length);
                         if (bytesRead > 0) {
-                            String encodedAudio = Base64.getEncoder().encodeToString(Arrays.copyOf(buffer, bytesRead));
-                            chatClient.sendMessage("VOICE:" + currentCallParticipant + ":" + encodedAudio);
-                        }
-                        if (Thread.currentThread().isInterrupted()) {
-                            break;
+                            pipeline.capture(buffer, 0, bytesRead, mediaChannel != null);
                         }
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
                 } finally {
+                    pipeline.close();
                     if (microphone != null && microphone.isOpen()) {
                         microphone.stop();
                         microphone.close();
@@ -187,7 +335,7 @@ public class CallManager {
             });
 
             recordThread.start();
-            chatClient.displayMessage("SYSTEM: Sesión de audio iniciada.");
+            chatClient.displayMessage("SYSTEM: Sesión de audio iniciada (códec " + codec.name().toLowerCase() + ").");
 
         } catch (Exception e) {
             chatClient.displayMessage("SYSTEM: No se pudo iniciar la sesión de audio.");
@@ -195,6 +343,24 @@ public class CallManager {
         }
     }
 
+    /**
+     * Sends a frame of encoded call audio on the pipeline's sender thread: over the UDP media channel once
+     * it is open, otherwise over the TCP connection, which does not carry comfort noise markers.
+     *
+     * @param unit   the buffer holding the encoded audio, starting with the codec id.
+     * @param offset the index of the codec id.
+     * @param length the length of the unit.
+     */
+    private void sendCallAudio(byte[] unit, int offset, int length) {
+        MediaChannel channel = mediaChannel;
+        String participant = currentCallParticipant;
+        if (channel != null) {
+            channel.send(unit, offset, length);
+        } else if (participant != null && unit[offset] != AudioCodec.COMFORT_NOISE_ID) {
+            chatClient.sendVoice(participant, unit, offset, length);
+        }
+    }
+
     /**
      * Sends a rejection message for a call from the specified caller.
      *
@@ -4,12 +4,24 @@ import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.sound.sampled.AudioFormat;
 
+import com.example.chismapp.util.AudioCodec;
+import com.example.chismapp.util.CommandParser;
+import com.example.chismapp.util.CommandTable;
 import com.example.chismapp.util.HistorialRecorder;
 import com.example.chismapp.util.TCPConnection;
+import com.example.chismapp.util.VoiceNoteChunk;
 import com.example.chismapp.util.eTypeRecord;
 
 /**
@@ -23,6 +35,182 @@ public class ChatClient {
     private static TCPConnection clientConnection;
     public static RecordPlayer recordPlayer; // Persistent instance for audio playback
     private static HistorialRecorder recorder;
+    private static volatile MessageCursor cursor;
+    private static String serverHost;
+
+    // Voice notes kept by the server's voice store, downloaded when played; null if the server forwards them inline
+    private static volatile VoiceBlobCache voiceCache;
+
+    // Codec used for the voice notes and calls this client sends, chosen with -Dchismapp.codec=pcm|ulaw|alaw|adpcm
+    private static final AudioCodec CODEC = AudioCodec.fromName(System.getProperty("chismapp.codec"), AudioCodec.ADPCM);
+
+    // Voice note dropped when the playback queue is full, chosen with -Dchismapp.playback.overflow=drop-newest|drop-oldest
+    private static final PlaybackOverflowPolicy PLAYBACK_OVERFLOW =
+            PlaybackOverflowPolicy.fromName(System.getProperty("chismapp.playback.overflow"), PlaybackOverflowPolicy.DROP_NEWEST);
+
+    // Voice notes are sent in chunks of this much audio while they are recorded
+    private static final int VOICE_CHUNK_MILLIS = 500;
+
+    // Voice notes still arriving, by sender and note id; only the connection's reader thread touches it
+    private static final Map<String, VoiceNoteStream> INCOMING_NOTES = new HashMap<>();
+
+    // Long voice notes the server is forwarding in parts, by sender; a sender's forwarded notes never overlap
+    private static final Map<String, PartialNote> INCOMING_PARTS = new HashMap<>();
+
+    // Messages pushed by the server, dispatched by opcode
+    private static final CommandTable SERVER_COMMANDS;
+    private static final ServerHandler[] SERVER_HANDLERS;
+
+    // Commands typed by the user, dispatched by opcode
+    private static final CommandTable INPUT_COMMANDS;
+    private static final InputHandler[] INPUT_HANDLERS;
+    private static final String[] INPUT_USAGE;
+
+    // Sequence number of the last presence snapshot or delta shown
+    private static long presenceSequence;
+
+    static {
+        CommandTable.Builder server = CommandTable.builder();
+        List<ServerHandler> serverHandlers = new ArrayList<>();
+        server.split("VOICE:", ':', 3);
+        serverHandlers.add(ChatClient::handleVoiceMessage);
+        server.rest("CALL_INITIATED:");
+        serverHandlers.add(args -> callManager.handleIncomingCall(args.name(0)));
+        server.rest("CALL_REQUEST:");
+        serverHandlers.add(args -> callManager.handleIncomingCall(args.name(0)));
+        server.rest("CALL_ACCEPTED:");
+        serverHandlers.add(args -> callManager.handleCallAccepted(args.name(0)));
+        server.rest("CALL_ENDED:");
+        serverHandlers.add(args -> callManager.handleCallEnded(args.name(0)));  // Handle the end of a call
+        server.rest("CONF_JOINED:");
+        serverHandlers.add(args -> callManager.handleConferenceJoined(args.name(0)));
+        server.rest("CONF_LEFT:");
+        serverHandlers.add(args -> callManager.handleConferenceLeft(args.name(0)));
+        server.split("MEDIA:", ':', 4);
+        serverHandlers.add(args -> callManager.handleMedia(args.argument(2), Integer.parseInt(args.argument(0)), args.argument(1)));
+        server.split("PRESENCE:", ':', 2);
+        serverHandlers.add(ChatClient::handlePresenceSnapshot);
+        server.split("PRESENCE_DELTA:", ':', 2);
+        serverHandlers.add(ChatClient::handlePresenceDelta);
+        server.split("MSG:", ':', 3);
+        serverHandlers.add(ChatClient::handleLoggedMessage);
+        server.rest("REPLAY_END:");
+        serverHandlers.add(args -> cursor.replayEnded(Long.parseLong(args.argument(0))));
+        server.split("SEARCH:", ':', 3);
+        serverHandlers.add(args -> System.out.println("[search] " + args.argument(1)));  // A result of /search
+        server.rest("VOICE_STORE:");
+        serverHandlers.add(args -> voiceCache = VoiceBlobCache.fromProperties(serverHost, Integer.parseInt(args.argument(0))));
+        server.split("VOICE_REF:", ':', 4);
+        serverHandlers.add(ChatClient::handleVoiceReference);
+        SERVER_COMMANDS = server.build();
+        SERVER_HANDLERS = serverHandlers.toArray(new ServerHandler[0]);
+
+        CommandTable.Builder input = CommandTable.builder();
+        List<InputHandler> inputHandlers = new ArrayList<>();
+        List<String> usage = new ArrayList<>();
+        input.split("/group", ' ', 2);
+        usage.add("<groupName>");
+        inputHandlers.add((clientName, line, args) -> {
+            clientConnection.sendMessage(line);  // Send a command to create or join a group
+            cursor.joined(args.argument(0));
+            recorder.addMessage(clientName + " joined or created a group " + args.argument(0), eTypeRecord.GROUP);
+        });
+        input.split("/leave", ' ', 2);
+        usage.add("<groupName>");
+        inputHandlers.add((clientName, line, args) -> {
+            clientConnection.sendMessage(line);  // Send a command to leave a group
+            cursor.left(args.argument(0));
+            recorder.addMessage(clientName + " left the group " + args.argument(0), eTypeRecord.GROUP);
+        });
+        input.split("/who", ' ', 2);
+        usage.add("");
+        inputHandlers.add((clientName, line, args) -> clientConnection.sendMessage("/who"));  // Ask who is online
+        input.split("/message", ' ', 2);
+        usage.add("<groupName> <message>");
+        inputHandlers.add((clientName, line, args) -> {
+            clientConnection.sendAsync(line).exceptionally(ChatClient::reportUnsentMessage);  // Send a group message
+            recorder.addMessage(clientName + " sent message to the group " + args.argument(0), eTypeRecord.TEXT);
+        });
+        input.split("/dm", ' ', 2);
+        usage.add("<username> <message>");
+        inputHandlers.add((clientName, line, args) -> {
+            clientConnection.sendAsync(line).exceptionally(ChatClient::reportUnsentMessage);  // Send a direct message
+            recorder.addMessage(clientName + " sent message to the user " + args.argument(0), eTypeRecord.TEXT);
+        });
+        input.split("/voice", ' ', 2);
+        usage.add("<username|group_name>");
+        inputHandlers.add((clientName, line, args) -> {
+            handleVoiceCommand(args.argument(0), clientConnection);
+            recorder.addMessage(clientName + " voice messaged " + args.argument(0), eTypeRecord.AUDIO);
+        });
+        input.split("/call", ' ', 2);
+        usage.add("<username>");
+        inputHandlers.add((clientName, line, args) -> {
+            handleCallCommand(args.argument(0));
+            recorder.addMessage(clientName + " called " + args.argument(0), eTypeRecord.CALL);
+        });
+        input.split("/endcall", ' ', 2);
+        usage.add("<username>");
+        inputHandlers.add((clientName, line, args) -> {
+            handleEndCallCommand(args.argument(0));
+            recorder.addMessage("Ended call " + args.argument(0), eTypeRecord.CALL);
+        });
+        input.split("/conference", ' ', 2);
+        usage.add("<groupName>");
+        inputHandlers.add((clientName, line, args) -> {
+            callManager.joinConference(args.argument(0));
+            recorder.addMessage(clientName + " joined the conference of " + args.argument(0), eTypeRecord.CALL);
+        });
+        input.split("/leaveconference", ' ', 2);
+        usage.add("<groupName>");
+        inputHandlers.add((clientName, line, args) -> {
+            callManager.leaveConference(args.argument(0));
+            recorder.addMessage(clientName + " left the conference of " + args.argument(0), eTypeRecord.CALL);
+        });
+        input.split("/historical", ' ', 2);
+        usage.add("");
+        inputHandlers.add((clientName, line, args) -> {
+            recorder.generate();
+            System.out.println("Generating the record of messages");
+        });
+        input.split("/search", ' ', 2);
+        usage.add("<terms> [from:user] [group:name]");
+        inputHandlers.add((clientName, line, args) -> clientConnection.sendMessage(line));  // Search the server's history
+        input.split("/play", ' ', 2);
+        usage.add("<id>");
+        inputHandlers.add((clientName, line, args) -> playStoredNote(args.argument(0)));
+        input.split("/acceptcall", ' ', 2);
+        usage.add("<caller>");
+        inputHandlers.add((clientName, line, args) -> {
+            handleAcceptCallCommand(args.argument(0));
+            recorder.addMessage("Accepted call from " + args.argument(0), eTypeRecord.CALL);
+        });
+        input.split("/rejectcall", ' ', 2);
+        usage.add("<caller>");
+        inputHandlers.add((clientName, line, args) -> {
+            handleRejectCallCommand(args.argument(0));
+            recorder.addMessage("Rejected call from " + args.argument(0), eTypeRecord.CALL);
+        });
+        INPUT_COMMANDS = input.build();
+        INPUT_HANDLERS = inputHandlers.toArray(new InputHandler[0]);
+        INPUT_USAGE = usage.toArray(new String[0]);
+    }
+
+    /**
+     * Handles a message pushed by the server, given as views into the received bytes.
+     */
+    @FunctionalInterface
+    private interface ServerHandler {
+        void handle(CommandParser args);
+    }
+
+    /**
+     * Handles a command typed by the user.
+     */
+    @FunctionalInterface
+    private interface InputHandler {
+        void handle(String clientName, String line, CommandParser args);
+    }
 
     /**
      * The main method that starts the chat client, discovers the server, and initializes the connection.
@@ -41,6 +229,7 @@ public class ChatClient {
 
         String serverIp = discovery.getServerIp();
         int serverPort = discovery.getServerPort();
+        serverHost = serverIp;
 
         if (serverIp == null) {
             System.err.println("Could not find the server. Please make sure the server is running and discoverable.");
@@ -56,25 +245,13 @@ public class ChatClient {
         callManager = new CallManager(chatClient);
 
         // Initialize RecordPlayer for voice playback
-        recordPlayer = new RecordPlayer(getAudioFormat());
+        recordPlayer = new RecordPlayer(getAudioFormat(), PLAYBACK_OVERFLOW);
 
         // Set up a listener to handle messages from the server
-        clientConnection.setListener(message -> {
-            if (message.startsWith("VOICE:")) {
-                handleVoiceMessage(message);
-            } else if (message.startsWith("CALL_INITIATED:")) {
-                String caller = message.substring("CALL_INITIATED:".length()).trim();
-                callManager.handleIncomingCall(caller);
-            } else if (message.startsWith("CALL_ACCEPTED:")) {
-                String recipient = message.substring("CALL_ACCEPTED:".length()).trim();
-                callManager.handleCallAccepted(recipient);
-            } else if (message.startsWith("CALL_ENDED:")) {
-                String participant = message.substring("CALL_ENDED:".length()).trim();
-                callManager.handleCallEnded(participant);  // Handle the end of a call
-            } else {
-                System.out.println(message);
-            }
-        });
+        clientConnection.setListener(new ServerMessageListener());
+
+        // Binary VOICE frames carry the encoded audio without Base64
+        clientConnection.setVoiceListener(ChatClient::playVoice);
 
         clientConnection.start();
 
@@ -82,7 +259,17 @@ public class ChatClient {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
             System.out.println("Enter your username:");
             String clientName = reader.readLine();
-            clientConnection.sendMessage("USERNAME:" + clientName);  // Send the username to the server
+            // The cursor is loaded before the handshake, since the reader thread may get a logged message
+            // as soon as the server welcomes this user
+            cursor = MessageCursor.load(Path.of(System.getProperty("user.dir"), "target", "History"), clientName);
+
+            // Send the username to the server, asking for the binary protocol unless -Dchismapp.protocol=text
+            boolean requestBinary = !"text".equalsIgnoreCase(System.getProperty("chismapp.protocol"));
+            clientConnection.sendHandshake(clientName, requestBinary);
+
+            // Rejoin the groups of the last session and get the messages logged while this user was away
+            cursor.resume(clientConnection);
+            Runtime.getRuntime().addShutdownHook(new Thread(cursor::save, "message-cursor"));
 
             recorder = new HistorialRecorder();
             recorder.addMessage(clientName, eTypeRecord.STARTED_CONNECTION);
@@ -90,49 +277,31 @@ public class ChatClient {
             // Display available commands
             System.out.println("Available commands:");
             System.out.println("/group group_name - To create/join a group");
+            System.out.println("/leave group_name - To leave a group");
+            System.out.println("/who - To list the users online");
             System.out.println("/message group_name <message> - To send a message to a group");
             System.out.println("/dm username <message> - To send a direct message to a user");
             System.out.println("/voice <username|group_name> - To send a voice message");
             System.out.println("/call <username> - To initiate a call to a user");
             System.out.println("/endcall <username> - To end a call with a user");
+            System.out.println("/conference group_name - To join the conference call of a group");
+            System.out.println("/leaveconference group_name - To leave the conference call of a group");
             System.out.println("/historical - To generate the record of the messages");
+            System.out.println("/search <terms> [from:user] [group:name] - To search the messages kept by the server");
+            System.out.println("/play <id> - To play a voice note kept by the server");
             System.out.println("/acceptcall <caller> - To accept an incoming call");
 
+            // Commands are recognized from their first bytes and dispatched by opcode
+            CommandParser parser = new CommandParser(INPUT_COMMANDS);
             String line;
             while ((line = reader.readLine()) != null) {
-                if (line.startsWith("/group")) {
-                    clientConnection.sendMessage(line);  // Send a command to create or join a group
-                    recorder.addMessage(clientName + " joined or created a group " + line.substring(7), eTypeRecord.GROUP);
-                } else if (line.startsWith("/message")) {
-                    clientConnection.sendMessage(line);  // Send a group message
-                    recorder.addMessage(clientName + " sent message to the group " + line.substring(9), eTypeRecord.TEXT);
-                } else if (line.startsWith("/dm")) {
-                    clientConnection.sendMessage(line);  // Send a direct message
-                    recorder.addMessage(clientName + " sent message to the user " + line.substring(4), eTypeRecord.TEXT);
-                } else if (line.startsWith("/voice")) {
-                    handleVoiceCommand(line, clientConnection);
-                    recorder.addMessage(clientName + " voice messaged " + line.substring(7), eTypeRecord.AUDIO);
-                } else if (line.startsWith("/call")) {
-                    handleCallCommand(line);
-                    recorder.addMessage(clientName + " called " + line.substring(6), eTypeRecord.CALL);
-                } else if (line.startsWith("/endcall")) {
-                    handleEndCallCommand(line);
-                    try {
-                        recorder.addMessage("Ended call " + line.substring(9), eTypeRecord.CALL);
-                    } catch (StringIndexOutOfBoundsException e) {
-                        System.out.println("Invalid command. Use /endcall <username>.");
-                    }
-                } else if (line.startsWith("/historical")) {
-                    recorder.generate();
-                    System.out.println("Generating the record of messages");
-                } else if (line.startsWith("/acceptcall")) {
-                    handleAcceptCallCommand(line);
-                    recorder.addMessage("Accepted call from " + line.substring(12), eTypeRecord.CALL);
-                } else if (line.startsWith("/rejectcall")) {
-                    handleRejectCallCommand(line);
-                    recorder.addMessage("Rejected call from " + line.substring(12), eTypeRecord.CALL);
+                CommandTable.Command command = parser.parse(line);
+                if (command == null) {
+                    System.out.println("Invalid command. Use /group, /leave, /who, /message, /dm, /voice, /call, /endcall, /conference, /historical, /search or /play.");
+                } else if (!INPUT_USAGE[command.opcode()].isEmpty() && !parser.hasArgument(0)) {
+                    System.out.println("Usage: " + command.name() + " " + INPUT_USAGE[command.opcode()]);
                 } else {
-                    System.out.println("Invalid command. Use /group, /message, /dm, /voice, /call, /endcall or /historical.");
+                    INPUT_HANDLERS[command.opcode()].handle(clientName, line, parser);
                 }
             }
         } catch (IOException e) {
@@ -144,15 +313,9 @@ public class ChatClient {
      * Handles the /call command from the client input.
      * Initiates a call to a specified user.
      *
-     * @param command the command entered by the user (in the format /call <username>).
+     * @param recipient the user to call, from the command /call <username>.
      */
-    private static void handleCallCommand(String command) {
-        String[] parts = command.split(" ", 2);
-        if (parts.length < 2) {
-            System.out.println("Usage: /call <username>");
-            return;
-        }
-        String recipient = parts[1].trim();
+    private static void handleCallCommand(String recipient) {
         callManager.initiateCall(recipient);
     }
 
@@ -160,36 +323,29 @@ public class ChatClient {
      * Handles the /endcall command from the client input.
      * Ends a call with a specified participant.
      *
-     * @param command the command entered by the user (in the format /endcall <username>).
+     * @param participant the user to end the call with, from the command /endcall <username>.
      */
-    private static void handleEndCallCommand(String command) {
-        String[] parts = command.split(" ", 2);
-        if (parts.length < 2) {
-            System.out.println("Usage: /endcall <username>");
-            return;
-        }
-        String participant = parts[1].trim();
+    private static void handleEndCallCommand(String participant) {
         callManager.endCall(participant);
     }
 
     /**
-     * Handles the /voice command for sending a voice message.
+     * Handles the /voice command for sending a voice message, which is streamed to the recipient in chunks while it is recorded.
      *
-     * @param command          the command entered by the user (in the format /voice <username|group_name>).
+     * @param recipient        the user or group receiving the message, from the command /voice <username|group_name>.
      * @param clientConnection the connection used to send the voice message.
      */
-    private static void handleVoiceCommand(String command, TCPConnection clientConnection) {
-        String[] parts = command.split(" ", 2);
-        if (parts.length < 2) {
-            System.out.println("Usage: /voice <username|group_name>");
-            return;
-        }
-        String recipient = parts[1];
-
+    private static void handleVoiceCommand(String recipient, TCPConnection clientConnection) {
         // Set up audio format for recording
         AudioFormat format = getAudioFormat();
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        RecordAudio recorder = new RecordAudio(format, out);
+        int chunkLength = (int) (format.getFrameRate() * format.getFrameSize() * VOICE_CHUNK_MILLIS / 1000);
+        // Each chunk is compressed with the chosen codec and sent while recording goes on; the connection frames it for the negotiated protocol
+        int noteId = ThreadLocalRandom.current().nextInt();
+        int[] nextIndex = {0};
+        RecordAudio recorder = new RecordAudio(format, chunkLength, (pcm, offset, length, last) -> {
+            byte[] chunk = VoiceNoteChunk.encode(noteId, nextIndex[0]++, last, CODEC, pcm, offset, length);
+            clientConnection.sendVoice(recipient, chunk, 0, chunk.length);
+        });
         Thread recordThread = new Thread(recorder);
         recordThread.start();
 
@@ -208,35 +364,228 @@ public class ChatClient {
             e.printStackTrace();
         }
 
-        // Retrieve and encode the audio data
-        byte[] audioData = out.toByteArray();
-        String encodedAudio = Base64.getEncoder().encodeToString(audioData);
-
-        // Send the voice message
-        String voiceMessage = "VOICE:" + recipient + ":" + encodedAudio;
-        clientConnection.sendMessage(voiceMessage);
         System.out.println("Voice message sent to " + recipient);
     }
 
+    /**
+     * Tells the user that a chat message could not be written to the server connection.
+     *
+     * @param failure the error the connection failed with.
+     * @return {@code null}, so it can complete the future of the send.
+     */
+    private static Void reportUnsentMessage(Throwable failure) {
+        System.out.println("SYSTEM: Message not sent: " + failure.getMessage());
+        return null;
+    }
+
+    /**
+     * Shows the list of online users sent by the server in answer to /who.
+     *
+     * @param args the parts of the message received from the server (in the format
+     *             PRESENCE:<sequence>:<user>,<user>), as views into the received bytes.
+     */
+    private static void handlePresenceSnapshot(CommandParser args) {
+        presenceSequence = Math.max(presenceSequence, Long.parseLong(args.argument(0)));
+        String users = args.hasArgument(1) ? args.argument(1).replace(",", ", ") : "nobody";
+        System.out.println("SYSTEM: Online users: " + users);
+    }
+
+    /**
+     * Shows a group or direct message the server logged, unless it was already shown: a message sent while the
+     * replay of a previous session runs may arrive both live and replayed.
+     *
+     * @param args the parts of the message received from the server (in the format MSG:<offset>:<line>), as views
+     *             into the received bytes.
+     */
+    private static void handleLoggedMessage(CommandParser args) {
+        if (cursor.received(Long.parseLong(args.argument(0)))) {
+            System.out.println(args.argument(1));
+        }
+    }
+
+    /**
+     * Shows the users who joined or left since the last presence update. Deltas already covered by
+     * a snapshot are ignored.
+     *
+     * @param args the parts of the message received from the server (in the format
+     *             PRESENCE_DELTA:<sequence>:+<user>,-<user>), as views into the received bytes.
+     */
+    private static void handlePresenceDelta(CommandParser args) {
+        long sequence = Long.parseLong(args.argument(0));
+        if (sequence <= presenceSequence || !args.hasArgument(1)) {
+            return;
+        }
+        presenceSequence = sequence;
+        StringBuilder joined = new StringBuilder();
+        StringBuilder left = new StringBuilder();
+        for (String change : args.argument(1).split(",")) {
+            StringBuilder target = change.charAt(0) == '+' ? joined : left;
+            target.append(target.length() == 0 ? "" : ", ").append(change, 1, change.length());
+        }
+        if (joined.length() > 0) {
+            System.out.println("SYSTEM: Joined the chat: " + joined);
+        }
+        if (left.length() > 0) {
+            System.out.println("SYSTEM: Left the chat: " + left);
+        }
+    }
+
     /**
      * Handles the reception of a voice message.
      *
-     * @param message the message received from the server (in the format VOICE:<sender>:<data_audio_base64>).
+     * @param args the parts of the message received from the server (in the format
+     *             VOICE:<sender>:<data_audio_base64>), as views into the received bytes.
      */
-    private static void handleVoiceMessage(String message) {
-        String[] parts = message.split(":", 3);
-        if (parts.length < 3) {
+    private static void handleVoiceMessage(CommandParser args) {
+        if (args.argumentCount() < 2) {
             System.out.println("Received malformed voice message.");
             return;
         }
-        String sender = parts[1];
-        String encodedAudio = parts[2];
+        String sender = args.name(0);
+        ByteBuffer encodedAudio = ByteBuffer.wrap(args.buffer(), args.argumentOffset(1), args.argumentLength(1));
 
-        byte[] audioData = Base64.getDecoder().decode(encodedAudio);
+        ByteBuffer audio = Base64.getDecoder().decode(encodedAudio);
+        playVoice(sender, audio.array(), audio.position(), audio.remaining());
+    }
 
-        // Play the audio using the persistent instance of RecordPlayer
-        recordPlayer.initiateAudio(audioData);
-        recorder.addMessage("Received audio made by: " + message.split(":")[1], eTypeRecord.RECEIVED);
+    /**
+     * Decodes received audio, queues it for playback and records its reception in the chat history.
+     * It runs on the connection's reader thread, so it never waits for the audio to play.
+     *
+     * @param sender the user who sent the audio.
+     * @param unit   the buffer holding the audio, starting with the id of its codec, or a chunk of a voice note.
+     * @param offset the index of the codec id.
+     * @param length the length of the audio, codec id included.
+     */
+    private static void playVoice(String sender, byte[] unit, int offset, int length) {
+        if (VoiceNoteChunk.isChunk(unit, offset, length)) {
+            if (VoiceNoteChunk.isPart(unit, offset)) {
+                joinVoicePart(sender, unit, offset, length);
+            } else {
+                playVoiceChunk(sender, unit, offset, length);
+            }
+            return;
+        }
+        byte[] audioData;
+        try {
+            audioData = AudioCodec.decodeUnit(unit, offset, length);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Received audio in an unknown format from " + sender + ".");
+            return;
+        }
+        // Queue the audio on the persistent RecordPlayer, whose own thread plays it
+        if (!recordPlayer.initiateAudio(audioData)) {
+            System.out.println("SYSTEM: Too many voice notes waiting to play, the one from " + sender + " was dropped.");
+        }
+        recorder.addMessage("Received audio made by: " + sender, eTypeRecord.RECEIVED);
+    }
+
+    /**
+     * Announces a voice note kept by the server's voice store, which is downloaded only if the user plays it.
+     *
+     * @param args the parts of the message received from the server (in the format
+     *             VOICE_REF:<id>:<sender>:<millis>).
+     */
+    private static void handleVoiceReference(CommandParser args) {
+        if (args.argumentCount() < 3) {
+            System.out.println("Received malformed voice message.");
+            return;
+        }
+        String id = args.argument(0);
+        String sender = args.name(1);
+        long seconds = Math.max(1, Math.round(Long.parseLong(args.argument(2)) / 1000.0));
+        System.out.println("Voice note from " + sender + " (" + seconds + " s), use /play " + id + " to listen to it");
+        recorder.addMessage("Received audio made by: " + sender, eTypeRecord.RECEIVED);
+    }
+
+    /**
+     * Handles the /play command: downloads a stored voice note, or takes it from the cache, and queues it for
+     * playback.
+     *
+     * @param id the id of the note, from its VOICE_REF line.
+     */
+    private static void playStoredNote(String id) {
+        VoiceBlobCache cache = voiceCache;
+        if (cache == null) {
+            System.out.println("This server does not keep voice notes, they play as they arrive.");
+            return;
+        }
+        byte[] audioData;
+        try {
+            audioData = VoiceBlobCache.decode(cache.fetch(id));
+        } catch (IOException e) {
+            System.out.println("Could not download the voice note " + id + ": " + e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            System.out.println("The voice note " + id + " is in an unknown format.");
+            return;
+        }
+        if (!recordPlayer.initiateAudio(audioData)) {
+            System.out.println("SYSTEM: Too many voice notes waiting to play, " + id + " was dropped.");
+        }
+    }
+
+    /**
+     * Decodes a chunk of a voice note and appends it to the note, which starts playing with its first chunk.
+     *
+     * @param sender the user who sent the note.
+     * @param chunk  the buffer holding the chunk.
+     * @param offset the index of the first byte of the chunk.
+     * @param length the length of the chunk.
+     */
+    private static void playVoiceChunk(String sender, byte[] chunk, int offset, int length) {
+        String key = sender + ":" + VoiceNoteChunk.noteId(chunk, offset);
+        VoiceNoteStream note = INCOMING_NOTES.get(key);
+        if (note == null) {
+            INCOMING_NOTES.values().removeIf(VoiceNoteStream::isAbandoned);  // Forget notes whose last chunk was lost
+            note = recordPlayer.openVoiceNote();
+            INCOMING_NOTES.put(key, note);
+            if (note.isAbandoned()) {
+                System.out.println("SYSTEM: Too many voice notes waiting to play, the one from " + sender + " was dropped.");
+            }
+            recorder.addMessage("Received audio made by: " + sender, eTypeRecord.RECEIVED);
+        }
+        int audioStart = offset + VoiceNoteChunk.HEADER_LENGTH;
+        if (length > VoiceNoteChunk.HEADER_LENGTH) {
+            try {
+                note.append(AudioCodec.decodeUnit(chunk, audioStart, offset + length - audioStart));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Received audio in an unknown format from " + sender + ".");
+            }
+        }
+        if (VoiceNoteChunk.isLast(chunk, offset)) {
+            note.finish();
+            INCOMING_NOTES.remove(key);
+        }
+    }
+
+    /**
+     * Adds a part of a long voice note that the server forwards in pieces, and plays the note once its last part
+     * arrives. A note with a missing part is dropped.
+     *
+     * @param sender the user who sent the note.
+     * @param chunk  the buffer holding the part.
+     * @param offset the index of the first byte of the part.
+     * @param length the length of the part.
+     */
+    private static void joinVoicePart(String sender, byte[] chunk, int offset, int length) {
+        int noteId = VoiceNoteChunk.noteId(chunk, offset);
+        int index = VoiceNoteChunk.index(chunk, offset);
+        PartialNote note = index == 0 ? new PartialNote(noteId) : INCOMING_PARTS.remove(sender);
+        if (note == null || note.noteId != noteId || note.nextIndex != index) {
+            if (note != null) {
+                System.out.println("SYSTEM: Part of a voice note from " + sender + " was lost, the note was dropped.");
+            }
+            return;
+        }
+        note.audio.write(chunk, offset + VoiceNoteChunk.HEADER_LENGTH, length - VoiceNoteChunk.HEADER_LENGTH);
+        note.nextIndex++;
+        if (VoiceNoteChunk.isLast(chunk, offset)) {
+            byte[] unit = note.audio.toByteArray();
+            playVoice(sender, unit, 0, unit.length);
+        } else {
+            INCOMING_PARTS.put(sender, note);
+        }
     }
 
     /**
@@ -257,15 +606,9 @@ public class ChatClient {
      * Handles the /acceptcall command from the client input.
      * Accepts an incoming call from a specified user.
      *
-     * @param command the command entered by the user (in the format /acceptcall <caller>).
+     * @param caller the user whose call is accepted, from the command /acceptcall <caller>.
      */
-    private static void handleAcceptCallCommand(String command) {
-        String[] parts = command.split(" ", 2);
-        if (parts.length < 2) {
-            System.out.println("Usage: /acceptcall <caller>");
-            return;
-        }
-        String caller = parts[1].trim();
+    private static void handleAcceptCallCommand(String caller) {
         callManager.acceptCall(caller);
     }
 
@@ -273,15 +616,9 @@ public class ChatClient {
      * Handles the /rejectcall command from the client input.
      * Rejects an incoming call from a specified user.
      *
-     * @param command the command entered by the user (in the format /rejectcall <caller>).
+     * @param caller the user whose call is rejected, from the command /rejectcall <caller>.
      */
-    private static void handleRejectCallCommand(String command) {
-        String[] parts = command.split(" ", 2);
-        if (parts.length < 2) {
-            System.out.println("Usage: /rejectcall <caller>");
-            return;
-        }
-        String caller = parts[1].trim();
+    private static void handleRejectCallCommand(String caller) {
         callManager.rejectCall(caller);
     }
 
@@ -304,6 +641,27 @@ public class ChatClient {
         clientConnection.sendMessage(message);
     }
 
+    /**
+     * Sends audio to a user or group via the client connection.
+     *
+     * @param recipient the user or group receiving the audio.
+     * @param audio     the buffer holding the audio bytes.
+     * @param offset    the index of the first audio byte.
+     * @param length    the number of audio bytes.
+     */
+    public void sendVoice(String recipient, byte[] audio, int offset, int length) {
+        clientConnection.sendVoice(recipient, audio, offset, length);
+    }
+
+    /**
+     * Returns the codec this client compresses its voice notes and call audio with.
+     *
+     * @return the {@code AudioCodec} chosen with the {@code chismapp.codec} property, IMA ADPCM by default.
+     */
+    public AudioCodec getCodec() {
+        return CODEC;
+    }
+
     /**
      * Returns the {@code HistorialRecorder} instance used to log chat and call messages.
      *
@@ -312,4 +670,40 @@ public class ChatClient {
     public HistorialRecorder getRecorder() {
         return recorder;
     }
-}
\ No newline at end of file
+
+    /**
+     * A long voice note whose parts are still arriving.
+     */
+    private static class PartialNote {
+        private final int noteId;
+        private final ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        private int nextIndex;
+
+        PartialNote(int noteId) {
+            this.noteId = noteId;
+        }
+    }
+
+    /**
+     * Listens for messages from the server. Each message is parsed from the received bytes and
+     * dispatched through the server handler table; anything else is decoded and printed.
+     */
+    private static class ServerMessageListener implements TCPConnection.OnMessageReceivedListener {
+        private final CommandParser parser = new CommandParser(SERVER_COMMANDS);
+
+        @Override
+        public void onMessageReceived(byte[] message, int offset, int length) {
+            CommandTable.Command command = parser.parse(message, offset, length);
+            if (command != null) {
+                SERVER_HANDLERS[command.opcode()].handle(parser);
+            } else {
+                System.out.println(new String(message, offset, length, StandardCharsets.UTF_8));
+            }
+        }
+
+        @Override
+        public void onMessageReceived(String message) {
+            System.out.println(message);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.chismapp.client;
+
+/**
+ * The {@code JitterBuffer} class holds the call audio received over UDP until it is time to play it.
+ * Frames are put back in sequence order, and playout starts only once enough of them are buffered to
+ * absorb the network jitter. The number of frames held back adapts to the inter-arrival jitter observed
+ * so far, estimated as in RTP (RFC 3550): a calm network plays with little delay, a bursty one buffers more.
+ * Frames that arrive after their turn are dropped as late, missing frames are replaced with silence, and
+ * when bursts pile up more audio than needed the oldest frames are skipped to bring the latency back down.
+ * A comfort noise marker, sent by the other side when it stops sending silence, ends a talkspurt: once it is
+ * played the buffer reports the silence and its noise level, and buffers up again for the next talkspurt.
+ *
+ * <p>The class is thread safe: the receiving thread calls {@link #offer} and the playout thread calls
+ * {@link #poll}.</p>
+ */
+public class JitterBuffer {
+
+    private static final int CAPACITY = 64;  // Power of two, indexed by sequence number
+    private static final int MIN_DEPTH = 2;
+    private static final int MAX_DEPTH = 25;
+    private static final int JITTER_MULTIPLIER = 4;  // Delay covers four times the mean jitter
+    private static final byte[] COMFORT_NOISE = new byte[0];  // Slot content of a comfort noise marker
+
+    private final double bytesPerNano;
+    private final byte[][] frames = new byte[CAPACITY][];
+    private final int[] sequences = new int[CAPACITY];
+    private final int[] levels = new int[CAPACITY];
+    private byte[] silence = new byte[0];
+
+    private boolean started;  // Whether the first frame of the stream arrived
+    private boolean playing;  // Whether playout started, as opposed to buffering up to the target depth
+    private int nextSequence;  // Sequence number of the next frame to play
+    private int depth;  // Frames buffered from nextSequence on
+    private int targetDepth = MIN_DEPTH;
+
+    private long lastArrival;
+    private int lastSequence;
+    private boolean lastWasAudio;
+    private double jitterNanos;
+
+    private boolean silent;  // Whether the last frame played was a comfort noise marker
+    private int comfortNoiseLevel;
+
+    private long lateFrames;
+    private long lostFrames;
+    private long skippedFrames;
+
+    /**
+     * Constructs an empty jitter buffer for audio played at the given rate.
+     *
+     * @param bytesPerSecond the number of audio bytes played per second, used to turn frame lengths into durations.
+     */
+    public JitterBuffer(float bytesPerSecond) {
+        this.bytesPerNano = bytesPerSecond / 1e9;
+    }
+
+    /**
+     * Adds a received frame to the buffer and updates the jitter estimate.
+     *
+     * @param sequence    the sequence number of the frame.
+     * @param audio       the audio of the frame; the buffer keeps the reference.
+     * @param arrivalNanos the arrival time of the frame, from {@link System#nanoTime()}.
+     */
+    public synchronized void offer(int sequence, byte[] audio, long arrivalNanos) {
+        insert(sequence, audio, 0, arrivalNanos);
+    }
+
+    /**
+     * Adds a comfort noise marker, which tells that the sender stopped sending silent frames.
+     *
+     * @param sequence     the sequence number of the marker.
+     * @param level        the background noise level of the sender, in -dBov as in RFC 3389.
+     * @param arrivalNanos the arrival time of the marker, from {@link System#nanoTime()}.
+     */
+    public synchronized void offerComfortNoise(int sequence, int level, long arrivalNanos) {
+        insert(sequence, COMFORT_NOISE, level, arrivalNanos);
+    }
+
+    private void insert(int sequence, byte[] audio, int level, long arrivalNanos) {
+        boolean isAudio = audio != COMFORT_NOISE;
+        if (!started) {
+            started = true;
+            nextSequence = sequence;
+        } else if (isAudio && lastWasAudio) {
+            // The gap after a silence is not jitter
+            updateJitter(sequence, audio.length, arrivalNanos);
+        }
+        lastArrival = arrivalNanos;
+        lastSequence = sequence;
+        lastWasAudio = isAudio;
+
+        int ahead = sequence - nextSequence;
+        if (ahead < 0) {
+            lateFrames++;  // Its turn already passed
+            return;
+        }
+        if (ahead >= CAPACITY) {
+            // Too far ahead: the sender jumped or a long run was lost, so resynchronize
+            clear();
+            started = true;
+            nextSequence = sequence;
+            ahead = 0;
+        }
+        int slot = sequence & (CAPACITY - 1);
+        if (frames[slot] != null && sequences[slot] == sequence) {
+            return;  // Duplicate
+        }
+        frames[slot] = audio;
+        sequences[slot] = sequence;
+        levels[slot] = level;
+        depth = Math.max(depth, ahead + 1);
+    }
+
+    private void updateJitter(int sequence, int length, long arrivalNanos) {
+        double frameNanos = length / bytesPerNano;
+        double expected = (sequence - lastSequence) * frameNanos;
+        double deviation = Math.abs((arrivalNanos - lastArrival) - expected);
+        jitterNanos += (deviation - jitterNanos) / 16;
+        int frames = (int) Math.ceil(JITTER_MULTIPLIER * jitterNanos / frameNanos) + 1;
+        targetDepth = Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, frames));
+    }
+
+    /**
+     * Takes the next frame to play. While the buffer fills up to its target depth nothing is played; a
+     * frame that never arrived is replaced by silence of the same length as the last frame.
+     *
+     * @return the audio to play now, or {@code null} if there is nothing to play yet.
+     */
+    public synchronized byte[] poll() {
+        if (!playing) {
+            if (depth < targetDepth) {
+                return null;
+            }
+            playing = true;
+        }
+        if (depth == 0) {
+            playing = false;  // Underrun: buffer again before resuming
+            return null;
+        }
+        // Too much latency built up: skip the oldest frames
+        while (depth > 2 * targetDepth) {
+            byte[] skipped = take();
+            if (skipped != null && skipped != COMFORT_NOISE) {
+                skippedFrames++;
+            }
+        }
+        byte[] frame = take();
+        if (frame == COMFORT_NOISE) {
+            playing = false;  // End of a talkspurt: buffer the next one up to the target depth
+            return null;
+        }
+        if (frame == null) {
+            lostFrames++;
+            return silence;
+        }
+        if (silence.length != frame.length) {
+            silence = new byte[frame.length];
+        }
+        return frame;
+    }
+
+    private byte[] take() {
+        int slot = nextSequence & (CAPACITY - 1);
+        byte[] frame = sequences[slot] == nextSequence ? frames[slot] : null;
+        frames[slot] = null;
+        nextSequence++;
+        depth--;
+        if (frame == COMFORT_NOISE) {
+            silent = true;
+            comfortNoiseLevel = levels[slot];
+        } else if (frame != null) {
+            silent = false;
+        }
+        return frame;
+    }
+
+    /**
+     * Empties the buffer, forgets the stream and clears the statistics, ready for the audio of a new call.
+     */
+    public synchronized void reset() {
+        clear();
+        lateFrames = 0;
+        lostFrames = 0;
+        skippedFrames = 0;
+    }
+
+    private void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            frames[i] = null;
+        }
+        started = false;
+        playing = false;
+        silent = false;
+        lastWasAudio = false;
+        depth = 0;
+        targetDepth = MIN_DEPTH;
+        jitterNanos = 0;
+    }
+
+    /**
+     * Tells whether the sender is silent, because the last frame played was a comfort noise marker.
+     *
+     * @return {@code true} while comfort noise should be played.
+     */
+    public synchronized boolean isSilent() {
+        return silent;
+    }
+
+    /**
+     * Returns the background noise level of the last comfort noise marker played.
+     *
+     * @return the noise level, in -dBov.
+     */
+    public synchronized int getComfortNoiseLevel() {
+        return comfortNoiseLevel;
+    }
+
+    /**
+     * Returns the number of frames buffered, including the gaps of frames not received yet.
+     *
+     * @return the current depth in frames.
+     */
+    public synchronized int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of frames the buffer currently aims to hold before playing.
+     *
+     * @return the target depth in frames.
+     */
+    public synchronized int getTargetDepth() {
+        return targetDepth;
+    }
+
+    /**
+     * Returns the estimated inter-arrival jitter.
+     *
+     * @return the jitter in milliseconds.
+     */
+    public synchronized double getJitterMillis() {
+        return jitterNanos / 1e6;
+    }
+
+    /**
+     * Returns the number of frames dropped because they arrived after their turn to play.
+     *
+     * @return the late frame count.
+     */
+    public synchronized long getLateFrames() {
+        return lateFrames;
+    }
+
+    /**
+     * Returns the number of frames that had not arrived when their turn came and were replaced by silence.
+     *
+     * @return the lost frame count.
+     */
+    public synchronized long getLostFrames() {
+        return lostFrames;
+    }
+
+    /**
+     * Returns the number of frames skipped to reduce the latency after a burst.
+     *
+     * @return the skipped frame count.
+     */
+    public synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.chismapp.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The {@code LoadGenerator} class opens many simulated chat clients against a running server from a
+ * single selector thread. It is used to compare the server engines: it measures how long it takes for
+ * every client to be welcomed and the round-trip latency of one direct message per client.
+ * <p>
+ * Usage: {@code LoadGenerator <host> <port> <clients> [timeoutSeconds]}
+ * </p>
+ */
+public class LoadGenerator {
+
+    private final Selector selector;
+    private final SimulatedClient[] clients;
+    private final long[] latencies;
+    private int welcomed;
+    private int delivered;
+
+    private LoadGenerator(int clientCount) throws IOException {
+        this.selector = Selector.open();
+        this.clients = new SimulatedClient[clientCount];
+        this.latencies = new long[clientCount];
+    }
+
+    /**
+     * Runs the load test and prints the results.
+     *
+     * @param args the host, port and number of clients, plus an optional timeout in seconds.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: LoadGenerator <host> <port> <clients> [timeoutSeconds]");
+            return;
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int clientCount = Integer.parseInt(args[2]);
+        long timeoutNanos = (args.length > 3 ? Long.parseLong(args[3]) : 60) * 1_000_000_000L;
+
+        LoadGenerator generator = new LoadGenerator(clientCount);
+        long start = System.nanoTime();
+        generator.connectAll(new InetSocketAddress(host, port));
+        generator.pump(() -> generator.welcomed == clientCount, start + timeoutNanos);
+        long welcomeMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Welcomed " + generator.welcomed + "/" + clientCount + " clients in " + welcomeMillis + " ms");
+
+        long dmStart = System.nanoTime();
+        generator.sendDirectMessages();
+        generator.pump(() -> generator.delivered == clientCount, dmStart + timeoutNanos);
+        generator.printLatencies(clientCount);
+        generator.close();
+    }
+
+    private void connectAll(InetSocketAddress address) throws IOException {
+        for (int i = 0; i < clients.length; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(address);
+            clients[i] = new SimulatedClient(i, channel);
+            channel.register(selector, SelectionKey.OP_CONNECT, clients[i]);
+        }
+    }
+
+    private void sendDirectMessages() throws IOException {
+        for (SimulatedClient client : clients) {
+            if (client.welcomed) {
+                int target = (client.id + 1) % clients.length;
+                client.write("/dm load" + target + " ping " + System.nanoTime() + "\n");
+            }
+        }
+    }
+
+    private void pump(Condition done, long deadline) throws IOException {
+        while (!done.reached() && System.nanoTime() < deadline) {
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                SimulatedClient client = (SimulatedClient) key.attachment();
+                try {
+                    if (key.isConnectable() && client.channel.finishConnect()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        client.write("USERNAME:load" + client.id + "\n");
+                    } else if (key.isReadable()) {
+                        client.read();
+                    }
+                } catch (IOException e) {
+                    key.cancel();
+                    client.channel.close();
+                }
+            }
+        }
+    }
+
+    private void onLine(SimulatedClient client, String line) {
+        if (line.startsWith("SYSTEM: Welcome")) {
+            client.welcomed = true;
+            welcomed++;
+        } else if (line.startsWith("[Direct Message]")) {
+            long sentAt = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+            latencies[delivered++] = System.nanoTime() - sentAt;
+        }
+    }
+
+    private void printLatencies(int clientCount) {
+        long[] sorted = Arrays.copyOf(latencies, delivered);
+        Arrays.sort(sorted);
+        System.out.println("Delivered " + delivered + "/" + clientCount + " direct messages");
+        if (delivered > 0) {
+            System.out.printf("DM latency p50=%.2f ms p99=%.2f ms max=%.2f ms%n",
+                    sorted[delivered / 2] / 1e6, sorted[(int) (delivered * 0.99)] / 1e6, sorted[delivered - 1] / 1e6);
+        }
+    }
+
+    private void close() throws IOException {
+        for (SimulatedClient client : clients) {
+            client.channel.close();
+        }
+        selector.close();
+    }
+
+    private interface Condition {
+        boolean reached();
+    }
+
+    /**
+     * The state of one simulated connection: its channel and the bytes of a line still being received.
+     */
+    private class SimulatedClient {
+        private final int id;
+        private final SocketChannel channel;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+        private final StringBuilder line = new StringBuilder();
+        private boolean welcomed;
+
+        SimulatedClient(int id, SocketChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+
+        void write(String message) throws IOException {
+            ByteBuffer bytes = ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        void read() throws IOException {
+            readBuffer.clear();
+            if (channel.read(readBuffer) < 0) {
+                throw new IOException("Connection closed by server");
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                char c = (char) readBuffer.get();
+                if (c == '\n') {
+                    onLine(this, line.toString());
+                    line.setLength(0);
+                } else {
+                    line.append(c);
+                }
+            }
+        }
+    }
+}
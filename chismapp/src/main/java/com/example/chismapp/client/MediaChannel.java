@@ -0,0 +1,109 @@
+package com.example.chismapp.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+import com.example.chismapp.util.AudioCodec;
+import com.example.chismapp.util.MediaPacket;
+
+/**
+ * The {@code MediaChannel} class sends and receives the audio of a call over UDP, through the server's
+ * media relay. It is opened when the server sends the {@code MEDIA:<port>:<token>:<host>} line of an
+ * accepted call, and lets the TCP connection carry only the chat and the call signaling. The channel is
+ * connected to the relay, so it only accepts packets coming from it, and packets are built in a direct
+ * buffer so sending allocates nothing.
+ */
+public class MediaChannel {
+    private final DatagramChannel channel;
+    private final long token;
+    private final RecordPlayer player;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MediaPacket.MAX_PACKET_LENGTH);
+    private int nextSequence;
+    private Thread receiveThread;
+
+    /**
+     * Opens a UDP socket for the media session of a call.
+     *
+     * @param host   the address of the media relay.
+     * @param port   the UDP port of the media relay.
+     * @param token  the session token assigned to this participant.
+     * @param player the player the received audio is written to.
+     * @throws IOException if the channel cannot be opened.
+     */
+    public MediaChannel(String host, int port, long token, RecordPlayer player) throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.connect(new InetSocketAddress(host, port));
+        this.token = token;
+        this.player = player;
+    }
+
+    /**
+     * Announces this participant to the relay and starts the thread that plays the received audio.
+     */
+    public void start() {
+        send(new byte[0], 0, 0);  // A packet without audio tells the relay where to reach us
+        receiveThread = new Thread(this::receiveLoop, "media-receive");
+        receiveThread.setDaemon(true);
+        receiveThread.start();
+    }
+
+    /**
+     * Sends one packet of call audio to the other participant.
+     *
+     * @param audio  the buffer holding the audio.
+     * @param offset the index of the first audio byte.
+     * @param length the number of audio bytes.
+     */
+    public synchronized void send(byte[] audio, int offset, int length) {
+        MediaPacket.put(sendBuffer, token, nextSequence++, audio, offset, length);
+        try {
+            channel.write(sendBuffer);
+        } catch (IOException e) {
+            // A lost packet does not stop the call
+            System.out.println("Error sending call audio: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Receives packets from the relay until the channel is closed, decoding their audio and handing it to the player's
+     * jitter buffer.
+     */
+    private void receiveLoop() {
+        ByteBuffer packet = ByteBuffer.allocate(MediaPacket.MAX_PACKET_LENGTH);
+        byte[] buffer = packet.array();
+        while (channel.isOpen()) {
+            try {
+                packet.clear();
+                channel.read(packet);
+                packet.flip();
+                int payload = packet.limit() - MediaPacket.HEADER_LENGTH;
+                if (payload > 1 && player != null && buffer[MediaPacket.HEADER_LENGTH] == AudioCodec.COMFORT_NOISE_ID) {
+                    player.playComfortNoise(MediaPacket.sequence(packet), buffer[MediaPacket.HEADER_LENGTH + 1] & 0x7F);
+                } else if (payload > 0 && player != null) {
+                    byte[] audio = AudioCodec.decodeUnit(buffer, MediaPacket.HEADER_LENGTH, payload);
+                    player.playCallFrame(MediaPacket.sequence(packet), audio);
+                }
+            } catch (IllegalArgumentException e) {
+                // Audio in an unknown codec is dropped like a lost packet
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.out.println("Error receiving call audio: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes the channel, which also stops the receiving thread.
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.chismapp.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.example.chismapp.util.TCPConnection;
+
+/**
+ * The {@code MessageCursor} class remembers where a user left the chat: the offset of the last logged message it
+ * received and the groups it was in. It is kept in {@code target/History/<user>.cursor}, so the next session rejoins
+ * the groups and asks the server to replay what the user missed with {@code REPLAY:<offset>}. Messages received
+ * live while the replay is running are remembered, so a message that arrives both ways is shown only once.
+ */
+public class MessageCursor {
+
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path file;
+    private final Set<String> groups = new LinkedHashSet<>();
+    private final Set<Long> seenDuringReplay = new HashSet<>();
+    private long lastOffset = -1;
+    private boolean replaying;
+    private long lastSaveNanos = System.nanoTime();
+
+    MessageCursor(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the cursor saved by the last session of a user, if any.
+     *
+     * @param directory the directory the cursors are kept in.
+     * @param userName  the user.
+     * @return the cursor of the user, empty if it never saved one.
+     */
+    public static MessageCursor load(Path directory, String userName) {
+        MessageCursor cursor = new MessageCursor(directory.resolve(userName + ".cursor"));
+        if (Files.exists(cursor.file)) {
+            Properties saved = new Properties();
+            try (Reader in = Files.newBufferedReader(cursor.file, StandardCharsets.UTF_8)) {
+                saved.load(in);
+                cursor.lastOffset = Long.parseLong(saved.getProperty("offset", "-1"));
+                for (String group : saved.getProperty("groups", "").split(",")) {
+                    if (!group.isEmpty()) {
+                        cursor.groups.add(group);
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Ignoring the unreadable message cursor " + cursor.file + ": " + e.getMessage());
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Rejoins the groups of the last session and asks for the messages logged since its last offset, or for the
+     * whole log on the first session, which brings the direct messages sent before the user ever connected. The
+     * commands are queued in order on the connection, so the server knows the groups when it starts the replay.
+     *
+     * @param connection the connection to the server, after the handshake.
+     */
+    public synchronized void resume(TCPConnection connection) {
+        for (String group : groups) {
+            connection.sendMessage("/group " + group);
+        }
+        replaying = true;
+        connection.sendMessage("REPLAY:" + lastOffset);
+    }
+
+    /**
+     * Records a logged message received from the server.
+     *
+     * @param offset the offset of the message in the server's log.
+     * @return {@code false} if the message was already shown and must be skipped.
+     */
+    public synchronized boolean received(long offset) {
+        if (replaying && !seenDuringReplay.add(offset)) {
+            return false;
+        }
+        if (!replaying) {
+            lastOffset = Math.max(lastOffset, offset);
+            if (System.nanoTime() - lastSaveNanos > SAVE_INTERVAL_NANOS) {
+                save();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ends the replay: the server covered every logged message up to {@code last}.
+     *
+     * @param last the last offset covered by the replay.
+     */
+    public synchronized void replayEnded(long last) {
+        replaying = false;
+        for (long offset : seenDuringReplay) {
+            last = Math.max(last, offset);
+        }
+        seenDuringReplay.clear();
+        lastOffset = Math.max(lastOffset, last);
+        save();
+    }
+
+    public synchronized void joined(String group) {
+        groups.add(group);
+        save();
+    }
+
+    public synchronized void left(String group) {
+        groups.remove(group);
+        save();
+    }
+
+    /**
+     * Writes the cursor to its file; a failure is only reported, since the worst outcome is a longer replay.
+     */
+    public synchronized void save() {
+        lastSaveNanos = System.nanoTime();
+        Properties saved = new Properties();
+        saved.setProperty("offset", Long.toString(lastOffset));
+        saved.setProperty("groups", String.join(",", groups));
+        try {
+            Files.createDirectories(file.getParent());
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                saved.store(out, "Last message received and groups joined");
+            }
+        } catch (IOException e) {
+            System.err.println("Could not save the message cursor " + file + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized long getLastOffset() {
+        return lastOffset;
+    }
+
+    public synchronized Set<String> getGroups() {
+        return new LinkedHashSet<>(groups);
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.chismapp.client;
+
+/**
+ * The {@code PlaybackOverflowPolicy} enum tells a {@link RecordPlayer} what to do with a voice note that arrives while its
+ * playback queue is full: drop the new note, or drop the oldest note still waiting to make room for it.
+ * Either way the thread that received the note goes on without waiting for the audio device.
+ */
+public enum PlaybackOverflowPolicy {
+    DROP_NEWEST, DROP_OLDEST;
+
+    /**
+     * Returns the policy with the given name, such as {@code drop-newest} or {@code drop-oldest}, ignoring case.
+     *
+     * @param name     the policy name.
+     * @param fallback the policy returned when the name is unknown or {@code null}.
+     * @return the named policy, or {@code fallback}.
+     */
+    public static PlaybackOverflowPolicy fromName(String name, PlaybackOverflowPolicy fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return valueOf(name.trim().replace('-', '_').toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.example.chismapp.client;
 
-import java.io.ByteArrayOutputStream;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
@@ -8,25 +7,45 @@ import javax.sound.sampled.TargetDataLine;
 
 /**
  * The {@code RecordAudio} class is responsible for recording audio from the microphone using a specified
- * {@code AudioFormat} and writing the captured audio data into a {@code ByteArrayOutputStream}.
+ * {@code AudioFormat} and handing the captured audio to a {@link ChunkListener} in chunks of a fixed size while it records,
+ * so a recording takes the same memory however long it lasts.
  * It implements the {@code Runnable} interface so it can be executed in a separate thread for continuous recording.
  */
 public class RecordAudio implements Runnable {
 
     private AudioFormat format;
-    private ByteArrayOutputStream out;
+    private final int chunkLength;
+    private final ChunkListener listener;
     private volatile boolean stop = false; // Field to control when to stop recording
     private TargetDataLine targetLine; // Declaration of the audio capture line
 
     /**
-     * Constructs a new {@code RecordAudio} object with the specified audio format and output stream.
+     * Constructs a new {@code RecordAudio} object with the specified audio format and chunk size.
      *
-     * @param format the {@code AudioFormat} that defines how audio should be captured.
-     * @param out    the {@code ByteArrayOutputStream} where captured audio data will be written.
+     * @param format      the {@code AudioFormat} that defines how audio should be captured.
+     * @param chunkLength the size of every chunk but the last, in bytes; a whole number of audio frames.
+     * @param listener    the listener that receives the chunks, on the recording thread.
      */
-    public RecordAudio(AudioFormat format, ByteArrayOutputStream out) {
+    public RecordAudio(AudioFormat format, int chunkLength, ChunkListener listener) {
         this.format = format;
-        this.out = out;
+        this.chunkLength = chunkLength;
+        this.listener = listener;
+    }
+
+    /**
+     * Receives the recorded audio one chunk at a time.
+     */
+    @FunctionalInterface
+    public interface ChunkListener {
+        /**
+         * Handles a chunk of recorded audio. The buffer is reused for the next chunk once this method returns.
+         *
+         * @param pcm    the buffer holding the chunk.
+         * @param offset the index of the first byte.
+         * @param length the length of the chunk, which may be 0 for the last one.
+         * @param last   whether the recording stopped after this chunk.
+         */
+        void onChunk(byte[] pcm, int offset, int length, boolean last);
     }
 
     /**
@@ -41,7 +60,8 @@ public class RecordAudio implements Runnable {
      * Continuously captures audio from the microphone using the specified {@code AudioFormat}
      * until the {@code stopRecording} method is called.
      * <p>
-     * The captured audio data is written to the provided {@code ByteArrayOutputStream}.
+     * Every time a chunk fills up it is passed to the listener, and the audio left when recording stops is passed as the
+     * last chunk.
      * </p>
      */
     @Override
@@ -56,14 +76,22 @@ public class RecordAudio implements Runnable {
             // Start capturing audio
             targetLine.start();
 
-            // Buffer to store audio data read from the microphone
-            byte[] buffer = new byte[targetLine.getBufferSize() / 5];
+            // Buffer holding the chunk being recorded, filled in short reads so stopping does not wait for a whole chunk
+            byte[] chunk = new byte[chunkLength];
+            int frameSize = format.getFrameSize();
+            int readLength = Math.max(frameSize, targetLine.getBufferSize() / 5 / frameSize * frameSize);
+            int filled = 0;
 
             // Continue capturing audio until the stop flag is set
             while (!stop) {
-                bytesRead = targetLine.read(buffer, 0, buffer.length);
-                out.write(buffer, 0, bytesRead);  // Write the audio data to the output stream
+                bytesRead = targetLine.read(chunk, filled, Math.min(readLength, chunkLength - filled));
+                filled += bytesRead;
+                if (filled == chunkLength) {
+                    listener.onChunk(chunk, 0, filled, false);
+                    filled = 0;
+                }
             }
+            listener.onChunk(chunk, 0, filled, true);
 
             // Stop and close the audio line once recording is done
             targetLine.stop();
@@ -1,6 +1,11 @@
 package com.example.chismapp.client;
 
 import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.SourceDataLine;
@@ -8,12 +13,35 @@ import javax.sound.sampled.SourceDataLine;
 /**
  * The {@code RecordPlayer} class handles audio playback using a specified {@code AudioFormat}.
  * It initializes a {@code SourceDataLine} to send audio data to the system's sound card and provides methods to play, stop, and restart audio playback.
+ * Call audio received over UDP goes through a {@link JitterBuffer} first, and a playout thread feeds it to the line a
+ * frame at a time, keeping only a few milliseconds queued in the line so the jitter buffer controls the latency.
+ * While the other participant is silent it plays comfort noise at the level they reported, instead of dead silence.
+ * Voice notes never touch the line on the thread that received them: they wait in a bounded queue, and the same playout
+ * thread plays them a frame at a time whenever there is no call audio to play. A note is a {@link VoiceNoteStream}, so it
+ * starts playing with its first chunk, while the rest is still arriving. When the queue is full the
+ * {@link PlaybackOverflowPolicy} decides which note is dropped, so the network reader never waits for the audio device.
  */
 public class RecordPlayer {
 
     private AudioFormat format;
     private SourceDataLine out;  // Output to the audio system
-    private boolean isPlaying = false;  // Indicates whether audio playback is active
+    private volatile boolean isPlaying = false;  // Indicates whether audio playback is active
+    private final JitterBuffer jitterBuffer;
+    private final int lineBacklogBytes;  // Audio the playout thread lets queue up in the line
+    private Thread playoutThread;
+    private final byte[] comfortNoise;
+    private final Random noise = new Random();
+    private final BlockingQueue<VoiceNoteStream> voiceNotes = new ArrayBlockingQueue<>(VOICE_NOTE_QUEUE_SIZE);
+    private final PlaybackOverflowPolicy overflowPolicy;
+    private final AtomicLong droppedVoiceNotes = new AtomicLong();
+    private VoiceNoteStream currentNote;  // The voice note being played and its chunk, owned by the playout thread
+    private byte[] currentChunk;
+    private int chunkOffset;
+
+    private static final int VOICE_NOTE_QUEUE_SIZE = 8;
+    private static final int LINE_BACKLOG_MILLIS = 40;
+    private static final int PLAYOUT_POLL_MILLIS = 5;
+    private static final int COMFORT_NOISE_MILLIS = 20;
 
     /**
      * Constructs a new {@code RecordPlayer} with the specified audio format.
@@ -22,7 +50,22 @@ public class RecordPlayer {
      * @param format the {@code AudioFormat} to be used for audio playback.
      */
     public RecordPlayer(AudioFormat format) {
+        this(format, PlaybackOverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Constructs a new {@code RecordPlayer} with the specified audio format and policy for a full voice note queue.
+     *
+     * @param format         the {@code AudioFormat} to be used for audio playback.
+     * @param overflowPolicy what to drop when a voice note arrives and the queue is full.
+     */
+    public RecordPlayer(AudioFormat format, PlaybackOverflowPolicy overflowPolicy) {
         this.format = format;
+        this.overflowPolicy = overflowPolicy;
+        float bytesPerSecond = format.getFrameRate() * format.getFrameSize();
+        this.jitterBuffer = new JitterBuffer(bytesPerSecond);
+        this.lineBacklogBytes = (int) (bytesPerSecond * LINE_BACKLOG_MILLIS / 1000);
+        this.comfortNoise = new byte[(int) (bytesPerSecond * COMFORT_NOISE_MILLIS / 1000) & ~1];
         initializePlayback();
     }
 
@@ -43,23 +86,213 @@ public class RecordPlayer {
     }
 
     /**
-     * Plays the provided audio data. If playback is not active, it attempts to restart playback.
-     * The audio data is written directly to the {@code SourceDataLine} to be played.
+     * Queues the provided audio data to be played after the voice notes already waiting, and returns at once.
+     * If the queue is full, the overflow policy drops either this note or the oldest one waiting.
      *
      * @param audioData the byte array containing the audio data to play.
+     * @return {@code false} if this note was dropped, {@code true} if it was queued.
      */
-    public synchronized void initiateAudio(byte[] audioData) {
-        if (!isPlaying) {
-            System.out.println("Audio playback is not active. Restarting...");
-            restartPlayback();  // Restart playback if it is not currently active
+    public boolean initiateAudio(byte[] audioData) {
+        VoiceNoteStream note = openVoiceNote();
+        note.append(audioData);
+        note.finish();
+        return !note.isAbandoned();
+    }
+
+    /**
+     * Queues a voice note whose chunks are still arriving, to be played after the notes already waiting.
+     * If the queue is full, the overflow policy drops either this note or the oldest one waiting; a dropped note is
+     * returned abandoned, and ignores the chunks appended to it.
+     *
+     * @return the note to append the chunks to.
+     */
+    public VoiceNoteStream openVoiceNote() {
+        VoiceNoteStream note = new VoiceNoteStream();
+        boolean queued = voiceNotes.offer(note);
+        if (!queued && overflowPolicy == PlaybackOverflowPolicy.DROP_OLDEST) {
+            while (!queued) {
+                VoiceNoteStream oldest = voiceNotes.poll();
+                if (oldest != null) {
+                    oldest.abandon();
+                    droppedVoiceNotes.incrementAndGet();
+                }
+                queued = voiceNotes.offer(note);
+            }
+        } else if (!queued) {
+            note.abandon();
+            droppedVoiceNotes.incrementAndGet();
         }
+        startPlayout();
+        return note;
+    }
+
+    /**
+     * Writes audio to the line. Only the playout thread writes, and only as much as the line can take without waiting long.
+     *
+     * @param audioData the buffer holding the audio.
+     * @param offset    the index of the first byte to play.
+     * @param length    the number of bytes to play.
+     */
+    private synchronized void write(byte[] audioData, int offset, int length) {
         try {
-            out.write(audioData, 0, audioData.length);  // Write audio data directly to the audio output line
+            out.write(audioData, offset, length);
         } catch (Exception e) {
             System.out.println("Error during audio playback: " + e.getMessage());
         }
     }
 
+    /**
+     * Queues a frame of call audio in the jitter buffer, to be played in sequence order by the playout thread.
+     *
+     * @param sequence  the sequence number of the frame in the call.
+     * @param audioData the audio of the frame.
+     */
+    public void playCallFrame(int sequence, byte[] audioData) {
+        jitterBuffer.offer(sequence, audioData, System.nanoTime());
+        startPlayout();
+    }
+
+    /**
+     * Queues a comfort noise marker in the jitter buffer: once the audio before it is played, comfort noise
+     * fills the silence until the next frame of audio.
+     *
+     * @param sequence the sequence number of the marker in the call.
+     * @param level    the background noise level of the other participant, in -dBov as in RFC 3389.
+     */
+    public void playComfortNoise(int sequence, int level) {
+        jitterBuffer.offerComfortNoise(sequence, level, System.nanoTime());
+        startPlayout();
+    }
+
+    private void startPlayout() {
+        synchronized (jitterBuffer) {
+            if (playoutThread == null) {
+                playoutThread = new Thread(this::playoutLoop, "playout");
+                playoutThread.setDaemon(true);
+                playoutThread.start();
+            }
+        }
+    }
+
+    /**
+     * Moves audio to the line whenever the line runs low: call audio from the jitter buffer first, then the next frame
+     * of the voice note being played, then comfort noise while the other participant of a call is silent.
+     */
+    private void playoutLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                SourceDataLine line = out;
+                if (!isPlaying && line != null && hasVoiceNote()) {
+                    resumeForVoiceNote();
+                }
+                boolean lineFull = !isPlaying || line == null
+                        || line.getBufferSize() - line.available() > lineBacklogBytes;
+                if (lineFull) {
+                    Thread.sleep(PLAYOUT_POLL_MILLIS);
+                    continue;
+                }
+                byte[] frame = jitterBuffer.poll();
+                if (frame != null) {
+                    write(frame, 0, frame.length);
+                } else if (hasVoiceNote()) {
+                    int length = Math.min(comfortNoise.length, currentChunk.length - chunkOffset);
+                    write(currentChunk, chunkOffset, length);
+                    chunkOffset += length;
+                } else if (jitterBuffer.isSilent()) {
+                    write(fillComfortNoise(jitterBuffer.getComfortNoiseLevel()), 0, comfortNoise.length);
+                } else {
+                    Thread.sleep(PLAYOUT_POLL_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Restarts playback for a voice note that arrived after it was stopped. If the line cannot be restarted the note
+     * is dropped, rather than retried on every pass of the playout loop.
+     */
+    private synchronized void resumeForVoiceNote() {
+        if (isPlaying) {
+            return;
+        }
+        System.out.println("Audio playback is not active. Restarting...");
+        restartPlayback();
+        if (!isPlaying) {
+            currentNote.abandon();
+            currentNote = null;
+            currentChunk = null;
+            droppedVoiceNotes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Tells whether voice note audio is ready to play, moving on to the next chunk, and to the next note once the
+     * current one is done. While the note being played waits for its next chunk, the notes after it wait too.
+     *
+     * @return {@code true} if {@code currentChunk} has audio left after {@code chunkOffset}.
+     */
+    private boolean hasVoiceNote() {
+        while (currentChunk == null || chunkOffset >= currentChunk.length) {
+            if (currentNote == null && (currentNote = voiceNotes.poll()) == null) {
+                currentChunk = null;
+                return false;
+            }
+            currentChunk = currentNote.nextChunk();
+            chunkOffset = 0;
+            if (currentChunk == null) {
+                if (!currentNote.isDone(System.nanoTime())) {
+                    return false;
+                }
+                currentNote = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns how many voice notes the overflow policy dropped because the playback queue was full.
+     *
+     * @return the number of dropped voice notes.
+     */
+    public long getDroppedVoiceNotes() {
+        return droppedVoiceNotes.get();
+    }
+
+    /**
+     * Fills the comfort noise frame with white noise of the given level.
+     *
+     * @param level the noise level, in -dBov.
+     * @return the reused comfort noise frame.
+     */
+    private byte[] fillComfortNoise(int level) {
+        // Uniform noise in [-a, a] has an RMS of a / sqrt(3)
+        int amplitude = (int) (Math.sqrt(3) * 32768 * Math.pow(10, -level / 20.0));
+        for (int i = 0; i < comfortNoise.length; i += 2) {
+            int sample = amplitude == 0 ? 0 : noise.nextInt(2 * amplitude + 1) - amplitude;
+            comfortNoise[i] = (byte) sample;
+            comfortNoise[i + 1] = (byte) (sample >> 8);
+        }
+        return comfortNoise;
+    }
+
+    /**
+     * Empties the jitter buffer, so the audio of the next call starts with a fresh stream.
+     */
+    public void resetCallAudio() {
+        jitterBuffer.reset();
+    }
+
+    /**
+     * Returns the jitter buffer of call audio, whose depth and late and lost frame counts describe the call quality.
+     *
+     * @return the {@code JitterBuffer} in front of the playback line.
+     */
+    public JitterBuffer getJitterBuffer() {
+        return jitterBuffer;
+    }
+
     /**
      * Stops the current audio playback by draining and closing the {@code SourceDataLine}.
      * This method ensures that all buffered audio is played before stopping the playback.
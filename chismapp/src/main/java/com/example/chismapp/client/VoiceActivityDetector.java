@@ -0,0 +1,118 @@
+package com.example.chismapp.client;
+
+/**
+ * The {@code VoiceActivityDetector} class decides which microphone frames of a call carry speech, so the
+ * silent ones need not be sent. A frame is speech when its energy stands well above the background noise
+ * level, or somewhat above it with the high zero-crossing rate of unvoiced sounds such as "s" or "f". The
+ * noise level drops at once to any quieter frame and rises slowly with louder ones, so the detector adapts
+ * to the room. After speech it keeps sending for a hangover period, so word endings and short pauses are
+ * not clipped.
+ *
+ * <p>While frames are suppressed the receiver should hear comfort noise rather than dead silence: the
+ * detector asks for a comfort noise marker when a silence starts and again every so often, carrying the
+ * noise level as in RTP comfort noise (RFC 3389).</p>
+ */
+public class VoiceActivityDetector {
+
+    private static final double SPEECH_RATIO = 4.0;  // Energy over the noise level for voiced speech (6 dB)
+    private static final double FRICATIVE_RATIO = 2.0;  // Energy over the noise level for unvoiced speech (3 dB)
+    private static final double FRICATIVE_CROSSING_RATE = 0.25;  // Zero crossings per sample of unvoiced speech
+    private static final double MIN_NOISE_ENERGY = 100;  // Floor for the noise level, an RMS of 10
+    private static final double INITIAL_NOISE_ENERGY = 10_000;  // A quiet room, about -50 dBov
+    private static final double NOISE_ADAPTATION = 0.1;
+    private static final double NOISE_DRIFT = 1.005;  // Lets a steady noise that was taken for speech become the floor
+    private static final int HANGOVER_FRAMES = 8;
+    private static final int COMFORT_NOISE_INTERVAL = 25;  // Suppressed frames between comfort noise updates
+
+    private double noiseEnergy = INITIAL_NOISE_ENERGY;
+    private int hangover;
+    private int silentFrames;
+    private long frames;
+    private long suppressedFrames;
+
+    /**
+     * Classifies one frame of 16-bit little-endian PCM.
+     *
+     * @param pcm    the buffer holding the frame.
+     * @param offset the index of the first byte.
+     * @param length the number of bytes.
+     * @return {@code true} if the frame should be sent, because it is speech or within the hangover after it.
+     */
+    public boolean isSpeech(byte[] pcm, int offset, int length) {
+        int samples = length / 2;
+        if (samples == 0) {
+            return false;
+        }
+        double energy = 0;
+        int crossings = 0;
+        int previous = 0;
+        for (int i = 0; i < samples; i++) {
+            int sample = (short) ((pcm[offset + 2 * i] & 0xFF) | (pcm[offset + 2 * i + 1] << 8));
+            energy += (double) sample * sample;
+            if (i > 0 && (sample < 0) != (previous < 0)) {
+                crossings++;
+            }
+            previous = sample;
+        }
+        energy /= samples;
+        double crossingRate = (double) crossings / samples;
+        frames++;
+
+        boolean speech = energy > SPEECH_RATIO * noiseEnergy
+                || (energy > FRICATIVE_RATIO * noiseEnergy && crossingRate > FRICATIVE_CROSSING_RATE);
+        if (speech) {
+            noiseEnergy *= NOISE_DRIFT;
+        } else if (energy < noiseEnergy) {
+            noiseEnergy = Math.max(MIN_NOISE_ENERGY, energy);  // A quieter frame is the new noise level
+        } else {
+            noiseEnergy += (energy - noiseEnergy) * NOISE_ADAPTATION;
+        }
+
+        if (speech || hangover > 0) {
+            hangover = speech ? HANGOVER_FRAMES : hangover - 1;
+            silentFrames = 0;
+            return true;
+        }
+        silentFrames++;
+        suppressedFrames++;
+        return false;
+    }
+
+    /**
+     * Tells whether a comfort noise marker should be sent for the frame just suppressed: at the start of
+     * a silence and every few frames after it, in case one is lost.
+     *
+     * @return {@code true} if a marker is due.
+     */
+    public boolean isComfortNoiseDue() {
+        return silentFrames > 0 && (silentFrames - 1) % COMFORT_NOISE_INTERVAL == 0;
+    }
+
+    /**
+     * Returns the background noise level in the units of RFC 3389: decibels below the overload point of
+     * 16-bit audio, from 0 (loudest) to 127.
+     *
+     * @return the noise level, in -dBov.
+     */
+    public int getNoiseLevel() {
+        double dbov = 10 * Math.log10(noiseEnergy / (32768.0 * 32768.0));
+        return (int) Math.max(0, Math.min(127, Math.round(-dbov)));
+    }
+
+    /**
+     * Returns the share of the frames of the call that were suppressed as silence.
+     *
+     * @return the suppression ratio, from 0 to 1.
+     */
+    public double getSuppressionRatio() {
+        return frames == 0 ? 0 : (double) suppressedFrames / frames;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getSuppressedFrames() {
+        return suppressedFrames;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.chismapp.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.example.chismapp.util.AudioCodec;
+import com.example.chismapp.util.VoiceNoteChunk;
+
+/**
+ * The {@code VoiceBlobCache} class downloads the voice notes a server keeps in its voice store and remembers the
+ * ones played last. A note arrives as a {@code VOICE_REF:<id>:<sender>:<millis>} line and is only downloaded when
+ * the user plays it, in ranges of {@link #RANGE_BYTES} requested with {@code GET <id> <offset> <length>}; every
+ * range after the first is requested at once, so a long note costs one round trip more than a short one. The
+ * cache holds whole blobs, least recently played first out, within a budget of
+ * {@code -Dchismapp.voice.cache-kb} kilobytes (8192 by default).
+ */
+public class VoiceBlobCache {
+
+    static final int RANGE_BYTES = 64 * 1024;
+    private static final long MAX_BLOB_BYTES = 64L * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final String host;
+    private final int port;
+    private final long budgetBytes;
+    // Blobs in access order, so the first one is the least recently played
+    private final LinkedHashMap<String, byte[]> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private long hits;
+
+    /**
+     * Creates a cache for the voice store of a server.
+     *
+     * @param host        the address of the server.
+     * @param port        the port of its voice store, given by {@code VOICE_STORE:<port>}.
+     * @param budgetBytes how many bytes of blobs the cache keeps.
+     */
+    public VoiceBlobCache(String host, int port, long budgetBytes) {
+        this.host = host;
+        this.port = port;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Creates a cache whose budget is read from {@code -Dchismapp.voice.cache-kb}.
+     *
+     * @param host the address of the server.
+     * @param port the port of its voice store.
+     * @return the cache.
+     */
+    public static VoiceBlobCache fromProperties(String host, int port) {
+        return new VoiceBlobCache(host, port, Long.getLong("chismapp.voice.cache-kb", 8192) * 1024);
+    }
+
+    /**
+     * Returns a blob from the cache, downloading it if it is not there.
+     *
+     * @param id the id of the blob, from its {@code VOICE_REF} line.
+     * @return the blob, made of {@code [length][voice audio]} records.
+     * @throws FileNotFoundException if the server does not have the blob.
+     * @throws IOException           if the download fails.
+     */
+    public byte[] fetch(String id) throws IOException {
+        synchronized (this) {
+            byte[] blob = blobs.get(id);
+            if (blob != null) {
+                hits++;
+                return blob;
+            }
+        }
+        // The download runs outside the lock, so a slow note does not hold back the cached ones
+        byte[] blob = download(id);
+        synchronized (this) {
+            if (blobs.put(id, blob) == null) {
+                cachedBytes += blob.length;
+            }
+            Iterator<Map.Entry<String, byte[]>> oldest = blobs.entrySet().iterator();
+            while (cachedBytes > budgetBytes && oldest.hasNext()) {
+                Map.Entry<String, byte[]> entry = oldest.next();
+                if (entry.getValue() != blob) {
+                    cachedBytes -= entry.getValue().length;
+                    oldest.remove();
+                }
+            }
+        }
+        return blob;
+    }
+
+    private byte[] download(String id) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            request(out, id, 0);
+            long total = in.readLong();
+            if (total < 0) {
+                throw new FileNotFoundException("The server does not have the voice note " + id);
+            }
+            if (total > MAX_BLOB_BYTES) {
+                throw new IOException("The voice note " + id + " is too long to download");
+            }
+            byte[] blob = new byte[(int) total];
+            // The remaining ranges are requested together and answered in order
+            for (long offset = RANGE_BYTES; offset < total; offset += RANGE_BYTES) {
+                request(out, id, offset);
+            }
+            int received = 0;
+            while (true) {
+                int count = in.readInt();
+                if (count == 0 && received < total) {
+                    throw new EOFException("The voice note " + id + " ended early");
+                }
+                in.readFully(blob, received, count);
+                received += count;
+                if (received >= total) {
+                    return blob;
+                }
+                in.readLong();  // Every range repeats the total length
+            }
+        }
+    }
+
+    private static void request(OutputStream out, String id, long offset) throws IOException {
+        out.write(("GET " + id + " " + offset + " " + RANGE_BYTES + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * Decodes a blob into PCM audio, whether the note was sent whole, in chunks or forwarded in parts.
+     *
+     * @param blob the blob, made of {@code [length][voice audio]} records.
+     * @return the PCM audio of the note.
+     * @throws IllegalArgumentException if the blob is damaged or uses an unknown codec.
+     */
+    public static byte[] decode(byte[] blob) {
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        ByteArrayOutputStream parts = new ByteArrayOutputStream();
+        int position = 0;
+        while (position < blob.length) {
+            if (blob.length - position < 4) {
+                throw new IllegalArgumentException("Damaged voice note");
+            }
+            int length = ((blob[position] & 0xFF) << 24) | ((blob[position + 1] & 0xFF) << 16)
+                    | ((blob[position + 2] & 0xFF) << 8) | (blob[position + 3] & 0xFF);
+            int offset = position + 4;
+            if (length < 0 || length > blob.length - offset) {
+                throw new IllegalArgumentException("Damaged voice note");
+            }
+            int body = offset + VoiceNoteChunk.HEADER_LENGTH;
+            if (!VoiceNoteChunk.isChunk(blob, offset, length)) {
+                pcm.writeBytes(AudioCodec.decodeUnit(blob, offset, length));
+            } else if (VoiceNoteChunk.isPart(blob, offset)) {
+                // The parts are pieces of one unit, decoded once the last one is joined
+                parts.write(blob, body, length - VoiceNoteChunk.HEADER_LENGTH);
+                if (VoiceNoteChunk.isLast(blob, offset)) {
+                    byte[] unit = parts.toByteArray();
+                    pcm.writeBytes(AudioCodec.decodeUnit(unit, 0, unit.length));
+                    parts.reset();
+                }
+            } else if (length > VoiceNoteChunk.HEADER_LENGTH) {
+                pcm.writeBytes(AudioCodec.decodeUnit(blob, body, length - VoiceNoteChunk.HEADER_LENGTH));
+            }
+            position = offset + length;
+        }
+        return pcm.toByteArray();
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+}
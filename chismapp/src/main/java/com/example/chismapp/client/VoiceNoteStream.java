@@ -0,0 +1,86 @@
+package com.example.chismapp.client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code VoiceNoteStream} class is a voice note that is played while it is still arriving, one chunk at a time.
+ * The connection's reader thread appends the decoded chunks and the {@link RecordPlayer}'s playout thread takes them,
+ * so the note can start playing long before its sender stops recording. At most a bounded number of chunks wait to be
+ * played; chunks beyond that are dropped rather than held, so a long note never takes more than a fixed amount of memory.
+ * A note whose last chunk never arrives is given up after a few seconds without news, so it cannot hold back the notes
+ * queued after it.
+ */
+public class VoiceNoteStream {
+
+    private static final int CHUNK_CAPACITY = 64;  // About half a minute of audio in half-second chunks
+    private static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNK_CAPACITY);
+    private volatile boolean finished;
+    private volatile boolean abandoned;
+    private volatile long lastChunkNanos = System.nanoTime();
+    private volatile long droppedChunks;
+
+    /**
+     * Appends the decoded audio of the next chunk.
+     *
+     * @param pcm the audio of the chunk.
+     * @return {@code false} if the chunk was dropped, because the note was given up or too many chunks are waiting.
+     */
+    boolean append(byte[] pcm) {
+        lastChunkNanos = System.nanoTime();
+        if (abandoned || !chunks.offer(pcm)) {
+            droppedChunks++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the note as complete: once its queued chunks are played, the player moves on to the next note.
+     */
+    void finish() {
+        finished = true;
+    }
+
+    /**
+     * Gives up the note: its queued chunks are discarded and any further chunk is dropped.
+     */
+    void abandon() {
+        abandoned = true;
+        chunks.clear();
+    }
+
+    /**
+     * Takes the next chunk to play.
+     *
+     * @return the audio of the next chunk, or {@code null} if none has arrived yet.
+     */
+    byte[] nextChunk() {
+        return abandoned ? null : chunks.poll();
+    }
+
+    /**
+     * Tells whether the player is done with this note: it was completely played, given up, or stalled waiting for a
+     * chunk. A stalled note is given up.
+     *
+     * @param nowNanos the current {@link System#nanoTime()}.
+     * @return {@code true} if the player should move on to the next note.
+     */
+    boolean isDone(long nowNanos) {
+        if (!abandoned && !finished && chunks.isEmpty() && nowNanos - lastChunkNanos > STALL_NANOS) {
+            abandon();
+        }
+        return abandoned || (finished && chunks.isEmpty());
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    public long getDroppedChunks() {
+        return droppedChunks;
+    }
+}
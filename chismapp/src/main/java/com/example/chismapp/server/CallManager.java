@@ -1,10 +1,12 @@
 /**
  * The `CallManager` class in Java manages active and pending call sessions between users using
- * ConcurrentHashMaps.
+ * ConcurrentHashMaps. Updates that touch both maps are guarded by a `ReentrantLock`, which unlike
+ * `synchronized` does not pin the carrier thread of a virtual thread that waits on it.
  */
 package com.example.chismapp.server;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class CallManager {
 
@@ -14,6 +16,8 @@ public class CallManager {
 
     private ConcurrentHashMap<String, CallSession> pendingCalls;
 
+    private final ReentrantLock lock = new ReentrantLock();
+
 // The `public CallManager()` constructor in the `CallManager` class is initializing two
 // `ConcurrentHashMap` objects named `activeCalls` and `pendingCalls`. It creates new instances of
 // `ConcurrentHashMap` for both `activeCalls` and `pendingCalls` when a new `CallManager` object is
@@ -37,20 +41,25 @@ public class CallManager {
  * initiation was successful and both the caller and recipient were not already in an active or pending
  * call. It returns `false` if either the caller or recipient is already in an active or pending call.
  */
-    public synchronized boolean initiatePendingCall(String caller, String recipient) {
-        if (activeCalls.containsKey(caller) || activeCalls.containsKey(recipient) ||
-                pendingCalls.containsKey(caller) || pendingCalls.containsKey(recipient)) {
-            return false; // Uno de los usuarios ya está en una llamada activa o pendiente
+    public boolean initiatePendingCall(String caller, String recipient) {
+        lock.lock();
+        try {
+            if (activeCalls.containsKey(caller) || activeCalls.containsKey(recipient) ||
+                    pendingCalls.containsKey(caller) || pendingCalls.containsKey(recipient)) {
+                return false; // Uno de los usuarios ya está en una llamada activa o pendiente
+            }
+            CallSession session = new CallSession(caller, recipient);
+            pendingCalls.put(caller, session);
+            pendingCalls.put(recipient, session);
+            return true;
+        } finally {
+            lock.unlock();
         }
-        CallSession session = new CallSession(caller, recipient);
-        pendingCalls.put(caller, session);
-        pendingCalls.put(recipient, session);
-        return true;
     }
 
     // Aceptar una llamada
 /**
- * The `acceptCall` method in Java synchronously accepts a call between a recipient and a caller,
+ * The `acceptCall` method in Java accepts a call between a recipient and a caller,
  * moving the call from pending to active status if the recipient matches the expected recipient for
  * the call session.
  * 
@@ -58,15 +67,20 @@ public class CallManager {
  * @param caller The `caller` parameter in the `acceptCall` method represents the person who is making
  * the call.
  */
-    public synchronized void acceptCall(String recipient, String caller) {
-        CallSession session = pendingCalls.get(caller);
-        if (session != null && session.getRecipient().equals(recipient)) {
-            session.setAccepted(true);
-            // Mover la llamada de "pendiente" a "activa"
-            pendingCalls.remove(caller);
-            pendingCalls.remove(recipient);
-            activeCalls.put(caller, session);
-            activeCalls.put(recipient, session);
+    public void acceptCall(String recipient, String caller) {
+        lock.lock();
+        try {
+            CallSession session = pendingCalls.get(caller);
+            if (session != null && session.getRecipient().equals(recipient)) {
+                session.setAccepted(true);
+                // Mover la llamada de "pendiente" a "activa"
+                pendingCalls.remove(caller);
+                pendingCalls.remove(recipient);
+                activeCalls.put(caller, session);
+                activeCalls.put(recipient, session);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -79,11 +93,16 @@ public class CallManager {
  * @param caller The `caller` parameter in the `rejectCall` method represents the person who initiated
  * the call that is being rejected.
  */
-    public synchronized void rejectCall(String recipient, String caller) {
-        CallSession session = pendingCalls.get(caller);
-        if (session != null && session.getRecipient().equals(recipient)) {
-            pendingCalls.remove(caller);
-            pendingCalls.remove(recipient);
+    public void rejectCall(String recipient, String caller) {
+        lock.lock();
+        try {
+            CallSession session = pendingCalls.get(caller);
+            if (session != null && session.getRecipient().equals(recipient)) {
+                pendingCalls.remove(caller);
+                pendingCalls.remove(recipient);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -95,13 +114,18 @@ public class CallManager {
  * call session is being ended. This method is used to end an active call session for the specified
  * user.
  */
-    public synchronized void endCall(String userName) {
-        CallSession session = activeCalls.get(userName);
-        if (session != null) {
-            activeCalls.remove(session.getCaller());
-            activeCalls.remove(session.getRecipient());
-            pendingCalls.remove(session.getCaller());
-            pendingCalls.remove(session.getRecipient());
+    public void endCall(String userName) {
+        lock.lock();
+        try {
+            CallSession session = activeCalls.get(userName);
+            if (session != null) {
+                activeCalls.remove(session.getCaller());
+                activeCalls.remove(session.getRecipient());
+                pendingCalls.remove(session.getCaller());
+                pendingCalls.remove(session.getRecipient());
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -112,12 +136,17 @@ public class CallManager {
  * @param session The `session` parameter in the `removeCallSession` method is an object of the
  * `CallSession` class.
  */
-    public synchronized void removeCallSession(CallSession session) {
-        if (session != null) {
-            activeCalls.remove(session.getCaller());
-            activeCalls.remove(session.getRecipient());
-            pendingCalls.remove(session.getCaller());
-            pendingCalls.remove(session.getRecipient());
+    public void removeCallSession(CallSession session) {
+        lock.lock();
+        try {
+            if (session != null) {
+                activeCalls.remove(session.getCaller());
+                activeCalls.remove(session.getRecipient());
+                pendingCalls.remove(session.getCaller());
+                pendingCalls.remove(session.getRecipient());
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -131,32 +160,47 @@ public class CallManager {
  * `activeCalls` map or the `pendingCalls` map contains the user's `userName` key and returns `true` if
  * either of them does, otherwise it returns `false`.
  */
-    public synchronized boolean isInCall(String userName) {
-        return activeCalls.containsKey(userName) || pendingCalls.containsKey(userName);
+    public boolean isInCall(String userName) {
+        lock.lock();
+        try {
+            return activeCalls.containsKey(userName) || pendingCalls.containsKey(userName);
+        } finally {
+            lock.unlock();
+        }
     }
 
 /**
- * The function `getCallSession` retrieves the active call session for a specified user in a
- * synchronized manner.
+ * The function `getCallSession` retrieves the active call session for a specified user while
+ * holding the lock.
  * 
  * @param user The `user` parameter in the `getCallSession` method is a String representing the user
  * for whom you want to retrieve the call session.
  * @return The `getCallSession` method is returning a `CallSession` object associated with the
  * specified `user` from the `activeCalls` map.
  */
-    public synchronized CallSession getCallSession(String user) {
-        return activeCalls.get(user);
+    public CallSession getCallSession(String user) {
+        lock.lock();
+        try {
+            return activeCalls.get(user);
+        } finally {
+            lock.unlock();
+        }
     }
 
 /**
- * The function `getPendingCallSession` retrieves a pending call session for a specific user in a
- * synchronized manner.
+ * The function `getPendingCallSession` retrieves a pending call session for a specific user while
+ * holding the lock.
  * 
  * @param user The `user` parameter is a `String` representing the user for which the pending call
  * session needs to be retrieved.
  * @return A `CallSession` object corresponding to the specified `user` is being returned.
  */
-    public synchronized CallSession getPendingCallSession(String user) {
-        return pendingCalls.get(user);
+    public CallSession getPendingCallSession(String user) {
+        lock.lock();
+        try {
+            return pendingCalls.get(user);
+        } finally {
+            lock.unlock();
+        }
     }
 }
@@ -1,49 +1,260 @@
 package com.example.chismapp.server;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * The `ChatServer` class initializes group and call managers, listens for client connections on a
- * dynamically assigned port, and handles client connections using a thread pool.
+ * The `ChatServer` class initializes group, call and presence managers, listens for client connections
+ * on a dynamically assigned port, and serves them with the engine chosen by the `--engine` flag:
+ * non-blocking reactors (`nio`, the default), a fixed thread pool (`pool`) or one virtual thread per
+ * client (`virtual`). A server keeps all its state in its own `ServerContext`, so several servers can run
+ * in one JVM, and with the cluster flags it joins other servers as a node of the same chat.
  */
 public class ChatServer {
 
     private static final int THREAD_POOL_SIZE = 10;
-    private static GroupManager groupManager;
-    private static CallManager callManager;
+    private static final int ACCEPT_BACKLOG = 4096;
+
+    private final ServerConfig config;
+    private final ServerContext context;
+    private ServerSocket serverSocket;
+    private ServerSocketChannel serverChannel;
+    private Reactor[] reactors;
+    private ExecutorService pool;
+    private ExecutorService writers;
+    private volatile boolean running;
+
+// The constructor creates the `ServerContext` of a server that is not listening yet; `start` opens it.
+    private ChatServer(ServerConfig config) {
+        this.config = config;
+        this.context = new ServerContext(config);
+    }
 
     public static void main(String[] args) {
+        try {
+            ChatServer server = start(ServerConfig.fromArgs(args));
+            server.startQueueStats();
+            startDiscovery(server.getPort());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        ExecutorService pool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-        groupManager = new GroupManager();  // Inicializa el gestor de grupos
-        callManager = new CallManager();    // Inicializa el gestor de llamadas
+/**
+ * The `start` function opens a server with the given configuration: it binds the client port, starts
+ * the engine, the message log, the voice store, the presence ticker, the media relay and, when
+ * clustered, the links to the other nodes. The accept loop runs in its own thread, so the function
+ * returns once the server is listening.
+ *
+ * @param config The `config` parameter holds the settings of the server.
+ * @return The running `ChatServer`.
+ */
+    public static ChatServer start(ServerConfig config) throws IOException {
+        ChatServer server = new ChatServer(config);
+        ServerEngine engine = config.getEngine();
+        System.out.println("Starting server with the " + engine.name().toLowerCase() + " engine");
+        server.running = true;
+        // El registro se abre antes de aceptar clientes, que ya pueden escribir en él
+        server.context.getMessageLog().start();
+        server.context.getVoiceStore().start();
+        // Inicializa el gestor de presencia, que envía las altas y bajas agrupadas por tick
+        server.context.getPresenceManager().start(config.getPresenceTickMillis());
+        switch (engine) {
+            case POOL -> server.startBlockingEngine(Executors.newFixedThreadPool(THREAD_POOL_SIZE), Executors.newCachedThreadPool());
+            case VIRTUAL -> {
+                ExecutorService threads = newVirtualThreadExecutor();
+                server.startBlockingEngine(threads, threads);
+            }
+            case NIO -> server.startReactorEngine();
+        }
+        server.context.getMediaRelay().start();
+        if (config.isClustered()) {
+            server.context.getCluster().start(config.getClusterPort(), config.getPeers());
+        }
+        return server;
+    }
 
-        try (ServerSocket serverSocket = new ServerSocket(0)) { // Puerto automático asignado
-            int assignedPort = serverSocket.getLocalPort(); // Obtener el puerto asignado
-            System.out.println("Server listening on port " + assignedPort);
+/**
+ * The `startBlockingEngine` function serves every client on the given executor, with each
+ * `ClientHandler` blocking on its socket for the life of the connection.
+ *
+ * @param pool The `pool` parameter is the executor that runs one `ClientHandler` per accepted socket.
+ * @param writers The `writers` parameter is the executor that runs the writer draining each client's
+ * `OutboundQueue`.
+ */
+    private void startBlockingEngine(ExecutorService pool, ExecutorService writers) throws IOException {
+        this.pool = pool;
+        this.writers = writers;
+        serverSocket = new ServerSocket(config.getPort(), ACCEPT_BACKLOG); // Puerto automático asignado
+        System.out.println("Server listening on port " + getPort());
+        startAcceptor(() -> {
+            while (running) {
+                try {
+                    // Aceptar una nueva conexión del cliente
+                    Socket clientSocket = serverSocket.accept();
+                    System.out.println("New client connected: " + clientSocket.getInetAddress());
 
-            // Inicia el descubrimiento del servidor en un hilo separado
-            ServerDiscovery serverDiscovery = new ServerDiscovery(assignedPort);
-            Thread discoveryThread = new Thread(serverDiscovery::startDiscovery);
-            discoveryThread.start(); // Iniciar el descubrimiento del servidor
+                    // Crea un nuevo ClientHandler para cada cliente y lo ejecuta en el executor del motor
+                    ClientHandler clientHandler = new ClientHandler(clientSocket, context, writers);
+                    pool.execute(clientHandler);
+                } catch (IOException e) {
+                    if (running) {
+                        System.out.println("Error accepting client: " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
 
-            while (true) {
-                // Aceptar una nueva conexión del cliente
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("New client connected: " + clientSocket.getInetAddress());
+/**
+ * The `startReactorEngine` function accepts clients on a `ServerSocketChannel` and shards the accepted
+ * connections round-robin across one `Reactor` per available core.
+ */
+    private void startReactorEngine() throws IOException {
+        int reactorCount = Runtime.getRuntime().availableProcessors();
+        reactors = new Reactor[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new Reactor(i, context);
+            reactors[i].start();
+        }
 
-                // Crea un nuevo ClientHandler para cada cliente y lo ejecuta en el pool de hilos
-                ClientHandler clientHandler = new ClientHandler(clientSocket, groupManager, callManager);
-                pool.execute(clientHandler);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.getPort()), ACCEPT_BACKLOG); // Puerto automático asignado
+        System.out.println("Server listening on port " + getPort() + " with " + reactorCount + " reactors");
+        startAcceptor(() -> {
+            int next = 0;
+            while (running) {
+                try {
+                    SocketChannel clientChannel = serverChannel.accept();
+                    System.out.println("New client connected: " + clientChannel.socket().getInetAddress());
+                    reactors[next].register(clientChannel);
+                    next = (next + 1) % reactorCount;
+                } catch (IOException e) {
+                    if (running) {
+                        System.out.println("Error accepting client: " + e.getMessage());
+                    }
+                }
             }
+        });
+    }
+
+    private void startAcceptor(Runnable acceptLoop) {
+        // El hilo de aceptación no es daemon: mantiene vivo el proceso del servidor
+        Thread acceptor = new Thread(acceptLoop, "acceptor-" + getPort());
+        acceptor.start();
+    }
+
+/**
+ * The `getPort` function returns the port clients connect to.
+ *
+ * @return The bound client port.
+ */
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : serverSocket.getLocalPort();
+    }
+
+    public ServerContext getContext() {
+        return context;
+    }
 
+/**
+ * The `close` function stops accepting clients, disconnects the connected ones, closes the links to
+ * the other nodes, forces the message log to disk and drops the offline mailboxes.
+ */
+    public void close() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            pool.shutdown();
         }
+        context.getCluster().close();
+        context.getPresenceManager().stop();
+        context.getMediaRelay().close();
+        for (ClientHandler handler : context.getUsers().values()) {
+            handler.close();
+        }
+        context.getMessageLog().close();
+        context.getOfflineMailboxes().close();
+        context.getVoiceStore().close();
+        if (reactors != null) {
+            for (Reactor reactor : reactors) {
+                reactor.shutdown();
+            }
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+            writers.shutdownNow();
+        }
+    }
+
+/**
+ * The `newVirtualThreadExecutor` function creates an executor that starts one virtual thread per task.
+ * Virtual threads need Java 21, so the factory is looked up reflectively; on older runtimes the
+ * server falls back to one platform thread per client, which still serves every connection.
+ *
+ * @return An `ExecutorService` running each submitted `ClientHandler` on its own thread.
+ */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available on Java " + Runtime.version().feature()
+                    + ", using one platform thread per client instead.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+/**
+ * The `startQueueStats` function prints the outbound queue depths every `--stats-interval` seconds, so
+ * slow consumers can be spotted while the server runs. It does nothing when the interval is zero.
+ */
+    private void startQueueStats() {
+        int interval = config.getStatsIntervalSeconds();
+        if (interval <= 0) {
+            return;
+        }
+        ScheduledExecutorService stats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "queue-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        stats.scheduleAtFixedRate(() -> {
+            Map<String, Integer> depths = context.getOutboundQueueDepths();
+            int total = 0;
+            String deepest = null;
+            int deepestDepth = 0;
+            for (Map.Entry<String, Integer> entry : depths.entrySet()) {
+                total += entry.getValue();
+                if (entry.getValue() > deepestDepth) {
+                    deepest = entry.getKey();
+                    deepestDepth = entry.getValue();
+                }
+            }
+            System.out.println("Outbound queues: " + depths.size() + " clients, " + total + " frames pending"
+                    + (deepest != null ? ", deepest " + deepest + " (" + deepestDepth + ")" : ""));
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private static void startDiscovery(int assignedPort) {
+        // Inicia el descubrimiento del servidor en un hilo separado
+        ServerDiscovery serverDiscovery = new ServerDiscovery(assignedPort);
+        Thread discoveryThread = new Thread(serverDiscovery::startDiscovery);
+        discoveryThread.start(); // Iniciar el descubrimiento del servidor
     }
 }
@@ -1,121 +1,175 @@
 package com.example.chismapp.server;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.example.chismapp.util.CommandParser;
+import com.example.chismapp.util.CommandTable;
+import com.example.chismapp.util.FrameReader;
+import com.example.chismapp.util.WireProtocol;
 
 /**
  * The `ClientHandler` class in the Chismapp server handles communication between clients, manages
- * group messaging, direct messaging, and call initiation and management.
+ * group messaging, direct messaging, and call initiation and management. Messages for the client are
+ * never written by the sender's thread: they are placed on the handler's bounded `OutboundQueue` and
+ * written by the client's own writer. Commands are recognized by a `CommandTable` and dispatched through
+ * a table of handlers indexed by opcode. Users and groups of other nodes of a cluster are reached through
+ * the `ClusterNode` of the server.
  */
 
 public class ClientHandler implements Runnable {
 
-    private static ConcurrentHashMap<String, ClientHandler> userHandlers = new ConcurrentHashMap<>();
+    private static final CommandTable COMMANDS;
+    private static final CommandHandler[] HANDLERS;
+    private static final int WRITE_BUFFER_SIZE = 8192;
+    private static final byte[] DIRECT_MESSAGE_PREFIX = "[Direct Message] ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VOICE_PREFIX = "VOICE:".getBytes(StandardCharsets.UTF_8);
+    private static final long REPLAY_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long REPLAY_STALL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int SEARCH_LIMIT = 20;
+
+    private final ConcurrentMap<String, ClientHandler> userHandlers;
+    private final ClusterNode cluster;
     private Socket clientSocket;
+    private NioConnection connection;
     private GroupManager groupManager;
     private CallManager callManager;
+    private PresenceManager presenceManager;
+    private MediaRelay mediaRelay;
+    private MessageLog messageLog;
+    private OfflineMailboxes offlineMailboxes;
+    private VoiceBlobStore voiceStore;
     private String userName;
-    private PrintWriter out;
+    private byte[] userNameBytes = new byte[0];
+    private volatile boolean binaryProtocol;
+    private final CommandParser parser = new CommandParser(COMMANDS);
+    private final OutboundQueue outbound;
+    private Executor writerExecutor;
+
+    // Tabla de comandos: el opcode de cada comando es su posición en HANDLERS
+    static {
+        CommandTable.Builder builder = CommandTable.builder();
+        List<CommandHandler> handlers = new ArrayList<>();
+        builder.rest("USERNAME:");
+        handlers.add(ClientHandler::handleUserName);
+        builder.split("/group", ' ', 2);
+        handlers.add(ClientHandler::handleGroup);
+        builder.split("/leave", ' ', 2);
+        handlers.add(ClientHandler::handleLeave);
+        builder.rest("/who");
+        handlers.add(ClientHandler::handleWho);
+        builder.split("/message", ' ', 3);
+        handlers.add(ClientHandler::handleGroupMessage);
+        builder.split("/dm", ' ', 3);
+        handlers.add(ClientHandler::handleDirectMessage);
+        builder.split("VOICE:", ':', 3);
+        handlers.add(ClientHandler::handleVoiceMessage);
+        builder.split("CALL_INITIATE:", ':', 2);
+        handlers.add(ClientHandler::handleCallInitiate);
+        builder.split("CALL_ACCEPT:", ':', 2);
+        handlers.add(ClientHandler::handleCallAccept);
+        builder.split("CALL_REJECT:", ':', 2);
+        handlers.add(ClientHandler::handleCallReject);
+        builder.split("CALL_END:", ':', 2);
+        handlers.add(ClientHandler::handleCallEnd);
+        builder.split("CONF_JOIN:", ':', 2);
+        handlers.add(ClientHandler::handleConferenceJoin);
+        builder.split("CONF_LEAVE:", ':', 2);
+        handlers.add(ClientHandler::handleConferenceLeave);
+        builder.split("REPLAY:", ':', 2);
+        handlers.add(ClientHandler::handleReplay);
+        builder.rest("/search");
+        handlers.add(ClientHandler::handleSearch);
+        COMMANDS = builder.build();
+        HANDLERS = handlers.toArray(new CommandHandler[0]);
+    }
 
-// The above code is defining a constructor for the `ClientHandler` class in Java. It takes three
-// parameters: a `Socket` object named `socket`, a `GroupManager` object named `groupManager`, and a
-// `CallManager` object named `callManager`. Inside the constructor, it assigns the values of these
-// parameters to the corresponding instance variables of the `ClientHandler` class.
-    public ClientHandler(Socket socket, GroupManager groupManager, CallManager callManager) {
+    // Un manejador recibe los argumentos del comando como vistas sobre la entrada
+    @FunctionalInterface
+    private interface CommandHandler {
+        void handle(ClientHandler client, CommandParser args);
+    }
+
+// The above code is defining a constructor for the `ClientHandler` class in Java. It takes the client
+// `Socket`, the `ServerContext` with the users and managers shared by all clients of the server and
+// the configuration that sizes the outbound queue, and the `Executor` that runs the writer draining that
+// queue to the socket.
+    public ClientHandler(Socket socket, ServerContext context, Executor writerExecutor) {
+        this(context);
         this.clientSocket = socket;
-        this.groupManager = groupManager;
-        this.callManager = callManager;
+        this.writerExecutor = writerExecutor;
+    }
+
+// This constructor is used by the non-blocking engine: the handler does not own a thread, it is driven
+// by the `Reactor` that calls `handleCommand` for every complete line read from the `NioConnection`, and
+// the reactor also drains the outbound queue when the socket is writable.
+    ClientHandler(NioConnection connection, ServerContext context) {
+        this(context);
+        this.connection = connection;
+    }
+
+    private ClientHandler(ServerContext context) {
+        ServerConfig config = context.getConfig();
+        this.userHandlers = context.getUsers();
+        this.cluster = context.getCluster();
+        this.groupManager = context.getGroupManager();
+        this.callManager = context.getCallManager();
+        this.presenceManager = context.getPresenceManager();
+        this.mediaRelay = context.getMediaRelay();
+        this.messageLog = context.getMessageLog();
+        this.offlineMailboxes = context.getOfflineMailboxes();
+        this.voiceStore = context.getVoiceStore();
+        this.outbound = new OutboundQueue(config.getQueueCapacity(), config.getOverflowPolicy(),
+                config.getBlockTimeoutMillis());
     }
 
 /**
- * This Java function handles incoming messages from a client, processes various commands such as
- * creating groups, sending messages, and managing voice calls, and manages user disconnections in a
- * chat application.
+ * This Java function handles incoming messages from a client in the blocking engine, reading text lines
+ * or, once negotiated, binary frames until the client disconnects and then releasing the user state.
  */
     @Override
     public void run() {
-        try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                PrintWriter outWriter = new PrintWriter(clientSocket.getOutputStream(), true)
-        ) {
-            this.out = outWriter; // Asignar PrintWriter a la variable de instancia
-            String message;
+        try {
+            FrameReader in = new FrameReader(clientSocket.getInputStream());
+            OutputStream socketOut = clientSocket.getOutputStream();
+            writerExecutor.execute(() -> drainOutbound(socketOut));
             // Escucha mensajes del cliente y responde
-            while ((message = in.readLine()) != null) {
-                // Procesar el mensaje recibido
-                if (message.startsWith("USERNAME:")) {
-                    this.userName = message.substring(9).trim(); // Extrae el nombre del usuario
-                    userHandlers.put(userName, this); // Añadir el usuario a la lista de manejadores
-                    System.out.println("User connected: " + userName);
-                    sendMessage("SYSTEM: Welcome " + userName + "!");
-                } else if (message.startsWith("/group")) {
-                    String[] parts = message.split(" ", 2);
-                    if (parts.length < 2) {
-                        out.println("SYSTEM: Usage: /group <groupName>");
-                        continue;
+            while (true) {
+                if (binaryProtocol) {
+                    if (!in.readFrameHeader()) {
+                        break;
                     }
-                    String groupName = parts[1].trim();
-                    groupManager.createGroup(groupName, this);
-                    out.println("SYSTEM: You have created/joined the group: " + groupName);
-                } else if (message.startsWith("/message")) {
-                    String[] parts = message.split(" ", 3);
-                    if (parts.length < 3) {
-                        out.println("SYSTEM: Usage: /message <groupName> <message>");
-                        continue;
+                    if (in.getFrameType() == WireProtocol.VOICE && in.getFrameLength() > VoiceForwarder.THRESHOLD) {
+                        forwardVoiceFrame(in);
+                    } else {
+                        in.readPayload(in.getFrameLength());
+                        handleFrame(in.getFrameType(), in.getPayload(), 0, in.getPayloadLength());
                     }
-                    String groupName = parts[1].trim();
-                    String msgContent = parts[2].trim();
-                    String fullMessage = "[" + groupName + "] " + userName + ": " + msgContent;
-
-                    // Reenviar el mensaje al grupo
-                    groupManager.sendMessageToGroup(groupName, fullMessage);
-                } else if (message.startsWith("/dm")) {
-                    String[] parts = message.split(" ", 3);
-                    if (parts.length < 3) {
-                        out.println("SYSTEM: Usage: /dm <username> <message>");
-                        continue;
+                } else {
+                    if (!in.readLine(VoiceForwarder.THRESHOLD)) {
+                        break;
                     }
-                    String targetUserName = parts[1].trim();
-                    String msgContent = parts[2].trim();
-                    String fullMessage = "[Direct Message] " + userName + ": " + msgContent;
-
-                    // Enviar el mensaje directo al usuario específico
-                    ClientHandler targetHandler = userHandlers.get(targetUserName);
-                    if (targetHandler != null) {
-                        targetHandler.sendMessage(fullMessage);
+                    if (in.isLineComplete()) {
+                        handleCommand(in.getPayload(), 0, in.getPayloadLength());
                     } else {
-                        out.println("SYSTEM: User " + targetUserName + " not found.");
+                        forwardLongLine(in);
                     }
-                } else if (message.startsWith("VOICE:")) {
-                    handleVoiceMessage(message);
-                } else if (message.startsWith("CALL_INITIATE:")) {
-                    handleCallInitiate(message);
-                } else if (message.startsWith("CALL_ACCEPT:")) {
-                    handleCallAccept(message);
-                } else if (message.startsWith("CALL_REJECT:")) {
-                    handleCallReject(message);
-                } else if (message.startsWith("CALL_END:")) {
-                    handleCallEnd(message);
-                } else {
-                    out.println("SYSTEM: Invalid command. Use /group, /message, /dm, or VOICE/CALL commands.");
                 }
             }
         } catch (IOException e) {
             System.out.println("Error handling client, removing user if applicable.");
         } finally {
-            // Manejar la desconexión del usuario
+            handleDisconnect();
             try {
-                if (userName != null) {
-                    userHandlers.remove(userName); // Eliminar el usuario de la lista al desconectarse
-                    groupManager.removeUserFromAllGroups(this);
-                    broadcastMessage("SYSTEM: User " + userName + " has left the chat.");
-                    System.out.println("User disconnected: " + userName);
-                }
                 clientSocket.close(); // Cierra la conexión con el cliente cuando se termina
             } catch (IOException e) {
                 e.printStackTrace();
@@ -123,36 +177,393 @@ public class ClientHandler implements Runnable {
         }
     }
 
+/**
+ * The `forwardVoiceFrame` function forwards a long binary `VOICE` frame in the blocking engines: only the
+ * recipient is read into memory, and the audio is streamed to a `VoiceForwarder` as it is received.
+ *
+ * @param in The `in` parameter is the reader positioned right after the frame header.
+ */
+    private void forwardVoiceFrame(FrameReader in) throws IOException {
+        in.readPayload(1);
+        in.readPayload(WireProtocol.voiceNameLength(in.getPayload(), 0));
+        VoiceForwarder forwarder = startVoiceFrame(in.getPayload(), 0, in.getPayloadLength());
+        try {
+            in.streamPayload(in.getFrameLength() - in.getPayloadLength(), forwarder::appendAudio);
+        } catch (IOException e) {
+            forwarder.abort();
+            throw e;
+        }
+        finishVoice(forwarder);
+    }
+
+/**
+ * The `forwardLongLine` function handles a line that grew past `VoiceForwarder.THRESHOLD` in the blocking
+ * engines. A `VOICE:` line is streamed to a `VoiceForwarder`; any other line is read whole as usual.
+ *
+ * @param in The `in` parameter is the reader holding the start of the line.
+ */
+    private void forwardLongLine(FrameReader in) throws IOException {
+        VoiceForwarder forwarder = startVoiceLine(in.getPayload(), 0, in.getPayloadLength());
+        if (forwarder == null) {
+            in.readRestOfLine();
+            handleCommand(in.getPayload(), 0, in.getPayloadLength());
+            return;
+        }
+        in.streamLine(forwarder::appendBase64);
+        finishVoice(forwarder);
+    }
+
+/**
+ * The `drainOutbound` function is the writer of the blocking engines: it writes the frames of the
+ * outbound queue to the socket until the queue is closed.
+ *
+ * @param socketOut The `socketOut` parameter is the output stream of the client socket.
+ */
+    private void drainOutbound(OutputStream socketOut) {
+        try {
+            outbound.drainTo(socketOut, WRITE_BUFFER_SIZE);
+        } catch (IOException e) {
+            disconnectSlowConsumer(); // El socket ya no acepta datos
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+/**
+ * This Java function processes a single command received from the client, recognizing it from its first
+ * bytes and dispatching it through the handler table, such as creating groups, sending messages, and
+ * managing voice calls. The arguments reach the handlers as views into the input.
+ *
+ * @param input The `input` parameter holds the command, UTF-8 encoded and without its line terminator;
+ * it is only valid during the call.
+ * @param offset The `offset` parameter is the index where the command starts.
+ * @param length The `length` parameter is the length of the command.
+ */
+    void handleCommand(byte[] input, int offset, int length) {
+        CommandTable.Command command = parser.parse(input, offset, length);
+        if (command == null) {
+            sendMessage("SYSTEM: Invalid command. Use /group, /leave, /who, /message, /dm, or VOICE/CALL commands.");
+            return;
+        }
+        HANDLERS[command.opcode()].handle(this, parser);
+    }
+
+    private void handleUserName(CommandParser args) {
+        String request = args.argument(0);
+        boolean wantsBinary = request.endsWith(WireProtocol.HANDSHAKE_SUFFIX);
+        if (wantsBinary) {
+            request = request.substring(0, request.length() - WireProtocol.HANDSHAKE_SUFFIX.length());
+        }
+        this.userName = request.trim(); // Extrae el nombre del usuario
+        this.userNameBytes = userName.getBytes(StandardCharsets.UTF_8);
+        if (wantsBinary) {
+            // La confirmación es la última línea de texto, después todo viaja en tramas. Se encola antes de
+            // publicar al usuario, para que ningún otro hilo le envíe texto después de ella
+            sendMessage(WireProtocol.HANDSHAKE_ACK);
+            binaryProtocol = true;
+        }
+        userHandlers.put(userName, this); // Añadir el usuario a la lista de manejadores
+        presenceManager.userJoined(userName);
+        cluster.announceUser(userName);
+        System.out.println("User connected: " + userName + (wantsBinary ? " (binary protocol)" : ""));
+        sendMessage("SYSTEM: Welcome " + userName + "!");
+        // Con el almacén de voz las notas llegan como referencias que se descargan de este puerto
+        if (voiceStore.isEnabled()) {
+            sendMessage(VoiceBlobStore.STORE_PREFIX + voiceStore.getPort());
+        }
+        deliverMailbox();
+    }
+
+/**
+ * The `deliverMailbox` function sends this user, right after the handshake, the messages that waited in
+ * its offline mailbox. They arrive in a few `MessageBatch` frames instead of one write per message,
+ * paced like a replay, followed by a notice with how many there were.
+ */
+    private void deliverMailbox() {
+        offlineMailboxes.deliver(userName, new OfflineMailboxes.Recipient() {
+            @Override
+            public boolean send(SharedMessage batch) {
+                return sendPaced(batch);
+            }
+
+            @Override
+            public void onEnd(int delivered, int dropped) {
+                sendMessage("SYSTEM: " + delivered + " messages arrived while you were offline"
+                        + (dropped > 0 ? ", " + dropped + " more could not be kept." : "."));
+            }
+        });
+    }
+
+    private void handleGroup(CommandParser args) {
+        if (args.argumentCount() < 1) {
+            sendMessage("SYSTEM: Usage: /group <groupName>");
+            return;
+        }
+        String groupName = args.name(0);
+        groupManager.createGroup(groupName, this);
+        sendMessage("SYSTEM: You have created/joined the group: " + groupName);
+    }
+
+    private void handleWho(CommandParser args) {
+        sendMessage(presenceManager.snapshot());
+    }
+
+    private void handleLeave(CommandParser args) {
+        if (args.argumentCount() < 1) {
+            sendMessage("SYSTEM: Usage: /leave <groupName>");
+            return;
+        }
+        String groupName = args.name(0);
+        if (groupManager.leaveGroup(groupName, this)) {
+            sendMessage("SYSTEM: You have left the group: " + groupName);
+            if (groupName.equals(mediaRelay.getMixer().getConference(this.userName))) {
+                leaveConference(groupName);
+            }
+        } else {
+            sendMessage("SYSTEM: You are not a member of the group: " + groupName);
+        }
+    }
+
+/**
+ * The `handleGroupMessage` function forwards a `/message` to a group. The outgoing line is assembled
+ * straight from the bytes received, so the content is never decoded.
+ *
+ * @param args The `args` parameter holds the group name and the content as views into the input.
+ */
+    private void handleGroupMessage(CommandParser args) {
+        if (args.argumentCount() < 2) {
+            sendMessage("SYSTEM: Usage: /message <groupName> <message>");
+            return;
+        }
+        // Formato de salida: [<grupo>] <usuario>: <mensaje>
+        byte[] input = args.buffer();
+        int groupLength = args.argumentLength(0);
+        int contentLength = args.argumentLength(1);
+        byte[] fullMessage = new byte[groupLength + userNameBytes.length + contentLength + 5];
+        fullMessage[0] = '[';
+        int position = put(fullMessage, 1, input, args.argumentOffset(0), groupLength);
+        fullMessage[position++] = ']';
+        fullMessage[position++] = ' ';
+        position = put(fullMessage, position, userNameBytes, 0, userNameBytes.length);
+        fullMessage[position++] = ':';
+        fullMessage[position++] = ' ';
+        put(fullMessage, position, input, args.argumentOffset(1), contentLength);
+
+        // Reenviar el mensaje al grupo, codificado una sola vez para todos los miembros y nodos
+        TextMessage message = TextMessage.chat(fullMessage);
+        cluster.deliverToGroup(args.name(0), message);
+        message.release();
+    }
+
+    private void handleDirectMessage(CommandParser args) {
+        if (args.argumentCount() < 2) {
+            sendMessage("SYSTEM: Usage: /dm <username> <message>");
+            return;
+        }
+        String targetUserName = args.name(0);
+        boolean online = cluster.isOnline(targetUserName);
+        if (!online && !messageLog.isEnabled() && !offlineMailboxes.isEnabled()) {
+            sendMessage("SYSTEM: User " + targetUserName + " not found.");
+            return;
+        }
+
+        // Formato de salida: [Direct Message] <usuario>: <mensaje>
+        int contentLength = args.argumentLength(1);
+        byte[] fullMessage = new byte[DIRECT_MESSAGE_PREFIX.length + userNameBytes.length + contentLength + 2];
+        int position = put(fullMessage, 0, DIRECT_MESSAGE_PREFIX, 0, DIRECT_MESSAGE_PREFIX.length);
+        position = put(fullMessage, position, userNameBytes, 0, userNameBytes.length);
+        fullMessage[position++] = ':';
+        fullMessage[position++] = ' ';
+        put(fullMessage, position, args.buffer(), args.argumentOffset(1), contentLength);
+        TextMessage message = TextMessage.chat(fullMessage);
+
+        // Enviar el mensaje directo al usuario específico, en este nodo o en otro
+        if (!online || !cluster.deliverToUser(targetUserName, message)) {
+            // Un usuario desconectado recibe el mensaje cuando vuelve al último nodo en el que estuvo
+            if (cluster.keepForUser(targetUserName, message)) {
+                sendMessage("SYSTEM: User " + targetUserName + " is offline, the message will be delivered when they reconnect.");
+            } else {
+                sendMessage("SYSTEM: User " + targetUserName + " not found.");
+            }
+        }
+        message.release();
+    }
+
+    private static int put(byte[] target, int position, byte[] source, int offset, int length) {
+        System.arraycopy(source, offset, target, position, length);
+        return position + length;
+    }
+
+/**
+ * The `handleFrame` function processes one binary frame received from a client that negotiated the
+ * binary protocol. Text frames carry the same commands as the text protocol.
+ *
+ * @param type The `type` parameter is the frame type defined by `WireProtocol`.
+ * @param payload The `payload` parameter holds the frame payload; it is only valid during the call.
+ * @param offset The `offset` parameter is the index where the payload starts.
+ * @param length The `length` parameter is the payload length.
+ */
+    void handleFrame(byte type, byte[] payload, int offset, int length) {
+        switch (type) {
+            case WireProtocol.TEXT -> handleCommand(payload, offset, length);
+            case WireProtocol.VOICE -> handleVoiceFrame(payload, offset, length);
+            default -> sendMessage("SYSTEM: Unknown frame type " + type + ".");
+        }
+    }
+
+/**
+ * The `handleDisconnect` function removes a disconnected user from the handlers and groups and records
+ * the departure, which the `PresenceManager` sends to the remaining clients with the next delta.
+ */
+    void handleDisconnect() {
+        outbound.close();
+        // Manejar la desconexión del usuario
+        if (userName != null) {
+            // Eliminar el usuario de la lista al desconectarse, salvo que otra conexión ya use el nombre
+            if (userHandlers.remove(userName, this)) {
+                presenceManager.userLeft(userName);
+                cluster.announceUser(userName);
+                // Los mensajes de sus grupos lo esperan en su buzón hasta que vuelva
+                offlineMailboxes.left(userName, groupManager.groupsOf(this));
+            }
+            groupManager.removeUserFromAllGroups(this);
+            mediaRelay.closeSession(userName);
+            String conference = mediaRelay.leaveConference(userName);
+            if (conference != null) {
+                notifyConference(conference, "SYSTEM: " + userName + " left the conference of " + conference + ".");
+            }
+            System.out.println("User disconnected: " + userName);
+        }
+    }
+
 /**
  * The `handleVoiceMessage` function processes a voice message by extracting recipient and audio data,
  * checking if the recipient is a group or user, and sending the message accordingly.
  * 
- * @param message The `handleVoiceMessage` method is designed to process a voice message in a specific
- * format. The `message` parameter should be in the format `VOICE:<destinatario>:<datos_audio_base64>`,
- * where:
+ * @param args The `args` parameter holds the parts of a line in the format
+ * `VOICE:<destinatario>:<datos_audio_base64>`: the recipient and the Base64 audio, as views into the input.
  */
-    private void handleVoiceMessage(String message) {
+    private void handleVoiceMessage(CommandParser args) {
         // Formato: VOICE:<destinatario>:<datos_audio_base64>
-        String[] parts = message.split(":", 3);
-        if (parts.length < 3) {
+        if (args.argumentCount() < 2) {
+            sendMessage("SYSTEM: Malformed VOICE message.");
+            return;
+        }
+        String recipient = args.name(0);
+        VoiceMessage voice;
+        try {
+            voice = VoiceMessage.fromBase64(userName, args.buffer(), args.argumentOffset(1), args.argumentLength(1));
+        } catch (IllegalArgumentException e) {
+            // El audio se valida aquí, y no en el envío a otro destinatario
             sendMessage("SYSTEM: Malformed VOICE message.");
             return;
         }
-        String recipient = parts[1].trim();
-        String encodedAudio = parts[2].trim();
-        String fullMessage = "VOICE:" + userName + ":" + encodedAudio;
+        deliverVoice(recipient, voice);
+    }
 
-        // Verificar si el destinatario es un grupo o un usuario
-        if (groupManager.isGroup(recipient)) {
-            groupManager.sendMessageToGroup(recipient, fullMessage);
-        } else {
-            // Enviar mensaje directo
-            ClientHandler targetHandler = userHandlers.get(recipient);
-            if (targetHandler != null) {
-                targetHandler.sendMessage(fullMessage);
-            } else {
-                sendMessage("SYSTEM: User " + recipient + " not found.");
+/**
+ * The `handleVoiceFrame` function processes a binary `VOICE` frame, whose payload holds the recipient
+ * name followed by the raw audio bytes.
+ *
+ * @param payload The `payload` parameter holds the frame payload; it is only valid during the call.
+ * @param offset The `offset` parameter is the index where the payload starts.
+ * @param length The `length` parameter is the payload length.
+ */
+    private void handleVoiceFrame(byte[] payload, int offset, int length) {
+        int nameLength = length > 0 ? WireProtocol.voiceNameLength(payload, offset) : 0;
+        if (length == 0 || 1 + nameLength > length) {
+            sendMessage("SYSTEM: Malformed VOICE message.");
+            return;
+        }
+        String recipient = new String(payload, offset + 1, nameLength, StandardCharsets.UTF_8);
+        int audioStart = offset + 1 + nameLength;
+        byte[] audio = Arrays.copyOfRange(payload, audioStart, offset + length);
+        deliverVoice(recipient, VoiceMessage.fromAudio(userName, audio));
+    }
+
+    private void deliverVoice(String recipient, VoiceMessage voice) {
+        if (!forwardVoice(recipient, voice)) {
+            sendMessage("SYSTEM: User " + recipient + " not found.");
+        }
+    }
+
+    // Entrega la voz y libera la referencia del remitente; devuelve false si el destinatario no existe
+    private boolean forwardVoice(String recipient, VoiceMessage voice) {
+        try {
+            // Verificar si el destinatario es un grupo o un usuario, en este nodo o en otro
+            if (cluster.isGroup(recipient)) {
+                cluster.deliverToGroup(recipient, voice);
+                return true;
             }
+            return cluster.deliverToUser(recipient, voice);
+        } finally {
+            voice.release();
+        }
+    }
+
+/**
+ * The `startVoiceLine` function is called by the readers when a line grows past
+ * `VoiceForwarder.THRESHOLD` without ending. If it is a `VOICE:` line, only its header is parsed and the
+ * Base64 text is forwarded while it arrives instead of being held until the end of the line.
+ *
+ * @param line The `line` parameter holds the start of the line; it is only valid during the call.
+ * @param offset The `offset` parameter is the index where the line starts.
+ * @param length The `length` parameter is the number of bytes received so far.
+ * @return A `VoiceForwarder` already given the text received so far, to which the reader passes the
+ * rest of the line, or `null` if the line is not a voice message and must be read whole.
+ */
+    VoiceForwarder startVoiceLine(byte[] line, int offset, int length) {
+        int end = offset + length;
+        if (length < VOICE_PREFIX.length
+                || !Arrays.equals(line, offset, offset + VOICE_PREFIX.length, VOICE_PREFIX, 0, VOICE_PREFIX.length)) {
+            return null;
+        }
+        int nameStart = offset + VOICE_PREFIX.length;
+        int separator = nameStart;
+        while (separator < end && line[separator] != ':') {
+            separator++;
+        }
+        if (separator == end) {
+            return null;
+        }
+        String recipient = new String(line, nameStart, separator - nameStart, StandardCharsets.UTF_8).trim();
+        VoiceForwarder forwarder = startVoice(recipient);
+        forwarder.appendBase64(line, separator + 1, end - separator - 1);
+        return forwarder;
+    }
+
+/**
+ * The `startVoiceFrame` function is called by the readers when a binary `VOICE` frame is longer than
+ * `VoiceForwarder.THRESHOLD`, once the recipient at the start of its payload has arrived.
+ *
+ * @param payload The `payload` parameter holds the start of the payload: the length of the recipient
+ * name and the name; it is only valid during the call.
+ * @param offset The `offset` parameter is the index where the payload starts.
+ * @param length The `length` parameter is the length of the name with its length byte.
+ * @return The `VoiceForwarder` to which the reader passes the audio.
+ */
+    VoiceForwarder startVoiceFrame(byte[] payload, int offset, int length) {
+        return startVoice(new String(payload, offset + 1, length - 1, StandardCharsets.UTF_8));
+    }
+
+    private VoiceForwarder startVoice(String recipient) {
+        VoiceForwarder forwarder = new VoiceForwarder(userName, recipient, this::forwardVoice);
+        if (!cluster.isGroup(recipient) && !cluster.isOnline(recipient)) {
+            sendMessage("SYSTEM: User " + recipient + " not found.");
+            forwarder.abort(); // El resto de la nota se lee y se descarta
+        }
+        return forwarder;
+    }
+
+/**
+ * The `finishVoice` function ends a forwarded voice note once its whole payload has been received.
+ *
+ * @param forwarder The `forwarder` parameter is the forwarder returned by `startVoiceLine` or
+ * `startVoiceFrame`.
+ */
+    void finishVoice(VoiceForwarder forwarder) {
+        if (!forwarder.finish()) {
+            sendMessage("SYSTEM: Malformed VOICE message.");
         }
     }
 
@@ -161,28 +572,27 @@ public class ClientHandler implements Runnable {
  * The `handleCallInitiate` function processes a call initiation message, checks if the recipient is
  * available for a call, and sends a call request if conditions are met.
  * 
- * @param message The `handleCallInitiate` method is responsible for initiating a call between two
- * users in a chat application. The `message` parameter is expected to be in the format
+ * @param args The `args` parameter holds the recipient of a message in the format
  * "CALL_INITIATE:<recipient>", where `<recipient>` is the username of the user you want to call.
  */
-    private void handleCallInitiate(String message) {
+    private void handleCallInitiate(CommandParser args) {
         // Formato: CALL_INITIATE:<recipient>
-        String[] parts = message.split(":", 2);
-        if (parts.length < 2) {
+        if (args.argumentCount() < 1) {
             sendMessage("SYSTEM: Malformed CALL_INITIATE message.");
             return;
         }
-        String recipient = parts[1].trim();
+        String recipient = args.name(0);
         System.out.println("Call request from " + this.userName + " to " + recipient);
         // Verificar si el destinatario existe y no está en otra llamada
-        if (!callManager.isInCall(recipient) && !callManager.isInCall(this.userName)) {
+        ConferenceMixer mixer = mediaRelay.getMixer();
+        if (!callManager.isInCall(recipient) && !callManager.isInCall(this.userName)
+                && mixer.getConference(recipient) == null && mixer.getConference(this.userName) == null) {
             // Enviar solicitud de llamada al destinatario
-            ClientHandler targetHandler = userHandlers.get(recipient);
-            if (targetHandler != null) {
+            if (cluster.isOnline(recipient)) {
                 // Marcar la llamada como pendiente en el CallManager
                 boolean pending = callManager.initiatePendingCall(this.userName, recipient);
                 if (pending) {
-                    targetHandler.sendMessage("CALL_REQUEST:" + this.userName);
+                    notifyCallParticipant(ClusterProtocol.CALL_INITIATE, recipient, "CALL_REQUEST:" + this.userName);
                     sendMessage("SYSTEM: Call request sent to " + recipient + ". Waiting for response...");
                 }
             } else {
@@ -198,18 +608,15 @@ public class ClientHandler implements Runnable {
  * The `handleCallAccept` function processes a call acceptance message, checks if the call is valid,
  * accepts the call, and notifies the caller if the call is accepted.
  * 
- * @param message The `handleCallAccept` method is used to process a message related to accepting a
- * call. The `message` parameter contains the information about the call acceptance in the format
- * "CALL_ACCEPT:<caller>".
+ * @param args The `args` parameter holds the caller of a message in the format "CALL_ACCEPT:<caller>".
  */
-    private void handleCallAccept(String message) {
+    private void handleCallAccept(CommandParser args) {
         // Formato: CALL_ACCEPT:<caller>
-        String[] parts = message.split(":", 2);
-        if (parts.length < 2) {
+        if (args.argumentCount() < 1) {
             sendMessage("SYSTEM: Malformed CALL_ACCEPT message.");
             return;
         }
-        String caller = parts[1].trim();
+        String caller = args.name(0);
 
         CallSession session = callManager.getPendingCallSession(caller);
         if (session != null && session.getRecipient().equals(this.userName)) {
@@ -217,9 +624,10 @@ public class ClientHandler implements Runnable {
             session.setAccepted(true);
             session.setActive(true);  // Establecer llamada como activa
             sendMessage("SYSTEM: Call accepted with " + caller);
-            ClientHandler callerHandler = userHandlers.get(caller);
-            if (callerHandler != null) {
-                callerHandler.sendMessage("CALL_ACCEPTED:" + this.userName);
+            notifyCallParticipant(ClusterProtocol.CALL_ACCEPT, caller, "CALL_ACCEPTED:" + this.userName);
+            if (userHandlers.containsKey(caller)) {
+                // El audio de la llamada viaja por el relé UDP; con un llamante remoto lo abre su nodo
+                mediaRelay.openSession(caller, this.userName, cluster);
             }
         } else {
             sendMessage("SYSTEM: No incoming call from " + caller + ".");
@@ -232,27 +640,21 @@ public class ClientHandler implements Runnable {
  * The `handleCallReject` method processes a call rejection message, checks if the call is pending and
  * from the correct recipient, rejects the call, and notifies the caller accordingly.
  * 
- * @param message The `handleCallReject` method is used to process a call rejection message received by
- * the user. The `message` parameter contains the information about the call rejection in the format
- * "CALL_REJECT:<caller>".
+ * @param args The `args` parameter holds the caller of a message in the format "CALL_REJECT:<caller>".
  */
-    private void handleCallReject(String message) {
+    private void handleCallReject(CommandParser args) {
         // Formato: CALL_REJECT:<caller>
-        String[] parts = message.split(":", 2);
-        if (parts.length < 2) {
+        if (args.argumentCount() < 1) {
             sendMessage("SYSTEM: Malformed CALL_REJECT message.");
             return;
         }
-        String caller = parts[1].trim();
+        String caller = args.name(0);
 
         CallSession session = callManager.getPendingCallSession(caller);
         if (session != null && session.getRecipient().equals(this.userName)) {
             callManager.rejectCall(this.userName, caller);
             sendMessage("SYSTEM: Call rejected from " + caller);
-            ClientHandler callerHandler = userHandlers.get(caller);
-            if (callerHandler != null) {
-                callerHandler.sendMessage("CALL_REJECTED:" + this.userName);
-            }
+            notifyCallParticipant(ClusterProtocol.CALL_REJECT, caller, "CALL_REJECTED:" + this.userName);
         } else {
             sendMessage("SYSTEM: No incoming call from " + caller + ".");
         }
@@ -265,55 +667,316 @@ public class ClientHandler implements Runnable {
  * session exists with the specified participant, ends the call if found, and notifies the other
  * participant if applicable.
  * 
- * @param message The `handleCallEnd` method is used to process a message related to ending a call. The
- * `message` parameter should be in the format "CALL_END:<otherParticipant>", where
- * `<otherParticipant>` is the username of the other participant in the call.
+ * @param args The `args` parameter holds the other participant of a message in the format
+ * "CALL_END:<otherParticipant>", where `<otherParticipant>` is the username of the other participant.
  */
-    private void handleCallEnd(String message) {
+    private void handleCallEnd(CommandParser args) {
         // Formato: CALL_END:<otherParticipant>
-        String[] parts = message.split(":", 2);
-        if (parts.length < 2) {
+        if (args.argumentCount() < 1) {
             sendMessage("SYSTEM: Malformed CALL_END message.");
             return;
         }
-        String otherParticipant = parts[1].trim();
+        String otherParticipant = args.name(0);
 
         CallSession session = callManager.getCallSession(this.userName);
         if (session != null && (session.getCaller().equals(otherParticipant) || session.getRecipient().equals(otherParticipant))) {
             callManager.endCall(this.userName);
             session.endCall();  // Marcar la sesión como finalizada
             sendMessage("SYSTEM: Call ended with " + otherParticipant);
-            ClientHandler otherHandler = userHandlers.get(otherParticipant);
-            if (otherHandler != null) {
-                otherHandler.sendMessage("CALL_ENDED:" + this.userName);
-            }
+            notifyCallParticipant(ClusterProtocol.CALL_END, otherParticipant, "CALL_ENDED:" + this.userName);
+            mediaRelay.closeSession(this.userName);
         } else {
             sendMessage("SYSTEM: No active call with " + otherParticipant + ".");
         }
     }
 
 /**
- * The `sendMessage` function in Java prints a message to the output stream.
+ * The `handleConferenceJoin` function adds this user to the conference call of one of its groups. The
+ * conference is mixed by the media relay of this node, which sends the user the `MEDIA:` line of its
+ * stream, and the other participants are told who joined.
+ *
+ * @param args The `args` parameter holds the group of a message in the format "CONF_JOIN:<group>".
+ */
+    private void handleConferenceJoin(CommandParser args) {
+        // Formato: CONF_JOIN:<group>
+        if (args.argumentCount() < 1) {
+            sendMessage("SYSTEM: Malformed CONF_JOIN message.");
+            return;
+        }
+        String group = args.name(0);
+        if (!Arrays.asList(groupManager.snapshotMembers(group)).contains(this)) {
+            sendMessage("SYSTEM: You are not a member of the group " + group + ".");
+            return;
+        }
+        if (callManager.isInCall(this.userName)) {
+            sendMessage("SYSTEM: End your call before joining a conference.");
+            return;
+        }
+        String previous = mediaRelay.getMixer().getConference(this.userName);
+        if (previous != null) {
+            leaveConference(previous);
+        }
+        sendMessage("CONF_JOINED:" + group);
+        mediaRelay.joinConference(group, this.userName, cluster);
+        notifyConference(group, "SYSTEM: " + this.userName + " joined the conference of " + group + ". Participants: "
+                + mediaRelay.getMixer().getParticipants(group));
+    }
+
+/**
+ * The `handleConferenceLeave` function takes this user out of its conference call.
+ *
+ * @param args The `args` parameter holds the group of a message in the format "CONF_LEAVE:<group>".
+ */
+    private void handleConferenceLeave(CommandParser args) {
+        // Formato: CONF_LEAVE:<group>
+        if (args.argumentCount() < 1) {
+            sendMessage("SYSTEM: Malformed CONF_LEAVE message.");
+            return;
+        }
+        String group = args.name(0);
+        if (!group.equals(mediaRelay.getMixer().getConference(this.userName))) {
+            sendMessage("SYSTEM: You are not in the conference of " + group + ".");
+            return;
+        }
+        leaveConference(group);
+    }
+
+    private void leaveConference(String group) {
+        if (mediaRelay.leaveConference(this.userName) != null) {
+            sendMessage("CONF_LEFT:" + group);
+            notifyConference(group, "SYSTEM: " + this.userName + " left the conference of " + group + ".");
+        }
+    }
+
+/**
+ * The `handleReplay` function sends this user the direct messages and the messages of its current groups
+ * that the `MessageLog` kept after the offset the client saw last, followed by `REPLAY_END:<offset>`
+ * with the last offset covered, from which the client asks next time.
+ * The log is read by its own thread, which waits whenever half of this client's outbound queue is in
+ * use, so a long gap never fills the queue; a client that stops reading gets the end of the replay early.
+ *
+ * @param args The `args` parameter holds the offset of a message in the format "REPLAY:<offset>".
+ */
+    private void handleReplay(CommandParser args) {
+        if (!messageLog.isEnabled()) {
+            sendMessage("SYSTEM: This server keeps no message history.");
+            return;
+        }
+        long after;
+        try {
+            after = args.argumentCount() < 1 ? -2 : Long.parseLong(args.name(0));
+        } catch (NumberFormatException e) {
+            after = -2;
+        }
+        if (after < -1 || userName == null) {
+            sendMessage("SYSTEM: Malformed REPLAY message.");
+            return;
+        }
+        messageLog.replay(after, userName, groupManager.groupsOf(this), new MessageLog.ReplayListener() {
+            @Override
+            public boolean onMessage(TextMessage message) {
+                boolean keepGoing = sendPaced(message);
+                message.release();
+                return keepGoing;
+            }
+
+            @Override
+            public void onEnd(long last) {
+                sendMessage("REPLAY_END:" + last);
+            }
+        });
+    }
+
+/**
+ * The `handleSearch` function answers a `/search <terms> [from:user] [group:name]` with the newest
+ * messages of the `MessageLog` that contain every word, as `SEARCH:<offset>:<line>` lines followed by
+ * the number of results. Only the direct messages of this user and the messages of its current groups
+ * are searched; `group:` narrows the search to one of those groups.
+ *
+ * @param args The `args` parameter holds the query after the command.
+ */
+    private void handleSearch(CommandParser args) {
+        if (!messageLog.isEnabled()) {
+            sendMessage("SYSTEM: This server keeps no message history.");
+            return;
+        }
+        String query = args.hasArgument(0) ? args.argument(0).trim() : "";
+        if (query.isEmpty() || userName == null) {
+            sendMessage("SYSTEM: Usage: /search <terms> [from:user] [group:name]");
+            return;
+        }
+        List<String> groups = groupManager.groupsOf(this);
+        List<String> terms = new ArrayList<>();
+        List<String> scopes = null;
+        for (String token : query.split("\\s+")) {
+            if (token.startsWith("from:") && token.length() > 5) {
+                terms.add(token);
+            } else if (token.startsWith("group:") && token.length() > 6) {
+                String group = token.substring(6);
+                if (!groups.contains(group)) {
+                    sendMessage("SYSTEM: You are not a member of the group: " + group);
+                    return;
+                }
+                scopes = List.of(token);
+            } else {
+                terms.addAll(MessageIndex.words(token));
+            }
+        }
+        if (scopes == null) {
+            // Los mensajes directos recibidos y enviados, y los de los grupos actuales
+            scopes = new ArrayList<>();
+            scopes.add("dm:" + userName);
+            scopes.add("dmfrom:" + userName);
+            for (String group : groups) {
+                scopes.add("group:" + group);
+            }
+        }
+        messageLog.search(terms, scopes, SEARCH_LIMIT, new MessageLog.ReplayListener() {
+            @Override
+            public boolean onMessage(TextMessage message) {
+                send(message);
+                message.release();
+                return true;
+            }
+
+            @Override
+            public void onEnd(long count) {
+                sendMessage("SYSTEM: " + count + " messages found.");
+            }
+        });
+    }
+
+/**
+ * The `sendPaced` function queues a message from a background sender, such as a replay, waiting first
+ * while half of this client's outbound queue is in use. A client that stops reading does not hold the
+ * sender forever: after a while the message is not sent.
+ *
+ * @param message The `message` parameter is the message; the caller keeps its reference.
+ * @return `false` if the message was not sent and the sender should stop.
+ */
+    private boolean sendPaced(SharedMessage message) {
+        long deadline = System.nanoTime() + REPLAY_STALL_NANOS;
+        int limit = outbound.getCapacity() / 2;
+        while (outbound.depth() >= limit && !outbound.isClosed() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(REPLAY_WAIT_NANOS);
+        }
+        boolean keepGoing = outbound.depth() < limit && !outbound.isClosed();
+        if (keepGoing) {
+            send(message);
+        }
+        return keepGoing;
+    }
+
+/**
+ * The `notifyConference` function sends a line to the other participants of a conference. They are all
+ * logged in on this node, whose relay mixes the conference.
+ *
+ * @param conference The `conference` parameter is the name of the conference.
+ * @param line The `line` parameter is the notification.
+ */
+    private void notifyConference(String conference, String line) {
+        for (String participant : mediaRelay.getMixer().getParticipants(conference)) {
+            ClientHandler handler = userHandlers.get(participant);
+            if (handler != null && handler != this) {
+                handler.sendMessage(line);
+            }
+        }
+    }
+
+/**
+ * The `notifyCallParticipant` function tells the other participant of a call about a change made by
+ * this user. A local participant receives the line directly; the node of a remote participant gets the
+ * change, applies it to its copy of the call and notifies the participant itself.
+ *
+ * @param operation The `operation` parameter is the `CALL_` operation of `ClusterProtocol`.
+ * @param participant The `participant` parameter is the user to notify.
+ * @param line The `line` parameter is the notification for a local participant.
+ */
+    private void notifyCallParticipant(String operation, String participant, String line) {
+        ClientHandler handler = userHandlers.get(participant);
+        if (handler != null) {
+            handler.sendMessage(line);
+        } else {
+            cluster.sendCall(operation, this.userName, participant);
+        }
+    }
+
+/**
+ * The `sendMessage` function encodes a message and places it on this client's outbound queue. If the
+ * queue is full and the overflow policy gives up on the client, the client is disconnected.
  * 
  * @param message The `sendMessage` method takes a `String` parameter named `message`, which represents
- * the message that will be printed to the output stream using `out.println`.
+ * the line that will be written to the client by its writer.
  */
     public void sendMessage(String message) {
-        out.println(message);
+        TextMessage text = TextMessage.of(message);
+        send(text);
+        text.release();
     }
 
 /**
- * The `broadcastMessage` function sends a message to all connected clients except for the current
- * client.
- * 
- * @param message A string message that will be broadcasted to all client handlers except for the
- * current handler.
+ * The `send` function queues a message shared with other recipients, using the frame encoded for the
+ * protocol this client negotiated. The caller keeps its own reference to the message and releases it.
+ *
+ * @param message The `message` parameter is the text or voice message shared by all its recipients.
+ */
+    public void send(SharedMessage message) {
+        if (!outbound.offer(message.frameFor(binaryProtocol), message.isVoice(), !Reactor.isReactorThread())) {
+            System.out.println("Disconnecting slow client " + userName + ": outbound queue is full.");
+            disconnectSlowConsumer();
+            return;
+        }
+        if (connection != null) {
+            connection.requestWrite();
+        }
+    }
+
+/**
+ * The `isBinaryProtocol` function tells whether this client negotiated the binary framing during the
+ * `USERNAME:` handshake.
+ *
+ * @return `true` once the client uses binary frames.
  */
-    private void broadcastMessage(String message) {
-        for (ClientHandler handler : userHandlers.values()) {
-            if (!handler.equals(this)) {
-                handler.sendMessage(message);
+    boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    private void disconnectSlowConsumer() {
+        outbound.close();
+        if (connection != null) {
+            connection.close();
+        } else {
+            try {
+                clientSocket.close(); // El hilo lector termina y ejecuta handleDisconnect
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
     }
+
+/**
+ * The `getOutboundQueue` function returns the queue of frames waiting to be written to this client.
+ *
+ * @return The `OutboundQueue` of this client.
+ */
+    OutboundQueue getOutboundQueue() {
+        return outbound;
+    }
+
+/**
+ * The `getOutboundQueueDepth` function returns how many frames are waiting to be written to this
+ * client, which grows when the client reads slower than it receives.
+ *
+ * @return The current depth of the outbound queue.
+ */
+    public int getOutboundQueueDepth() {
+        return outbound.depth();
+    }
+
+/**
+ * The `close` function disconnects this client, as when the server shuts down.
+ */
+    void close() {
+        disconnectSlowConsumer();
+    }
 }
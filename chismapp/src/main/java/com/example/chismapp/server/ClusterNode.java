@@ -0,0 +1,609 @@
+package com.example.chismapp.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * The `ClusterNode` class lets several `ChatServer` nodes serve one chat. Each node keeps a routing
+ * table with the home node of every user logged in elsewhere and, for every group, the nodes that have
+ * members in it. Nodes talk over one persistent `PeerLink` per pair: a message for a remote user is
+ * forwarded to that user's node, and a group message is written once to each node with members, which
+ * then fans it out to its own members. Calls between users of different nodes keep a copy of the call
+ * state on both nodes, updated with `CALL` frames. A direct message for a user who is logged in nowhere
+ * is kept by the node the user was last logged in on. A server that is not clustered still routes
+ * through this class, which then only knows its local users.
+ */
+public class ClusterNode {
+
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final ServerContext context;
+    private final String nodeId;
+    // Nodo de origen de cada usuario conectado en otro nodo
+    private final ConcurrentMap<String, String> homes = new ConcurrentHashMap<>();
+    // Último nodo, este incluido, de cada usuario desconectado: ahí esperan sus mensajes directos
+    private final ConcurrentMap<String, String> lastHomes = new ConcurrentHashMap<>();
+    // Nodos con miembros en cada grupo, sin contar este
+    private final ConcurrentMap<String, Set<String>> remoteGroups = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PeerLink> links = new ConcurrentHashMap<>();
+    // Los anuncios se envían con este candado para que el último anuncio refleje el estado actual
+    private final Object announceLock = new Object();
+    private ServerSocket listener;
+    private volatile boolean running;
+
+// The constructor takes the `ServerContext` of the node, whose users, groups and calls it routes.
+    public ClusterNode(ServerContext context, String nodeId) {
+        this.context = context;
+        this.nodeId = nodeId;
+    }
+
+/**
+ * The `start` function listens for other nodes on `clusterPort`, if it is not negative, and keeps a link
+ * open to each of the given peers, reconnecting when a link is lost.
+ *
+ * @param clusterPort The `clusterPort` parameter is the port for other nodes, `0` for any free port or a
+ * negative value to accept no connections.
+ * @param peers The `peers` parameter holds the addresses of the nodes to connect to.
+ */
+    public void start(int clusterPort, Iterable<InetSocketAddress> peers) throws IOException {
+        running = true;
+        if (clusterPort >= 0) {
+            listener = new ServerSocket(clusterPort);
+            System.out.println("Node " + nodeId + " listening for peers on port " + listener.getLocalPort());
+            startThread("peer-acceptor", this::acceptLoop);
+        }
+        for (InetSocketAddress peer : peers) {
+            startThread("peer-dialer-" + peer.getPort(), () -> dialLoop(peer));
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = listener.accept();
+                socket.setTcpNoDelay(true);
+                new PeerLink(this, socket, false).start();
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("Error accepting peer: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Mantiene abierto un enlace con el nodo, reconectando cuando se pierde
+    private void dialLoop(InetSocketAddress peer) {
+        PeerLink link = null;
+        while (running) {
+            // Un enlace rechazado porque el otro nodo ya tiene uno no se vuelve a marcar
+            if (link == null || (link.isClosed() && !isLinked(link.getPeerId()))) {
+                try {
+                    Socket socket = new Socket(peer.getHostString(), peer.getPort());
+                    socket.setTcpNoDelay(true);
+                    link = new PeerLink(this, socket, true);
+                    link.start();
+                } catch (IOException e) {
+                    link = null;
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private boolean isLinked(String peerId) {
+        if (peerId == null) {
+            return false;
+        }
+        PeerLink link = links.get(peerId);
+        return link != null && !link.isClosed();
+    }
+
+    private static void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+/**
+ * The `close` function stops accepting and dialing peers and closes every link.
+ */
+    public void close() {
+        running = false;
+        if (listener != null) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                // Ya estaba cerrado
+            }
+        }
+        for (PeerLink link : links.values()) {
+            link.close();
+        }
+    }
+
+/**
+ * The `register` function is called by a link once the other node said `HELLO`. When two nodes dialed
+ * each other, both keep the link dialed by the node with the smaller id and close the other one. The new
+ * peer is then told about the local users and groups.
+ *
+ * @param link The `link` parameter is the link that completed its handshake.
+ */
+    void register(PeerLink link) {
+        String peerId = link.getPeerId();
+        if (peerId.equals(nodeId)) {
+            link.close(); // Un nodo conectado a sí mismo
+            return;
+        }
+        synchronized (announceLock) {
+            PeerLink existing = links.get(peerId);
+            if (existing != null && !existing.isClosed() && isPreferred(existing)) {
+                link.close();
+                return;
+            }
+            links.put(peerId, link);
+            if (existing != null) {
+                existing.close();
+            }
+            System.out.println("Node " + nodeId + " linked to node " + peerId);
+            for (String userName : context.getUsers().keySet()) {
+                sendFrame(link, ClusterProtocol.USER_ONLINE, userName);
+            }
+            for (String groupName : context.getGroupManager().groupNames()) {
+                sendFrame(link, ClusterProtocol.GROUP_INTEREST, groupName, "1");
+            }
+        }
+    }
+
+    private boolean isPreferred(PeerLink link) {
+        return link.isDialed() == (nodeId.compareTo(link.getPeerId()) < 0);
+    }
+
+/**
+ * The `unregister` function is called when a link closes. If it was the current link to its node, the
+ * users and groups of that node are forgotten until the node links again.
+ *
+ * @param link The `link` parameter is the link that was closed.
+ */
+    void unregister(PeerLink link) {
+        String peerId = link.getPeerId();
+        if (peerId == null || !links.remove(peerId, link)) {
+            return;
+        }
+        System.out.println("Node " + nodeId + " lost node " + peerId);
+        for (Map.Entry<String, String> home : homes.entrySet()) {
+            if (home.getValue().equals(peerId)) {
+                lastHomes.put(home.getKey(), peerId);
+                if (homes.remove(home.getKey(), peerId)) {
+                    context.getPresenceManager().userLeft(home.getKey());
+                }
+            }
+        }
+        for (Map.Entry<String, Set<String>> group : remoteGroups.entrySet()) {
+            group.getValue().remove(peerId);
+        }
+    }
+
+/**
+ * The `announceUser` function tells the other nodes whether a local user is logged in, reading the
+ * current state so the last announcement always matches it.
+ *
+ * @param userName The `userName` parameter is the user that logged in or disconnected.
+ */
+    public void announceUser(String userName) {
+        synchronized (announceLock) {
+            boolean online = context.getUsers().containsKey(userName);
+            if (online) {
+                lastHomes.remove(userName);
+            } else {
+                lastHomes.put(userName, nodeId);
+            }
+            broadcastFrame(online ? ClusterProtocol.USER_ONLINE : ClusterProtocol.USER_OFFLINE, userName);
+        }
+    }
+
+/**
+ * The `announceGroup` function tells the other nodes whether this node has members in a group. It is
+ * the listener of the `GroupManager`, called when a group is created or retired.
+ *
+ * @param groupName The `groupName` parameter is the group that changed.
+ */
+    public void announceGroup(String groupName) {
+        synchronized (announceLock) {
+            boolean hasMembers = context.getGroupManager().isGroup(groupName);
+            broadcastFrame(ClusterProtocol.GROUP_INTEREST, groupName, hasMembers ? "1" : "0");
+        }
+    }
+
+    private void broadcastFrame(byte type, String... fields) {
+        if (links.isEmpty()) {
+            return;
+        }
+        SharedFrame frame = ClusterProtocol.frame(type, fields);
+        for (PeerLink link : links.values()) {
+            link.send(frame, false);
+        }
+        frame.release();
+    }
+
+    private static void sendFrame(PeerLink link, byte type, String... fields) {
+        SharedFrame frame = ClusterProtocol.frame(type, fields);
+        link.send(frame, false);
+        frame.release();
+    }
+
+/**
+ * The `isOnline` function tells whether a user is logged in on this node or on another one.
+ *
+ * @param userName The `userName` parameter is the user to look for.
+ * @return `true` if messages for the user can be delivered.
+ */
+    public boolean isOnline(String userName) {
+        return context.getUsers().containsKey(userName) || homes.containsKey(userName);
+    }
+
+/**
+ * The `isGroup` function tells whether a group has members on this node or on another one.
+ *
+ * @param groupName The `groupName` parameter is the group to look for.
+ * @return `true` if the group exists somewhere in the cluster.
+ */
+    public boolean isGroup(String groupName) {
+        if (context.getGroupManager().isGroup(groupName)) {
+            return true;
+        }
+        Set<String> nodes = remoteGroups.get(groupName);
+        return nodes != null && !nodes.isEmpty();
+    }
+
+/**
+ * The `deliverToUser` function sends a message to a user, writing it to the local client or forwarding
+ * it to the user's node. The caller keeps its reference to the message.
+ *
+ * @param userName The `userName` parameter is the recipient.
+ * @param message The `message` parameter is the message to deliver.
+ * @return `false` if the user is not logged in anywhere.
+ */
+    public boolean deliverToUser(String userName, SharedMessage message) {
+        ClientHandler local = context.getUsers().get(userName);
+        if (local != null) {
+            sendToLocalUser(local, userName, message);
+            return true;
+        }
+        PeerLink link = linkTo(homes.get(userName));
+        if (link == null) {
+            return false;
+        }
+        // Los mensajes directos van en su propio tipo para que el nodo del destinatario los registre
+        byte type = isChat(message) ? ClusterProtocol.DIRECT : ClusterProtocol.DELIVER;
+        SharedFrame frame = ClusterProtocol.wrap(type, userName, message);
+        link.send(frame, message.isVoice());
+        frame.release();
+        return true;
+    }
+
+/**
+ * The `keepForUser` function keeps a direct message for a user who is not logged in anywhere, so it is
+ * delivered when the user logs in again. The message is kept on the node the user was last logged in
+ * on, whose log and mailboxes the user reads when logging in there: this node keeps it in its
+ * `MessageLog`, or else in the user's `OfflineMailboxes`, and another node gets it as a `DIRECT` frame.
+ * Only users who have logged in before are kept for, so a mistyped name is answered as not found; a
+ * user whose last node is not linked cannot be reached either.
+ *
+ * @param userName The `userName` parameter is the recipient.
+ * @param message The `message` parameter is the chat message; the caller keeps its reference.
+ * @return `false` if the message could not be kept.
+ */
+    public boolean keepForUser(String userName, TextMessage message) {
+        String home = lastHomes.get(userName);
+        // Un nombre que nunca se conectó no recibe mensajes: si no, cada nombre inventado tendría buzón
+        if (home == null) {
+            return false;
+        }
+        if (home.equals(nodeId)) {
+            return keepLocally(userName, message);
+        }
+        PeerLink link = linkTo(home);
+        if (link == null) {
+            return false;
+        }
+        SharedFrame frame = ClusterProtocol.wrap(ClusterProtocol.DIRECT, userName, message);
+        link.send(frame, false);
+        frame.release();
+        return true;
+    }
+
+    // Un usuario desconectado recibe el mensaje cuando vuelve: del registro si el nodo lo lleva, si no
+    // de su buzón
+    private boolean keepLocally(String userName, TextMessage message) {
+        TextMessage logged = context.getMessageLog().append(MessageLog.DIRECT, userName, message);
+        if (logged != message) {
+            logged.release();
+            return true;
+        }
+        return context.getOfflineMailboxes().post(userName, message);
+    }
+
+/**
+ * The `deliverToGroup` function sends a message to the local members of a group and writes it once to
+ * each other node with members, which fans it out to its own members. The caller keeps its reference to
+ * the message.
+ *
+ * @param groupName The `groupName` parameter is the group.
+ * @param message The `message` parameter is the message to deliver.
+ */
+    public void deliverToGroup(String groupName, SharedMessage message) {
+        sendToLocalGroup(groupName, message);
+        Set<String> nodes = remoteGroups.get(groupName);
+        if (nodes == null || nodes.isEmpty()) {
+            return;
+        }
+        SharedFrame frame = null;
+        for (String node : nodes) {
+            PeerLink link = linkTo(node);
+            if (link != null) {
+                if (frame == null) {
+                    frame = ClusterProtocol.wrap(ClusterProtocol.GROUP_DELIVER, groupName, message);
+                }
+                link.send(frame, message.isVoice());
+            }
+        }
+        if (frame != null) {
+            frame.release();
+        }
+    }
+
+/**
+ * The `sendCall` function tells the node of `target` about a change in a call between `actor`, a local
+ * user, and `target`. That node applies the same change to its copy of the call and notifies `target`.
+ *
+ * @param operation The `operation` parameter is one of the `CALL_` operations of `ClusterProtocol`.
+ * @param actor The `actor` parameter is the user who initiated, accepted, rejected or ended the call.
+ * @param target The `target` parameter is the other participant.
+ * @return `false` if `target` is not logged in on another node.
+ */
+    public boolean sendCall(String operation, String actor, String target) {
+        PeerLink link = linkTo(homes.get(target));
+        if (link == null) {
+            return false;
+        }
+        sendFrame(link, ClusterProtocol.CALL, operation, actor, target);
+        return true;
+    }
+
+/**
+ * The `sendToLocalUser` function writes a message to a user of this node. A chat message is first
+ * appended to the `MessageLog`, and the user gets the line tagged with its offset. With a
+ * `VoiceBlobStore`, a voice note is stored and the user gets its reference once the note is complete.
+ *
+ * @param local The `local` parameter is the handler of the user.
+ * @param userName The `userName` parameter is the user.
+ * @param message The `message` parameter is the message; the caller keeps its reference.
+ */
+    private void sendToLocalUser(ClientHandler local, String userName, SharedMessage message) {
+        if (store(userName, message, local::send)) {
+            return;
+        }
+        SharedMessage logged = log(MessageLog.DIRECT, userName, message);
+        local.send(logged);
+        if (logged != message) {
+            logged.release();
+        }
+    }
+
+/**
+ * The `sendToLocalGroup` function writes a message to the members of a group on this node, logging it
+ * first if it is a chat message, which also waits in the mailboxes of the members who disconnected. A
+ * voice note goes through the `VoiceBlobStore` like in `sendToLocalUser`. Each node logs a group
+ * message once: the node of the sender, even when no member is online, and every node it is forwarded
+ * to.
+ *
+ * @param groupName The `groupName` parameter is the group.
+ * @param message The `message` parameter is the message; the caller keeps its reference.
+ */
+    private void sendToLocalGroup(String groupName, SharedMessage message) {
+        if (store(groupName, message, ref -> context.getGroupManager().sendMessageToGroup(groupName, ref))) {
+            return;
+        }
+        SharedMessage logged = log(MessageLog.GROUP, groupName, message);
+        context.getGroupManager().sendMessageToGroup(groupName, logged);
+        if (logged != message) {
+            logged.release();
+        }
+        if (isChat(message)) {
+            context.getOfflineMailboxes().postToGroup(groupName, (TextMessage) message);
+        }
+    }
+
+    // Una nota de voz se entrega como referencia a su blob, desde el hilo que la guarda cuando termina de
+    // llegar; devuelve false si el mensaje se entrega tal cual
+    private boolean store(String target, SharedMessage message, Consumer<TextMessage> delivery) {
+        VoiceBlobStore store = context.getVoiceStore();
+        if (!store.isEnabled() || !(message instanceof VoiceMessage voice)) {
+            return false;
+        }
+        store.collect(target, voice, delivery);
+        return true;
+    }
+
+    private SharedMessage log(byte kind, String target, SharedMessage message) {
+        return isChat(message) ? context.getMessageLog().append(kind, target, (TextMessage) message) : message;
+    }
+
+    private static boolean isChat(SharedMessage message) {
+        return message instanceof TextMessage text && text.isChat();
+    }
+
+    private PeerLink linkTo(String node) {
+        return node == null ? null : links.get(node);
+    }
+
+/**
+ * The `handleFrame` function applies a frame received from another node.
+ *
+ * @param link The `link` parameter is the link the frame came from.
+ * @param type The `type` parameter is the frame type.
+ * @param payload The `payload` parameter holds the payload; it is only valid during the call.
+ * @param length The `length` parameter is the payload length.
+ */
+    void handleFrame(PeerLink link, byte type, byte[] payload, int length) throws ProtocolException {
+        String peerId = link.getPeerId();
+        ClusterProtocol.Fields fields = new ClusterProtocol.Fields(payload, 0, length);
+        switch (type) {
+            case ClusterProtocol.USER_ONLINE -> {
+                String userName = fields.next();
+                homes.put(userName, peerId);
+                lastHomes.remove(userName);
+                context.getPresenceManager().userJoined(userName);
+            }
+            case ClusterProtocol.USER_OFFLINE -> {
+                String userName = fields.next();
+                // El último nodo se anota antes de olvidar al usuario, que así nunca queda sin ninguno
+                if (peerId.equals(homes.get(userName))) {
+                    lastHomes.put(userName, peerId);
+                }
+                if (homes.remove(userName, peerId)) {
+                    context.getPresenceManager().userLeft(userName);
+                }
+            }
+            case ClusterProtocol.GROUP_INTEREST -> {
+                String groupName = fields.next();
+                if ("1".equals(fields.next())) {
+                    remoteGroups.computeIfAbsent(groupName, name -> ConcurrentHashMap.newKeySet()).add(peerId);
+                } else {
+                    remoteGroups.computeIfPresent(groupName, (name, nodes) -> {
+                        nodes.remove(peerId);
+                        return nodes.isEmpty() ? null : nodes;
+                    });
+                }
+            }
+            case ClusterProtocol.DELIVER -> {
+                String userName = fields.next();
+                ClientHandler local = context.getUsers().get(userName);
+                if (local != null) {
+                    SharedMessage message = fields.message();
+                    sendToLocalUser(local, userName, message);
+                    message.release();
+                }
+            }
+            case ClusterProtocol.DIRECT -> {
+                String userName = fields.next();
+                SharedMessage message = fields.message(true);
+                ClientHandler local = context.getUsers().get(userName);
+                if (local != null) {
+                    sendToLocalUser(local, userName, message);
+                } else if (isChat(message)) {
+                    // El usuario se fue mientras el mensaje viajaba, o este es su último nodo
+                    keepLocally(userName, (TextMessage) message);
+                }
+                message.release();
+            }
+            case ClusterProtocol.GROUP_DELIVER -> {
+                String groupName = fields.next();
+                // Los mensajes de texto de grupo son siempre de chat; las notas de voz no se registran
+                SharedMessage message = fields.message(true);
+                // Solo los miembros de este nodo: el nodo de origen ya escribió a los demás
+                sendToLocalGroup(groupName, message);
+                message.release();
+            }
+            case ClusterProtocol.CALL -> handleCall(fields.next(), fields.next(), fields.next());
+            default -> System.out.println("Unknown frame type " + type + " from node " + peerId);
+        }
+    }
+
+    // Aplica en la copia local el cambio de una llamada hecho en otro nodo y avisa al usuario de este nodo
+    private void handleCall(String operation, String actor, String target) {
+        CallManager calls = context.getCallManager();
+        ClientHandler local = context.getUsers().get(target);
+        switch (operation) {
+            case ClusterProtocol.CALL_INITIATE -> {
+                if (local != null && calls.initiatePendingCall(actor, target)) {
+                    local.sendMessage("CALL_REQUEST:" + actor);
+                } else {
+                    // El destinatario está ocupado o ya no está: se rechaza en su nombre
+                    sendCall(ClusterProtocol.CALL_REJECT, target, actor);
+                }
+            }
+            case ClusterProtocol.CALL_ACCEPT -> {
+                calls.acceptCall(actor, target);
+                CallSession session = calls.getCallSession(target);
+                if (session != null) {
+                    session.setActive(true);
+                }
+                if (local != null) {
+                    local.sendMessage("CALL_ACCEPTED:" + actor);
+                    // El nodo del llamante aloja el relé de audio de la llamada
+                    context.getMediaRelay().openSession(target, actor, this);
+                }
+            }
+            case ClusterProtocol.CALL_REJECT -> {
+                calls.rejectCall(actor, target);
+                if (local != null) {
+                    local.sendMessage("CALL_REJECTED:" + actor);
+                }
+            }
+            case ClusterProtocol.CALL_END -> {
+                calls.endCall(actor);
+                context.getMediaRelay().closeSession(actor);
+                if (local != null) {
+                    local.sendMessage("CALL_ENDED:" + actor);
+                }
+            }
+            default -> System.out.println("Unknown call operation " + operation);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+/**
+ * The `getPort` function returns the port other nodes connect to.
+ *
+ * @return The cluster port, or `-1` if the node does not accept peers.
+ */
+    public int getPort() {
+        return listener != null ? listener.getLocalPort() : -1;
+    }
+
+/**
+ * The `homeOf` function returns the node a remote user is logged in on.
+ *
+ * @param userName The `userName` parameter is the user.
+ * @return The id of the user's node, or `null` if the user is local or unknown.
+ */
+    String homeOf(String userName) {
+        return homes.get(userName);
+    }
+
+/**
+ * The `nodesOf` function returns the other nodes with members in a group.
+ *
+ * @param groupName The `groupName` parameter is the group.
+ * @return The ids of the nodes a message for the group is forwarded to.
+ */
+    Set<String> nodesOf(String groupName) {
+        Set<String> nodes = remoteGroups.get(groupName);
+        return nodes != null ? Set.copyOf(nodes) : Set.of();
+    }
+
+/**
+ * The `peerCount` function returns how many nodes this node is linked to.
+ *
+ * @return The number of open links.
+ */
+    public int peerCount() {
+        return links.size();
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.chismapp.server;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.example.chismapp.util.WireProtocol;
+
+/**
+ * The `ClusterProtocol` class defines the frames exchanged by the nodes of a cluster over their peer
+ * links. They use the framing of `WireProtocol` (a type byte, a four byte length and the payload) with
+ * their own types. Payloads are a sequence of fields, each one a two byte length followed by UTF-8 text;
+ * frames that carry a chat message end with the binary client frame of that message, so a node forwards
+ * what it would have written to a binary client and the receiving node rebuilds the message from it.
+ */
+final class ClusterProtocol {
+
+    // Tipos de trama entre nodos
+    static final byte HELLO = 16;          // Campos: id del nodo
+    static final byte USER_ONLINE = 17;    // Campos: usuario
+    static final byte USER_OFFLINE = 18;   // Campos: usuario
+    static final byte GROUP_INTEREST = 19; // Campos: grupo, "1" si el nodo tiene miembros o "0"
+    static final byte DELIVER = 20;        // Campos: usuario, seguidos de la trama binaria del mensaje
+    static final byte GROUP_DELIVER = 21;  // Campos: grupo, seguidos de la trama binaria del mensaje
+    static final byte CALL = 22;           // Campos: operación, usuario que actúa, usuario notificado
+    static final byte DIRECT = 23;         // Campos: usuario, seguidos de la trama de un mensaje directo
+
+    static final String CALL_INITIATE = "INITIATE";
+    static final String CALL_ACCEPT = "ACCEPT";
+    static final String CALL_REJECT = "REJECT";
+    static final String CALL_END = "END";
+
+    private static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+    private ClusterProtocol() {}
+
+/**
+ * The function `frame` builds a frame made only of text fields.
+ *
+ * @param type The `type` parameter is one of the frame types of this class.
+ * @param fields The `fields` parameter holds the fields of the payload, in order.
+ * @return A sealed `SharedFrame` owned by the caller.
+ */
+    static SharedFrame frame(byte type, String... fields) {
+        byte[][] encoded = new byte[fields.length][];
+        int length = 0;
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = encodeField(fields[i]);
+            length += 2 + encoded[i].length;
+        }
+        SharedFrame frame = SharedFrame.allocate(WireProtocol.HEADER_LENGTH + length);
+        ByteBuffer buffer = frame.buffer();
+        buffer.put(type).putInt(length);
+        for (byte[] field : encoded) {
+            buffer.putShort((short) field.length).put(field);
+        }
+        return frame.seal();
+    }
+
+/**
+ * The function `wrap` builds a `DELIVER`, `DIRECT` or `GROUP_DELIVER` frame carrying a chat message,
+ * addressed to a user or a group of the receiving node.
+ *
+ * @param type The `type` parameter is `DELIVER`, `DIRECT` or `GROUP_DELIVER`.
+ * @param target The `target` parameter is the user or group the message is for.
+ * @param message The `message` parameter is the message to forward; it is encoded for binary clients,
+ * so the frame is also reused by the local binary recipients.
+ * @return A sealed `SharedFrame` owned by the caller.
+ */
+    static SharedFrame wrap(byte type, String target, SharedMessage message) {
+        byte[] field = encodeField(target);
+        ByteBuffer embedded = message.frameFor(true).view();
+        int length = 2 + field.length + embedded.remaining();
+        SharedFrame frame = SharedFrame.allocate(WireProtocol.HEADER_LENGTH + length);
+        frame.buffer().put(type).putInt(length).putShort((short) field.length).put(field).put(embedded);
+        return frame.seal();
+    }
+
+    private static byte[] encodeField(String field) {
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("Field too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+/**
+ * The `Fields` class reads the fields of a received payload in order.
+ */
+    static final class Fields {
+        private final byte[] payload;
+        private final int limit;
+        private int position;
+
+        Fields(byte[] payload, int offset, int length) {
+            this.payload = payload;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        String next() throws ProtocolException {
+            if (position + 2 > limit) {
+                throw new ProtocolException("Missing field");
+            }
+            int length = ((payload[position] & 0xFF) << 8) | (payload[position + 1] & 0xFF);
+            position += 2;
+            if (position + length > limit) {
+                throw new ProtocolException("Truncated field");
+            }
+            String field = new String(payload, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return field;
+        }
+
+        SharedMessage message() throws ProtocolException {
+            return message(false);
+        }
+
+/**
+ * The function `message` rebuilds the chat message carried after the fields of a `DELIVER`, `DIRECT` or
+ * `GROUP_DELIVER` frame. The bytes are copied, so the message outlives the payload buffer.
+ *
+ * @param chat The `chat` parameter marks a text message as written by a user, to be kept in the
+ * `MessageLog` of the receiving node.
+ * @return A new message owned by the caller.
+ * @throws ProtocolException if the embedded frame is malformed.
+ */
+        SharedMessage message(boolean chat) throws ProtocolException {
+            if (position + WireProtocol.HEADER_LENGTH > limit) {
+                throw new ProtocolException("Missing message");
+            }
+            byte type = payload[position];
+            int length = WireProtocol.payloadLength(payload, position);
+            int start = position + WireProtocol.HEADER_LENGTH;
+            if (start + length > limit) {
+                throw new ProtocolException("Truncated message");
+            }
+            position = start + length;
+            if (type == WireProtocol.TEXT) {
+                byte[] line = Arrays.copyOfRange(payload, start, start + length);
+                return chat ? TextMessage.chat(line) : TextMessage.ofUtf8(line);
+            }
+            if (type == WireProtocol.VOICE && length > 0) {
+                int nameLength = WireProtocol.voiceNameLength(payload, start);
+                if (1 + nameLength <= length) {
+                    String sender = new String(payload, start + 1, nameLength, StandardCharsets.UTF_8);
+                    return VoiceMessage.fromAudio(sender,
+                            Arrays.copyOfRange(payload, start + 1 + nameLength, start + length));
+                }
+            }
+            throw new ProtocolException("Invalid message frame type " + type);
+        }
+    }
+}
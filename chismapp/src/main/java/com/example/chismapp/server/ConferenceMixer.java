@@ -0,0 +1,449 @@
+package com.example.chismapp.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
+
+import com.example.chismapp.util.AudioCodec;
+import com.example.chismapp.util.MediaPacket;
+import com.example.chismapp.util.SpscRing;
+
+/**
+ * The `ConferenceMixer` class mixes the audio of conference calls, which unlike the calls of the
+ * `CallManager` have any number of participants. Forwarding every participant's audio to every other one
+ * would take N·(N-1) streams, so the mixer sends each participant a single stream instead: on a fixed
+ * 20 ms tick it decodes what each participant sent, adds all the voices up and sends each participant the
+ * sum minus its own voice, clipped to 16 bits and encoded with the codec that participant uses.
+ *
+ * <p>Packets reach the mixer from the relay thread through single-producer rings of pooled buffers, and
+ * every buffer a participant needs is allocated when it joins, so a tick allocates nothing and one core
+ * mixes dozens of conferences. Conferences and their participants are published as copy-on-write arrays,
+ * like the members of a group, so joining or leaving never stops the mixer.</p>
+ */
+public class ConferenceMixer {
+
+    // Audio de las llamadas: 16 kHz, 16 bits, mono
+    static final int SAMPLE_RATE = 16_000;
+    static final int TICK_MILLIS = 20;
+    static final int TICK_SAMPLES = SAMPLE_RATE * TICK_MILLIS / 1000;
+    private static final long TICK_NANOS = TICK_MILLIS * 1_000_000L;
+    private static final int PACKET_POOL_SIZE = 16;  // Paquetes de un participante a la espera del tick
+    private static final int PREFILL_SAMPLES = 2 * TICK_SAMPLES;  // Colchón contra el jitter al empezar a hablar
+    private static final int MAX_BACKLOG_SAMPLES = 6 * TICK_SAMPLES;  // Más atraso que esto se descarta
+    private static final int FIFO_SAMPLES = 8192;  // Potencia de dos
+    // Lo más largo que decodifica un paquete: ADPCM, cuatro bits por muestra
+    private static final int MAX_DECODED_LENGTH = 4 * MediaPacket.MAX_PAYLOAD_LENGTH;
+    // Nivel del ruido de confort que se envía cuando nadie más habla, en -dBov
+    private static final int COMFORT_NOISE_LEVEL = 70;
+    private static final Conference[] NO_CONFERENCES = new Conference[0];
+    private static final Participant[] NO_PARTICIPANTS = new Participant[0];
+
+    private final Output output;
+    private volatile Conference[] conferences = NO_CONFERENCES;
+    private final ConcurrentMap<String, Participant> participantsByUser = new ConcurrentHashMap<>();
+
+    // Búferes del hilo mezclador, compartidos por todas las conferencias
+    private final int[] sum = new int[TICK_SAMPLES];
+    private final byte[] decoded = new byte[MAX_DECODED_LENGTH];
+    private final byte[] pcm = new byte[2 * TICK_SAMPLES];
+    private final byte[] unit = new byte[1 + 2 * TICK_SAMPLES];
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(MediaPacket.MAX_PACKET_LENGTH);
+
+    private volatile Thread thread;
+    private volatile long ticks;
+    private volatile long overruns;
+    private volatile long mixedPackets;
+    private volatile long droppedPackets;
+
+// The constructor takes the `Output` the mixed packets are sent through, the UDP channel of the relay.
+    ConferenceMixer(Output output) {
+        this.output = output;
+    }
+
+/**
+ * The `start` function starts the thread that mixes every conference once per tick.
+ */
+    public void start() {
+        Thread mixer = new Thread(this::mixLoop, "conference-mixer");
+        mixer.setDaemon(true);
+        thread = mixer;
+        mixer.start();
+    }
+
+    private void mixLoop() {
+        long next = System.nanoTime();
+        while (thread == Thread.currentThread()) {
+            tick();
+            next += TICK_NANOS;
+            long delay = next - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            } else if (delay < -TICK_NANOS) {
+                // Se atrasó más de un tick: seguir desde ahora en vez de encadenar ticks para alcanzarlo
+                overruns++;
+                next = System.nanoTime();
+            }
+        }
+    }
+
+/**
+ * The `close` function stops the mixer thread.
+ */
+    public void close() {
+        Thread mixer = thread;
+        thread = null;
+        if (mixer != null) {
+            LockSupport.unpark(mixer);
+        }
+    }
+
+/**
+ * The `join` function adds a user to a conference, creating the conference if it has no participants
+ * yet. A user who was in another conference leaves it first.
+ *
+ * @param conferenceName The `conferenceName` parameter is the name of the conference.
+ * @param userName The `userName` parameter is the user who joins.
+ * @param endpoint The `endpoint` parameter is the relay endpoint the user's audio arrives on and the mixed
+ * audio is sent to.
+ * @return The new participant.
+ */
+    synchronized Participant join(String conferenceName, String userName, MediaRelay.Endpoint endpoint) {
+        leave(userName);
+        Conference conference = find(conferenceName);
+        if (conference == null) {
+            conference = new Conference(conferenceName);
+            Conference[] current = conferences;
+            Conference[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = conference;
+            conferences = updated;
+        }
+        Participant participant = new Participant(conference, userName, endpoint);
+        Participant[] members = conference.participants;
+        Participant[] updated = Arrays.copyOf(members, members.length + 1);
+        updated[members.length] = participant;
+        conference.participants = updated;
+        participantsByUser.put(userName, participant);
+        return participant;
+    }
+
+/**
+ * The `leave` function removes a user from its conference. A conference whose last participant leaves
+ * is removed.
+ *
+ * @param userName The `userName` parameter is the user who leaves.
+ * @return The participant that was removed, or `null` if the user was not in a conference.
+ */
+    synchronized Participant leave(String userName) {
+        Participant participant = participantsByUser.remove(userName);
+        if (participant == null) {
+            return null;
+        }
+        Conference conference = participant.conference;
+        conference.participants = without(conference.participants, participant, NO_PARTICIPANTS);
+        if (conference.participants.length == 0) {
+            conferences = without(conferences, conference, NO_CONFERENCES);
+        }
+        return participant;
+    }
+
+    private static <T> T[] without(T[] items, T item, T[] empty) {
+        int index = Arrays.asList(items).indexOf(item);
+        if (index < 0) {
+            return items;
+        }
+        if (items.length == 1) {
+            return empty;
+        }
+        T[] updated = Arrays.copyOf(items, items.length - 1);
+        System.arraycopy(items, index + 1, updated, index, items.length - index - 1);
+        return updated;
+    }
+
+    private Conference find(String conferenceName) {
+        for (Conference conference : conferences) {
+            if (conference.name.equals(conferenceName)) {
+                return conference;
+            }
+        }
+        return null;
+    }
+
+/**
+ * The `getConference` function returns the conference a user is in.
+ *
+ * @param userName The `userName` parameter is the user.
+ * @return The name of the conference, or `null` if the user is not in one.
+ */
+    public String getConference(String userName) {
+        Participant participant = participantsByUser.get(userName);
+        return participant != null ? participant.conference.name : null;
+    }
+
+/**
+ * The `getParticipants` function returns the users in a conference.
+ *
+ * @param conferenceName The `conferenceName` parameter is the name of the conference.
+ * @return A new list with the participants, empty if the conference does not exist.
+ */
+    public List<String> getParticipants(String conferenceName) {
+        List<String> names = new ArrayList<>();
+        Conference conference = find(conferenceName);
+        if (conference != null) {
+            for (Participant participant : conference.participants) {
+                names.add(participant.userName);
+            }
+        }
+        return names;
+    }
+
+/**
+ * The `receive` function hands a participant's packet to the mixer. It copies the audio into one of the
+ * participant's pooled buffers, to be decoded on the next tick, and drops the packet if it is older than
+ * the last one or if the participant's buffers are all waiting. Only the relay thread may call it.
+ *
+ * @param participant The `participant` parameter is the sender, found by the token of the packet.
+ * @param packet The `packet` parameter holds a packet with audio, starting at its position.
+ */
+    void receive(Participant participant, ByteBuffer packet) {
+        int sequence = MediaPacket.sequence(packet);
+        if (participant.receiving && sequence - participant.lastSequence <= 0) {
+            droppedPackets++; // Llegó tarde o repetido
+            return;
+        }
+        AudioPacket slot = participant.free.poll();
+        if (slot == null) {
+            droppedPackets++; // El mezclador no alcanza a este participante
+            return;
+        }
+        slot.length = packet.remaining() - MediaPacket.HEADER_LENGTH;
+        packet.get(packet.position() + MediaPacket.HEADER_LENGTH, slot.data, 0, slot.length);
+        participant.submitted.offer(slot);
+        participant.lastSequence = sequence;
+        participant.receiving = true;
+    }
+
+/**
+ * The `tick` function mixes every conference once: it is called by the mixer thread every 20 ms.
+ */
+    void tick() {
+        for (Conference conference : conferences) {
+            mix(conference);
+        }
+        ticks++;
+    }
+
+    private void mix(Conference conference) {
+        Participant[] participants = conference.participants;
+        Arrays.fill(sum, 0);
+        int speakers = 0;
+        for (Participant participant : participants) {
+            decodeReceived(participant);
+            if (takeTick(participant)) {
+                speakers++;
+                int[] voice = participant.voice;
+                for (int i = 0; i < TICK_SAMPLES; i++) {
+                    sum[i] += voice[i];
+                }
+            }
+        }
+        for (Participant participant : participants) {
+            if (speakers - (participant.speaking ? 1 : 0) == 0) {
+                // Nadie más habla: un marcador de ruido de confort y luego nada hasta que alguien hable
+                if (participant.sending) {
+                    participant.sending = false;
+                    unit[0] = AudioCodec.COMFORT_NOISE_ID;
+                    unit[1] = COMFORT_NOISE_LEVEL;
+                    send(participant, 2);
+                }
+                continue;
+            }
+            int[] voice = participant.voice;
+            boolean own = participant.speaking;
+            for (int i = 0; i < TICK_SAMPLES; i++) {
+                int sample = own ? sum[i] - voice[i] : sum[i];
+                if (sample > Short.MAX_VALUE) {
+                    sample = Short.MAX_VALUE;
+                } else if (sample < Short.MIN_VALUE) {
+                    sample = Short.MIN_VALUE;
+                }
+                pcm[2 * i] = (byte) sample;
+                pcm[2 * i + 1] = (byte) (sample >> 8);
+            }
+            AudioCodec codec = participant.codec;
+            unit[0] = (byte) codec.getId();
+            int length = 1 + codec.encode(pcm, 0, pcm.length, unit, 1);
+            participant.sending = true;
+            send(participant, length);
+        }
+    }
+
+    private void decodeReceived(Participant participant) {
+        AudioPacket slot;
+        while ((slot = participant.submitted.poll()) != null) {
+            decode(participant, slot.data, slot.length);
+            participant.free.offer(slot);
+        }
+    }
+
+    private void decode(Participant participant, byte[] data, int length) {
+        int id = data[0];
+        if (id == AudioCodec.COMFORT_NOISE_ID) {
+            return; // El participante calla: su cola se vacía en los próximos ticks
+        }
+        AudioCodec codec;
+        try {
+            codec = AudioCodec.fromId(id);
+        } catch (IllegalArgumentException e) {
+            droppedPackets++;
+            return;
+        }
+        if (codec.decodedLength(data, 1, length - 1) > decoded.length) {
+            droppedPackets++;
+            return;
+        }
+        int decodedLength = codec.decode(data, 1, length - 1, decoded, 0);
+        participant.codec = codec;
+        for (int i = 0; i + 1 < decodedLength; i += 2) {
+            participant.append((short) ((decoded[i] & 0xFF) | (decoded[i + 1] << 8)));
+        }
+        if (participant.backlog() > MAX_BACKLOG_SAMPLES) {
+            participant.skipTo(PREFILL_SAMPLES); // Una ráfaga acumuló atraso
+        }
+    }
+
+    private static boolean takeTick(Participant participant) {
+        int available = participant.backlog();
+        if (!participant.playing ? available < PREFILL_SAMPLES : available == 0) {
+            participant.playing = false;
+            participant.speaking = false;
+            return false;
+        }
+        participant.playing = true;
+        int taken = participant.take(participant.voice, Math.min(available, TICK_SAMPLES));
+        Arrays.fill(participant.voice, taken, TICK_SAMPLES, 0);
+        if (taken < TICK_SAMPLES) {
+            participant.playing = false; // Se vació: esperar otra vez el colchón inicial
+        }
+        participant.speaking = true;
+        return true;
+    }
+
+    private void send(Participant participant, int length) {
+        SocketAddress target = participant.endpoint.address;
+        if (target == null) {
+            return; // Aún no anunció su dirección
+        }
+        MediaPacket.put(packet, 0L, participant.sequence++, unit, 0, length);
+        try {
+            output.send(packet, target);
+            mixedPackets++;
+        } catch (IOException e) {
+            System.out.println("Conference mixer error: " + e.getMessage());
+        }
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public long getMixedPackets() {
+        return mixedPackets;
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+/**
+ * The `Output` interface sends a mixed packet to a participant.
+ */
+    @FunctionalInterface
+    interface Output {
+        void send(ByteBuffer packet, SocketAddress target) throws IOException;
+    }
+
+/**
+ * The `Conference` class holds the participants of one conference as a copy-on-write array.
+ */
+    static final class Conference {
+        final String name;
+        volatile Participant[] participants = NO_PARTICIPANTS;
+
+        Conference(String name) {
+            this.name = name;
+        }
+    }
+
+/**
+ * The `Participant` class is one user in a conference. The relay thread fills its pooled packets; the
+ * mixer thread owns everything else: the queue of decoded samples, the voice taken for the current tick
+ * and the state of the stream sent back.
+ */
+    static final class Participant {
+        final Conference conference;
+        final String userName;
+        final MediaRelay.Endpoint endpoint;
+        final SpscRing<AudioPacket> free = new SpscRing<>(PACKET_POOL_SIZE);
+        final SpscRing<AudioPacket> submitted = new SpscRing<>(PACKET_POOL_SIZE);
+        final int[] voice = new int[TICK_SAMPLES];
+        private final short[] samples = new short[FIFO_SAMPLES];
+        private long read;
+        private long write;
+        int lastSequence;  // Solo del hilo del relay
+        boolean receiving;  // Solo del hilo del relay
+        boolean playing;
+        boolean speaking;
+        boolean sending;
+        int sequence;
+        AudioCodec codec = AudioCodec.ADPCM;
+
+        Participant(Conference conference, String userName, MediaRelay.Endpoint endpoint) {
+            this.conference = conference;
+            this.userName = userName;
+            this.endpoint = endpoint;
+            for (int i = 0; i < PACKET_POOL_SIZE; i++) {
+                free.offer(new AudioPacket());
+            }
+        }
+
+        int backlog() {
+            return (int) (write - read);
+        }
+
+        void append(short sample) {
+            if (write - read == samples.length) {
+                read++; // Lleno: se pierde la muestra más vieja
+            }
+            samples[(int) write++ & (samples.length - 1)] = sample;
+        }
+
+        int take(int[] target, int count) {
+            for (int i = 0; i < count; i++) {
+                target[i] = samples[(int) read++ & (samples.length - 1)];
+            }
+            return count;
+        }
+
+        void skipTo(int backlog) {
+            read = write - backlog;
+        }
+    }
+
+/**
+ * The `AudioPacket` class is a pooled buffer holding the audio of one received packet.
+ */
+    static final class AudioPacket {
+        final byte[] data = new byte[MediaPacket.MAX_PAYLOAD_LENGTH];
+        int length;
+    }
+}
@@ -1,78 +1,264 @@
 package com.example.chismapp.server;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * The `GroupManager` class manages groups of `ClientHandler` objects, allowing for group creation,
- * message sending, group existence checking, and removing users from all groups.
+ * message sending, group existence checking, and removing users from all groups. Groups live in a
+ * concurrent map and each one publishes its members as an immutable array: senders read the current
+ * array and fan out without taking any lock, while membership changes build a new array and publish it
+ * with a compare-and-set, so traffic in one group never waits for another. A reverse index keeps the
+ * groups of each client, so a disconnect only touches the groups the client belonged to. A group whose
+ * last member leaves is retired and removed from the map, so the map does not grow forever.
  */
 public class GroupManager {
 
-    private final Map<String, Set<ClientHandler>> groups;
+    private static final ClientHandler[] NO_MEMBERS = new ClientHandler[0];
+    // Marca de un grupo vacío que ya fue retirado: nadie puede volver a unirse a esa instancia
+    private static final ClientHandler[] RETIRED = new ClientHandler[0];
+
+    private final ConcurrentMap<String, Group> groups;
+    private final ConcurrentMap<ClientHandler, Set<Group>> memberships;
+    private final Consumer<String> onGroupChanged;
 
 // The `public GroupManager()` constructor in the `GroupManager` class is initializing the `groups`
-// field with a new instance of `HashMap`. This ensures that when a new `GroupManager` object is
-// created, it will have an empty map ready to store group names and corresponding sets of
-// `ClientHandler` objects.
+// field with a new instance of `ConcurrentHashMap`. This ensures that when a new `GroupManager` object
+// is created, it will have an empty map ready to store group names and the membership of each group,
+// along with the reverse index from each client to its groups.
     public GroupManager() {
-        this.groups = new HashMap<>();
+        this(groupName -> { });
+    }
+
+// This constructor also takes the listener told the name of a group whenever the group is created or
+// retired, which the `ClusterNode` uses to tell the other nodes which groups have members here.
+    public GroupManager(Consumer<String> onGroupChanged) {
+        this.groups = new ConcurrentHashMap<>();
+        this.memberships = new ConcurrentHashMap<>();
+        this.onGroupChanged = onGroupChanged;
     }
 
 /**
- * The `createGroup` function adds a client handler to a group with the specified group name in a
- * synchronized manner.
- * 
+ * The `createGroup` function adds a client handler to a group with the specified group name.
+ *
  * @param groupName The `groupName` parameter is a `String` representing the name of the group that is
  * being created.
  * @param clientHandler The `clientHandler` parameter in the `createGroup` method is an instance of the
  * `ClientHandler` class. It is being added to a group identified by the `groupName` parameter in the
  * `groups` map. The `ClientHandler` class likely represents a client connection or session handler in
  */
-    public synchronized void createGroup(String groupName, ClientHandler clientHandler) {
-        groups.putIfAbsent(groupName, new HashSet<>());
-        groups.get(groupName).add(clientHandler);
+    public void createGroup(String groupName, ClientHandler clientHandler) {
+        while (true) {
+            Group group = groups.get(groupName);
+            boolean created = false;
+            if (group == null) {
+                Group fresh = new Group(groupName);
+                group = groups.putIfAbsent(groupName, fresh);
+                if (group == null) {
+                    group = fresh;
+                    created = true;
+                }
+            }
+            if (group.add(clientHandler)) {
+                memberships.computeIfAbsent(clientHandler, member -> ConcurrentHashMap.newKeySet()).add(group);
+                if (created) {
+                    onGroupChanged.accept(groupName);
+                }
+                return;
+            }
+            // El grupo se retiró al quedar vacío: se ayuda a sacarlo del mapa y se crea uno nuevo
+            groups.remove(groupName, group);
+        }
     }
 
 /**
- * The `sendMessageToGroup` function sends a message to all members of a specified group in a
- * synchronized manner.
- * 
+ * The `leaveGroup` function removes a client handler from one group, retiring the group if it becomes
+ * empty.
+ *
+ * @param groupName The `groupName` parameter is the name of the group to leave.
+ * @param clientHandler The `clientHandler` parameter is the client leaving the group.
+ * @return `true` if the client was a member of the group.
+ */
+    public boolean leaveGroup(String groupName, ClientHandler clientHandler) {
+        Group group = groups.get(groupName);
+        if (group == null) {
+            return false;
+        }
+        Set<Group> joined = memberships.get(clientHandler);
+        if (joined != null) {
+            joined.remove(group);
+        }
+        return removeMember(group, clientHandler);
+    }
+
+/**
+ * The `sendMessageToGroup` function sends a message to all members of a specified group. It reads the
+ * current membership snapshot, so no lock is held while the message is queued for each member, and the
+ * message is encoded once per protocol no matter how many members the group has.
+ *
  * @param groupName The `groupName` parameter is a `String` representing the name of the group to which
  * the message will be sent.
- * @param message The `message` parameter in the `sendMessageToGroup` method is a String that
- * represents the message that you want to send to all members of a specific group.
+ * @param message The `message` parameter is the text or voice message shared by all the members; the
+ * caller still releases it afterwards.
  */
-    public synchronized void sendMessageToGroup(String groupName, String message) {
-        Set<ClientHandler> groupMembers = groups.get(groupName);
-        if (groupMembers != null) {
-            for (ClientHandler member : groupMembers) {
-                member.sendMessage(message);
-            }
+    public void sendMessageToGroup(String groupName, SharedMessage message) {
+        for (ClientHandler member : snapshotMembers(groupName)) {
+            member.send(message);
         }
     }
 
 /**
- * The function checks if a specified group exists in a synchronized manner.
- * 
+ * The `snapshotMembers` function returns the members of a group at the time of the call. The array is
+ * shared and must not be modified.
+ *
+ * @param groupName The `groupName` parameter is the name of the group.
+ * @return The current members, or an empty array when the group does not exist.
+ */
+    ClientHandler[] snapshotMembers(String groupName) {
+        Group group = groups.get(groupName);
+        return group == null ? NO_MEMBERS : group.members.get(); // RETIRED también está vacío
+    }
+
+/**
+ * The function checks if a specified group exists.
+ *
  * @param groupName The `groupName` parameter is a `String` representing the name of a group.
  * @return The method is returning a boolean value indicating whether the `groupName` exists in the
  * `groups` map.
  */
-    public synchronized boolean isGroup(String groupName) {
-        return groups.containsKey(groupName);
+    public boolean isGroup(String groupName) {
+        Group group = groups.get(groupName);
+        return group != null && group.members.get() != RETIRED;
+    }
+
+/**
+ * The `groupNames` function returns the names of the groups that currently have members.
+ *
+ * @return A new list with the group names.
+ */
+    public List<String> groupNames() {
+        List<String> names = new ArrayList<>();
+        for (Group group : groups.values()) {
+            if (group.members.get() != RETIRED) {
+                names.add(group.name);
+            }
+        }
+        return names;
+    }
+
+/**
+ * The `groupsOf` function returns the groups a client is a member of, read from the reverse index.
+ *
+ * @param clientHandler The `clientHandler` parameter is the member.
+ * @return A new list with the group names.
+ */
+    public List<String> groupsOf(ClientHandler clientHandler) {
+        List<String> names = new ArrayList<>();
+        Set<Group> joined = memberships.get(clientHandler);
+        if (joined != null) {
+            for (Group group : joined) {
+                names.add(group.name);
+            }
+        }
+        return names;
+    }
+
+/**
+ * The `groupCount` function returns how many groups are alive, for monitoring.
+ *
+ * @return The number of groups in the map.
+ */
+    public int groupCount() {
+        return groups.size();
     }
 
 /**
- * The function removes a specific client handler from all groups in a synchronized manner.
- * 
+ * The function removes a specific client handler from all groups. Only the groups recorded in the
+ * reverse index for that client are visited.
+ *
  * @param clientHandler The `clientHandler` parameter is an object of type `ClientHandler`.
  */
-    public synchronized void removeUserFromAllGroups(ClientHandler clientHandler) {
-        for (Set<ClientHandler> members : groups.values()) {
-            members.remove(clientHandler);
+    public void removeUserFromAllGroups(ClientHandler clientHandler) {
+        Set<Group> joined = memberships.remove(clientHandler);
+        if (joined == null) {
+            return;
+        }
+        for (Group group : joined) {
+            removeMember(group, clientHandler);
+        }
+    }
+
+    private boolean removeMember(Group group, ClientHandler clientHandler) {
+        boolean removed = group.remove(clientHandler);
+        if (removed && group.members.get() == RETIRED && groups.remove(group.name, group)) {
+            onGroupChanged.accept(group.name);
+        }
+        return removed;
+    }
+
+/**
+ * The `Group` class holds the membership of one group as a copy-on-write array. Readers only do a
+ * volatile read; writers retry their compare-and-set if another member joined or left meanwhile. When the
+ * last member leaves, the array is replaced by the `RETIRED` marker instead of an empty array, so a
+ * concurrent join fails its compare-and-set and creates a fresh group instead of reviving this one.
+ */
+    private static final class Group {
+        private final String name;
+        private final AtomicReference<ClientHandler[]> members = new AtomicReference<>(NO_MEMBERS);
+
+        Group(String name) {
+            this.name = name;
+        }
+
+        boolean add(ClientHandler member) {
+            while (true) {
+                ClientHandler[] current = members.get();
+                if (current == RETIRED) {
+                    return false;
+                }
+                if (indexOf(current, member) >= 0) {
+                    return true;
+                }
+                ClientHandler[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = member;
+                if (members.compareAndSet(current, updated)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean remove(ClientHandler member) {
+            while (true) {
+                ClientHandler[] current = members.get();
+                int index = indexOf(current, member);
+                if (index < 0) {
+                    return false;
+                }
+                ClientHandler[] updated = RETIRED;
+                if (current.length > 1) {
+                    updated = new ClientHandler[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, index);
+                    System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+                }
+                if (members.compareAndSet(current, updated)) {
+                    return true;
+                }
+            }
+        }
+
+        private static int indexOf(ClientHandler[] members, ClientHandler member) {
+            for (int i = 0; i < members.length; i++) {
+                if (members[i] == member) {
+                    return i;
+                }
+            }
+            return -1;
         }
     }
 }
@@ -0,0 +1,285 @@
+package com.example.chismapp.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.chismapp.util.MediaPacket;
+
+/**
+ * The `MediaRelay` class carries the audio of calls over UDP, apart from the TCP connections that keep
+ * the chat and the call signaling. When a call is accepted the relay opens a session with a random token
+ * for each participant, sent to them in a `MEDIA:<port>:<token>:<host>` line. The relay learns each
+ * participant's address from the first packet carrying its token and forwards every packet to the other
+ * participant, so a lost or late audio packet never holds back chat messages or newer audio.
+ *
+ * <p>The relay also hosts conferences: the audio of a conference participant goes to the
+ * `ConferenceMixer`, which sends each participant the mix of the others.</p>
+ */
+public class MediaRelay {
+
+    private final String advertisedHost;
+    private final int port;
+    private DatagramChannel channel;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentMap<Long, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong forwardedPackets = new AtomicLong();
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private final ConferenceMixer mixer = new ConferenceMixer((packet, target) -> channel.send(packet, target));
+
+// The constructor takes the UDP port of the relay, `0` for any free port, and `advertisedHost`, the address
+// sent to clients in the `MEDIA:` line, which must be reachable by the clients of every node of a cluster.
+    public MediaRelay(String advertisedHost, int port) {
+        this.advertisedHost = advertisedHost;
+        this.port = port;
+    }
+
+/**
+ * The `start` function binds the UDP port and starts the thread that receives and forwards packets.
+ */
+    public void start() throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        Thread thread = new Thread(this::relayLoop, "media-relay");
+        thread.setDaemon(true);
+        thread.start();
+        mixer.start();
+        System.out.println("Media relay listening on UDP port " + getPort());
+    }
+
+    private void relayLoop() {
+        ByteBuffer packet = ByteBuffer.allocateDirect(MediaPacket.MAX_PACKET_LENGTH);
+        while (true) {
+            try {
+                packet.clear();
+                SocketAddress source = channel.receive(packet);
+                packet.flip();
+                relay(packet, source);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.out.println("Media relay error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void relay(ByteBuffer packet, SocketAddress source) throws IOException {
+        if (packet.remaining() < MediaPacket.HEADER_LENGTH) {
+            droppedPackets.incrementAndGet();
+            return;
+        }
+        Endpoint sender = endpoints.get(MediaPacket.token(packet));
+        if (sender == null || !sender.latch(source)) {
+            // Token desconocido o enviado desde otra dirección
+            droppedPackets.incrementAndGet();
+            return;
+        }
+        ConferenceMixer.Participant participant = sender.participant;
+        if (participant != null) {
+            if (packet.remaining() > MediaPacket.HEADER_LENGTH) {
+                mixer.receive(participant, packet);
+            }
+            return;
+        }
+        SocketAddress target = sender.peer.address;
+        if (packet.remaining() == MediaPacket.HEADER_LENGTH || target == null) {
+            return; // Solo anuncia la dirección del participante
+        }
+        packet.putLong(packet.position(), 0L); // El token no se reenvía al otro participante
+        channel.send(packet, target);
+        forwardedPackets.incrementAndGet();
+    }
+
+/**
+ * The `openSession` function opens the media session of an accepted call and sends each participant,
+ * wherever it is logged in, the line telling it where to send its audio.
+ *
+ * @param caller The `caller` parameter is the user who made the call.
+ * @param recipient The `recipient` parameter is the user who accepted it.
+ * @param cluster The `cluster` parameter routes the `MEDIA:` lines to the participants.
+ */
+    public void openSession(String caller, String recipient, ClusterNode cluster) {
+        Session session = open(caller, recipient);
+        sendMediaLine(cluster, caller, session.caller.token);
+        sendMediaLine(cluster, recipient, session.recipient.token);
+    }
+
+    private void sendMediaLine(ClusterNode cluster, String userName, long token) {
+        TextMessage line = TextMessage.of("MEDIA:" + getPort() + ":" + Long.toUnsignedString(token) + ":" + advertisedHost);
+        cluster.deliverToUser(userName, line);
+        line.release();
+    }
+
+/**
+ * The `open` function creates the session of a call, replacing any earlier session of its participants.
+ *
+ * @param caller The `caller` parameter is the user who made the call.
+ * @param recipient The `recipient` parameter is the user who accepted it.
+ * @return The new session.
+ */
+    Session open(String caller, String recipient) {
+        closeSession(caller);
+        closeSession(recipient);
+        Session session = new Session(newEndpoint(), newEndpoint());
+        session.caller.peer = session.recipient;
+        session.recipient.peer = session.caller;
+        sessions.put(caller, session);
+        sessions.put(recipient, session);
+        endpoints.put(session.caller.token, session.caller);
+        endpoints.put(session.recipient.token, session.recipient);
+        return session;
+    }
+
+    private Endpoint newEndpoint() {
+        long token;
+        do {
+            token = random.nextLong();
+        } while (token == 0 || endpoints.containsKey(token));
+        return new Endpoint(token);
+    }
+
+/**
+ * The `closeSession` function closes the media session of a user's call, if this relay hosts one. It is
+ * called when the call ends or the user disconnects.
+ *
+ * @param userName The `userName` parameter is either participant of the call.
+ */
+    public void closeSession(String userName) {
+        Session session = sessions.remove(userName);
+        if (session == null) {
+            return;
+        }
+        sessions.values().remove(session);
+        endpoints.remove(session.caller.token);
+        endpoints.remove(session.recipient.token);
+    }
+
+/**
+ * The `joinConference` function adds a user to a conference, wherever the user is logged in, and sends
+ * it the line telling it where to send its audio. A user who was in another conference leaves it.
+ *
+ * @param conference The `conference` parameter is the name of the conference.
+ * @param userName The `userName` parameter is the user who joins.
+ * @param cluster The `cluster` parameter routes the `MEDIA:` line to the user.
+ */
+    public void joinConference(String conference, String userName, ClusterNode cluster) {
+        sendMediaLine(cluster, userName, joinConference(conference, userName).token);
+    }
+
+/**
+ * The `joinConference` function adds a user to a conference and registers the endpoint its audio
+ * arrives on.
+ *
+ * @param conference The `conference` parameter is the name of the conference.
+ * @param userName The `userName` parameter is the user who joins.
+ * @return The user's endpoint.
+ */
+    Endpoint joinConference(String conference, String userName) {
+        leaveConference(userName);
+        Endpoint endpoint = newEndpoint();
+        endpoint.participant = mixer.join(conference, userName, endpoint);
+        endpoints.put(endpoint.token, endpoint);
+        return endpoint;
+    }
+
+/**
+ * The `leaveConference` function removes a user from its conference, if it is in one on this relay. It
+ * is called when the user leaves the conference or disconnects.
+ *
+ * @param userName The `userName` parameter is the user who leaves.
+ * @return The name of the conference the user left, or `null` if it was not in one.
+ */
+    public String leaveConference(String userName) {
+        ConferenceMixer.Participant participant = mixer.leave(userName);
+        if (participant == null) {
+            return null;
+        }
+        endpoints.remove(participant.endpoint.token);
+        return participant.conference.name;
+    }
+
+/**
+ * The `getMixer` function returns the mixer of the conferences hosted by this relay.
+ *
+ * @return The `ConferenceMixer`.
+ */
+    public ConferenceMixer getMixer() {
+        return mixer;
+    }
+
+/**
+ * The `close` function stops the relay and releases its port.
+ */
+    public void close() {
+        mixer.close();
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+/**
+ * The `getPort` function returns the UDP port of the relay.
+ *
+ * @return The bound port, or `-1` before the relay is started.
+ */
+    public int getPort() {
+        return channel != null ? channel.socket().getLocalPort() : -1;
+    }
+
+    public long getForwardedPackets() {
+        return forwardedPackets.get();
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+/**
+ * The `Session` class pairs the endpoints of the two participants of a call.
+ */
+    static final class Session {
+        final Endpoint caller;
+        final Endpoint recipient;
+
+        Session(Endpoint caller, Endpoint recipient) {
+            this.caller = caller;
+            this.recipient = recipient;
+        }
+    }
+
+/**
+ * The `Endpoint` class is one participant of a session or a conference: its token and, once it sent a
+ * packet, its address. The address is fixed by the first packet, so nobody else can take over the token.
+ */
+    static final class Endpoint {
+        final long token;
+        volatile Endpoint peer;
+        volatile ConferenceMixer.Participant participant;  // Solo en una conferencia
+        volatile SocketAddress address;
+
+        Endpoint(long token) {
+            this.token = token;
+        }
+
+        boolean latch(SocketAddress source) {
+            if (address == null) {
+                address = source;
+                return true;
+            }
+            return address.equals(source);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.chismapp.server;
+
+import java.util.List;
+
+import com.example.chismapp.util.WireProtocol;
+
+/**
+ * The `MessageBatch` class holds many lines of the text protocol that go to one client together, such as
+ * the messages of an `OfflineMailboxes` mailbox. They are encoded into a single frame: consecutive lines
+ * for the text protocol, or consecutive `TEXT` frames for the binary protocol. The client reads them as
+ * if they had been sent one by one, but the batch takes one slot of its outbound queue and one write.
+ */
+final class MessageBatch extends SharedMessage {
+
+    private final List<byte[]> lines;
+    private final int bytes;
+
+// The constructor takes the UTF-8 lines of the batch, without trailing newlines, which must not be
+// modified afterwards.
+    MessageBatch(List<byte[]> lines) {
+        this.lines = lines;
+        int total = 0;
+        for (byte[] line : lines) {
+            total += line.length;
+        }
+        this.bytes = total;
+    }
+
+    int size() {
+        return lines.size();
+    }
+
+    @Override
+    protected SharedFrame encode(boolean binary) {
+        int header = binary ? WireProtocol.HEADER_LENGTH : 1;
+        SharedFrame frame = SharedFrame.allocate(bytes + header * lines.size());
+        for (byte[] line : lines) {
+            if (binary) {
+                WireProtocol.putText(frame.buffer(), line, 0, line.length);
+            } else {
+                frame.buffer().put(line).put((byte) '\n');
+            }
+        }
+        return frame;
+    }
+
+    @Override
+    public boolean isVoice() {
+        return false;
+    }
+}
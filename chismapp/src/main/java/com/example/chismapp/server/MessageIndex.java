@@ -0,0 +1,424 @@
+package com.example.chismapp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * The `MessageIndex` class is an inverted index over the `MessageLog`, used by `/search`. Every record is
+ * split into lowercase words, plus `from:<author>` and the scope of the record: `group:<name>` for a group
+ * message, or `dm:<recipient>` and `dmfrom:<author>` for a direct message. The postings of new records are
+ * kept in memory until {@link #FLUSH_RECORDS} records were indexed and are then written to an immutable
+ * index segment: the posting lists as varint deltas between offsets, followed by the terms in byte order
+ * and a table of their positions, so a term is found with a binary search in the mapped file. A query
+ * intersects the posting lists of its terms segment by segment, newest first, and stops at its limit,
+ * so it never reads the log itself nor loads whole posting lists of old segments it does not need.
+ */
+final class MessageIndex {
+
+    static final int FLUSH_RECORDS = 64 * 1024;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAGIC = 0x43484958;
+    private static final int FOOTER_LENGTH = 32;  // tabla, términos, primer y último offset, marca
+
+    private final Path directory;
+    private final int flushRecords;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    // Postings de los registros aún no escritos, protegidas por el monitor del índice
+    private final Map<String, Postings> live = new HashMap<>();
+    private long liveFirst = -1;
+    private long liveLast = -1;
+    private int liveRecords;
+    private long nextOffset;
+    private boolean failed;
+
+// The constructor takes the directory of the index segments, which lives inside the directory of the log.
+    MessageIndex(Path directory) {
+        this(directory, FLUSH_RECORDS);
+    }
+
+// This constructor also takes how many records are kept in memory before a segment is written.
+    MessageIndex(Path directory, int flushRecords) {
+        this.directory = directory;
+        this.flushRecords = flushRecords;
+    }
+
+/**
+ * The `open` function maps the segments written before. Segments that were not written completely are
+ * deleted; their records are indexed again from the log.
+ */
+    void open() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.sorted().toList();
+        }
+        for (Path file : files) {
+            Segment segment = file.toString().endsWith(".idx") ? Segment.open(file) : null;
+            if (segment == null || segment.firstOffset < nextOffset) {
+                Files.delete(file);
+                continue;
+            }
+            segments.add(segment);
+            nextOffset = segment.lastOffset + 1;
+        }
+    }
+
+/**
+ * The `getNextOffset` function returns the first offset the index has not seen yet, from which the log
+ * feeds it again after a restart.
+ *
+ * @return The offset after the last indexed record.
+ */
+    synchronized long getNextOffset() {
+        return nextOffset;
+    }
+
+/**
+ * The `add` function indexes a record. It is called by the writer of the log, in offset order; every
+ * {@link #FLUSH_RECORDS} records the postings kept in memory are written to a new segment.
+ *
+ * @param offset The `offset` parameter is the offset of the record.
+ * @param kind The `kind` parameter is `MessageLog.GROUP` or `MessageLog.DIRECT`.
+ * @param target The `target` parameter is the group or the user the message was sent to.
+ * @param line The `line` parameter is the line as it was delivered.
+ */
+    synchronized void add(long offset, byte kind, String target, String line) {
+        if (failed || offset < nextOffset) {
+            return;
+        }
+        // Formato de las líneas: "[<grupo>] <autor>: <mensaje>" o "[Direct Message] <autor>: <mensaje>"
+        int start = line.indexOf("] ");
+        int colon = start < 0 ? -1 : line.indexOf(": ", start + 2);
+        String author = colon < 0 ? null : line.substring(start + 2, colon);
+        String content = colon < 0 ? line : line.substring(colon + 2);
+        for (String word : words(content)) {
+            post(word, offset);
+        }
+        if (kind == MessageLog.GROUP) {
+            post("group:" + target, offset);
+        } else {
+            post("dm:" + target, offset);
+            if (author != null) {
+                post("dmfrom:" + author, offset);
+            }
+        }
+        if (author != null) {
+            post("from:" + author, offset);
+        }
+        if (liveFirst < 0) {
+            liveFirst = offset;
+        }
+        liveLast = offset;
+        nextOffset = offset + 1;
+        if (++liveRecords >= flushRecords) {
+            flush();
+        }
+    }
+
+    private void post(String term, long offset) {
+        live.computeIfAbsent(term, key -> new Postings()).add(offset);
+    }
+
+/**
+ * The function `words` splits text into the words the index knows: runs of letters and digits, in lower
+ * case and cut at {@link #MAX_TERM_LENGTH} characters.
+ *
+ * @param text The `text` parameter is the text of a message or a query.
+ * @return The words, in order.
+ */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); ) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (word.length() < MAX_TERM_LENGTH) {
+                    word.appendCodePoint(codePoint);
+                }
+            } else if (word.length() > 0) {
+                words.add(word.toString().toLowerCase(Locale.ROOT));
+                word.setLength(0);
+            }
+            i += Character.charCount(codePoint);
+        }
+        return words;
+    }
+
+/**
+ * The `flush` function writes the postings kept in memory to a new segment. The file is written under
+ * a temporary name and renamed once complete.
+ */
+    synchronized void flush() {
+        if (liveRecords == 0 || failed) {
+            return;
+        }
+        try {
+            Path file = directory.resolve(String.format("%020d.idx", liveFirst));
+            Path partial = directory.resolve(file.getFileName() + ".tmp");
+            Files.write(partial, encode());
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            segments.add(Segment.open(file));
+            live.clear();
+            liveFirst = -1;
+            liveRecords = 0;
+        } catch (IOException e) {
+            System.out.println("Message index disabled: " + e.getMessage());
+            failed = true;
+            live.clear();
+        }
+    }
+
+    // [postings][términos][tabla de posiciones de los términos][pie]
+    private byte[] encode() throws IOException {
+        List<byte[]> terms = new ArrayList<>();
+        Map<byte[], Postings> byTerm = new HashMap<>();
+        for (Map.Entry<String, Postings> entry : live.entrySet()) {
+            byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            terms.add(term);
+            byTerm.put(term, entry.getValue());
+        }
+        terms.sort(Arrays::compareUnsigned);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        long[] positions = new long[terms.size()];
+        int[] lengths = new int[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            positions[i] = out.size();
+            Postings postings = byTerm.get(terms.get(i));
+            long previous = liveFirst;
+            for (int j = 0; j < postings.size; j++) {
+                writeVarLong(out, postings.offsets[j] - previous);
+                previous = postings.offsets[j];
+            }
+            lengths[i] = out.size() - (int) positions[i];
+        }
+        int[] entries = new int[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            entries[i] = out.size();
+            byte[] term = terms.get(i);
+            out.writeShort(term.length);
+            out.write(term);
+            out.writeLong(positions[i]);
+            out.writeInt(lengths[i]);
+            out.writeInt(byTerm.get(term).size);
+        }
+        int table = out.size();
+        for (int entry : entries) {
+            out.writeInt(entry);
+        }
+        out.writeLong(table);
+        out.writeInt(terms.size());
+        out.writeLong(liveFirst);
+        out.writeLong(liveLast);
+        out.writeInt(MAGIC);
+        return bytes.toByteArray();
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+/**
+ * The `search` function returns the newest records that have all the given terms and belong to one of
+ * the given scopes, which are the `group:`, `dm:` or `dmfrom:` terms the user may read.
+ *
+ * @param terms The `terms` parameter holds the words and filters of the query, as built by `words`.
+ * @param scopes The `scopes` parameter holds the scope terms the records may belong to.
+ * @param limit The `limit` parameter is the maximum number of results.
+ * @return The offsets of the matching records, newest first.
+ */
+    List<Long> search(Collection<String> terms, Collection<String> scopes, int limit) {
+        TreeSet<Long> found = new TreeSet<>(Comparator.reverseOrder());
+        synchronized (this) {
+            for (String scope : scopes) {
+                addAll(found, intersect(terms, scope, term -> {
+                    Postings postings = live.get(term);
+                    return postings == null ? null : Arrays.copyOf(postings.offsets, postings.size);
+                }));
+            }
+        }
+        List<Segment> snapshot = new ArrayList<>(segments);
+        // Los segmentos cubren rangos de offsets sucesivos: los más nuevos bastan si ya dan el límite
+        for (int i = snapshot.size() - 1; i >= 0 && found.size() < limit; i--) {
+            Segment segment = snapshot.get(i);
+            for (String scope : scopes) {
+                addAll(found, intersect(terms, scope, segment::postings));
+            }
+        }
+        List<Long> results = new ArrayList<>(limit);
+        for (Long offset : found) {
+            if (results.size() == limit) {
+                break;
+            }
+            results.add(offset);
+        }
+        return results;
+    }
+
+    private static void addAll(TreeSet<Long> found, long[] offsets) {
+        for (long offset : offsets) {
+            found.add(offset);
+        }
+    }
+
+    // Lee la lista de un término; null si el término no aparece
+    private interface PostingSource {
+        long[] postings(String term);
+    }
+
+    // Intersecta las listas ordenadas de los términos, empezando por la más corta
+    private static long[] intersect(Collection<String> terms, String scope, PostingSource source) {
+        List<long[]> lists = new ArrayList<>();
+        long[] scoped = source.postings(scope);
+        if (scoped == null) {
+            return new long[0];
+        }
+        lists.add(scoped);
+        for (String term : terms) {
+            long[] postings = source.postings(term);
+            if (postings == null) {
+                return new long[0];
+            }
+            lists.add(postings);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        long[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            long[] other = lists.get(i);
+            long[] common = new long[result.length];
+            int count = 0;
+            for (int a = 0, b = 0; a < result.length && b < other.length; ) {
+                if (result[a] == other[b]) {
+                    common[count++] = result[a];
+                    a++;
+                    b++;
+                } else if (result[a] < other[b]) {
+                    a++;
+                } else {
+                    b++;
+                }
+            }
+            result = Arrays.copyOf(common, count);
+        }
+        return result;
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    // Offsets crecientes de un término, sin repetidos
+    private static final class Postings {
+        private long[] offsets = new long[4];
+        private int size;
+
+        void add(long offset) {
+            if (size > 0 && offsets[size - 1] == offset) {
+                return;
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+    }
+
+/**
+ * The `Segment` class is one index file, mapped read-only. Its footer gives the position of the table of
+ * terms and the range of offsets it covers.
+ */
+    private static final class Segment {
+        private final MappedByteBuffer data;
+        private final int table;
+        private final int termCount;
+        private final long firstOffset;
+        private final long lastOffset;
+
+        private Segment(MappedByteBuffer data) {
+            this.data = data;
+            int footer = data.capacity() - FOOTER_LENGTH;
+            this.table = (int) data.getLong(footer);
+            this.termCount = data.getInt(footer + 8);
+            this.firstOffset = data.getLong(footer + 12);
+            this.lastOffset = data.getLong(footer + 20);
+        }
+
+        // Devuelve null si el archivo no terminó de escribirse
+        static Segment open(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file)) {
+                if (channel.size() < FOOTER_LENGTH || channel.size() > Integer.MAX_VALUE) {
+                    return null;
+                }
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (data.getInt(data.capacity() - 4) != MAGIC) {
+                    return null;
+                }
+                return new Segment(data);
+            }
+        }
+
+        long[] postings(String term) {
+            byte[] key = term.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = termCount - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int entry = data.getInt(table + middle * 4);
+                byte[] candidate = new byte[data.getShort(entry)];
+                data.get(entry + 2, candidate);
+                int comparison = Arrays.compareUnsigned(candidate, key);
+                if (comparison == 0) {
+                    return decode(entry + 2 + candidate.length);
+                } else if (comparison < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return null;
+        }
+
+        private long[] decode(int entry) {
+            int position = (int) data.getLong(entry);
+            int count = data.getInt(entry + 12);
+            long[] offsets = new long[count];
+            long previous = firstOffset;
+            for (int i = 0; i < count; i++) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data.get(position++);
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                previous += delta;
+                offsets[i] = previous;
+            }
+            return offsets;
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package com.example.chismapp.server;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * The `MessageLog` class keeps the group and direct messages delivered by a server, so a client that was
+ * offline can get back what it missed. Every message gets a monotonic offset and is appended to a log
+ * made of memory-mapped segment files of a fixed size, named after the offset of their first record. Each
+ * segment has a sparse index with the position of one record every {@link #INDEX_INTERVAL} bytes, so a
+ * replay finds where to start with a binary search and then reads the segment sequentially.
+ *
+ * Senders only assign the offset and queue the record: one writer thread copies the queued records into
+ * the mapped segment in batches and forces them to disk about once a second, so the fan-out to the
+ * recipients never waits for the disk. The writer also feeds the `MessageIndex` that answers `/search`.
+ * The log is enabled with `--message-log=<dir>`; without it every operation is a no-op.
+ */
+public class MessageLog {
+
+    public static final byte GROUP = 1;
+    public static final byte DIRECT = 2;
+
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    static final int INDEX_INTERVAL = 4096;
+    private static final int INDEX_ENTRY_LENGTH = 12;    // offset y posición
+    private static final int RECORD_HEADER_LENGTH = 15;  // largo, offset, tipo y largo del destino
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int BATCH_SIZE = 4096;
+    private static final int REPLAY_THREADS = 4;
+    private static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final String TAG_PREFIX = "MSG:";
+    private static final String SEARCH_PREFIX = "SEARCH:";
+
+    // Recibe los mensajes de una reproducción o de una búsqueda en un hilo de reproducción del registro
+    public interface ReplayListener {
+        // Cada mensaje lleva su offset como "MSG:<offset>:<línea>" o "SEARCH:<offset>:<línea>"; quien lo
+        // recibe lo libera y devuelve false para terminar antes de tiempo
+        boolean onMessage(TextMessage message);
+
+        // Llamado al final con el último offset cubierto, desde el que debe pedirse la próxima reproducción,
+        // o con el número de resultados de una búsqueda
+        void onEnd(long last);
+    }
+
+    // Recibe los registros leídos por `scan`; devuelve false para terminar la lectura
+    private interface RecordVisitor {
+        boolean visit(RecordView record);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final MessageIndex index;
+    private final BlockingQueue<Record> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Object writtenLock = new Object();
+    private long nextOffset;
+    private long droppedRecords;
+    private volatile long writtenOffset;
+    private volatile boolean running;
+    private volatile boolean failed;
+    private Thread writer;
+    private ExecutorService replays;
+    private Segment active;
+
+// The constructor takes the directory of the log, or `null` for a server that keeps no history. Nothing
+// is opened until `start`.
+    public MessageLog(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+// This constructor also takes the size of the segment files, which tests make small to roll often.
+    MessageLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.index = directory == null ? null : new MessageIndex(directory.resolve("index"));
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+/**
+ * The `start` function opens the segments already in the directory, recovers where the records of each
+ * one end and starts the writer and replay threads. New records go to a new segment.
+ */
+    public void start() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+        for (Path file : files) {
+            Segment segment = Segment.open(file, segmentSize, false);
+            nextOffset = segment.recover();
+            segments.add(segment);
+        }
+        // Un último segmento sin registros, creado justo antes de parar, se reutiliza
+        if (!segments.isEmpty() && segments.get(segments.size() - 1).end == 0) {
+            active = segments.get(segments.size() - 1);
+            active.indexEntries = 0;
+        }
+        writtenOffset = nextOffset;
+        // El índice vuelve a leer del registro lo que no alcanzó a escribir antes de parar
+        index.open();
+        scan(index.getNextOffset(), nextOffset, record -> {
+            index.add(record.offset, record.kind, record.target(), record.line());
+            return true;
+        });
+        running = true;
+        writer = new Thread(this::writeLoop, "message-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Varios hilos, para que un cliente lento en una reproducción no detenga las de los demás
+        AtomicInteger replayThreads = new AtomicInteger();
+        replays = Executors.newFixedThreadPool(REPLAY_THREADS, task -> {
+            Thread thread = new Thread(task, "message-log-replay-" + replayThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        System.out.println("Message log at " + directory + " resumes at offset " + nextOffset);
+    }
+
+/**
+ * The `append` function logs a chat message delivered to a local user or group and returns the line to
+ * send in its place, which carries the offset of the record as `MSG:<offset>:<line>`. The record is only
+ * queued for the writer thread, so the call neither touches the disk nor waits: when the writer falls
+ * behind and the queue is full, the message is sent untagged and counted by `getDroppedRecords`.
+ *
+ * @param kind The `kind` parameter is `GROUP` or `DIRECT`.
+ * @param target The `target` parameter is the group or the user the message was sent to.
+ * @param message The `message` parameter is the line as it is delivered.
+ * @return A new tagged message owned by the caller, or `message` itself when the log is disabled, the
+ * queue is full or the record cannot be logged.
+ */
+    public TextMessage append(byte kind, String target, TextMessage message) {
+        if (!running || failed) {
+            return message;
+        }
+        byte[] line = message.line();
+        Record record = new Record(kind, target.getBytes(StandardCharsets.UTF_8), line);
+        int length = RECORD_HEADER_LENGTH + record.target.length + line.length;
+        if (record.target.length > Short.MAX_VALUE || length > segmentSize) {
+            return message;
+        }
+        long offset;
+        // Los offsets se asignan en el orden de la cola, así el escritor los recibe crecientes
+        synchronized (this) {
+            offset = nextOffset;
+            record.offset = offset;
+            // Quien llama suele ser un hilo del reactor, que no puede esperar al escritor
+            if (!pending.offer(record)) {
+                droppedRecords++;
+                return message;
+            }
+            nextOffset++;
+        }
+        return tag(TAG_PREFIX, offset, line, 0, line.length);
+    }
+
+    private static TextMessage tag(String tag, long offset, byte[] line, int lineOffset, int lineLength) {
+        byte[] prefix = (tag + offset + ":").getBytes(StandardCharsets.US_ASCII);
+        byte[] tagged = new byte[prefix.length + lineLength];
+        System.arraycopy(prefix, 0, tagged, 0, prefix.length);
+        System.arraycopy(line, lineOffset, tagged, prefix.length, lineLength);
+        return TextMessage.ofUtf8(tagged);
+    }
+
+/**
+ * The `getNextOffset` function returns the offset the next record will get.
+ *
+ * @return The offset after the last appended record.
+ */
+    public synchronized long getNextOffset() {
+        return nextOffset;
+    }
+
+/**
+ * The `getDroppedRecords` function returns how many messages were sent without being logged because the
+ * writer queue was full.
+ *
+ * @return The number of messages the log dropped.
+ */
+    public synchronized long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(BATCH_SIZE);
+        long lastForce = System.nanoTime();
+        while (running || !pending.isEmpty()) {
+            try {
+                Record first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch, BATCH_SIZE - 1);
+                    write(batch);
+                    batch.clear();
+                }
+                if (active != null && System.nanoTime() - lastForce > FORCE_INTERVAL_NANOS) {
+                    active.force();
+                    lastForce = System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.out.println("Message log disabled: " + e.getMessage());
+                failed = true;
+                pending.clear();
+            }
+        }
+        if (active != null) {
+            active.force();
+        }
+    }
+
+    private void write(List<Record> batch) throws IOException {
+        for (Record record : batch) {
+            if (active == null || !active.fits(record)) {
+                roll(record.offset);
+            }
+            active.write(record);
+        }
+        active.publish();
+        // Se indexa lo ya publicado, así una búsqueda siempre encuentra el registro de cada resultado
+        for (Record record : batch) {
+            index.add(record.offset, record.kind, new String(record.target, StandardCharsets.UTF_8),
+                    new String(record.line, StandardCharsets.UTF_8));
+        }
+        // Los registros del lote quedan visibles para las reproducciones
+        synchronized (writtenLock) {
+            writtenOffset = batch.get(batch.size() - 1).offset + 1;
+            writtenLock.notifyAll();
+        }
+    }
+
+    private void roll(long baseOffset) throws IOException {
+        if (active != null) {
+            active.publish(); // El segmento que se cierra también recibió parte del lote
+            active.force();
+        }
+        Path file = directory.resolve(String.format("%020d.log", baseOffset));
+        active = Segment.open(file, segmentSize, true);
+        segments.add(active);
+    }
+
+/**
+ * The `replay` function sends a user the messages logged after the offset it saw last: its direct
+ * messages and the messages of the given groups. The records are read in the background, up to the
+ * last record appended when the call was made; newer messages reach the user live.
+ *
+ * @param after The `after` parameter is the last offset the client saw, or `-1` for the whole log.
+ * @param userName The `userName` parameter is the user whose direct messages are replayed.
+ * @param groups The `groups` parameter holds the groups whose messages are replayed.
+ * @param listener The `listener` parameter receives the messages and the end of the replay.
+ */
+    public void replay(long after, String userName, Collection<String> groups, ReplayListener listener) {
+        long until = getNextOffset();
+        byte[] user = userName.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> groupNames = new ArrayList<>();
+        for (String group : groups) {
+            groupNames.add(group.getBytes(StandardCharsets.UTF_8));
+        }
+        replays.execute(() -> {
+            long last = after;
+            try {
+                awaitWritten(until);
+                last = Math.max(after, scan(after + 1, until, record -> !isFor(record, user, groupNames)
+                        || listener.onMessage(tag(TAG_PREFIX, record.offset, record.data, record.lineOffset, record.lineLength))));
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.out.println("Error replaying the message log: " + e.getMessage());
+            }
+            listener.onEnd(last);
+        });
+    }
+
+    private void awaitWritten(long offset) throws InterruptedException {
+        synchronized (writtenLock) {
+            while (writtenOffset < offset && running && !failed) {
+                writtenLock.wait(100);
+            }
+        }
+    }
+
+/**
+ * The `search` function answers a `/search`: the `MessageIndex` gives the offsets of the newest matching
+ * records and each one is read from the log, in the background like a replay, once the records appended
+ * before the call are indexed.
+ *
+ * @param terms The `terms` parameter holds the words and the `from:` filter of the query.
+ * @param scopes The `scopes` parameter holds the `group:`, `dm:` and `dmfrom:` terms the user may read.
+ * @param limit The `limit` parameter is the maximum number of results.
+ * @param listener The `listener` parameter receives every result as `SEARCH:<offset>:<line>`, newest
+ * first, and then the number of results.
+ */
+    public void search(Collection<String> terms, Collection<String> scopes, int limit, ReplayListener listener) {
+        long until = getNextOffset();
+        replays.execute(() -> {
+            long count = 0;
+            try {
+                // Como en una reproducción, lo añadido antes de la búsqueda ya está indexado al buscar
+                awaitWritten(until);
+                // [0] resultados enviados, [1] distinto de cero si el receptor se detuvo
+                long[] state = new long[2];
+                for (long offset : index.search(terms, scopes, limit)) {
+                    if (state[1] != 0) {
+                        break;
+                    }
+                    // El índice disperso del segmento deja la lectura cerca del registro buscado
+                    scan(offset, offset + 1, record -> {
+                        if (listener.onMessage(
+                                tag(SEARCH_PREFIX, offset, record.data, record.lineOffset, record.lineLength))) {
+                            state[0]++;
+                        } else {
+                            state[1] = 1;
+                        }
+                        return false;
+                    });
+                }
+                count = state[0];
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.out.println("Error searching the message log: " + e.getMessage());
+            }
+            listener.onEnd(count);
+        });
+    }
+
+    // Lee en orden los registros de [from, until) y devuelve el último offset cubierto, que es anterior a
+    // `until` si el visitante se detuvo
+    private long scan(long from, long until, RecordVisitor visitor) {
+        List<Segment> snapshot = new ArrayList<>(segments);
+        int first = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.get(i).baseOffset <= from) {
+                first = i;
+            }
+        }
+        RecordView record = new RecordView();
+        for (int i = first; i < snapshot.size() && snapshot.get(i).baseOffset < until; i++) {
+            Segment segment = snapshot.get(i);
+            int end = segment.end;
+            int position = segment.find(from);
+            while (position + RECORD_HEADER_LENGTH <= end) {
+                segment.read(position, record);
+                if (record.offset >= until) {
+                    return until - 1;
+                }
+                if (record.offset >= from && !visitor.visit(record)) {
+                    return record.offset - 1;
+                }
+                position += 4 + record.length;
+            }
+        }
+        return until - 1;
+    }
+
+    private static boolean isFor(RecordView record, byte[] user, List<byte[]> groups) {
+        if (record.kind == DIRECT) {
+            return matches(record, DIRECT, user);
+        }
+        for (byte[] group : groups) {
+            if (matches(record, GROUP, group)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(RecordView record, byte kind, byte[] target) {
+        if (record.kind != kind || record.targetLength != target.length) {
+            return false;
+        }
+        for (int i = 0; i < target.length; i++) {
+            if (record.data[record.targetOffset + i] != target[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+/**
+ * The `close` function lets the writer store the queued records, forces the log to disk and stops the
+ * replays in progress.
+ */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        // Sin interrumpir al escritor, que podría estar abriendo un segmento: sale al vaciar la cola
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        replays.shutdownNow();
+        index.flush();
+    }
+
+    // Un mensaje en la cola del escritor
+    private static final class Record {
+        private final byte kind;
+        private final byte[] target;
+        private final byte[] line;
+        private long offset;
+
+        Record(byte kind, byte[] target, byte[] line) {
+            this.kind = kind;
+            this.target = target;
+            this.line = line;
+        }
+    }
+
+    // Un registro leído de un segmento; se reutiliza para toda una reproducción
+    private static final class RecordView {
+        private byte[] data = new byte[1024];
+        private int length;
+        private long offset;
+        private byte kind;
+        private int targetOffset;
+        private int targetLength;
+        private int lineOffset;
+        private int lineLength;
+
+        String target() {
+            return new String(data, targetOffset, targetLength, StandardCharsets.UTF_8);
+        }
+
+        String line() {
+            return new String(data, lineOffset, lineLength, StandardCharsets.UTF_8);
+        }
+    }
+
+/**
+ * The `Segment` class is one file of the log, mapped in full, with its sparse index in a second mapped
+ * file. A record is `[length][offset][kind][target length][target][line]`, where the length counts the
+ * bytes after itself. Readers only look at the bytes before `end`, which the writer publishes once the
+ * records before it are complete.
+ */
+    private static final class Segment {
+        private final long baseOffset;
+        private final MappedByteBuffer data;
+        private final MappedByteBuffer index;
+        private final int size;
+        private volatile int end;
+        private volatile int indexEntries;
+        private int position;
+        private int nextIndexPosition;
+
+        private Segment(long baseOffset, MappedByteBuffer data, MappedByteBuffer index, int size) {
+            this.baseOffset = baseOffset;
+            this.data = data;
+            this.index = index;
+            this.size = size;
+        }
+
+        static Segment open(Path file, int segmentSize, boolean create) throws IOException {
+            String name = file.getFileName().toString();
+            long baseOffset = Long.parseLong(name.substring(0, name.length() - ".log".length()));
+            Path indexFile = file.resolveSibling(name.substring(0, name.length() - ".log".length()) + ".index");
+            // Un segmento existente conserva el tamaño con el que se creó
+            int size = create ? segmentSize : (int) Files.size(file);
+            int indexSize = (size / INDEX_INTERVAL + 1) * INDEX_ENTRY_LENGTH;
+            Segment segment = new Segment(baseOffset, map(file, size), map(indexFile, indexSize), size);
+            if (!create) {
+                segment.loadIndex();
+            }
+            return segment;
+        }
+
+        private static MappedByteBuffer map(Path file, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        // Cuenta las entradas del índice, que tienen offsets crecientes y terminan en la primera a cero
+        private void loadIndex() {
+            int count = 0;
+            long previous = -1;
+            while ((count + 1) * INDEX_ENTRY_LENGTH <= index.capacity()) {
+                long offset = index.getLong(count * INDEX_ENTRY_LENGTH);
+                int recordPosition = index.getInt(count * INDEX_ENTRY_LENGTH + 8);
+                if (offset <= previous || offset < baseOffset || recordPosition < 0 || recordPosition >= size
+                        || (count == 0 && recordPosition != 0)) {
+                    break;
+                }
+                previous = offset;
+                count++;
+            }
+            indexEntries = count;
+        }
+
+/**
+ * The `recover` function finds the end of the last segment after a restart: it reads the records after
+ * the last index entry until one is incomplete or out of order, which is where the writer stopped.
+ *
+ * @return The offset the next record will get.
+ */
+        long recover() {
+            int recordPosition = indexEntries == 0 ? 0 : index.getInt((indexEntries - 1) * INDEX_ENTRY_LENGTH + 8);
+            long next = indexEntries == 0 ? baseOffset : index.getLong((indexEntries - 1) * INDEX_ENTRY_LENGTH);
+            while (recordPosition + RECORD_HEADER_LENGTH <= size) {
+                int length = data.getInt(recordPosition);
+                long offset = data.getLong(recordPosition + 4);
+                if (length < RECORD_HEADER_LENGTH - 4 || recordPosition + 4 + length > size || offset < next) {
+                    break;
+                }
+                next = offset + 1;
+                recordPosition += 4 + length;
+            }
+            end = recordPosition;
+            return next;
+        }
+
+        boolean fits(Record record) {
+            return position + RECORD_HEADER_LENGTH + record.target.length + record.line.length <= size;
+        }
+
+        void write(Record record) {
+            int length = RECORD_HEADER_LENGTH - 4 + record.target.length + record.line.length;
+            if (position >= nextIndexPosition) {
+                int entry = indexEntries * INDEX_ENTRY_LENGTH;
+                index.putLong(entry, record.offset).putInt(entry + 8, position);
+                indexEntries++;
+                nextIndexPosition = position + INDEX_INTERVAL;
+            }
+            data.putInt(position, length).putLong(position + 4, record.offset).put(position + 12, record.kind)
+                    .putShort(position + 13, (short) record.target.length)
+                    .put(position + RECORD_HEADER_LENGTH, record.target)
+                    .put(position + RECORD_HEADER_LENGTH + record.target.length, record.line);
+            position += 4 + length;
+        }
+
+        void publish() {
+            end = position;
+        }
+
+        void force() {
+            data.force();
+            index.force();
+        }
+
+        // Busca en el índice la última entrada con un offset no mayor que `offset`
+        int find(long offset) {
+            int low = 0;
+            int high = indexEntries - 1;
+            int found = 0;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (index.getLong(middle * INDEX_ENTRY_LENGTH) <= offset) {
+                    found = index.getInt(middle * INDEX_ENTRY_LENGTH + 8);
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return found;
+        }
+
+        void read(int recordPosition, RecordView record) {
+            record.length = data.getInt(recordPosition);
+            record.offset = data.getLong(recordPosition + 4);
+            record.kind = data.get(recordPosition + 12);
+            record.targetLength = data.getShort(recordPosition + 13);
+            int bodyLength = record.length - (RECORD_HEADER_LENGTH - 4);
+            if (record.data.length < bodyLength) {
+                record.data = new byte[Math.max(bodyLength, record.data.length * 2)];
+            }
+            data.get(recordPosition + RECORD_HEADER_LENGTH, record.data, 0, bodyLength);
+            record.targetOffset = 0;
+            record.lineOffset = record.targetLength;
+            record.lineLength = bodyLength - record.targetLength;
+        }
+    }
+}
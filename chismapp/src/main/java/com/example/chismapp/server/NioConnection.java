@@ -0,0 +1,303 @@
+package com.example.chismapp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.example.chismapp.util.WireProtocol;
+
+/**
+ * The `NioConnection` class holds the per-connection state of a client served by a `Reactor`: the
+ * partial line or frame still being received and the `ClientHandler` that processes each complete one. The
+ * reactor is the writer of the handler's `OutboundQueue`, draining it whenever the socket is writable.
+ * A voice note longer than `VoiceForwarder.THRESHOLD` is not buffered: once its header has arrived, the
+ * rest is handed to a `VoiceForwarder` read by read.
+ */
+class NioConnection {
+
+    private static final int INITIAL_LINE_CAPACITY = 256;
+    private static final int RETAINED_LINE_CAPACITY = 64 * 1024;
+
+    private final Reactor reactor;
+    private final SocketChannel channel;
+    private final AtomicBoolean writeRequested;
+    private final AtomicBoolean closed;
+    private SelectionKey key;
+    private ClientHandler handler;
+    private byte[] line;
+    private int lineLength;
+    private final byte[] header = new byte[WireProtocol.HEADER_LENGTH];
+    private int headerLength;
+    private int frameLength = -1;
+    private VoiceForwarder forwarding;
+    private int forwardRemaining;
+    private SharedFrame writing;
+    private ByteBuffer writingView;
+
+    NioConnection(Reactor reactor, SocketChannel channel) {
+        this.reactor = reactor;
+        this.channel = channel;
+        this.writeRequested = new AtomicBoolean();
+        this.closed = new AtomicBoolean();
+    }
+
+    void attach(ClientHandler handler, SelectionKey key) {
+        this.handler = handler;
+        this.key = key;
+    }
+
+/**
+ * The `onReadable` function drains the channel into the reactor's shared buffer and hands every
+ * complete line, or every complete frame once the client negotiated the binary protocol, to the
+ * `ClientHandler`. Incomplete input is kept until the next event.
+ *
+ * @param buffer The `buffer` parameter is the read buffer shared by all connections of the reactor.
+ */
+    void onReadable(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int read = channel.read(buffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        byte[] data = buffer.array();
+        int position = 0;
+        // El modo se revisa en cada mensaje: el handshake cambia a tramas en medio de una lectura
+        while (position < read && !closed.get()) {
+            position = handler.isBinaryProtocol() ? consumeFrame(data, position, read) : consumeLine(data, position, read);
+        }
+    }
+
+    private int consumeLine(byte[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == '\n') {
+                if (forwarding != null) {
+                    forwarding.appendBase64(data, start, i - start);
+                    finishForwarding();
+                } else if (lineLength == 0) {
+                    // La línea completa está en el buffer compartido: se procesa sin copiarla
+                    handler.handleCommand(data, start, trimCarriageReturn(data, start, i) - start);
+                } else {
+                    appendToLine(data, start, i - start);
+                    int length = trimCarriageReturn(line, 0, lineLength);
+                    lineLength = 0;
+                    handler.handleCommand(line, 0, length);
+                    if (line.length > RETAINED_LINE_CAPACITY) {
+                        line = null; // Liberar el buffer de líneas muy largas (notas de voz)
+                    }
+                }
+                return i + 1;
+            }
+        }
+        if (forwarding != null) {
+            forwarding.appendBase64(data, start, end - start);
+            return end;
+        }
+        int before = lineLength;
+        appendToLine(data, start, end - start);
+        if (before <= VoiceForwarder.THRESHOLD && lineLength > VoiceForwarder.THRESHOLD) {
+            // Una nota de voz larga se reenvía mientras llega en lugar de guardar la línea completa
+            forwarding = handler.startVoiceLine(line, 0, lineLength);
+            if (forwarding != null) {
+                lineLength = 0;
+                line = null;
+            }
+        }
+        return end;
+    }
+
+    private int consumeFrame(byte[] data, int start, int end) throws IOException {
+        int position = start;
+        if (frameLength < 0) {
+            // Cabecera: tipo y largo, posiblemente repartidos entre lecturas
+            int count = Math.min(WireProtocol.HEADER_LENGTH - headerLength, end - position);
+            System.arraycopy(data, position, header, headerLength, count);
+            headerLength += count;
+            position += count;
+            if (headerLength < WireProtocol.HEADER_LENGTH) {
+                return position;
+            }
+            frameLength = WireProtocol.payloadLength(header, 0);
+            lineLength = 0;
+        }
+        if (header[0] == WireProtocol.VOICE && frameLength > VoiceForwarder.THRESHOLD) {
+            return forwardFrame(data, position, end);
+        }
+        if (lineLength == 0 && end - position >= frameLength) {
+            // La trama completa está en el buffer compartido: se procesa sin copiarla
+            int frameEnd = position + frameLength;
+            dispatchFrame(data, position);
+            return frameEnd;
+        }
+        int count = Math.min(frameLength - lineLength, end - position);
+        appendToLine(data, position, count);
+        position += count;
+        if (lineLength == frameLength) {
+            dispatchFrame(line, 0);
+        }
+        return position;
+    }
+
+/**
+ * The `forwardFrame` function consumes part of a long `VOICE` frame: first the recipient name, which is
+ * kept until it is complete, and then the audio, which goes straight to the `VoiceForwarder`.
+ *
+ * @param data The `data` parameter holds the bytes read.
+ * @param start The `start` parameter is the index of the first byte of the frame payload to consume.
+ * @param end The `end` parameter is the index after the last byte read.
+ * @return The index after the last byte consumed.
+ */
+    private int forwardFrame(byte[] data, int start, int end) {
+        int position = start;
+        while (forwarding == null && position < end) {
+            int count = Math.min(voiceHeaderLength() - lineLength, end - position);
+            appendToLine(data, position, count);
+            position += count;
+            if (lineLength == voiceHeaderLength()) {
+                forwarding = handler.startVoiceFrame(line, 0, lineLength);
+                forwardRemaining = frameLength - lineLength;
+                lineLength = 0;
+            }
+        }
+        if (forwarding != null) {
+            int count = Math.min(forwardRemaining, end - position);
+            forwarding.appendAudio(data, position, count);
+            position += count;
+            forwardRemaining -= count;
+            if (forwardRemaining == 0) {
+                headerLength = 0;
+                frameLength = -1;
+                finishForwarding();
+            }
+        }
+        return position;
+    }
+
+    // Largo del nombre del destinatario con su byte de largo, o 1 mientras ese byte no llegue
+    private int voiceHeaderLength() {
+        return lineLength == 0 ? 1 : 1 + WireProtocol.voiceNameLength(line, 0);
+    }
+
+    private void finishForwarding() {
+        VoiceForwarder forwarder = forwarding;
+        forwarding = null;
+        handler.finishVoice(forwarder);
+    }
+
+    private void dispatchFrame(byte[] payload, int offset) {
+        int length = frameLength;
+        headerLength = 0;
+        frameLength = -1;
+        lineLength = 0;
+        handler.handleFrame(header[0], payload, offset, length);
+        if (line != null && line.length > RETAINED_LINE_CAPACITY) {
+            line = null; // Liberar el buffer de tramas muy largas (notas de voz)
+        }
+    }
+
+    private static int trimCarriageReturn(byte[] data, int start, int end) {
+        return end > start && data[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private void appendToLine(byte[] data, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        if (line == null) {
+            line = new byte[Math.max(INITIAL_LINE_CAPACITY, length)];
+        } else if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(data, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+/**
+ * The `requestWrite` function asks the reactor to watch for write readiness after a frame has been
+ * added to the handler's `OutboundQueue`. It may be called from any thread.
+ */
+    void requestWrite() {
+        if (closed.get()) {
+            return;
+        }
+        if (writeRequested.compareAndSet(false, true)) {
+            if (reactor.inReactorThread()) {
+                enableWrites();
+            } else {
+                reactor.execute(this::enableWrites);
+            }
+        }
+    }
+
+    private void enableWrites() {
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+/**
+ * The `onWritable` function writes as much of the pending queue as the socket accepts, and stops
+ * watching for write readiness once the queue is empty. A frame that is only partly written stays with
+ * the connection, which releases it once its last byte is out.
+ */
+    void onWritable() throws IOException {
+        OutboundQueue outbound = handler.getOutboundQueue();
+        while (writing != null || (writing = outbound.poll()) != null) {
+            if (writingView == null) {
+                writingView = writing.view();
+            }
+            channel.write(writingView);
+            if (writingView.hasRemaining()) {
+                return; // El socket está lleno, se reintenta en el próximo evento
+            }
+            releaseWriting();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        writeRequested.set(false);
+        if (!outbound.isEmpty() && writeRequested.compareAndSet(false, true)) {
+            enableWrites(); // Llegó una trama mientras se desactivaba la escritura
+        }
+    }
+
+/**
+ * The `close` function closes the channel once and lets the `ClientHandler` clean up the user state.
+ * When called from outside the reactor, such as when a sender disconnects a slow consumer, the close is
+ * handed to the reactor thread.
+ */
+    void close() {
+        if (!reactor.inReactorThread()) {
+            reactor.execute(this::close);
+            return;
+        }
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (writing != null) {
+            releaseWriting();
+        }
+        if (forwarding != null) {
+            forwarding.abort(); // El remitente se fue en medio de una nota de voz
+            forwarding = null;
+        }
+        if (handler != null) {
+            handler.handleDisconnect();
+        }
+    }
+
+    private void releaseWriting() {
+        writing.release();
+        writing = null;
+        writingView = null;
+    }
+}
@@ -0,0 +1,441 @@
+package com.example.chismapp.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The `OfflineMailboxes` class keeps the chat messages of users who are not connected: direct messages
+ * sent to them and the messages of the groups they were in when they disconnected. Each mailbox holds its
+ * oldest messages in memory, up to `--mailbox-memory` messages, and appends the rest to a spill file as
+ * `[varint length][line]` records, so a long absence costs disk and not heap. When the user logs in again
+ * the mailbox is sent in `MessageBatch` frames of up to {@link #BATCH_BYTES} bytes, in order, by one of
+ * a few background threads, which waits whenever half of the client's outbound queue is in use, so a slow
+ * client does not hold back the deliveries of the others. The spill file is
+ * read one batch at a time as it is sent, so a delivery never holds a whole mailbox in memory. At most
+ * {@link #MAX_MAILBOXES} users have a mailbox, and a user who does not come back within a week loses its
+ * mailbox and the groups kept for it.
+ * The mailboxes replace the `MessageLog` when the server runs without `--message-log`; with a log, the
+ * client asks for what it missed with `REPLAY:` instead. Spill files only extend memory, they are not kept
+ * across restarts.
+ */
+public class OfflineMailboxes {
+
+    static final int BATCH_BYTES = 64 * 1024;
+    static final int MAX_MAILBOXES = 10_000;
+    private static final int DELIVERY_THREADS = 4;
+    private static final int MAX_MESSAGES = 100_000;
+    private static final long EXPIRY_NANOS = TimeUnit.DAYS.toNanos(7);
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int memoryLimit;
+    private final long expiryNanos;
+    private final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    // Grupos de los que salió cada usuario al desconectarse, y sus miembros ausentes
+    private final ConcurrentMap<String, Set<String>> awayMembers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> awayGroups = new ConcurrentHashMap<>();
+    // Desde cuándo falta cada usuario con buzón o con grupos guardados, para olvidar a quien no vuelve
+    private final ConcurrentMap<String, Long> awaySince = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    private final AtomicInteger nextSpill = new AtomicInteger();
+    private final ExecutorService deliveries;
+    private Path spillDirectory;
+
+    // Recibe las tandas de un buzón en el hilo de entrega
+    public interface Recipient {
+        // Devuelve false si el cliente ya no puede recibir más; el resto del buzón se descarta
+        boolean send(SharedMessage batch);
+
+        // Llamado al final con los mensajes entregados y los que no cupieron en el buzón
+        void onEnd(int delivered, int dropped);
+    }
+
+// The constructor takes whether the mailboxes are used, the directory of the spill files, or `null` for a
+// temporary directory created on the first spill, and how many messages a mailbox keeps in memory.
+    public OfflineMailboxes(boolean enabled, Path directory, int memoryLimit) {
+        this(enabled, directory, memoryLimit, EXPIRY_NANOS);
+    }
+
+// This constructor also takes how long a user may be away before its mailbox is dropped.
+    OfflineMailboxes(boolean enabled, Path directory, int memoryLimit, long expiryNanos) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.memoryLimit = memoryLimit;
+        this.expiryNanos = expiryNanos;
+        AtomicInteger deliveryThreads = new AtomicInteger();
+        this.deliveries = enabled ? Executors.newFixedThreadPool(DELIVERY_THREADS, task -> {
+            Thread thread = new Thread(task, "mailbox-delivery-" + deliveryThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+/**
+ * The `post` function puts a message in the mailbox of a user who is not connected.
+ *
+ * @param userName The `userName` parameter is the recipient.
+ * @param message The `message` parameter is the chat message; the caller keeps its reference.
+ * @return `false` if the mailboxes are disabled or {@link #MAX_MAILBOXES} other users already have one,
+ * so the message was not kept.
+ */
+    public boolean post(String userName, TextMessage message) {
+        if (!enabled) {
+            return false;
+        }
+        sweep();
+        // Un buzón que se está entregando ya no acepta mensajes: el siguiente va a un buzón nuevo
+        while (true) {
+            Mailbox mailbox = mailboxes.get(userName);
+            if (mailbox == null) {
+                if (mailboxes.size() >= MAX_MAILBOXES) {
+                    return false;
+                }
+                awaySince.putIfAbsent(userName, System.nanoTime());
+                mailbox = mailboxes.computeIfAbsent(userName, name -> new Mailbox());
+            }
+            if (mailbox.add(message.line())) {
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+/**
+ * The `postToGroup` function puts a group message in the mailbox of every member who disconnected while
+ * in the group.
+ *
+ * @param groupName The `groupName` parameter is the group.
+ * @param message The `message` parameter is the chat message; the caller keeps its reference.
+ */
+    public void postToGroup(String groupName, TextMessage message) {
+        Set<String> away = enabled ? awayMembers.get(groupName) : null;
+        if (away != null) {
+            for (String userName : away) {
+                post(userName, message);
+            }
+        }
+    }
+
+/**
+ * The `left` function records the groups a user was in when it disconnected, whose messages are kept
+ * for it until it logs in again.
+ *
+ * @param userName The `userName` parameter is the user.
+ * @param groups The `groups` parameter holds its groups.
+ */
+    public void left(String userName, Collection<String> groups) {
+        if (!enabled || groups.isEmpty()) {
+            return;
+        }
+        sweep();
+        awaySince.put(userName, System.nanoTime());
+        for (String group : groups) {
+            awayMembers.compute(group, (name, away) -> {
+                Set<String> members = away == null ? ConcurrentHashMap.newKeySet() : away;
+                members.add(userName);
+                return members;
+            });
+        }
+        awayGroups.computeIfAbsent(userName, name -> ConcurrentHashMap.newKeySet()).addAll(groups);
+    }
+
+/**
+ * The `deliver` function sends a user who just logged in everything its mailbox holds, in batches, and
+ * stops keeping the messages of its old groups: the client joins them again itself.
+ *
+ * @param userName The `userName` parameter is the user.
+ * @param recipient The `recipient` parameter receives the batches and the end of the delivery.
+ */
+    public void deliver(String userName, Recipient recipient) {
+        if (!enabled) {
+            return;
+        }
+        awaySince.remove(userName);
+        forgetGroups(userName);
+        if (!mailboxes.containsKey(userName)) {
+            return;
+        }
+        deliveries.execute(() -> {
+            BatchSender sender = new BatchSender(recipient);
+            int dropped = 0;
+            // Un mensaje publicado mientras el usuario entraba crea otro buzón, que se entrega también
+            Mailbox mailbox;
+            while ((mailbox = mailboxes.remove(userName)) != null) {
+                for (byte[] line : mailbox.take()) {
+                    sender.add(line);
+                }
+                dropped += mailbox.sendSpilled(sender);
+            }
+            sender.flush();
+            recipient.onEnd(sender.delivered, dropped + sender.dropped);
+        });
+    }
+
+    private void forgetGroups(String userName) {
+        Set<String> groups = awayGroups.remove(userName);
+        if (groups != null) {
+            for (String group : groups) {
+                awayMembers.computeIfPresent(group, (name, away) -> {
+                    away.remove(userName);
+                    return away.isEmpty() ? null : away;
+                });
+            }
+        }
+    }
+
+    // Olvida, como mucho una vez por minuto, a los usuarios que faltan desde hace más de `expiryNanos`:
+    // su buzón se borra y sus grupos dejan de guardarle mensajes
+    private void sweep() {
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last < Math.min(expiryNanos, SWEEP_INTERVAL_NANOS) || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        for (Map.Entry<String, Long> away : awaySince.entrySet()) {
+            if (now - away.getValue() > expiryNanos && awaySince.remove(away.getKey(), away.getValue())) {
+                forgetGroups(away.getKey());
+                Mailbox mailbox = mailboxes.remove(away.getKey());
+                if (mailbox != null) {
+                    mailbox.take();
+                    mailbox.discard();
+                }
+            }
+        }
+    }
+
+    int size(String userName) {
+        Mailbox mailbox = mailboxes.get(userName);
+        return mailbox == null ? 0 : mailbox.size();
+    }
+
+/**
+ * The `close` function stops the deliveries in progress and deletes the spill files.
+ */
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        deliveries.shutdownNow();
+        for (Mailbox mailbox : mailboxes.values()) {
+            mailbox.discard();
+        }
+        mailboxes.clear();
+    }
+
+    private synchronized Path spillDirectory() throws IOException {
+        if (spillDirectory == null) {
+            if (directory != null) {
+                Files.createDirectories(directory);
+                // Los archivos de una ejecución anterior ya no tienen buzón
+                try (Stream<Path> old = Files.list(directory)) {
+                    for (Path file : old.filter(path -> path.toString().endsWith(".spill")).toList()) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                spillDirectory = directory;
+            } else {
+                spillDirectory = Files.createTempDirectory("chismapp-mailboxes");
+            }
+        }
+        return spillDirectory;
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+    }
+
+/**
+ * The `BatchSender` class joins the lines of a delivery into `MessageBatch` frames of up to
+ * {@link #BATCH_BYTES} bytes. Once the recipient refuses a batch, the remaining lines are counted as
+ * dropped.
+ */
+    private static final class BatchSender {
+        private final Recipient recipient;
+        private List<byte[]> batch = new ArrayList<>();
+        private int bytes;
+        private int delivered;
+        private int dropped;
+        private boolean open = true;
+
+        BatchSender(Recipient recipient) {
+            this.recipient = recipient;
+        }
+
+        void add(byte[] line) {
+            if (open && !batch.isEmpty() && bytes + line.length > BATCH_BYTES) {
+                flush();
+            }
+            if (!open) {
+                dropped++;
+                return;
+            }
+            batch.add(line);
+            bytes += line.length + 1;
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            MessageBatch message = new MessageBatch(batch);
+            boolean accepted = recipient.send(message);
+            message.release();
+            if (accepted) {
+                delivered += batch.size();
+            } else {
+                open = false;
+                dropped += batch.size();
+            }
+            batch = new ArrayList<>();
+            bytes = 0;
+        }
+    }
+
+/**
+ * The `Mailbox` class holds the messages of one user. The first messages stay in memory; once that is
+ * full, every later message goes to the spill file, so reading the memory and then the file keeps the
+ * order in which they arrived.
+ */
+    private final class Mailbox {
+        private final ArrayDeque<byte[]> memory = new ArrayDeque<>();
+        private Path spillFile;
+        private OutputStream spill;
+        private int spilled;
+        private int dropped;
+        private boolean taken;
+
+        // Devuelve false si el buzón ya se entregó
+        synchronized boolean add(byte[] line) {
+            if (taken) {
+                return false;
+            }
+            if (size() >= MAX_MESSAGES) {
+                dropped++;
+                return true;
+            }
+            if (spill == null && memory.size() < memoryLimit) {
+                memory.add(line);
+                return true;
+            }
+            try {
+                if (spill == null) {
+                    spillFile = spillDirectory().resolve("mailbox-" + nextSpill.incrementAndGet() + ".spill");
+                    spill = new BufferedOutputStream(Files.newOutputStream(spillFile));
+                }
+                writeVarInt(spill, line.length);
+                spill.write(line);
+                spilled++;
+            } catch (IOException e) {
+                System.out.println("Could not spill an offline message to disk: " + e.getMessage());
+                dropped++;
+            }
+            return true;
+        }
+
+        synchronized int size() {
+            return memory.size() + spilled;
+        }
+
+        // Cierra el buzón a nuevos mensajes y devuelve los que están en memoria, que van primero
+        synchronized List<byte[]> take() {
+            taken = true;
+            List<byte[]> lines = new ArrayList<>(memory);
+            memory.clear();
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    System.out.println("Could not write the offline messages spilled to disk: " + e.getMessage());
+                    dropped += spilled;
+                    discard();
+                }
+            }
+            return lines;
+        }
+
+        // Después de `take` nadie escribe en el archivo: se lee sin el candado, una línea cada vez, hasta
+        // que el cliente deja de aceptar tandas. Devuelve los mensajes que no se le pudieron entregar
+        int sendSpilled(BatchSender sender) {
+            Path file;
+            int count;
+            synchronized (this) {
+                file = spill != null ? spillFile : null;
+                count = spilled;
+            }
+            int read = 0;
+            if (file != null) {
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                    for (; read < count && sender.open; read++) {
+                        byte[] line = new byte[readVarInt(in)];
+                        if (in.readNBytes(line, 0, line.length) < line.length) {
+                            throw new EOFException();
+                        }
+                        sender.add(line);
+                    }
+                } catch (IOException e) {
+                    System.out.println("Could not read the offline messages spilled to disk: " + e.getMessage());
+                }
+            }
+            synchronized (this) {
+                discard();
+                return dropped + count - read;
+            }
+        }
+
+        synchronized void discard() {
+            try {
+                if (spill != null) {
+                    spill.close();
+                    Files.deleteIfExists(spillFile);
+                }
+            } catch (IOException e) {
+                // Un archivo que no se pudo borrar se elimina al reiniciar
+            }
+            spill = null;
+            spilled = 0;
+        }
+    }
+}
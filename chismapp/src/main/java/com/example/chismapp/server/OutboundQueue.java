@@ -0,0 +1,292 @@
+package com.example.chismapp.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The `OutboundQueue` class is the bounded queue of encoded frames waiting to be written to one client.
+ * Senders only enqueue, and a single writer (the client's writer thread, or its `Reactor`) drains the
+ * queue, so a client with a full TCP window never stalls the thread that sent it a message. When the
+ * queue is full the configured `OverflowPolicy` decides what happens. Frames are shared with the other
+ * recipients of the same message: the queue holds a reference to each frame it keeps, and hands that
+ * reference to the writer that removes the frame, which releases it once the frame is written.
+ */
+public class OutboundQueue {
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMillis;
+    private final ArrayDeque<Entry> entries;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private int voiceEntries;
+    private long droppedFrames;
+    private boolean closed;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.entries = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+    }
+
+/**
+ * The `offer` function adds a frame to the queue, applying the overflow policy when it is full.
+ *
+ * @param frame The `frame` parameter holds the encoded bytes to write to the client. The queue takes its
+ * own reference when it keeps the frame.
+ * @param voice The `voice` parameter marks audio frames, which may be dropped under pressure.
+ * @param mayBlock The `mayBlock` parameter is `false` when the caller must not wait, such as a
+ * `Reactor` thread, in which case the `BLOCK` policy gives up immediately.
+ * @return `true` if the frame was queued or deliberately dropped, `false` if the client should be
+ * disconnected because it cannot keep up.
+ */
+    public boolean offer(SharedFrame frame, boolean voice, boolean mayBlock) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (entries.size() >= capacity && !makeRoom(voice, mayBlock)) {
+                return closed || droppedIncoming(voice);
+            }
+            entries.add(new Entry(frame.retain(), voice));
+            if (voice) {
+                voiceEntries++;
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean makeRoom(boolean voice, boolean mayBlock) {
+        switch (policy) {
+            case DROP_OLDEST_VOICE:
+                return dropOldestVoice();
+            case BLOCK:
+                if (!mayBlock) {
+                    return false;
+                }
+                long remaining = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                try {
+                    while (entries.size() >= capacity && !closed) {
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        remaining = notFull.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                return !closed;
+            default:
+                return false;
+        }
+    }
+
+    private boolean dropOldestVoice() {
+        if (voiceEntries == 0) {
+            return false;
+        }
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.voice) {
+                iterator.remove();
+                entry.frame.release();
+                voiceEntries--;
+                droppedFrames++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Con la política DROP_OLDEST_VOICE una trama de voz nueva se descarta si no hay voz antigua que sacar
+    private boolean droppedIncoming(boolean voice) {
+        if (policy == OverflowPolicy.DROP_OLDEST_VOICE && voice) {
+            droppedFrames++;
+            return true;
+        }
+        return false;
+    }
+
+/**
+ * The `poll` function removes the frame at the head of the queue. The caller owns the queue's reference
+ * to the frame and must release it once the frame has been written.
+ *
+ * @return The removed frame, or `null` if the queue is empty.
+ */
+    public SharedFrame poll() {
+        lock.lock();
+        try {
+            return removeHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+/**
+ * The `take` function waits until a frame is available and removes it. It is used by the writer thread
+ * of the blocking engines, which must release the frame once it has been written.
+ *
+ * @return The next frame, or `null` once the queue has been closed.
+ */
+    public SharedFrame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (entries.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return closed ? null : removeHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private SharedFrame removeHead() {
+        Entry head = entries.poll();
+        if (head == null) {
+            return null;
+        }
+        if (head.voice) {
+            voiceEntries--;
+        }
+        notFull.signal();
+        return head.frame;
+    }
+
+/**
+ * The `drainTo` function is the writer loop of the blocking engines. It takes frames from the queue and
+ * writes them to the stream, flushing only when the queue runs empty so frames that queue up together
+ * leave in a single write. Each frame is released once it has been copied out.
+ *
+ * @param out The `out` parameter is the stream of the socket the frames are written to.
+ * @param bufferSize The `bufferSize` parameter is the size of the staging buffer.
+ * @throws IOException if the stream stops accepting data.
+ */
+    public void drainTo(OutputStream out, int bufferSize) throws IOException, InterruptedException {
+        byte[] buffer = new byte[bufferSize];
+        int buffered = 0;
+        SharedFrame frame;
+        while ((frame = take()) != null) {
+            ByteBuffer view = frame.view();
+            try {
+                while (view.hasRemaining()) {
+                    if (buffered == buffer.length) {
+                        out.write(buffer, 0, buffered);
+                        buffered = 0;
+                    }
+                    int count = Math.min(view.remaining(), buffer.length - buffered);
+                    view.get(buffer, buffered, count);
+                    buffered += count;
+                }
+            } finally {
+                frame.release();
+            }
+            if (isEmpty()) {
+                out.write(buffer, 0, buffered);
+                out.flush();
+                buffered = 0;
+            }
+        }
+    }
+
+/**
+ * The `close` function discards the pending frames and wakes up the writer and any blocked sender.
+ */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (Entry entry : entries) {
+                entry.frame.release();
+            }
+            entries.clear();
+            voiceEntries = 0;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+/**
+ * The `depth` function returns the number of frames waiting to be written.
+ *
+ * @return The current queue depth.
+ */
+    public int depth() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+/**
+ * The `isClosed` function tells whether the queue was closed because its client disconnected.
+ *
+ * @return `true` once `close` was called.
+ */
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+/**
+ * The `isEmpty` function tells whether no frame is waiting to be written.
+ *
+ * @return `true` when the queue is empty.
+ */
+    public boolean isEmpty() {
+        return depth() == 0;
+    }
+
+/**
+ * The `getDroppedFrames` function returns how many voice frames were discarded by the
+ * `DROP_OLDEST_VOICE` policy.
+ *
+ * @return The number of dropped frames.
+ */
+    public long getDroppedFrames() {
+        lock.lock();
+        try {
+            return droppedFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry {
+        private final SharedFrame frame;
+        private final boolean voice;
+
+        Entry(SharedFrame frame, boolean voice) {
+            this.frame = frame;
+            this.voice = voice;
+        }
+    }
+}
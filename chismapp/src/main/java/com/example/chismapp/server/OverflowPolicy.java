@@ -0,0 +1,25 @@
+package com.example.chismapp.server;
+
+/**
+ * The `OverflowPolicy` enum tells an `OutboundQueue` what to do when a client does not read fast enough
+ * and its queue is full: drop its oldest queued voice frame, disconnect it, or make the sender wait up
+ * to a timeout for room before disconnecting it.
+ */
+public enum OverflowPolicy {
+    DROP_OLDEST_VOICE, DISCONNECT, BLOCK;
+
+/**
+ * The `fromName` function parses the value of the `--overflow` flag.
+ *
+ * @param name The `name` parameter is the policy name, such as `drop-oldest-voice` or `block`.
+ * @return The matching `OverflowPolicy`.
+ */
+    public static OverflowPolicy fromName(String name) {
+        try {
+            return valueOf(name.trim().replace('-', '_').toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown overflow policy: " + name
+                    + ". Use drop-oldest-voice, disconnect or block.");
+        }
+    }
+}
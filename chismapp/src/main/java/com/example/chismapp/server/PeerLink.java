@@ -0,0 +1,126 @@
+package com.example.chismapp.server;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import com.example.chismapp.util.FrameReader;
+
+/**
+ * The `PeerLink` class is the persistent TCP connection between two nodes of a cluster. Frames for the
+ * other node are placed on an `OutboundQueue` and written by the link's writer thread, so a sender never
+ * waits for the network; a reader thread hands every received frame to the `ClusterNode`. The first
+ * frame each side sends is a `HELLO` with its node id.
+ */
+final class PeerLink {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+
+    private final ClusterNode node;
+    private final Socket socket;
+    private final boolean dialed;
+    private final OutboundQueue outbound;
+    private volatile String peerId;
+    private volatile boolean closed;
+
+// The constructor takes the connected socket and whether this node dialed it, which decides which link
+// survives when two nodes connect to each other at the same time.
+    PeerLink(ClusterNode node, Socket socket, boolean dialed) {
+        this.node = node;
+        this.socket = socket;
+        this.dialed = dialed;
+        // Las tramas de voz pueden descartarse si el otro nodo no da abasto; el resto nunca
+        this.outbound = new OutboundQueue(QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST_VOICE, 0);
+    }
+
+/**
+ * The `start` function sends the `HELLO` frame and starts the reader and writer threads of the link.
+ */
+    void start() {
+        SharedFrame hello = ClusterProtocol.frame(ClusterProtocol.HELLO, node.getNodeId());
+        send(hello, false);
+        hello.release();
+        Thread writer = new Thread(this::writeLoop, "peer-writer-" + socket.getPort());
+        Thread reader = new Thread(this::readLoop, "peer-reader-" + socket.getPort());
+        writer.setDaemon(true);
+        reader.setDaemon(true);
+        writer.start();
+        reader.start();
+    }
+
+    private void writeLoop() {
+        try {
+            outbound.drainTo(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+        } catch (IOException e) {
+            close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void readLoop() {
+        try {
+            FrameReader in = new FrameReader(socket.getInputStream());
+            while (in.readFrame()) {
+                if (peerId == null) {
+                    if (in.getFrameType() != ClusterProtocol.HELLO) {
+                        throw new IOException("Peer did not say HELLO");
+                    }
+                    peerId = new ClusterProtocol.Fields(in.getPayload(), 0, in.getPayloadLength()).next();
+                    node.register(this);
+                } else {
+                    node.handleFrame(this, in.getFrameType(), in.getPayload(), in.getPayloadLength());
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.println("Peer link to " + (peerId != null ? peerId : socket.getRemoteSocketAddress())
+                        + " lost: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+/**
+ * The `send` function queues a frame for the other node. The link takes its own reference to the frame.
+ *
+ * @param frame The `frame` parameter is a sealed cluster frame.
+ * @param voice The `voice` parameter marks frames that carry audio, which may be dropped under pressure.
+ */
+    void send(SharedFrame frame, boolean voice) {
+        if (!outbound.offer(frame, voice, !Reactor.isReactorThread())) {
+            System.out.println("Peer link to " + peerId + " cannot keep up, closing it.");
+            close();
+        }
+    }
+
+/**
+ * The `close` function closes the socket, which ends both threads, and tells the node the link is gone.
+ */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        outbound.close();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // El socket ya estaba cerrado
+        }
+        node.unregister(this);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isDialed() {
+        return dialed;
+    }
+
+    String getPeerId() {
+        return peerId;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.chismapp.server;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The `PresenceManager` class tells the connected clients who is online. Joins and leaves are not sent
+ * as they happen: they are collected during a short tick and then sent to every client as one
+ * `PRESENCE_DELTA:<seq>:+name,-name` line, encoded once and shared by all recipients. A user who joins
+ * and leaves within the same tick produces no delta at all, so a burst of disconnects costs one frame
+ * per client instead of one frame per client and per disconnect. A client can ask for the full list
+ * with `/who`, answered as `PRESENCE:<seq>:name,name`; deltas with a sequence number not greater than
+ * the one of the snapshot are already included in it.
+ */
+public class PresenceManager {
+
+    public static final String SNAPSHOT_PREFIX = "PRESENCE:";
+    public static final String DELTA_PREFIX = "PRESENCE_DELTA:";
+
+    private final Supplier<Collection<ClientHandler>> recipients;
+    // Últimos cambios de cada usuario durante el tick actual: true si está conectado
+    private final Map<String, Boolean> pending = new LinkedHashMap<>();
+    // Usuarios conectados según las deltas ya publicadas
+    private final Set<String> published = new LinkedHashSet<>();
+    private long sequence;
+    private ScheduledExecutorService ticker;
+
+// The constructor receives the `recipients` supplier, which returns the handlers connected when a delta
+// is flushed, so the manager does not keep a second registry of the clients.
+    public PresenceManager(Supplier<Collection<ClientHandler>> recipients) {
+        this.recipients = recipients;
+    }
+
+/**
+ * The `start` function flushes the pending changes every `tickMillis` milliseconds on a daemon thread.
+ *
+ * @param tickMillis The `tickMillis` parameter is the length of the tick in milliseconds.
+ */
+    public void start(long tickMillis) {
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::flush, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+/**
+ * The `stop` function stops the ticker; changes that were not flushed yet are not sent.
+ */
+    public void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+/**
+ * The `userJoined` function records that a user logged in.
+ *
+ * @param userName The `userName` parameter is the name of the user.
+ */
+    public synchronized void userJoined(String userName) {
+        pending.put(userName, Boolean.TRUE);
+    }
+
+/**
+ * The `userLeft` function records that a user disconnected.
+ *
+ * @param userName The `userName` parameter is the name of the user.
+ */
+    public synchronized void userLeft(String userName) {
+        pending.put(userName, Boolean.FALSE);
+    }
+
+/**
+ * The `flush` function sends the changes of the current tick to every connected client, as one message
+ * shared by all of them. It does nothing when the tick had no net change.
+ */
+    public void flush() {
+        String delta = drainDelta();
+        if (delta == null) {
+            return;
+        }
+        TextMessage message = TextMessage.of(delta);
+        for (ClientHandler handler : recipients.get()) {
+            handler.send(message);
+        }
+        message.release();
+    }
+
+/**
+ * The `drainDelta` function applies the changes of the current tick to the published list and builds
+ * the delta line for them.
+ *
+ * @return The `PRESENCE_DELTA` line, or `null` if nobody's state changed.
+ */
+    synchronized String drainDelta() {
+        StringBuilder delta = new StringBuilder();
+        for (Map.Entry<String, Boolean> change : pending.entrySet()) {
+            String userName = change.getKey();
+            // Solo cuenta el estado final del tick frente al ya publicado
+            boolean changed = change.getValue() ? published.add(userName) : published.remove(userName);
+            if (changed) {
+                delta.append(delta.length() == 0 ? "" : ",").append(change.getValue() ? '+' : '-').append(userName);
+            }
+        }
+        pending.clear();
+        if (delta.length() == 0) {
+            return null;
+        }
+        sequence++;
+        return DELTA_PREFIX + sequence + ":" + delta;
+    }
+
+/**
+ * The `snapshot` function builds the full list of online users as published so far.
+ *
+ * @return The `PRESENCE` line with the current sequence number and the user names.
+ */
+    public synchronized String snapshot() {
+        return SNAPSHOT_PREFIX + sequence + ":" + String.join(",", published);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.chismapp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * The `Reactor` class runs a single selector loop that drives the read and write readiness events of
+ * the `NioConnection` objects sharded to it. The `ChatServer` starts one reactor per core when it runs
+ * with the non-blocking engine.
+ */
+public class Reactor implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<Reactor> CURRENT = new ThreadLocal<>();
+
+    private final Selector selector;
+    private final Queue<Runnable> pendingTasks;
+    private final ByteBuffer readBuffer;
+    private final ServerContext context;
+    private final Thread thread;
+    private volatile boolean running;
+
+// The constructor opens the selector used by this loop and allocates the read buffer shared by every
+// connection of the reactor, so idle connections do not hold a buffer of their own.
+    public Reactor(int id, ServerContext context) throws IOException {
+        this.selector = Selector.open();
+        this.pendingTasks = new ConcurrentLinkedQueue<>();
+        this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        this.context = context;
+        this.thread = new Thread(this, "reactor-" + id);
+    }
+
+/**
+ * The `start` function launches the selector loop in its own thread.
+ */
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+/**
+ * The `register` function hands an accepted channel to this reactor. The registration runs on the
+ * reactor thread, since a selector only accepts registrations safely from its own loop.
+ *
+ * @param channel The `channel` parameter is the `SocketChannel` accepted by the `ChatServer`.
+ */
+    public void register(SocketChannel channel) {
+        register(channel, connection -> new ClientHandler(connection, context));
+    }
+
+    // Registra el canal con el handler que crea la fábrica para su conexión
+    void register(SocketChannel channel, Function<NioConnection, ClientHandler> handlers) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                NioConnection connection = new NioConnection(this, channel);
+                ClientHandler handler = handlers.apply(connection);
+                connection.attach(handler, channel.register(selector, SelectionKey.OP_READ, connection));
+            } catch (IOException e) {
+                System.out.println("Error registering client: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // El canal ya no es utilizable
+                }
+            }
+        });
+    }
+
+/**
+ * The `execute` function queues a task to run on the reactor thread and wakes up the selector so the
+ * task is not delayed until the next readiness event.
+ *
+ * @param task The `task` parameter is the `Runnable` to run inside the selector loop.
+ */
+    public void execute(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+/**
+ * The `inReactorThread` function tells whether the caller is running inside this selector loop.
+ *
+ * @return `true` when the current thread is the reactor thread.
+ */
+    public boolean inReactorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+/**
+ * The `isReactorThread` function tells whether the caller is running inside any selector loop, where
+ * waiting for a slow client would stall every connection of that reactor.
+ *
+ * @return `true` when the current thread belongs to a `Reactor`.
+ */
+    public static boolean isReactorThread() {
+        return CURRENT.get() != null;
+    }
+
+/**
+ * The `run` function waits for readiness events and dispatches them to the attached connections,
+ * running the queued tasks between selections. A connection whose handler fails is closed, and the
+ * loop keeps serving the others.
+ */
+    @Override
+    public void run() {
+        CURRENT.set(this);
+        while (running) {
+            try {
+                selector.select();
+                runPendingTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    dispatch(key);
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                System.out.println("Reactor error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void dispatch(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (CancelledKeyException e) {
+            connection.close();
+        } catch (IOException e) {
+            // El cliente cerró la conexión de forma abrupta
+            connection.close();
+        } catch (RuntimeException e) {
+            // Un error de una conexión solo cierra esa conexión; el bucle sigue atendiendo a las demás
+            System.out.println("Error handling client, closing its connection: " + e);
+            connection.close();
+        }
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.println("Reactor task failed: " + e);
+            }
+        }
+    }
+
+/**
+ * The `shutdown` function closes the connections of this reactor, stops the selector loop and closes the
+ * selector. The work is done on the reactor thread, which owns the selector keys.
+ */
+    public void shutdown() {
+        execute(() -> {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof NioConnection connection) {
+                    connection.close();
+                }
+            }
+            running = false;
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.chismapp.server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The `ServerConfig` class holds the settings the `ChatServer` is started with. Every setting has a
+ * default and can be changed with a `--name=value` flag on the command line. The cluster settings name
+ * the node (`--node-id`), the port other nodes connect to (`--cluster-port`, `0` for any free port) and
+ * the nodes to connect to at startup (`--peers=host:port,...`). Call audio is relayed on the UDP port
+ * `--media-port`, announced to clients as `--media-host`. With `--message-log=<dir>` the server keeps the
+ * group and direct messages it delivers in a `MessageLog` in that directory; without it, the messages of
+ * users who are not connected wait in `OfflineMailboxes` that keep `--mailbox-memory` messages each in
+ * memory and spill the rest to `--mailbox-dir`. With `--voice-store=<dir>` voice notes are kept in a
+ * `VoiceBlobStore` and downloaded from the TCP port `--voice-port`.
+ */
+public class ServerConfig {
+
+    private ServerEngine engine = ServerEngine.NIO;
+    private int queueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST_VOICE;
+    private long blockTimeoutMillis = 2000;
+    private int statsIntervalSeconds = 0;
+    private long presenceTickMillis = 250;
+    private int port = 0;
+    private String nodeId = UUID.randomUUID().toString().substring(0, 8);
+    private int clusterPort = -1;
+    private List<InetSocketAddress> peers = new ArrayList<>();
+    private int mediaPort = 0;
+    private String mediaHost;
+    private Path messageLogDir;
+    private Path mailboxDir;
+    private int mailboxMemory = 256;
+    private Path voiceStoreDir;
+    private int voicePort = 0;
+
+/**
+ * The `fromArgs` function builds a configuration from the command line flags, keeping the default of
+ * every setting that is not given.
+ *
+ * @param args The `args` parameter holds the arguments passed to `ChatServer.main`.
+ * @return The `ServerConfig` described by the flags.
+ */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        config.engine = ServerEngine.fromArgs(args);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                continue;
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1).trim();
+            switch (name) {
+                case "queue-capacity" -> config.queueCapacity = Integer.parseInt(value);
+                case "overflow" -> config.overflowPolicy = OverflowPolicy.fromName(value);
+                case "block-timeout-ms" -> config.blockTimeoutMillis = Long.parseLong(value);
+                case "stats-interval" -> config.statsIntervalSeconds = Integer.parseInt(value);
+                case "presence-tick-ms" -> config.presenceTickMillis = Long.parseLong(value);
+                case "port" -> config.port = Integer.parseInt(value);
+                case "node-id" -> config.nodeId = value;
+                case "cluster-port" -> config.clusterPort = Integer.parseInt(value);
+                case "peers" -> config.peers = parsePeers(value);
+                case "media-port" -> config.mediaPort = Integer.parseInt(value);
+                case "media-host" -> config.mediaHost = value;
+                case "message-log" -> config.messageLogDir = Path.of(value);
+                case "mailbox-dir" -> config.mailboxDir = Path.of(value);
+                case "mailbox-memory" -> config.mailboxMemory = Integer.parseInt(value);
+                case "voice-store" -> config.voiceStoreDir = Path.of(value);
+                case "voice-port" -> config.voicePort = Integer.parseInt(value);
+                default -> { }
+            }
+        }
+        return config;
+    }
+
+    // Formato: host:puerto,host:puerto
+    private static List<InetSocketAddress> parsePeers(String value) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : value.split(",")) {
+            int separator = peer.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid peer " + peer + ". Use host:port.");
+            }
+            peers.add(new InetSocketAddress(peer.substring(0, separator).trim(),
+                    Integer.parseInt(peer.substring(separator + 1).trim())));
+        }
+        return peers;
+    }
+
+    public ServerEngine getEngine() {
+        return engine;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    public int getStatsIntervalSeconds() {
+        return statsIntervalSeconds;
+    }
+
+    public long getPresenceTickMillis() {
+        return presenceTickMillis;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    public List<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    public int getMediaPort() {
+        return mediaPort;
+    }
+
+/**
+ * The `getMediaHost` function returns the address clients send call audio to, given by `--media-host` or,
+ * by default, the address of this machine.
+ *
+ * @return The host advertised in `MEDIA:` lines.
+ */
+    public String getMediaHost() {
+        if (mediaHost == null) {
+            try {
+                mediaHost = InetAddress.getLocalHost().getHostAddress();
+            } catch (UnknownHostException e) {
+                mediaHost = "127.0.0.1";
+            }
+        }
+        return mediaHost;
+    }
+
+/**
+ * The `getMessageLogDir` function returns the directory of the `MessageLog`.
+ *
+ * @return The directory given by `--message-log`, or `null` if the server keeps no history.
+ */
+    public Path getMessageLogDir() {
+        return messageLogDir;
+    }
+
+/**
+ * The `getMailboxDir` function returns the directory the `OfflineMailboxes` spill to.
+ *
+ * @return The directory given by `--mailbox-dir`, or `null` for a temporary directory.
+ */
+    public Path getMailboxDir() {
+        return mailboxDir;
+    }
+
+    public int getMailboxMemory() {
+        return mailboxMemory;
+    }
+
+/**
+ * The `getVoiceStoreDir` function returns the directory of the `VoiceBlobStore`.
+ *
+ * @return The directory given by `--voice-store`, or `null` if voice notes are forwarded inline.
+ */
+    public Path getVoiceStoreDir() {
+        return voiceStoreDir;
+    }
+
+    public int getVoicePort() {
+        return voicePort;
+    }
+
+/**
+ * The `isClustered` function tells whether the server joins a cluster, which it does when it listens for
+ * other nodes with `--cluster-port` or connects to them with `--peers`.
+ *
+ * @return `true` if the server runs as a cluster node.
+ */
+    public boolean isClustered() {
+        return clusterPort >= 0 || !peers.isEmpty();
+    }
+}
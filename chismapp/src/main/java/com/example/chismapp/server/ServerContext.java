@@ -0,0 +1,103 @@
+package com.example.chismapp.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The `ServerContext` class holds the state shared by the clients of one `ChatServer`: its configuration,
+ * the users logged in on it, the group, call and presence managers, the `MediaRelay` that carries call
+ * audio, the `MessageLog` of delivered messages, the `OfflineMailboxes` of users who are not connected, the
+ * `VoiceBlobStore` of voice notes and the `ClusterNode` that routes to other nodes. Each server has its own context, so several
+ * servers can run in the same JVM.
+ */
+public class ServerContext {
+
+    private final ServerConfig config;
+    private final ConcurrentMap<String, ClientHandler> users;
+    private final GroupManager groupManager;
+    private final CallManager callManager;
+    private final PresenceManager presenceManager;
+    private final ClusterNode cluster;
+    private final MediaRelay mediaRelay;
+    private final MessageLog messageLog;
+    private final OfflineMailboxes offlineMailboxes;
+    private final VoiceBlobStore voiceStore;
+
+// The constructor creates the managers of a new server. The `GroupManager` reports new and retired
+// groups to the `ClusterNode`, which tells the other nodes.
+    public ServerContext(ServerConfig config) {
+        this.config = config;
+        this.users = new ConcurrentHashMap<>();
+        this.cluster = new ClusterNode(this, config.getNodeId());
+        this.groupManager = new GroupManager(cluster::announceGroup);
+        this.callManager = new CallManager();
+        this.presenceManager = new PresenceManager(users::values);
+        this.mediaRelay = new MediaRelay(config.getMediaHost(), config.getMediaPort());
+        this.messageLog = new MessageLog(config.getMessageLogDir());
+        // Con registro, los mensajes perdidos se piden con REPLAY y los buzones no hacen falta
+        this.offlineMailboxes = new OfflineMailboxes(!messageLog.isEnabled(), config.getMailboxDir(),
+                config.getMailboxMemory());
+        this.voiceStore = new VoiceBlobStore(config.getVoiceStoreDir(), config.getVoicePort());
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+/**
+ * The `getUsers` function returns the handlers of the users logged in on this server, by user name.
+ *
+ * @return The live map of local users.
+ */
+    public ConcurrentMap<String, ClientHandler> getUsers() {
+        return users;
+    }
+
+    public GroupManager getGroupManager() {
+        return groupManager;
+    }
+
+    public CallManager getCallManager() {
+        return callManager;
+    }
+
+    public PresenceManager getPresenceManager() {
+        return presenceManager;
+    }
+
+    public ClusterNode getCluster() {
+        return cluster;
+    }
+
+    public MediaRelay getMediaRelay() {
+        return mediaRelay;
+    }
+
+    public MessageLog getMessageLog() {
+        return messageLog;
+    }
+
+    public OfflineMailboxes getOfflineMailboxes() {
+        return offlineMailboxes;
+    }
+
+    public VoiceBlobStore getVoiceStore() {
+        return voiceStore;
+    }
+
+/**
+ * The `getOutboundQueueDepths` function returns the outbound queue depth of every connected user, for
+ * monitoring.
+ *
+ * @return A map from user name to the depth of that user's outbound queue.
+ */
+    public Map<String, Integer> getOutboundQueueDepths() {
+        Map<String, Integer> depths = new HashMap<>();
+        for (Map.Entry<String, ClientHandler> entry : users.entrySet()) {
+            depths.put(entry.getKey(), entry.getValue().getOutboundQueueDepth());
+        }
+        return depths;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.chismapp.server;
+
+/**
+ * The `ServerEngine` enum lists the execution modes the `ChatServer` can be started with using the
+ * `--engine=<name>` flag.
+ */
+public enum ServerEngine {
+    POOL, VIRTUAL, NIO;
+
+/**
+ * The `fromArgs` function looks for an `--engine=<name>` flag in the command line arguments.
+ *
+ * @param args The `args` parameter holds the arguments passed to `ChatServer.main`.
+ * @return The engine named by the flag, or `NIO` when no flag is present.
+ */
+    public static ServerEngine fromArgs(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                String name = arg.substring("--engine=".length()).trim();
+                try {
+                    return valueOf(name.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown engine: " + name + ". Use pool, virtual or nio.");
+                }
+            }
+        }
+        return NIO;
+    }
+}
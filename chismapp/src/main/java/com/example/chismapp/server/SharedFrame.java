@@ -0,0 +1,128 @@
+package com.example.chismapp.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The `SharedFrame` class is an encoded frame shared by every recipient of a message. The bytes are
+ * written once and each recipient's queue keeps a reference and reads them through its own `view`, so
+ * fanning out to N clients does not copy the frame N times. Frames up to {@link #MAX_POOLED_SIZE} live
+ * in direct buffers taken from a pool, which a `SocketChannel` writes without an extra copy; when the
+ * last reference is released the buffer goes back to the pool.
+ */
+public final class SharedFrame {
+
+    static final int MAX_POOLED_SIZE = 64 * 1024;
+    private static final int MIN_POOLED_SIZE = 256;
+    // Cantidad de buffers retenidos por clase de tamaño: 256 B, 1 KB, 4 KB, 16 KB y 64 KB
+    private static final int[] POOL_CAPACITY = {4096, 2048, 512, 128, 64};
+    private static final ArrayBlockingQueue<ByteBuffer>[] POOL = createPool();
+
+    private final ByteBuffer buffer;
+    private final int sizeClass;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private SharedFrame(ByteBuffer buffer, int sizeClass) {
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayBlockingQueue<ByteBuffer>[] createPool() {
+        ArrayBlockingQueue<ByteBuffer>[] pool = new ArrayBlockingQueue[POOL_CAPACITY.length];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new ArrayBlockingQueue<>(POOL_CAPACITY[i]);
+        }
+        return pool;
+    }
+
+/**
+ * The function `allocate` returns an empty frame with room for `size` bytes, owned by the caller. The
+ * caller fills `buffer()`, calls `seal` and releases its reference once the frame has been queued.
+ *
+ * @param size The `size` parameter is the exact number of bytes of the frame.
+ * @return A new `SharedFrame` with one reference.
+ */
+    public static SharedFrame allocate(int size) {
+        if (size > MAX_POOLED_SIZE) {
+            // Las notas de voz largas no se guardan en el pool
+            return new SharedFrame(ByteBuffer.allocate(size), -1);
+        }
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = POOL[sizeClass].poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(MIN_POOLED_SIZE << (2 * sizeClass));
+        }
+        buffer.clear().limit(size);
+        return new SharedFrame(buffer, sizeClass);
+    }
+
+    private static int sizeClass(int size) {
+        int sizeClass = 0;
+        while ((MIN_POOLED_SIZE << (2 * sizeClass)) < size) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+/**
+ * The function `buffer` returns the buffer to fill while the frame is being encoded.
+ *
+ * @return The frame's buffer, positioned at the next byte to write.
+ */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+/**
+ * The function `seal` ends the encoding: the written bytes become the content returned by `view`.
+ *
+ * @return This frame.
+ */
+    public SharedFrame seal() {
+        buffer.flip();
+        return this;
+    }
+
+/**
+ * The function `view` returns an independent view of the frame content, with its own position, so
+ * each recipient can be written at its own pace.
+ *
+ * @return A `ByteBuffer` view of the frame.
+ */
+    public ByteBuffer view() {
+        return buffer.duplicate();
+    }
+
+/**
+ * The function `retain` adds a reference, taken by each queue the frame is placed on.
+ *
+ * @return This frame.
+ */
+    public SharedFrame retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current <= 0) {
+                throw new IllegalStateException("Frame already released");
+            }
+        } while (!references.compareAndSet(current, current + 1));
+        return this;
+    }
+
+/**
+ * The function `release` drops a reference. When the last one is released the buffer returns to the
+ * pool, so no view of it may be used afterwards.
+ */
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            if (sizeClass >= 0) {
+                POOL[sizeClass].offer(buffer);
+            }
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Frame released too many times");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.chismapp.server;
+
+/**
+ * The `SharedMessage` class is a message sent to several clients. Clients may use the text protocol or
+ * the binary protocol, so the message keeps one `SharedFrame` per protocol, encoded the first time a
+ * recipient needs it and shared by every other recipient of that protocol. The sender releases the
+ * message once it has been handed to all the recipients; each queue keeps its own reference to the frame
+ * until the frame is written.
+ */
+public abstract class SharedMessage {
+
+    private SharedFrame textFrame;
+    private SharedFrame binaryFrame;
+    private boolean released;
+
+/**
+ * The function `frameFor` returns the frame for a recipient, encoding it on first use.
+ *
+ * @param binary The `binary` parameter tells whether the recipient negotiated the binary protocol.
+ * @return The `SharedFrame` for that protocol, still owned by this message.
+ */
+    public synchronized SharedFrame frameFor(boolean binary) {
+        if (released) {
+            throw new IllegalStateException("Message already released");
+        }
+        if (binary) {
+            if (binaryFrame == null) {
+                binaryFrame = encode(true).seal();
+            }
+            return binaryFrame;
+        }
+        if (textFrame == null) {
+            textFrame = encode(false).seal();
+        }
+        return textFrame;
+    }
+
+/**
+ * The function `encode` writes the message in the framing of one protocol.
+ *
+ * @param binary The `binary` parameter tells whether to build a binary frame or a text line.
+ * @return A new `SharedFrame`, filled but not sealed.
+ */
+    protected abstract SharedFrame encode(boolean binary);
+
+/**
+ * The function `isVoice` tells whether the message carries audio, which the `OutboundQueue` may drop
+ * under pressure.
+ *
+ * @return `true` for voice messages.
+ */
+    public abstract boolean isVoice();
+
+/**
+ * The function `release` drops the sender's reference to the encoded frames. It is called once the
+ * message has been queued for every recipient.
+ */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (textFrame != null) {
+            textFrame.release();
+        }
+        if (binaryFrame != null) {
+            binaryFrame.release();
+        }
+    }
+}
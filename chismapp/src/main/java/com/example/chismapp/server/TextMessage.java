@@ -0,0 +1,78 @@
+package com.example.chismapp.server;
+
+import java.nio.charset.StandardCharsets;
+
+import com.example.chismapp.util.WireProtocol;
+
+/**
+ * The `TextMessage` class holds one line of the text protocol sent by the server, such as a group
+ * message or a system notice. The line is converted to UTF-8 once, and framed at most once per protocol.
+ */
+public class TextMessage extends SharedMessage {
+
+    private final byte[] line;
+    private final boolean chat;
+
+    private TextMessage(byte[] line, boolean chat) {
+        this.line = line;
+        this.chat = chat;
+    }
+
+/**
+ * The function `of` creates a message from a line.
+ *
+ * @param line The `line` parameter is the text to send, without a trailing newline.
+ * @return A new `TextMessage`.
+ */
+    public static TextMessage of(String line) {
+        return new TextMessage(line.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+/**
+ * The function `ofUtf8` creates a message from a line that is already encoded.
+ *
+ * @param line The `line` parameter holds the UTF-8 bytes of the line, which must not be modified
+ * afterwards.
+ * @return A new `TextMessage`.
+ */
+    public static TextMessage ofUtf8(byte[] line) {
+        return new TextMessage(line, false);
+    }
+
+/**
+ * The function `chat` creates a group or direct message written by a user, which the `MessageLog` keeps
+ * so it can be replayed to recipients that were offline.
+ *
+ * @param line The `line` parameter holds the UTF-8 bytes of the line, which must not be modified
+ * afterwards.
+ * @return A new `TextMessage`.
+ */
+    public static TextMessage chat(byte[] line) {
+        return new TextMessage(line, true);
+    }
+
+    public boolean isChat() {
+        return chat;
+    }
+
+    byte[] line() {
+        return line;
+    }
+
+    @Override
+    protected SharedFrame encode(boolean binary) {
+        if (binary) {
+            SharedFrame frame = SharedFrame.allocate(WireProtocol.HEADER_LENGTH + line.length);
+            WireProtocol.putText(frame.buffer(), line, 0, line.length);
+            return frame;
+        }
+        SharedFrame frame = SharedFrame.allocate(line.length + 1);
+        frame.buffer().put(line).put((byte) '\n');
+        return frame;
+    }
+
+    @Override
+    public boolean isVoice() {
+        return false;
+    }
+}
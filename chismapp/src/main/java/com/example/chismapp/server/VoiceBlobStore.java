@@ -0,0 +1,443 @@
+package com.example.chismapp.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.example.chismapp.util.AudioCodec;
+import com.example.chismapp.util.VoiceNoteChunk;
+
+/**
+ * The `VoiceBlobStore` class keeps voice notes on disk so that recipients download them only when they
+ * play them. A note is collected as its voice messages reach this node, whether it came whole, in the
+ * parts of `VoiceForwarder` or in the chunks recorded by the client, and is stored once under the
+ * SHA-256 of its content: the same note sent to many recipients, or sent twice, is one file. Recipients
+ * get a `VOICE_REF:<id>:<sender>:<millis>` line instead of the audio. The blobs are downloaded from a
+ * TCP port of their own, given to clients as `VOICE_STORE:<port>` when they log in, with requests
+ * `GET <id> <offset> <length>` answered by `[total length][length]` and the bytes of the range, which
+ * `FileChannel.transferTo` copies from the file to the socket without passing through the heap.
+ * A blob is `[length][voice audio]` records, one per voice message of the note, in order. Notes are
+ * written by a thread of their own, so the reactor that received a voice message never waits for the
+ * disk. Downloads are served by a few threads, and a connection that takes longer than
+ * {@link #IDLE_TIMEOUT_MILLIS} to send a request, or to take its answer, is closed so it frees its thread.
+ * The store is enabled with `--voice-store=<dir>`; without it voice messages are forwarded inline.
+ */
+public class VoiceBlobStore {
+
+    static final String STORE_PREFIX = "VOICE_STORE:";
+    static final String REF_PREFIX = "VOICE_REF:";
+    static final int MAX_RANGE = 1024 * 1024;
+    private static final int ID_LENGTH = 32;
+    private static final int PCM_BYTES_PER_SECOND = 16000 * 2;  // 16 kHz, 16 bits, mono
+    private static final long ABANDONED_NANOS = TimeUnit.MINUTES.toNanos(2);
+    private static final int MAX_REQUEST_LENGTH = 128;
+    static final int DOWNLOAD_THREADS = 8;
+    static final long IDLE_TIMEOUT_MILLIS = 10_000;
+
+    private final Path directory;
+    private final int port;
+    private final long idleTimeoutMillis;
+    // Notas cuyos mensajes siguen llegando, por remitente, destino y id de la nota, solo del escritor
+    private final Map<String, PendingNote> pending = new HashMap<>();
+    private int nextPending;
+    private ServerSocketChannel listener;
+    private ExecutorService writer;
+    private ExecutorService downloads;
+    private ScheduledExecutorService timeouts;
+    private volatile boolean running;
+
+// The constructor takes the directory of the blobs, or `null` when the store is disabled, and the port
+// of the downloads, `0` for any free port.
+    public VoiceBlobStore(Path directory, int port) {
+        this(directory, port, IDLE_TIMEOUT_MILLIS);
+    }
+
+// This constructor also takes how long a download connection may wait for a request or its answer.
+    VoiceBlobStore(Path directory, int port, long idleTimeoutMillis) {
+        this.directory = directory;
+        this.port = port;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+/**
+ * The `start` function creates the directory of the blobs, drops the notes left half collected by the
+ * last run and opens the download port.
+ */
+    public void start() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(path -> path.toString().endsWith(".tmp")).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(port));
+        running = true;
+        writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "voice-store-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger downloadThreads = new AtomicInteger();
+        downloads = Executors.newFixedThreadPool(DOWNLOAD_THREADS, task -> {
+            Thread thread = new Thread(task, "voice-download-" + downloadThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        timeouts = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "voice-download-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread acceptor = new Thread(this::acceptLoop, "voice-store");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Voice notes stored at " + directory + ", downloaded on port " + getPort());
+    }
+
+    public int getPort() {
+        return listener.socket().getLocalPort();
+    }
+
+/**
+ * The `collect` function adds a voice message delivered to a local user or group to the note it belongs
+ * to. The message is written by the writer thread; once its note is complete, the note is stored and
+ * `delivery` gets, on that thread, the reference to send in its place.
+ *
+ * @param target The `target` parameter is the user or group the note is delivered to.
+ * @param voice The `voice` parameter is a whole note, a chunk or a part of one; the caller keeps its
+ * reference, since only the audio, which outlives it, is read.
+ * @param delivery The `delivery` parameter sends the `VOICE_REF` line, which it does not release. It is
+ * not called while the note is still arriving or if the note could not be stored.
+ */
+    public void collect(String target, VoiceMessage voice, Consumer<TextMessage> delivery) {
+        try {
+            writer.execute(() -> {
+                TextMessage ref = write(target, voice);
+                if (ref != null) {
+                    delivery.accept(ref);
+                    ref.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // El almacén se está cerrando: la nota se pierde como las que siguen llegando
+        }
+    }
+
+    // Escribe un mensaje de voz en su nota, en el hilo del escritor; da la referencia si la completa
+    private TextMessage write(String target, VoiceMessage voice) {
+        PendingNote note = null;
+        try {
+            byte[] audio = voice.audio();
+            boolean chunk = VoiceNoteChunk.isChunk(audio, 0, audio.length);
+            String key = voice.getSender() + ":" + target + ":"
+                    + (chunk ? (VoiceNoteChunk.isPart(audio, 0) ? "p" : "c") + VoiceNoteChunk.noteId(audio, 0) : "");
+            note = pending.remove(key);
+            if (note == null) {
+                sweep();
+                note = new PendingNote(directory.resolve("note-" + ++nextPending + ".tmp"));
+            }
+            note.add(audio);
+            if (chunk && !VoiceNoteChunk.isLast(audio, 0)) {
+                note.touched = System.nanoTime();
+                pending.put(key, note);
+                return null;
+            }
+            String id = note.store();
+            return TextMessage.of(REF_PREFIX + id + ":" + voice.getSender() + ":" + note.millis());
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not store a voice note from " + voice.getSender() + ": " + e.getMessage());
+            if (note != null) {
+                note.discard();
+            }
+            return null;
+        }
+    }
+
+    // Espera a que el escritor termine con los mensajes recibidos hasta ahora
+    void awaitWritten() throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(1);
+        writer.execute(written::countDown);
+        written.await(10, TimeUnit.SECONDS);
+    }
+
+    // Olvida las notas cuyo último mensaje no llegó, como cuando el remitente se desconecta a mitad
+    private void sweep() {
+        long now = System.nanoTime();
+        for (Iterator<PendingNote> notes = pending.values().iterator(); notes.hasNext(); ) {
+            PendingNote note = notes.next();
+            if (now - note.touched > ABANDONED_NANOS) {
+                notes.remove();
+                note.discard();
+            }
+        }
+    }
+
+    private Path blob(String id) {
+        return directory.resolve(id + ".voice");
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel client = listener.accept();
+                downloads.execute(() -> serve(client));
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("Error accepting a voice download: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+/**
+ * The `serve` function answers the ranged requests of one download connection until the client closes
+ * it. An unknown blob is answered with a total length of `-1`, and a malformed request, such as a
+ * negative offset or length, closes the connection. Each request and its answer must be done within
+ * the idle timeout, or the connection is closed.
+ *
+ * @param client The `client` parameter is the connection of the client.
+ */
+    private void serve(SocketChannel client) {
+        ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+        ByteBuffer header = ByteBuffer.allocate(12);
+        try (client) {
+            boolean open = true;
+            while (open) {
+                // Un canal bloqueante no respeta SO_TIMEOUT: otro hilo lo cierra si se pasa del plazo
+                ScheduledFuture<?> deadline = timeouts.schedule(() -> closeQuietly(client),
+                        idleTimeoutMillis, TimeUnit.MILLISECONDS);
+                try {
+                    open = answer(client, request, header);
+                } finally {
+                    deadline.cancel(false);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // El cliente cerró la conexión, pidió algo inválido o se pasó del plazo: solo se cierra
+        }
+    }
+
+/**
+ * The `answer` function reads one request of a download connection and sends the range it asks for.
+ *
+ * @param client The `client` parameter is the connection of the client.
+ * @param request The `request` parameter holds what was read of the connection and not used yet.
+ * @param header The `header` parameter is the buffer of the answer header.
+ * @return The `answer` function returns false when the client closed the connection or the request is
+ * malformed.
+ */
+    private boolean answer(SocketChannel client, ByteBuffer request, ByteBuffer header) throws IOException {
+        String line = readLine(client, request);
+        if (line == null) {
+            return false;
+        }
+        // Formato: GET <id> <offset> <length>
+        String[] parts = line.trim().split(" ");
+        if (parts.length != 4 || !parts[0].equals("GET") || !isId(parts[1])) {
+            return false;
+        }
+        long offset = Long.parseLong(parts[2]);
+        int length = Integer.parseInt(parts[3]);
+        if (offset < 0 || length < 0) {
+            return false;
+        }
+        try (FileChannel file = FileChannel.open(blob(parts[1]))) {
+            long size = file.size();
+            long count = Math.max(0, Math.min(Math.min(length, MAX_RANGE), size - offset));
+            header.clear();
+            header.putLong(size).putInt((int) count).flip();
+            writeFully(client, header);
+            for (long sent = 0; sent < count; ) {
+                sent += file.transferTo(offset + sent, count - sent, client);
+            }
+        } catch (NoSuchFileException e) {
+            header.clear();
+            header.putLong(-1).putInt(0).flip();
+            writeFully(client, header);
+        }
+        return true;
+    }
+
+    private static void closeQuietly(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // Ya estaba cerrada
+        }
+    }
+
+    // Lee una línea terminada en '\n'; null al final de la conexión
+    private static String readLine(SocketChannel client, ByteBuffer buffer) throws IOException {
+        while (true) {
+            for (int i = 0; i < buffer.position(); i++) {
+                if (buffer.get(i) == '\n') {
+                    String line = new String(buffer.array(), 0, i, StandardCharsets.US_ASCII);
+                    buffer.flip().position(i + 1);
+                    buffer.compact();
+                    return line;
+                }
+            }
+            if (!buffer.hasRemaining() || client.read(buffer) < 0) {
+                return null;
+            }
+        }
+    }
+
+    private static void writeFully(SocketChannel client, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+    }
+
+    private static boolean isId(String id) {
+        if (id.length() != ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (Character.digit(id.charAt(i), 16) < 0 || Character.isUpperCase(id.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+/**
+ * The `close` function closes the download port and the downloads in progress and drops the notes that
+ * are still arriving.
+ */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            listener.close();
+        } catch (IOException e) {
+            // El puerto ya estaba cerrado
+        }
+        downloads.shutdownNow();
+        timeouts.shutdownNow();
+        // El escritor termina lo que tiene en cola y descarta las notas a medias
+        writer.execute(() -> {
+            for (PendingNote note : pending.values()) {
+                note.discard();
+            }
+            pending.clear();
+        });
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+/**
+ * The `PendingNote` class is a note being collected into a temporary file, hashed as it is written.
+ */
+    private final class PendingNote {
+        private final Path file;
+        private final MessageDigest digest;
+        private final DataOutputStream out;
+        private long pcmBytes;
+        // Primeros bytes de la unidad que forman las partes, con su códec y su cabecera
+        private final byte[] partHead = new byte[8];
+        private int partBytes;
+        private long touched = System.nanoTime();
+
+        PendingNote(Path file) throws IOException {
+            this.file = file;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            this.out = new DataOutputStream(new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file)), digest));
+        }
+
+        void add(byte[] audio) throws IOException {
+            out.writeInt(audio.length);
+            out.write(audio);
+            // La duración se calcula con el códec de cada unidad, sin decodificar el audio
+            if (!VoiceNoteChunk.isChunk(audio, 0, audio.length)) {
+                pcmBytes += decodedLength(audio, 0, audio.length);
+            } else if (VoiceNoteChunk.isPart(audio, 0)) {
+                int body = audio.length - VoiceNoteChunk.HEADER_LENGTH;
+                for (int i = 0; i < body && partBytes + i < partHead.length; i++) {
+                    partHead[partBytes + i] = audio[VoiceNoteChunk.HEADER_LENGTH + i];
+                }
+                partBytes += body;
+            } else {
+                pcmBytes += decodedLength(audio, VoiceNoteChunk.HEADER_LENGTH, audio.length - VoiceNoteChunk.HEADER_LENGTH);
+            }
+        }
+
+        private long decodedLength(byte[] unit, int offset, int length) {
+            return length < 1 ? 0 : AudioCodec.fromId(unit[offset]).decodedLength(unit, offset + 1, length - 1);
+        }
+
+        long millis() {
+            // Los códecs solo miran la longitud y la cabecera de la unidad para saber cuánto decodifican
+            long parts = partBytes == 0 ? 0 : AudioCodec.fromId(partHead[0]).decodedLength(partHead, 1, partBytes - 1);
+            return (pcmBytes + parts) * 1000 / PCM_BYTES_PER_SECOND;
+        }
+
+        // Cierra el archivo y lo guarda con el nombre de su contenido; devuelve el id del blob
+        String store() throws IOException {
+            out.close();
+            String id = HexFormat.of().formatHex(digest.digest(), 0, ID_LENGTH / 2);
+            Path blob = blob(id);
+            if (Files.exists(blob)) {
+                Files.delete(file); // La misma nota ya estaba guardada
+            } else {
+                Files.move(file, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return id;
+        }
+
+        void discard() {
+            try {
+                out.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // El archivo temporal se borra al reiniciar
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.chismapp.server;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.chismapp.util.VoiceNoteChunk;
+
+/**
+ * The `VoiceForwarder` class forwards a voice note that is too long to hold while it is still being
+ * received. The reader of the sender's connection parses only the header of the `VOICE` line or frame
+ * and hands the rest of the payload to the forwarder as it arrives. Every {@link #PIECE_LENGTH} bytes of
+ * audio leave as a part chunk of `VoiceNoteChunk`, which is an ordinary `VoiceMessage` delivered like any
+ * other, so the server holds at most one piece of a note no matter how long the note is. Audio sent by
+ * text clients is Base64, which is decoded in whole groups of four characters as it arrives.
+ */
+final class VoiceForwarder {
+
+    static final int THRESHOLD = 64 * 1024;
+    static final int PIECE_LENGTH = 24 * 1024;
+    private static final int TEXT_PIECE_LENGTH = PIECE_LENGTH / 3 * 4;
+    private static final AtomicInteger NEXT_NOTE_ID = new AtomicInteger();
+
+    // Entrega una pieza al destinatario y libera la referencia del remitente
+    @FunctionalInterface
+    interface Delivery {
+        boolean deliver(String recipient, VoiceMessage voice);
+    }
+
+    private final String sender;
+    private final String recipient;
+    private final Delivery delivery;
+    private final int noteId = NEXT_NOTE_ID.getAndIncrement();
+    private final byte[] piece = new byte[VoiceNoteChunk.HEADER_LENGTH + PIECE_LENGTH];
+    private int pieceLength;
+    private byte[] text;
+    private byte[] decoded;
+    private int textLength;
+    private int pieces;
+    private boolean stopped;
+    private boolean malformed;
+
+// The constructor takes the sender and the recipient parsed from the header, and the delivery used for
+// every piece, which routes it to a user or a group of this node or of another one.
+    VoiceForwarder(String sender, String recipient, Delivery delivery) {
+        this.sender = sender;
+        this.recipient = recipient;
+        this.delivery = delivery;
+    }
+
+/**
+ * The `appendAudio` function forwards raw audio bytes received in a binary `VOICE` frame.
+ *
+ * @param data The `data` parameter holds the received bytes; they are only read during the call.
+ * @param offset The `offset` parameter is the index of the first byte.
+ * @param length The `length` parameter is the number of bytes.
+ */
+    void appendAudio(byte[] data, int offset, int length) {
+        while (length > 0 && !stopped) {
+            if (pieceLength == PIECE_LENGTH) {
+                send(false); // La pieza llena solo sale cuando se sabe que no es la última
+                continue;
+            }
+            int count = Math.min(length, PIECE_LENGTH - pieceLength);
+            System.arraycopy(data, offset, piece, VoiceNoteChunk.HEADER_LENGTH + pieceLength, count);
+            pieceLength += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+/**
+ * The `appendBase64` function forwards Base64 text received in a `VOICE:` line. Carriage returns are
+ * skipped, since the line terminator may arrive split from the rest of the line.
+ *
+ * @param data The `data` parameter holds the received text; it is only read during the call.
+ * @param offset The `offset` parameter is the index of the first character.
+ * @param length The `length` parameter is the number of characters.
+ */
+    void appendBase64(byte[] data, int offset, int length) {
+        if (text == null) {
+            text = new byte[TEXT_PIECE_LENGTH];
+            decoded = new byte[PIECE_LENGTH];
+        }
+        for (int i = offset; i < offset + length && !stopped; i++) {
+            if (data[i] != '\r') {
+                text[textLength++] = data[i];
+                if (textLength == TEXT_PIECE_LENGTH) {
+                    decodeText();
+                }
+            }
+        }
+    }
+
+    private void decodeText() {
+        try {
+            byte[] source = textLength == text.length ? text : Arrays.copyOf(text, textLength);
+            int count = Base64.getDecoder().decode(source, decoded);
+            textLength = 0;
+            appendAudio(decoded, 0, count);
+        } catch (IllegalArgumentException e) {
+            malformed = true;
+            stopped = true;
+        }
+    }
+
+/**
+ * The `finish` function sends the last piece once the whole payload has been received.
+ *
+ * @return `false` if the Base64 text of the note was malformed, in which case the recipients got only
+ * the pieces before the error.
+ */
+    boolean finish() {
+        if (textLength > 0 && !stopped) {
+            decodeText();
+        }
+        if (!stopped) {
+            send(true);
+            stopped = true;
+        }
+        return !malformed;
+    }
+
+/**
+ * The `abort` function stops forwarding, as when the recipient does not exist or the sender disconnects
+ * in the middle of the note; the rest of the payload is read and discarded. Receivers drop a note whose
+ * last piece never arrives.
+ */
+    void abort() {
+        stopped = true;
+    }
+
+    private void send(boolean last) {
+        VoiceNoteChunk.putPartHeader(piece, 0, noteId, pieces++, last);
+        VoiceMessage voice = VoiceMessage.fromAudio(sender,
+                Arrays.copyOf(piece, VoiceNoteChunk.HEADER_LENGTH + pieceLength));
+        pieceLength = 0;
+        if (!delivery.deliver(recipient, voice)) {
+            stopped = true; // El destinatario se desconectó durante la nota
+        }
+    }
+
+    int getPieces() {
+        return pieces;
+    }
+}
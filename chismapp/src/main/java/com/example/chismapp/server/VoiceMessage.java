@@ -0,0 +1,92 @@
+package com.example.chismapp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import com.example.chismapp.util.WireProtocol;
+
+/**
+ * The `VoiceMessage` class holds one voice message being forwarded to its recipients. Recipients may use
+ * the text protocol, which carries the audio as Base64, or the binary protocol, which carries the raw
+ * bytes, so each encoding is built at most once and shared by every recipient that needs it.
+ */
+public class VoiceMessage extends SharedMessage {
+
+    private static final byte[] TEXT_PREFIX = "VOICE:".getBytes(StandardCharsets.UTF_8);
+
+    private final String sender;
+    private final byte[] senderBytes;
+    private final byte[] audio;
+    private byte[] encodedAudio;
+
+    private VoiceMessage(String sender, byte[] audio, byte[] encodedAudio) {
+        this.sender = sender;
+        this.senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+        this.audio = audio;
+        this.encodedAudio = encodedAudio;
+    }
+
+/**
+ * The function `fromAudio` wraps raw audio received in a binary `VOICE` frame.
+ *
+ * @param sender The `sender` parameter is the user that sent the audio.
+ * @param audio The `audio` parameter holds the audio bytes, which must not be modified afterwards.
+ * @return A new `VoiceMessage`.
+ */
+    public static VoiceMessage fromAudio(String sender, byte[] audio) {
+        return new VoiceMessage(sender, audio, null);
+    }
+
+/**
+ * The function `fromBase64` wraps audio received in a text `VOICE:` line. The audio is decoded here, so a
+ * malformed line is rejected before it reaches any recipient, and the Base64 text is kept so it can be
+ * forwarded to text clients without encoding it again.
+ *
+ * @param sender The `sender` parameter is the user that sent the audio.
+ * @param line The `line` parameter holds the received line, which is only valid during the call.
+ * @param offset The `offset` parameter is the index where the Base64 text starts.
+ * @param length The `length` parameter is the length of the Base64 text.
+ * @return A new `VoiceMessage`.
+ * @throws IllegalArgumentException if the text is not valid Base64.
+ */
+    public static VoiceMessage fromBase64(String sender, byte[] line, int offset, int length) {
+        byte[] encodedAudio = Arrays.copyOfRange(line, offset, offset + length);
+        return new VoiceMessage(sender, Base64.getDecoder().decode(encodedAudio), encodedAudio);
+    }
+
+    @Override
+    protected SharedFrame encode(boolean binary) {
+        if (binary) {
+            byte[] raw = audio;
+            SharedFrame frame = SharedFrame.allocate(WireProtocol.voiceFrameLength(senderBytes, raw.length));
+            WireProtocol.putVoice(frame.buffer(), senderBytes, raw, 0, raw.length);
+            return frame;
+        }
+        if (encodedAudio == null) {
+            encodedAudio = Base64.getEncoder().encode(audio);
+        }
+        // Formato: VOICE:<remitente>:<datos_audio_base64>
+        SharedFrame frame = SharedFrame.allocate(TEXT_PREFIX.length + senderBytes.length + encodedAudio.length + 2);
+        frame.buffer().put(TEXT_PREFIX).put(senderBytes).put((byte) ':').put(encodedAudio).put((byte) '\n');
+        return frame;
+    }
+
+    @Override
+    public boolean isVoice() {
+        return true;
+    }
+
+/**
+ * The function `audio` returns the raw audio of the message.
+ *
+ * @return The audio bytes, which must not be modified.
+ */
+    byte[] audio() {
+        return audio;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+}
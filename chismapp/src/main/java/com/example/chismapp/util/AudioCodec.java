@@ -0,0 +1,395 @@
+package com.example.chismapp.util;
+
+import java.util.Locale;
+
+/**
+ * The `AudioCodec` enum lists the codecs that compress the 16-bit little-endian PCM captured by the
+ * clients. `ULAW` and `ALAW` are the G.711 companding laws, eight bits per sample, and `ADPCM` is IMA
+ * ADPCM, four bits per sample. Every encoded unit of audio, a voice note or a packet of call audio,
+ * starts with the id of its codec, so the receiver always knows how to decode it: each sender picks
+ * its codec per call and per voice note, and every client decodes all of them.
+ *
+ * A unit starting with `COMFORT_NOISE_ID` carries no audio: it marks the start of a silence the sender
+ * does not transmit, and its second byte is the background noise level in -dBov, as in RFC 3389.
+ *
+ * The codecs keep no state between units, so a lost packet never corrupts the next one and one
+ * instance can encode and decode for any number of streams at once.
+ */
+public enum AudioCodec {
+
+    PCM(0) {
+        @Override
+        public int encodedLength(int pcmLength) {
+            return pcmLength & ~1;
+        }
+
+        @Override
+        public int encode(byte[] pcm, int offset, int length, byte[] target, int targetOffset) {
+            int encoded = encodedLength(length);
+            System.arraycopy(pcm, offset, target, targetOffset, encoded);
+            return encoded;
+        }
+
+        @Override
+        public int decodedLength(byte[] data, int offset, int length) {
+            return length & ~1;
+        }
+
+        @Override
+        public int decode(byte[] data, int offset, int length, byte[] target, int targetOffset) {
+            return encode(data, offset, length, target, targetOffset);
+        }
+    },
+
+    ULAW(1) {
+        @Override
+        public int encode(byte[] pcm, int offset, int length, byte[] target, int targetOffset) {
+            int samples = length / 2;
+            for (int i = 0; i < samples; i++) {
+                target[targetOffset + i] = linearToUlaw(sample(pcm, offset + 2 * i));
+            }
+            return samples;
+        }
+
+        @Override
+        public int decode(byte[] data, int offset, int length, byte[] target, int targetOffset) {
+            for (int i = 0; i < length; i++) {
+                putSample(target, targetOffset + 2 * i, ULAW_TO_LINEAR[data[offset + i] & 0xFF]);
+            }
+            return 2 * length;
+        }
+    },
+
+    ALAW(2) {
+        @Override
+        public int encode(byte[] pcm, int offset, int length, byte[] target, int targetOffset) {
+            int samples = length / 2;
+            for (int i = 0; i < samples; i++) {
+                target[targetOffset + i] = linearToAlaw(sample(pcm, offset + 2 * i));
+            }
+            return samples;
+        }
+
+        @Override
+        public int decode(byte[] data, int offset, int length, byte[] target, int targetOffset) {
+            for (int i = 0; i < length; i++) {
+                putSample(target, targetOffset + 2 * i, ALAW_TO_LINEAR[data[offset + i] & 0xFF]);
+            }
+            return 2 * length;
+        }
+    },
+
+    // Cada bloque lleva la primera muestra, el índice de paso inicial y un indicador de relleno,
+    // seguidos de dos muestras por byte (el nibble bajo primero)
+    ADPCM(3) {
+        @Override
+        public int encodedLength(int pcmLength) {
+            int samples = pcmLength / 2;
+            return samples == 0 ? 0 : ADPCM_HEADER_LENGTH + samples / 2;
+        }
+
+        @Override
+        public int encode(byte[] pcm, int offset, int length, byte[] target, int targetOffset) {
+            int samples = length / 2;
+            if (samples == 0) {
+                return 0;
+            }
+            int predictor = sample(pcm, offset);
+            int index = samples > 1 ? initialStepIndex(sample(pcm, offset + 2) - predictor) : 0;
+            putSample(target, targetOffset, predictor);
+            target[targetOffset + 2] = (byte) index;
+            target[targetOffset + 3] = (byte) ((samples - 1) % 2);  // 1 si el último nibble es relleno
+            int out = targetOffset + ADPCM_HEADER_LENGTH;
+            for (int i = 1; i < samples; i++) {
+                int sample = sample(pcm, offset + 2 * i);
+                int step = ADPCM_STEPS[index];
+                int diff = sample - predictor;
+                int nibble = 0;
+                if (diff < 0) {
+                    nibble = 8;
+                    diff = -diff;
+                }
+                if (diff >= step) {
+                    nibble |= 4;
+                    diff -= step;
+                }
+                if (diff >= step >> 1) {
+                    nibble |= 2;
+                    diff -= step >> 1;
+                }
+                if (diff >= step >> 2) {
+                    nibble |= 1;
+                }
+                predictor = adpcmPredict(predictor, step, nibble);
+                index = adpcmIndex(index, nibble);
+                if (i % 2 == 1) {
+                    target[out] = (byte) nibble;
+                } else {
+                    target[out++] |= (byte) (nibble << 4);
+                }
+            }
+            return encodedLength(length);
+        }
+
+        @Override
+        public int decodedLength(byte[] data, int offset, int length) {
+            if (length < ADPCM_HEADER_LENGTH) {
+                return 0;
+            }
+            return 2 * (1 + 2 * (length - ADPCM_HEADER_LENGTH) - (data[offset + 3] & 1));
+        }
+
+        @Override
+        public int decode(byte[] data, int offset, int length, byte[] target, int targetOffset) {
+            int samples = decodedLength(data, offset, length) / 2;
+            if (samples == 0) {
+                return 0;
+            }
+            int predictor = sample(data, offset);
+            int index = Math.min(data[offset + 2] & 0xFF, ADPCM_STEPS.length - 1);
+            putSample(target, targetOffset, predictor);
+            int in = offset + ADPCM_HEADER_LENGTH;
+            for (int i = 1; i < samples; i++) {
+                int nibble = i % 2 == 1 ? data[in] & 0x0F : (data[in++] >> 4) & 0x0F;
+                predictor = adpcmPredict(predictor, ADPCM_STEPS[index], nibble);
+                index = adpcmIndex(index, nibble);
+                putSample(target, targetOffset + 2 * i, predictor);
+            }
+            return 2 * samples;
+        }
+    };
+
+    // Tipo de carga del ruido de confort en RTP
+    public static final int COMFORT_NOISE_ID = 13;
+
+    private static final int ADPCM_HEADER_LENGTH = 4;
+    private static final int[] ADPCM_INDEX_CHANGES = {-1, -1, -1, -1, 2, 4, 6, 8};
+    private static final int[] ADPCM_STEPS = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767};
+    private static final int[] ALAW_SEGMENT_ENDS = {0x1F, 0x3F, 0x7F, 0xFF, 0x1FF, 0x3FF, 0x7FF, 0xFFF};
+    private static final short[] ULAW_TO_LINEAR = new short[256];
+    private static final short[] ALAW_TO_LINEAR = new short[256];
+    private static final AudioCodec[] BY_ID = new AudioCodec[4];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            ULAW_TO_LINEAR[i] = (short) ulawToLinear(i);
+            ALAW_TO_LINEAR[i] = (short) alawToLinear(i);
+        }
+        for (AudioCodec codec : values()) {
+            BY_ID[codec.id] = codec;
+        }
+    }
+
+    private final int id;
+
+    AudioCodec(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+/**
+ * The function `encodedLength` returns the number of bytes `encode` writes for the given PCM.
+ *
+ * @param pcmLength The `pcmLength` parameter is the number of PCM bytes, two per sample.
+ * @return The encoded length, without the codec id.
+ */
+    public int encodedLength(int pcmLength) {
+        return pcmLength / 2;
+    }
+
+/**
+ * The function `encode` compresses 16-bit little-endian PCM. A trailing odd byte is ignored.
+ *
+ * @param pcm The `pcm` parameter holds the samples to encode.
+ * @param offset The `offset` parameter is the index of the first PCM byte.
+ * @param length The `length` parameter is the number of PCM bytes.
+ * @param target The `target` parameter receives the encoded audio, {@link #encodedLength} bytes.
+ * @param targetOffset The `targetOffset` parameter is the index the encoded audio is written at.
+ * @return The number of bytes written.
+ */
+    public abstract int encode(byte[] pcm, int offset, int length, byte[] target, int targetOffset);
+
+/**
+ * The function `decodedLength` returns the number of PCM bytes `decode` writes for the given audio.
+ *
+ * @param data The `data` parameter holds the encoded audio.
+ * @param offset The `offset` parameter is the index of its first byte, after the codec id.
+ * @param length The `length` parameter is the number of encoded bytes.
+ * @return The decoded length in bytes.
+ */
+    public int decodedLength(byte[] data, int offset, int length) {
+        return 2 * length;
+    }
+
+/**
+ * The function `decode` expands encoded audio back to 16-bit little-endian PCM.
+ *
+ * @param data The `data` parameter holds the encoded audio.
+ * @param offset The `offset` parameter is the index of its first byte, after the codec id.
+ * @param length The `length` parameter is the number of encoded bytes.
+ * @param target The `target` parameter receives the PCM, {@link #decodedLength} bytes.
+ * @param targetOffset The `targetOffset` parameter is the index the PCM is written at.
+ * @return The number of bytes written.
+ */
+    public abstract int decode(byte[] data, int offset, int length, byte[] target, int targetOffset);
+
+/**
+ * The function `encodeUnit` encodes PCM into a new unit: the codec id followed by the encoded audio.
+ *
+ * @param pcm The `pcm` parameter holds the samples to encode.
+ * @param offset The `offset` parameter is the index of the first PCM byte.
+ * @param length The `length` parameter is the number of PCM bytes.
+ * @return The encoded unit.
+ */
+    public byte[] encodeUnit(byte[] pcm, int offset, int length) {
+        byte[] unit = new byte[1 + encodedLength(length)];
+        unit[0] = (byte) id;
+        encode(pcm, offset, length, unit, 1);
+        return unit;
+    }
+
+/**
+ * The function `decodeUnit` decodes a unit written by `encodeUnit` with any codec.
+ *
+ * @param unit The `unit` parameter holds the codec id followed by the encoded audio.
+ * @param offset The `offset` parameter is the index of the codec id.
+ * @param length The `length` parameter is the length of the unit, codec id included.
+ * @return The decoded PCM.
+ * @throws IllegalArgumentException if the unit is empty or its codec is unknown.
+ */
+    public static byte[] decodeUnit(byte[] unit, int offset, int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Empty audio unit");
+        }
+        AudioCodec codec = fromId(unit[offset]);
+        byte[] pcm = new byte[codec.decodedLength(unit, offset + 1, length - 1)];
+        codec.decode(unit, offset + 1, length - 1, pcm, 0);
+        return pcm;
+    }
+
+/**
+ * The function `fromId` returns the codec with the given id.
+ *
+ * @param id The `id` parameter is the first byte of an encoded unit.
+ * @return The codec.
+ * @throws IllegalArgumentException if no codec has that id.
+ */
+    public static AudioCodec fromId(int id) {
+        if (id < 0 || id >= BY_ID.length) {
+            throw new IllegalArgumentException("Unknown audio codec: " + id);
+        }
+        return BY_ID[id];
+    }
+
+/**
+ * The function `fromName` returns the codec with the given name, ignoring case.
+ *
+ * @param name The `name` parameter is `pcm`, `ulaw`, `alaw` or `adpcm`.
+ * @param fallback The `fallback` parameter is returned when the name is unknown or `null`.
+ * @return The named codec, or `fallback`.
+ */
+    public static AudioCodec fromName(String name, AudioCodec fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    private static int sample(byte[] pcm, int index) {
+        return (short) ((pcm[index] & 0xFF) | (pcm[index + 1] << 8));
+    }
+
+    private static void putSample(byte[] target, int index, int sample) {
+        target[index] = (byte) sample;
+        target[index + 1] = (byte) (sample >> 8);
+    }
+
+    private static byte linearToUlaw(int sample) {
+        int sign = 0;
+        if (sample < 0) {
+            sign = 0x80;
+            sample = -sample;
+        }
+        sample = Math.min(sample, 32635) + 0x84;
+        int exponent = Math.max(0, 31 - Integer.numberOfLeadingZeros((sample >> 7) & 0xFF));
+        int mantissa = (sample >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+    private static int ulawToLinear(int ulaw) {
+        ulaw = ~ulaw & 0xFF;
+        int exponent = (ulaw >> 4) & 0x07;
+        int sample = ((((ulaw & 0x0F) << 3) + 0x84) << exponent) - 0x84;
+        return (ulaw & 0x80) != 0 ? -sample : sample;
+    }
+
+    private static byte linearToAlaw(int sample) {
+        sample >>= 3;
+        int mask;
+        if (sample >= 0) {
+            mask = 0xD5;
+        } else {
+            mask = 0x55;
+            sample = -sample - 1;
+        }
+        int segment = 0;
+        while (segment < ALAW_SEGMENT_ENDS.length && sample > ALAW_SEGMENT_ENDS[segment]) {
+            segment++;
+        }
+        if (segment == ALAW_SEGMENT_ENDS.length) {
+            return (byte) (0x7F ^ mask);
+        }
+        int quantized = segment < 2 ? (sample >> 1) & 0x0F : (sample >> segment) & 0x0F;
+        return (byte) (((segment << 4) | quantized) ^ mask);
+    }
+
+    private static int alawToLinear(int alaw) {
+        alaw ^= 0x55;
+        int sample = (alaw & 0x0F) << 4;
+        int segment = (alaw & 0x70) >> 4;
+        sample += segment == 0 ? 8 : 0x108;
+        if (segment > 1) {
+            sample <<= segment - 1;
+        }
+        return (alaw & 0x80) != 0 ? sample : -sample;
+    }
+
+    private static int initialStepIndex(int firstDifference) {
+        int index = 0;
+        while (index < ADPCM_STEPS.length - 1 && ADPCM_STEPS[index] < Math.abs(firstDifference)) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int adpcmPredict(int predictor, int step, int nibble) {
+        int delta = step >> 3;
+        if ((nibble & 4) != 0) {
+            delta += step;
+        }
+        if ((nibble & 2) != 0) {
+            delta += step >> 1;
+        }
+        if ((nibble & 1) != 0) {
+            delta += step >> 2;
+        }
+        predictor += (nibble & 8) != 0 ? -delta : delta;
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, predictor));
+    }
+
+    private static int adpcmIndex(int index, int nibble) {
+        return Math.max(0, Math.min(ADPCM_STEPS.length - 1, index + ADPCM_INDEX_CHANGES[nibble & 7]));
+    }
+}
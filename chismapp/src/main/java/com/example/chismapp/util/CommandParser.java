@@ -0,0 +1,189 @@
+package com.example.chismapp.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The `CommandParser` class recognizes a command from a `CommandTable` and splits its arguments without
+ * copying them: each argument is kept as an offset and a length into the parsed buffer, already trimmed.
+ * A parser is reused for every message of one connection, so the views are only valid until the next
+ * call to `parse`. Names that are looked up again and again, like group and user names, are decoded
+ * through a small cache so repeated messages do not allocate a new `String` for them.
+ */
+public final class CommandParser {
+
+    private static final int MAX_ARGUMENTS = 4;
+    private static final int NAME_CACHE_SIZE = 8;
+
+    private final CommandTable table;
+    private final int[] starts = new int[MAX_ARGUMENTS];
+    private final int[] ends = new int[MAX_ARGUMENTS];
+    private byte[] buffer;
+    private int argumentCount;
+
+    private byte[] encoded = new byte[256];
+
+    private final byte[][] cachedNameBytes = new byte[NAME_CACHE_SIZE][];
+    private final String[] cachedNames = new String[NAME_CACHE_SIZE];
+    private int nextCacheSlot;
+
+    public CommandParser(CommandTable table) {
+        this.table = table;
+    }
+
+/**
+ * The function `parse` recognizes the command at the start of the input and records its arguments.
+ *
+ * @param data The `data` parameter holds the input bytes, UTF-8 encoded and without a line terminator.
+ * @param offset The `offset` parameter is the index of the first input byte.
+ * @param length The `length` parameter is the number of input bytes.
+ * @return The recognized `Command`, or `null` when the input does not start with a known command.
+ */
+    public CommandTable.Command parse(byte[] data, int offset, int length) {
+        buffer = data;
+        argumentCount = 0;
+        CommandTable.Command command = table.lookup(data, offset, length);
+        if (command == null) {
+            return null;
+        }
+        int end = offset + length;
+        if (command.parts() == 0) {
+            addArgument(offset + command.prefixLength(), end);
+            return command;
+        }
+        // Igual que String.split con límite: la primera parte es el comando y la última se queda con el resto
+        int parts = Math.min(command.parts(), MAX_ARGUMENTS + 1);
+        byte separator = command.separator();
+        int position = offset;
+        while (position < end && data[position] != separator) {
+            position++;
+        }
+        int partsSeen = 1;
+        while (position < end) {
+            int start = position + 1;
+            partsSeen++;
+            if (partsSeen == parts) {
+                addArgument(start, end);
+                break;
+            }
+            position = start;
+            while (position < end && data[position] != separator) {
+                position++;
+            }
+            addArgument(start, position);
+        }
+        return command;
+    }
+
+/**
+ * The function `parse` recognizes a command typed as text, such as a line read from the console. The
+ * text is encoded into a buffer owned by the parser.
+ *
+ * @param line The `line` parameter is the text to parse.
+ * @return The recognized `Command`, or `null` when the line does not start with a known command.
+ */
+    public CommandTable.Command parse(CharSequence line) {
+        int length = encode(line);
+        return parse(encoded, 0, length);
+    }
+
+    private void addArgument(int start, int end) {
+        while (start < end && buffer[start] <= ' ' && buffer[start] >= 0) {
+            start++;
+        }
+        while (end > start && buffer[end - 1] <= ' ' && buffer[end - 1] >= 0) {
+            end--;
+        }
+        starts[argumentCount] = start;
+        ends[argumentCount] = end;
+        argumentCount++;
+    }
+
+    private int encode(CharSequence line) {
+        int length = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (encoded.length - length < 4) {
+                encoded = Arrays.copyOf(encoded, encoded.length * 2);
+            }
+            int c = line.charAt(i);
+            if (c < 0x80) {
+                encoded[length++] = (byte) c;
+            } else if (c < 0x800) {
+                encoded[length++] = (byte) (0xC0 | (c >> 6));
+                encoded[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < line.length()
+                    && Character.isLowSurrogate(line.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint((char) c, line.charAt(++i));
+                encoded[length++] = (byte) (0xF0 | (codePoint >> 18));
+                encoded[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                encoded[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                encoded[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                encoded[length++] = (byte) (0xE0 | (c >> 12));
+                encoded[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                encoded[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return length;
+    }
+
+    public int argumentCount() {
+        return argumentCount;
+    }
+
+/**
+ * The function `hasArgument` tells whether an argument was present and is not blank.
+ *
+ * @param index The `index` parameter is the argument position, starting at 0 after the command.
+ * @return `true` when the argument exists and has at least one non-blank byte.
+ */
+    public boolean hasArgument(int index) {
+        return index < argumentCount && ends[index] > starts[index];
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int argumentOffset(int index) {
+        return starts[index];
+    }
+
+    public int argumentLength(int index) {
+        return ends[index] - starts[index];
+    }
+
+/**
+ * The function `argument` decodes an argument into a new `String`, for values that are used once.
+ *
+ * @param index The `index` parameter is the argument position, starting at 0 after the command.
+ * @return The decoded argument.
+ */
+    public String argument(int index) {
+        return new String(buffer, starts[index], ends[index] - starts[index], StandardCharsets.UTF_8);
+    }
+
+/**
+ * The function `name` decodes an argument used as a name, returning the same `String` instance while the
+ * name stays in the parser's small cache of recently seen names.
+ *
+ * @param index The `index` parameter is the argument position, starting at 0 after the command.
+ * @return The decoded name.
+ */
+    public String name(int index) {
+        int start = starts[index];
+        int length = ends[index] - start;
+        for (int slot = 0; slot < NAME_CACHE_SIZE; slot++) {
+            byte[] cached = cachedNameBytes[slot];
+            if (cached != null && Arrays.equals(cached, 0, cached.length, buffer, start, start + length)) {
+                return cachedNames[slot];
+            }
+        }
+        String name = new String(buffer, start, length, StandardCharsets.UTF_8);
+        int slot = nextCacheSlot;
+        nextCacheSlot = (slot + 1) % NAME_CACHE_SIZE;
+        cachedNameBytes[slot] = Arrays.copyOfRange(buffer, start, start + length);
+        cachedNames[slot] = name;
+        return name;
+    }
+}
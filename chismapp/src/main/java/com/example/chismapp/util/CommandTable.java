@@ -0,0 +1,165 @@
+package com.example.chismapp.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The `CommandTable` class is an immutable table of the commands a peer understands. Each command gets an
+ * opcode, its index in the table, which callers use to index their own array of handlers. Lookups
+ * first narrow the candidates by the first byte of the input and then compare the prefix bytes in place,
+ * so recognizing a command allocates nothing.
+ */
+public final class CommandTable {
+
+    private final Command[] commands;
+    private final Command[][] byFirstByte = new Command[256][];
+
+    private CommandTable(List<Command> commands) {
+        this.commands = commands.toArray(new Command[0]);
+        List<List<Command>> buckets = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (Command command : this.commands) {
+            buckets.get(command.prefix[0] & 0xFF).add(command);
+        }
+        for (int i = 0; i < 256; i++) {
+            List<Command> bucket = buckets.get(i);
+            // Los prefijos más largos primero, para que "/endcall" no se confunda con un prefijo más corto
+            bucket.sort((a, b) -> b.prefix.length - a.prefix.length);
+            byFirstByte[i] = bucket.isEmpty() ? null : bucket.toArray(new Command[0]);
+        }
+    }
+
+/**
+ * The function `builder` starts the definition of a new table.
+ *
+ * @return An empty `Builder`.
+ */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+/**
+ * The function `lookup` finds the command whose prefix starts the input.
+ *
+ * @param buffer The `buffer` parameter holds the input bytes.
+ * @param offset The `offset` parameter is the index of the first input byte.
+ * @param length The `length` parameter is the number of input bytes.
+ * @return The matching `Command`, or `null` when no prefix matches.
+ */
+    public Command lookup(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return null;
+        }
+        Command[] candidates = byFirstByte[buffer[offset] & 0xFF];
+        if (candidates == null) {
+            return null;
+        }
+        for (Command candidate : candidates) {
+            if (candidate.matches(buffer, offset, length)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+/**
+ * The function `size` returns the number of commands, which is also the size handler tables need.
+ *
+ * @return The number of commands in the table.
+ */
+    public int size() {
+        return commands.length;
+    }
+
+/**
+ * The `Command` class describes one command: the prefix that identifies it, the byte separating its
+ * arguments and how many parts the input is split into, following the semantics of `String.split`
+ * with a limit, where the last part keeps the rest of the input.
+ */
+    public static final class Command {
+        private final int opcode;
+        private final String name;
+        private final byte[] prefix;
+        private final byte separator;
+        private final int parts;
+
+        private Command(int opcode, String prefix, char separator, int parts) {
+            this.opcode = opcode;
+            this.name = prefix;
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+            this.separator = (byte) separator;
+            this.parts = parts;
+        }
+
+        private boolean matches(byte[] buffer, int offset, int length) {
+            if (length < prefix.length) {
+                return false;
+            }
+            for (int i = 1; i < prefix.length; i++) {
+                if (buffer[offset + i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int opcode() {
+            return opcode;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        int prefixLength() {
+            return prefix.length;
+        }
+
+        byte separator() {
+            return separator;
+        }
+
+        int parts() {
+            return parts;
+        }
+    }
+
+/**
+ * The `Builder` class collects the commands of a table in opcode order.
+ */
+    public static final class Builder {
+        private final List<Command> commands = new ArrayList<>();
+
+/**
+ * The function `split` adds a command whose input is split on a separator, like
+ * `message.split(" ", parts)`; the first part is the command itself.
+ *
+ * @param prefix The `prefix` parameter is the text that identifies the command.
+ * @param separator The `separator` parameter is the character between the parts.
+ * @param parts The `parts` parameter is the maximum number of parts, including the command.
+ * @return The new `Command`, whose opcode is its position in the table.
+ */
+        public Command split(String prefix, char separator, int parts) {
+            Command command = new Command(commands.size(), prefix, separator, parts);
+            commands.add(command);
+            return command;
+        }
+
+/**
+ * The function `rest` adds a command with a single argument: everything after the prefix.
+ *
+ * @param prefix The `prefix` parameter is the text that identifies the command.
+ * @return The new `Command`, whose opcode is its position in the table.
+ */
+        public Command rest(String prefix) {
+            return split(prefix, '\0', 0);
+        }
+
+        public CommandTable build() {
+            return new CommandTable(commands);
+        }
+    }
+}
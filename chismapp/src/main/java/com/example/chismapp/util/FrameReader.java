@@ -0,0 +1,261 @@
+package com.example.chismapp.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The `FrameReader` class reads the chat protocol from a blocking `InputStream`. It can read text lines,
+ * which are used before and during the handshake or by text-only peers, and binary frames as defined by
+ * `WireProtocol`. Both are read into buffers owned by the reader and reused for every message, so a
+ * frame payload is only valid until the next call. A long payload can instead be handed piece by piece
+ * to a `PayloadSink` while it is read, so it is never held whole.
+ */
+public class FrameReader {
+
+    private static final int READ_AHEAD_SIZE = 8192;
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private final InputStream in;
+    private final byte[] readAhead = new byte[READ_AHEAD_SIZE];
+    private int position;
+    private int limit;
+    private byte[] payload = new byte[1024];
+    private int payloadLength;
+    private byte frameType;
+    private int frameLength;
+    private boolean lineComplete;
+
+    public FrameReader(InputStream in) {
+        this.in = in;
+    }
+
+/**
+ * The function `readLine` reads bytes up to the next newline, dropping a trailing carriage return. The
+ * line is left, still UTF-8 encoded, in the buffer returned by `getPayload`, so it can be parsed without
+ * decoding it.
+ *
+ * @return `true` when a line was read, `false` when the stream ended.
+ */
+    public boolean readLine() throws IOException {
+        return readLine(Integer.MAX_VALUE);
+    }
+
+/**
+ * The function `readLine` reads a line like `readLine()`, but stops buffering it once `maxLength`
+ * bytes have been read without finding the newline. `isLineComplete` then returns `false`, and the
+ * caller either streams the rest of the line with `streamLine` or keeps buffering it with
+ * `readRestOfLine`.
+ *
+ * @param maxLength The `maxLength` parameter is the number of bytes buffered before giving up on the line.
+ * @return `true` when a line, or its first `maxLength` bytes, was read, `false` when the stream ended.
+ */
+    public boolean readLine(int maxLength) throws IOException {
+        shrink(); // La línea anterior ya no es válida
+        payloadLength = 0;
+        return scanLine(maxLength);
+    }
+
+/**
+ * The function `readRestOfLine` appends the rest of a line that `readLine` left incomplete to the
+ * payload.
+ */
+    public void readRestOfLine() throws IOException {
+        scanLine(Integer.MAX_VALUE);
+    }
+
+    private boolean scanLine(int maxLength) throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                trimCarriageReturn();
+                lineComplete = true;
+                return payloadLength > 0;
+            }
+            int start = position;
+            int end = position + Math.min(limit - position, maxLength - payloadLength);
+            while (position < end && readAhead[position] != '\n') {
+                position++;
+            }
+            appendPayload(readAhead, start, position - start);
+            if (position < end) {
+                position++; // Saltar el salto de línea
+                trimCarriageReturn();
+                lineComplete = true;
+                return true;
+            }
+            if (payloadLength >= maxLength) {
+                lineComplete = false;
+                return true;
+            }
+        }
+    }
+
+/**
+ * The function `streamLine` hands the rest of a line that `readLine` left incomplete to a sink, piece by
+ * piece, without buffering it. The newline is consumed but not passed on.
+ *
+ * @param sink The `sink` parameter receives the pieces of the line.
+ */
+    public void streamLine(PayloadSink sink) throws IOException {
+        while (position < limit || fill()) {
+            int start = position;
+            while (position < limit && readAhead[position] != '\n') {
+                position++;
+            }
+            sink.accept(readAhead, start, position - start);
+            if (position < limit) {
+                position++; // Saltar el salto de línea
+                return;
+            }
+        }
+    }
+
+    private void trimCarriageReturn() {
+        if (payloadLength > 0 && payload[payloadLength - 1] == '\r') {
+            payloadLength--;
+        }
+    }
+
+/**
+ * The function `readFrame` reads the next binary frame. Its type and payload are then available through
+ * `getFrameType`, `getPayload` and `getPayloadLength`.
+ *
+ * @return `true` when a frame was read, `false` when the stream ended between frames.
+ * @throws EOFException if the stream ends in the middle of a frame.
+ */
+    public boolean readFrame() throws IOException {
+        if (!readFrameHeader()) {
+            return false;
+        }
+        readPayload(frameLength);
+        return true;
+    }
+
+/**
+ * The function `readFrameHeader` reads only the header of the next binary frame, whose type and length
+ * are then available through `getFrameType` and `getFrameLength`. The payload is read afterwards with
+ * `readPayload` or `streamPayload`.
+ *
+ * @return `true` when a header was read, `false` when the stream ended between frames.
+ * @throws EOFException if the stream ends in the middle of the header.
+ */
+    public boolean readFrameHeader() throws IOException {
+        shrink(); // La trama anterior ya no es válida
+        payloadLength = 0;
+        if (!readFully(WireProtocol.HEADER_LENGTH)) {
+            return false;
+        }
+        frameType = payload[0];
+        frameLength = WireProtocol.payloadLength(payload, 0);
+        payloadLength = 0;
+        return true;
+    }
+
+/**
+ * The function `readPayload` reads the next bytes of the current frame and appends them to the payload.
+ *
+ * @param length The `length` parameter is the number of bytes to read.
+ * @throws EOFException if the stream ends before them.
+ */
+    public void readPayload(int length) throws IOException {
+        if (length > 0 && !readFully(payloadLength + length)) {
+            throw new EOFException("Stream ended inside a frame");
+        }
+    }
+
+/**
+ * The function `streamPayload` hands the next bytes of the current frame to a sink, piece by piece,
+ * without buffering them, so a payload of any size is read in constant memory.
+ *
+ * @param length The `length` parameter is the number of bytes to pass on.
+ * @param sink The `sink` parameter receives the pieces of the payload.
+ * @throws EOFException if the stream ends before them.
+ */
+    public void streamPayload(int length, PayloadSink sink) throws IOException {
+        while (length > 0) {
+            if (position == limit && !fill()) {
+                throw new EOFException("Stream ended inside a frame");
+            }
+            int count = Math.min(length, limit - position);
+            sink.accept(readAhead, position, count);
+            position += count;
+            length -= count;
+        }
+    }
+
+    private boolean readFully(int length) throws IOException {
+        ensureCapacity(length);
+        while (payloadLength < length) {
+            if (position == limit && !fill()) {
+                if (payloadLength == 0) {
+                    return false;
+                }
+                throw new EOFException("Stream ended inside a frame");
+            }
+            int count = Math.min(length - payloadLength, limit - position);
+            System.arraycopy(readAhead, position, payload, payloadLength, count);
+            position += count;
+            payloadLength += count;
+        }
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(readAhead, 0, readAhead.length);
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private void appendPayload(byte[] data, int offset, int length) {
+        ensureCapacity(payloadLength + length);
+        System.arraycopy(data, offset, payload, payloadLength, length);
+        payloadLength += length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > payload.length) {
+            payload = Arrays.copyOf(payload, Math.max(payload.length * 2, capacity));
+        }
+    }
+
+/**
+ * The function `shrink` releases a payload buffer that grew past the retained capacity, such as after a
+ * long voice note, so an idle connection does not keep it alive.
+ */
+    public void shrink() {
+        if (payload.length > RETAINED_CAPACITY) {
+            payload = new byte[1024];
+        }
+    }
+
+    public byte getFrameType() {
+        return frameType;
+    }
+
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    public boolean isLineComplete() {
+        return lineComplete;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+// The `PayloadSink` interface receives the pieces of a payload streamed by `streamPayload` or
+// `streamLine`. Each piece is a view into the reader's buffer, only valid during the call.
+    public interface PayloadSink {
+        void accept(byte[] data, int offset, int length);
+    }
+}
@@ -2,46 +2,87 @@ package com.example.chismapp.util;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * The `HistorialRecorder` class in Java is used to record different types of messages and generate a
- * historical text file with the recorded messages.
+ * The `HistorialRecorder` class in Java is used to record different types of messages in a historical
+ * text file. Entries are not kept in memory: they wait in a bounded tail until a background writer appends
+ * them to `Historical.txt`, so the memory used does not grow with the length of the session. The file is
+ * rotated when it grows past `-Dchismapp.history.max-kb` (1024 by default) or gets older than
+ * `-Dchismapp.history.rotate-hours` (24 by default); the old file keeps the date it was rotated in its name.
  */
 public class HistorialRecorder{
 
-    private StringBuffer registered;
-    private DateTimeFormatter myFormatObj;
+    private static final int TAIL_CAPACITY = 4096;
+    private static final long FLUSH_TIMEOUT_SECONDS = 5;
+    private static final String FILE_NAME = "Historical";
+    private static final String SEPARATOR = "--------------------------------------------------------\n";
 
-// The `public HistorialRecorder()` constructor in the `HistorialRecorder` class is initializing the
-// `registered` variable with a new `StringBuffer` object and the `myFormatObj` variable with a
-// `DateTimeFormatter` object that formats date and time in the pattern "dd-MM-yyyy HH_mm_ss". This
-// constructor is called when an instance of the `HistorialRecorder` class is created, setting up
-// initial values for these variables.
+    private final BlockingQueue<Entry> tail = new ArrayBlockingQueue<>(TAIL_CAPACITY);
+    private final DateTimeFormatter myFormatObj;
+    private final Path directory;
+    private final long maxBytes;
+    private final long rotateMillis;
+    private final AtomicLong droppedEntries = new AtomicLong();
+    private OutputStream out;
+    private long fileBytes;
+    private long openedAtMillis;
+    private volatile boolean failed;
+
+    // Una línea del historial, o una petición de volcado cuando `line` es null
+    private record Entry(String line, CountDownLatch flushed) {}
+
+// The `public HistorialRecorder()` constructor records into the "target/History" directory of the
+// working directory, with the rotation limits given by the `chismapp.history` system properties, and
+// starts the writer thread that appends the entries to the file.
     public HistorialRecorder(){
-        registered = new StringBuffer();
+        this(Path.of(System.getProperty("user.dir"), "target", "History"),
+                Long.getLong("chismapp.history.max-kb", 1024) * 1024,
+                TimeUnit.HOURS.toMillis(Long.getLong("chismapp.history.rotate-hours", 24)));
+    }
+
+// This constructor takes the directory of the file and its rotation limits, which tests make small.
+    HistorialRecorder(Path directory, long maxBytes, long rotateMillis){
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.rotateMillis = rotateMillis;
         myFormatObj = DateTimeFormatter.ofPattern("dd-MM-yyyy HH_mm_ss");
+        Thread writer = new Thread(this::writeLoop, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
     }
 
 /**
- * The function `addMessage` in Java appends a message with a specific type of record to a registered
- * log, handling different cases based on the type.
- * 
+ * The function `addMessage` in Java queues a message with a specific type of record for the writer
+ * thread, handling different cases based on the type. It never waits: if the writer fell behind and the
+ * tail is full, the entry is dropped and counted, and the file notes how many entries were lost.
+ *
  * @param msg The `msg` parameter in the `addMessage` method represents the message content that you
  * want to add to the registered log. It could be a text message, audio file name, call details, group
  * information, or any other relevant information based on the `eTypeRecord` type specified.
  * @param type The `type` parameter in the `addMessage` method is an enum type called `eTypeRecord`. It
  * is used to determine the type of message being added to the `registered` object. The method uses a
  * switch statement to handle different cases based on the `type` of the message.
- * @return The method `addMessage` is returning a boolean value `false`.
+ * @return The method `addMessage` returns `false` if the entry was dropped.
  */
     public boolean addMessage(String msg, eTypeRecord type){
         String line;
         switch(type){
-            case TEXT -> line = "Text:  "; 
+            case TEXT -> line = "Text:  ";
             case AUDIO -> line = "Audio: ";
             case STARTED_CONNECTION -> line = "Initialicing connextion at time: " + LocalDateTime.now().format(myFormatObj) + ", with the username: ";
             case CALL -> line = "Call:  ";
@@ -49,36 +90,122 @@ public class HistorialRecorder{
             case RECEIVED -> line = "";
             default -> throw new IllegalArgumentException("Unexpected value: " + type);
         }
-        registered.append(line);
-        if(type != eTypeRecord.CALL || type != eTypeRecord.AUDIO) {
-            registered.append(msg + "\n");
-        }else{
-            registered.append("\n");
+        if (!tail.offer(new Entry(line + msg + "\n", null))) {
+            droppedEntries.incrementAndGet();
+            return false;
         }
-        return false;
+        return true;
     }
 
 /**
- * The `generate` method creates a file named "Historical.txt" in the "target/History" directory,
- * writes some data to it, and prints a success message or an error message if writing the file fails.
+ * The `generate` method makes the "Historical.txt" file in the "target/History" directory up to date:
+ * everything before it is already on disk except the pending tail, which the writer flushes now. It
+ * prints the path of the file or an error message if writing the file failed.
  */
     public void generate() {
-        String nombreArchivo = System.getProperty("user.dir") + File.separator + "target" + File.separator + "History" + File.separator + "Historical.txt";
-        
-        // Crear la carpeta si no existe
-        File directory = new File(System.getProperty("user.dir") + File.separator + "target" + File.separator + "History");
-        if (!directory.exists()) {
-            boolean dirCreated = directory.mkdirs();  // Crear directorios
+        Path nombreArchivo = directory.resolve(FILE_NAME + ".txt");
+        CountDownLatch flushed = new CountDownLatch(1);
+        try {
+            tail.put(new Entry(null, flushed));
+            if (flushed.await(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS) && !failed) {
+                System.out.println("Archivo actualizado exitosamente en: " + nombreArchivo);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        System.err.println("Error al escribir el archivo: " + nombreArchivo);
+    }
+
+    // Escribe los lotes de entradas y vacía el búfer cada vez que la cola queda vacía
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(tail.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            tail.drainTo(batch);
+            List<CountDownLatch> flushes = new ArrayList<>();
+            try {
+                long dropped = droppedEntries.getAndSet(0);
+                if (dropped > 0) {
+                    write("[" + dropped + " entries were not recorded]\n");
+                }
+                for (Entry entry : batch) {
+                    if (entry.line() != null) {
+                        write(entry.line());
+                    } else {
+                        flushes.add(entry.flushed());
+                    }
+                }
+                if (out != null) {
+                    out.flush();
+                }
+                failed = false;
+            } catch (IOException e) {
+                if (!failed) {
+                    System.err.println("Error al escribir el historial: " + e.getMessage());
+                }
+                failed = true;
+                closeQuietly();
+            }
+            for (CountDownLatch flushed : flushes) {
+                flushed.countDown();
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(String line) throws IOException {
+        if (out == null) {
+            open();
+        } else if (fileBytes >= maxBytes || System.currentTimeMillis() - openedAtMillis >= rotateMillis) {
+            rotate();
+        }
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        fileBytes += bytes.length;
+    }
+
+    // Abre el archivo actual para añadir al final, marcando el comienzo de la sesión
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(FILE_NAME + ".txt");
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+        fileBytes = Files.size(file);
+        openedAtMillis = Files.readAttributes(file, BasicFileAttributes.class).creationTime().toMillis();
+        if (fileBytes == 0) {
+            openedAtMillis = System.currentTimeMillis();
+        }
+        out.write(SEPARATOR.getBytes(StandardCharsets.US_ASCII));
+        fileBytes += SEPARATOR.length();
+    }
+
+    // Renombra el archivo lleno o antiguo con la fecha y empieza uno nuevo
+    private void rotate() throws IOException {
+        out.close();
+        out = null;
+        Path file = directory.resolve(FILE_NAME + ".txt");
+        String stamp = FILE_NAME + " " + LocalDateTime.now().format(myFormatObj);
+        Path rotated = directory.resolve(stamp + ".txt");
+        for (int i = 1; Files.exists(rotated); i++) {
+            rotated = directory.resolve(stamp + " (" + i + ").txt");
+        }
+        Files.move(file, rotated);
+        open();
+        openedAtMillis = System.currentTimeMillis();
+    }
 
-        // Escribir el archivo
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(nombreArchivo))) {
-            writer.write("--------------------------------------------------------\n");
-            writer.write(registered.toString());
-            System.out.println("Archivo creado exitosamente en: " + nombreArchivo);
-        } catch (IOException e) {
-            System.err.println("Error al escribir el archivo: " + nombreArchivo);
-            e.printStackTrace();
+    private void closeQuietly() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // El archivo se vuelve a abrir con la próxima entrada
+            }
+            out = null;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,59 @@
+package com.example.chismapp.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The `MediaPacket` class defines the UDP packets that carry live call audio between a client and the
+ * server's media relay. A packet is an eight byte session token, a four byte sequence number and the
+ * audio. The token identifies the sender to the relay, which clears it before forwarding the packet to
+ * the other participant; the sequence number lets the receiver put the audio back in order. A packet
+ * without audio only tells the relay where the sender can be reached.
+ */
+public final class MediaPacket {
+
+    public static final int HEADER_LENGTH = 12;
+    // Cabe en una trama Ethernet sin fragmentar
+    public static final int MAX_PAYLOAD_LENGTH = 1400;
+    public static final int MAX_PACKET_LENGTH = HEADER_LENGTH + MAX_PAYLOAD_LENGTH;
+
+    private MediaPacket() {}
+
+/**
+ * The function `put` writes a packet into a buffer, which is cleared first and left ready to be sent.
+ *
+ * @param target The `target` parameter is the buffer the packet is written to.
+ * @param token The `token` parameter is the session token received in the `MEDIA:` line.
+ * @param sequence The `sequence` parameter is the number of the packet in the call.
+ * @param audio The `audio` parameter holds the audio bytes.
+ * @param offset The `offset` parameter is the index of the first audio byte.
+ * @param length The `length` parameter is the number of audio bytes, at most {@link #MAX_PAYLOAD_LENGTH}.
+ */
+    public static void put(ByteBuffer target, long token, int sequence, byte[] audio, int offset, int length) {
+        if (length > MAX_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("Audio too long for one packet: " + length + " bytes");
+        }
+        target.clear();
+        target.putLong(token).putInt(sequence).put(audio, offset, length);
+        target.flip();
+    }
+
+/**
+ * The function `token` reads the session token of a received packet.
+ *
+ * @param packet The `packet` parameter holds the packet, starting at its position.
+ * @return The session token.
+ */
+    public static long token(ByteBuffer packet) {
+        return packet.getLong(packet.position());
+    }
+
+/**
+ * The function `sequence` reads the sequence number of a received packet.
+ *
+ * @param packet The `packet` parameter holds the packet, starting at its position.
+ * @return The sequence number.
+ */
+    public static int sequence(ByteBuffer packet) {
+        return packet.getInt(packet.position() + 8);
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.chismapp.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The `SpscRing` class is a bounded lock-free queue for exactly one producer thread and one consumer
+ * thread. Each side owns one counter and only publishes it with an ordered store, and each caches the
+ * other side's counter so it reads the shared one only when the ring looks full or empty. Offering and
+ * polling never lock and never allocate, which keeps it off the garbage collector's books in paths that
+ * run for every audio frame.
+ *
+ * @param <E> The type of the elements.
+ */
+public final class SpscRing<E> {
+
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();  // Siguiente posición a leer, la escribe el consumidor
+    private final AtomicLong tail = new AtomicLong();  // Siguiente posición a escribir, la escribe el productor
+    private long headCache;  // Solo del productor
+    private long tailCache;  // Solo del consumidor
+
+// The constructor creates an empty ring holding up to `capacity` elements, rounded up to a power of two.
+    public SpscRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid ring capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Object[Math.max(1, size)];
+        this.mask = slots.length - 1;
+    }
+
+/**
+ * The function `offer` adds an element at the tail. Only the producer thread may call it.
+ *
+ * @param element The `element` parameter is the element to add, not `null`.
+ * @return `true` if it was added, `false` if the ring is full.
+ */
+    public boolean offer(E element) {
+        long position = tail.get();
+        if (position - headCache >= slots.length) {
+            headCache = head.get();
+            if (position - headCache >= slots.length) {
+                return false;
+            }
+        }
+        slots[(int) position & mask] = element;
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+/**
+ * The function `poll` removes the element at the head. Only the consumer thread may call it.
+ *
+ * @return The oldest element, or `null` if the ring is empty.
+ */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head.get();
+        if (position >= tailCache) {
+            tailCache = tail.get();
+            if (position >= tailCache) {
+                return null;
+            }
+        }
+        int index = (int) position & mask;
+        E element = (E) slots[index];
+        slots[index] = null;
+        head.lazySet(position + 1);
+        return element;
+    }
+
+/**
+ * The function `size` returns the number of elements in the ring. Read from a thread other than the
+ * producer and the consumer it is only an estimate.
+ *
+ * @return The number of elements.
+ */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
@@ -1,24 +1,50 @@
 package com.example.chismapp.util;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The `TCPConnection` class represents a TCP connection handler that can act as a server or client,
- * sending and receiving messages asynchronously.
+ * sending and receiving messages asynchronously. The connection starts with the text protocol and switches
+ * to the binary framing of `WireProtocol` when the server accepts it during the `USERNAME:` handshake.
+ * Outgoing messages are queued and written by one long-lived writer thread, in the order they were sent;
+ * messages that queue up while a write is in progress go out together in one write and one flush.
  */
 public class TCPConnection extends Thread {
 
     private static TCPConnection instance;
+    private static final long HANDSHAKE_TIMEOUT_MILLIS = 3000;
+    private static final byte[] HANDSHAKE_ACK = WireProtocol.HANDSHAKE_ACK.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] WELCOME = "SYSTEM: Welcome".getBytes(StandardCharsets.UTF_8);
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_BATCH = 256;
+
     private Socket socket;
     private OnMessageReceivedListener listener;
+    private OnVoiceReceivedListener voiceListener;
+    private final BlockingQueue<Outgoing> outgoing = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private volatile boolean closed;
+    private volatile long batchesWritten;
+    private final CountDownLatch handshakeDone = new CountDownLatch(1);
+    private volatile boolean binaryProtocol;
 
-    private TCPConnection() {}
+    // Visible en el paquete para que las pruebas abran sus propias conexiones
+    TCPConnection() {}
 
 /**
  * The function getInstance() returns a single instance of TCPConnection using lazy initialization and
@@ -35,15 +61,35 @@ public class TCPConnection extends Thread {
 
 /**
  * This function reads messages from a socket's input stream and notifies a listener for each message
- * received, handling disconnection gracefully.
+ * received, handling disconnection gracefully. Lines are read until the server confirms the binary
+ * protocol; from then on frames are read into the reader's reusable buffer.
  */
     @Override
     public void run() {
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                listener.onMessageReceived(line);
+            FrameReader reader = new FrameReader(socket.getInputStream());
+            while (true) {
+                if (binaryProtocol) {
+                    if (!reader.readFrame()) {
+                        break;
+                    }
+                    dispatchFrame(reader.getFrameType(), reader.getPayload(), reader.getPayloadLength());
+                } else {
+                    if (!reader.readLine()) {
+                        break;
+                    }
+                    byte[] line = reader.getPayload();
+                    int length = reader.getPayloadLength();
+                    if (startsWith(line, length, HANDSHAKE_ACK) && length == HANDSHAKE_ACK.length) {
+                        binaryProtocol = true;
+                        handshakeDone.countDown();
+                    } else {
+                        if (startsWith(line, length, WELCOME)) {
+                            handshakeDone.countDown(); // El servidor respondió sin aceptar tramas binarias
+                        }
+                        listener.onMessageReceived(line, 0, length);
+                    }
+                }
             }
         } catch (IOException e) {
            System.out.println("the server has been disconnected, Goodbye!");
@@ -51,24 +97,165 @@ public class TCPConnection extends Thread {
         }
     }
 
+    private static boolean startsWith(byte[] line, int length, byte[] prefix) {
+        return length >= prefix.length && Arrays.equals(line, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    private void dispatchFrame(byte type, byte[] payload, int length) {
+        if (type == WireProtocol.TEXT) {
+            listener.onMessageReceived(payload, 0, length);
+        } else if (type == WireProtocol.VOICE && length > 0 && voiceListener != null) {
+            int nameLength = WireProtocol.voiceNameLength(payload, 0);
+            String sender = new String(payload, 1, nameLength, StandardCharsets.UTF_8);
+            voiceListener.onVoiceReceived(sender, payload, 1 + nameLength, length - 1 - nameLength);
+        }
+    }
+
+/**
+ * The `sendHandshake` function sends the `USERNAME:` line asking for the binary protocol and waits for
+ * the server's answer. If the server does not confirm it, the connection keeps the text protocol.
+ *
+ * @param userName The `userName` parameter is the name the user is registered with.
+ * @param requestBinary The `requestBinary` parameter tells whether to ask for the binary protocol.
+ */
+    public void sendHandshake(String userName, boolean requestBinary) {
+        sendMessage("USERNAME:" + userName + (requestBinary ? WireProtocol.HANDSHAKE_SUFFIX : ""));
+        try {
+            handshakeDone.await(HANDSHAKE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
 /**
- * The `sendMessage` function sends a message over a socket connection in a separate thread.
+ * The `sendMessage` function queues a message for the writer thread and returns at once. Messages are
+ * sent in the order they are queued; a failure is only reported on the console.
  * 
- * @param message The `sendMessage` method takes a `String` parameter named `message`, which represents
- * the message that will be sent over a socket connection. The method creates a new `Thread` to handle
- * the sending of the message asynchronously. Inside the thread, the message is written to the output
- * stream of the socket
+ * @param message The `message` parameter is the line to send, without the line break.
  */
     public void sendMessage(String message) {
-        new Thread(() -> {
-            try {
-                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-                writer.write(message + "\n");
-                writer.flush();
-            } catch (IOException e) {
-                e.printStackTrace();
+        enqueue(encodeText(message), null);
+    }
+
+/**
+ * The `sendAsync` function queues a message like `sendMessage` and lets the caller learn whether it
+ * was written to the socket.
+ *
+ * @param message The `message` parameter is the line to send, without the line break.
+ * @return A future completed once the message is flushed, or completed exceptionally if the connection
+ * failed or was closed before.
+ */
+    public CompletableFuture<Void> sendAsync(String message) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        enqueue(encodeText(message), done);
+        return done;
+    }
+
+    private ByteBuffer encodeText(String message) {
+        return binaryProtocol
+                ? WireProtocol.encodeText(message)
+                : ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+/**
+ * The `sendVoice` function sends audio to a user or group, as raw bytes in a `VOICE` frame when the
+ * binary protocol is active, or as a Base64 `VOICE:` line otherwise.
+ *
+ * @param recipient The `recipient` parameter is the user or group that receives the audio.
+ * @param audio The `audio` parameter holds the audio bytes.
+ * @param offset The `offset` parameter is the index of the first audio byte.
+ * @param length The `length` parameter is the number of audio bytes.
+ */
+    public void sendVoice(String recipient, byte[] audio, int offset, int length) {
+        if (binaryProtocol) {
+            enqueue(WireProtocol.encodeVoice(recipient, audio, offset, length), null);
+        } else {
+            ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(audio, offset, length));
+            sendMessage("VOICE:" + recipient + ":" + StandardCharsets.US_ASCII.decode(encoded));
+        }
+    }
+
+    private void enqueue(ByteBuffer frame, CompletableFuture<Void> done) {
+        Outgoing message = new Outgoing(frame, done);
+        if (closed) {
+            message.fail(new IOException("Connection closed"));
+            return;
+        }
+        outgoing.add(message);
+        if (closed) {
+            failPending(new IOException("Connection closed"));  // El escritor pudo terminar antes de verlo
+        }
+    }
+
+    private void startWriter() {
+        writer = new Thread(this::writeLoop, "tcp-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Único hilo que escribe en el socket: toma lo que haya en la cola y lo envía con una sola descarga
+    private void writeLoop() {
+        List<Outgoing> batch = new ArrayList<>();
+        IOException failure = new IOException("Connection closed");
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+            while (!closed) {
+                batch.add(outgoing.take());
+                outgoing.drainTo(batch, MAX_BATCH - 1);
+                for (Outgoing message : batch) {
+                    ByteBuffer frame = message.frame;
+                    out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                }
+                out.flush();
+                batchesWritten++;
+                for (Outgoing message : batch) {
+                    message.complete();
+                }
+                batch.clear();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.println("Error sending message: " + e.getMessage());
             }
-        }).start();
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closed = true;
+        for (Outgoing message : batch) {
+            message.fail(failure);
+        }
+        failPending(failure);
+    }
+
+    private void failPending(IOException failure) {
+        Outgoing message;
+        while ((message = outgoing.poll()) != null) {
+            message.fail(failure);
+        }
+    }
+
+/**
+ * The `close` function closes the socket and stops the writer thread. Messages still queued are
+ * dropped, and their futures fail.
+ */
+    public void close() {
+        closed = true;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (writer != null) {
+            writer.interrupt();
+        }
+        failPending(new IOException("Connection closed"));
+    }
+
+    long getBatchesWritten() {
+        return batchesWritten;
     }
 
 /**
@@ -83,6 +270,7 @@ public class TCPConnection extends Thread {
         try {
             ServerSocket serverSocket = new ServerSocket(port);
             this.socket = serverSocket.accept();
+            startWriter();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -103,6 +291,7 @@ public class TCPConnection extends Thread {
     public void initAsClient(String remoteIp, int remotePort) {
         try {
             this.socket = new Socket(remoteIp, remotePort);
+            startWriter();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -122,8 +311,51 @@ public class TCPConnection extends Thread {
 // classes that want to listen for incoming messages. It declares a single method
 // `onMessageReceived(String msg)` that must be implemented by any class that implements this
 // interface. This method is called whenever a new message is received by the TCP connection, allowing
-// the implementing class to handle the received message as needed.
+// the implementing class to handle the received message as needed. Listeners that parse the message
+// themselves can override the variant that receives the UTF-8 bytes, which are only valid during the call.
     public interface OnMessageReceivedListener {
         void onMessageReceived(String msg);
+
+        default void onMessageReceived(byte[] message, int offset, int length) {
+            onMessageReceived(new String(message, offset, length, StandardCharsets.UTF_8));
+        }
+    }
+
+/**
+ * The function `setVoiceListener` assigns the listener that receives the audio of binary `VOICE` frames.
+ *
+ * @param voiceListener The `voiceListener` parameter is called with the sender and the raw audio.
+ */
+    public void setVoiceListener(OnVoiceReceivedListener voiceListener) {
+        this.voiceListener = voiceListener;
+    }
+
+// The `Outgoing` class is a message waiting for the writer thread, with the future of `sendAsync`, if any.
+    private static final class Outgoing {
+        final ByteBuffer frame;
+        final CompletableFuture<Void> done;
+
+        Outgoing(ByteBuffer frame, CompletableFuture<Void> done) {
+            this.frame = frame;
+            this.done = done;
+        }
+
+        void complete() {
+            if (done != null) {
+                done.complete(null);
+            }
+        }
+
+        void fail(IOException failure) {
+            if (done != null) {
+                done.completeExceptionally(failure);
+            }
+        }
+    }
+
+// The `OnVoiceReceivedListener` interface receives the audio carried by binary `VOICE` frames. The audio
+// is passed as a view into the reader's reusable buffer, so it is only valid during the call.
+    public interface OnVoiceReceivedListener {
+        void onVoiceReceived(String sender, byte[] audio, int offset, int length);
     }
 }
@@ -0,0 +1,107 @@
+package com.example.chismapp.util;
+
+/**
+ * The `VoiceNoteChunk` class defines the pieces a voice note is sent in while it is being recorded. Each
+ * chunk travels as the audio of an ordinary `VOICE` message, so the server forwards it like any other
+ * voice message and never holds more than one chunk of a note. A chunk starts with {@link #MARKER}, which
+ * no codec uses, followed by the id of its note, its index in the note and a flag set on the last chunk,
+ * and then an encoded unit of `AudioCodec` with its share of the audio. Every chunk can be decoded on its
+ * own, so the receiver starts playing a note as soon as the first chunk arrives.
+ *
+ * The server cuts a note sent in one very long message into chunks of its own, marked with the part
+ * flag: their bodies are consecutive pieces of the original message, which the receiver joins back
+ * together once the last one arrives. The server never looks inside the audio to cut them.
+ */
+public final class VoiceNoteChunk {
+
+    public static final int MARKER = 14;
+    public static final int HEADER_LENGTH = 10;
+    private static final int LAST = 1;
+    private static final int PART = 2;
+
+    private VoiceNoteChunk() {}
+
+/**
+ * The function `encode` builds a chunk, compressing its audio with the given codec.
+ *
+ * @param noteId The `noteId` parameter identifies the note among the notes of its sender.
+ * @param index The `index` parameter is the position of the chunk in the note, from `0`.
+ * @param last The `last` parameter tells whether this chunk ends the note.
+ * @param codec The `codec` parameter compresses the audio.
+ * @param pcm The `pcm` parameter holds the audio of the chunk, which may be empty for a last chunk.
+ * @param offset The `offset` parameter is the index of the first PCM byte.
+ * @param length The `length` parameter is the number of PCM bytes.
+ * @return The encoded chunk.
+ */
+    public static byte[] encode(int noteId, int index, boolean last, AudioCodec codec, byte[] pcm, int offset, int length) {
+        int audioLength = codec.encodedLength(length);
+        byte[] chunk = new byte[HEADER_LENGTH + (audioLength > 0 ? 1 + audioLength : 0)];
+        chunk[0] = MARKER;
+        putInt(chunk, 1, noteId);
+        putInt(chunk, 5, index);
+        chunk[9] = (byte) (last ? LAST : 0);
+        if (audioLength > 0) {
+            chunk[HEADER_LENGTH] = (byte) codec.getId();
+            codec.encode(pcm, offset, length, chunk, HEADER_LENGTH + 1);
+        }
+        return chunk;
+    }
+
+/**
+ * The function `putPartHeader` writes the header of a part chunk in front of a piece of a note that is
+ * being forwarded; the piece itself follows the header.
+ *
+ * @param target The `target` parameter is the buffer holding the chunk.
+ * @param offset The `offset` parameter is the index where the chunk starts.
+ * @param noteId The `noteId` parameter identifies the note among the notes of its sender.
+ * @param index The `index` parameter is the position of the piece in the note, from `0`.
+ * @param last The `last` parameter tells whether this piece ends the note.
+ */
+    public static void putPartHeader(byte[] target, int offset, int noteId, int index, boolean last) {
+        target[offset] = MARKER;
+        putInt(target, offset + 1, noteId);
+        putInt(target, offset + 5, index);
+        target[offset + 9] = (byte) (PART | (last ? LAST : 0));
+    }
+
+/**
+ * The function `isChunk` tells whether received voice audio is a chunk rather than a whole note sent
+ * in one message.
+ *
+ * @param data The `data` parameter holds the received audio.
+ * @param offset The `offset` parameter is the index of its first byte.
+ * @param length The `length` parameter is its length.
+ * @return `true` if it is a chunk.
+ */
+    public static boolean isChunk(byte[] data, int offset, int length) {
+        return length >= HEADER_LENGTH && data[offset] == MARKER;
+    }
+
+    public static int noteId(byte[] chunk, int offset) {
+        return getInt(chunk, offset + 1);
+    }
+
+    public static int index(byte[] chunk, int offset) {
+        return getInt(chunk, offset + 5);
+    }
+
+    public static boolean isLast(byte[] chunk, int offset) {
+        return (chunk[offset + 9] & LAST) != 0;
+    }
+
+    public static boolean isPart(byte[] chunk, int offset) {
+        return (chunk[offset + 9] & PART) != 0;
+    }
+
+    private static void putInt(byte[] target, int index, int value) {
+        target[index] = (byte) (value >>> 24);
+        target[index + 1] = (byte) (value >>> 16);
+        target[index + 2] = (byte) (value >>> 8);
+        target[index + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] source, int index) {
+        return ((source[index] & 0xFF) << 24) | ((source[index + 1] & 0xFF) << 16)
+                | ((source[index + 2] & 0xFF) << 8) | (source[index + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.chismapp.util;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The `WireProtocol` class defines the binary framing shared by the client and the server. A client asks
+ * for it by appending {@link #HANDSHAKE_SUFFIX} to its `USERNAME:` line; a server that supports it answers
+ * with the text line {@link #HANDSHAKE_ACK} and from then on both sides exchange frames made of a type
+ * byte, a four byte big-endian payload length and the payload. Clients that do not ask for it keep using
+ * newline-terminated text lines.
+ */
+public final class WireProtocol {
+
+    public static final int VERSION = 1;
+    public static final String HANDSHAKE_SUFFIX = ";proto=bin/" + VERSION;
+    public static final String HANDSHAKE_ACK = "PROTO:bin/" + VERSION;
+
+    public static final int HEADER_LENGTH = 5;
+    public static final int MAX_PAYLOAD_LENGTH = 64 * 1024 * 1024;
+
+    // Tipos de trama
+    public static final byte TEXT = 1;   // Payload: una línea del protocolo de texto en UTF-8
+    public static final byte VOICE = 2;  // Payload: [largo del nombre:1][nombre UTF-8][audio: id del códec + datos]
+
+    private WireProtocol() {}
+
+/**
+ * The function `encodeText` builds a `TEXT` frame carrying one line of the text protocol.
+ *
+ * @param message The `message` parameter is the line to send, without a trailing newline.
+ * @return A `ByteBuffer` holding the whole frame, ready to be written.
+ */
+    public static ByteBuffer encodeText(String message) {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        return encodeText(payload, 0, payload.length);
+    }
+
+/**
+ * The function `encodeText` builds a `TEXT` frame from a line that is already UTF-8 encoded.
+ *
+ * @param message The `message` parameter holds the encoded line, without a trailing newline.
+ * @param offset The `offset` parameter is the index of the first byte of the line.
+ * @param length The `length` parameter is the number of bytes of the line.
+ * @return A `ByteBuffer` holding the whole frame, ready to be written.
+ */
+    public static ByteBuffer encodeText(byte[] message, int offset, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + length);
+        putText(frame, message, offset, length);
+        frame.flip();
+        return frame;
+    }
+
+/**
+ * The function `putText` writes a `TEXT` frame into a buffer, which must have room for
+ * {@link #HEADER_LENGTH} plus the length of the line.
+ *
+ * @param target The `target` parameter is the buffer the frame is written to.
+ * @param message The `message` parameter holds the encoded line, without a trailing newline.
+ * @param offset The `offset` parameter is the index of the first byte of the line.
+ * @param length The `length` parameter is the number of bytes of the line.
+ */
+    public static void putText(ByteBuffer target, byte[] message, int offset, int length) {
+        target.put(TEXT).putInt(length).put(message, offset, length);
+    }
+
+/**
+ * The function `encodeVoice` builds a `VOICE` frame with the raw audio bytes. The name is the recipient
+ * when the client sends the frame, and the sender when the server forwards it.
+ *
+ * @param name The `name` parameter is the user or group name placed in the frame header.
+ * @param audio The `audio` parameter holds the audio bytes.
+ * @param offset The `offset` parameter is the index of the first audio byte.
+ * @param length The `length` parameter is the number of audio bytes.
+ * @return A `ByteBuffer` holding the whole frame, ready to be written.
+ */
+    public static ByteBuffer encodeVoice(String name, byte[] audio, int offset, int length) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(voiceFrameLength(nameBytes, length));
+        putVoice(frame, nameBytes, audio, offset, length);
+        frame.flip();
+        return frame;
+    }
+
+/**
+ * The function `voiceFrameLength` returns the size of a whole `VOICE` frame, header included.
+ *
+ * @param name The `name` parameter holds the UTF-8 encoded user or group name.
+ * @param audioLength The `audioLength` parameter is the number of audio bytes.
+ * @return The frame size in bytes.
+ */
+    public static int voiceFrameLength(byte[] name, int audioLength) {
+        if (name.length > 255) {
+            throw new IllegalArgumentException("Name too long for a VOICE frame: "
+                    + new String(name, StandardCharsets.UTF_8));
+        }
+        return HEADER_LENGTH + 1 + name.length + audioLength;
+    }
+
+/**
+ * The function `putVoice` writes a `VOICE` frame into a buffer, which must have room for
+ * `voiceFrameLength` bytes.
+ *
+ * @param target The `target` parameter is the buffer the frame is written to.
+ * @param name The `name` parameter holds the UTF-8 encoded user or group name.
+ * @param audio The `audio` parameter holds the audio bytes.
+ * @param offset The `offset` parameter is the index of the first audio byte.
+ * @param length The `length` parameter is the number of audio bytes.
+ */
+    public static void putVoice(ByteBuffer target, byte[] name, byte[] audio, int offset, int length) {
+        target.put(VOICE).putInt(1 + name.length + length).put((byte) name.length).put(name).put(audio, offset, length);
+    }
+
+/**
+ * The function `voiceNameLength` returns the length of the name stored at the start of a `VOICE`
+ * payload; the audio starts right after it.
+ *
+ * @param payload The `payload` parameter holds the frame payload.
+ * @param offset The `offset` parameter is the index where the payload starts.
+ * @return The number of name bytes following the length byte.
+ */
+    public static int voiceNameLength(byte[] payload, int offset) {
+        return payload[offset] & 0xFF;
+    }
+
+/**
+ * The function `payloadLength` reads and validates the length field of a frame header.
+ *
+ * @param header The `header` parameter holds at least {@link #HEADER_LENGTH} bytes of a frame header.
+ * @param offset The `offset` parameter is the index of the type byte.
+ * @return The payload length declared by the header.
+ * @throws ProtocolException if the length is negative or above {@link #MAX_PAYLOAD_LENGTH}.
+ */
+    public static int payloadLength(byte[] header, int offset) throws ProtocolException {
+        int length = ((header[offset + 1] & 0xFF) << 24) | ((header[offset + 2] & 0xFF) << 16)
+                | ((header[offset + 3] & 0xFF) << 8) | (header[offset + 4] & 0xFF);
+        if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+            throw new ProtocolException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+}
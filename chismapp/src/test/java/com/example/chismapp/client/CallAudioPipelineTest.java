@@ -0,0 +1,96 @@
+package com.example.chismapp.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.chismapp.util.AudioCodec;
+import com.example.chismapp.util.MediaPacket;
+
+class CallAudioPipelineTest {
+
+    private static final int READ_BYTES = 1024;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Lecturas de micrófono alternando habla (un tono) y silencio, para recorrer ambos caminos
+    private static byte[][] reads() {
+        byte[] speech = new byte[READ_BYTES];
+        for (int i = 0; i < READ_BYTES / 2; i++) {
+            int sample = (int) (6000 * Math.sin(2 * Math.PI * 300 * i / 16000.0));
+            speech[2 * i] = (byte) sample;
+            speech[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return new byte[][] {speech, new byte[READ_BYTES]};
+    }
+
+    private static void capture(CallAudioPipeline pipeline, byte[][] reads, int count) {
+        for (int i = 0; i < count; i++) {
+            pipeline.capture(reads[(i / 40) % 2], 0, READ_BYTES, true);
+        }
+    }
+
+    @Test
+    void framesReachTheSinkEncoded() throws InterruptedException {
+        AtomicLong units = new AtomicLong();
+        AtomicLong markers = new AtomicLong();
+        CallAudioPipeline pipeline = new CallAudioPipeline(AudioCodec.ULAW, READ_BYTES, 256, (data, offset, length) -> {
+            if (data[offset] == AudioCodec.COMFORT_NOISE_ID) {
+                markers.incrementAndGet();
+            } else {
+                assertEquals(AudioCodec.ULAW.getId(), data[offset]);
+                assertEquals(1 + READ_BYTES / 2, length);
+                units.incrementAndGet();
+            }
+        });
+        capture(pipeline, reads(), 80);
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (units.get() + markers.get() < 50 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        pipeline.close();
+        // 40 lecturas de habla más 8 de continuación; en las 32 de silencio, un marcador al empezar y otro 25 después
+        assertEquals(48, units.get());
+        assertEquals(2, markers.get());
+    }
+
+    @Test
+    void steadyStateCaptureAndSendAllocateNothing() throws Exception {
+        try (DatagramChannel peer = DatagramChannel.open()) {
+            peer.bind(new InetSocketAddress("127.0.0.1", 0));
+            MediaChannel channel = new MediaChannel("127.0.0.1", peer.socket().getLocalPort(), 42L, null);
+            CallAudioPipeline pipeline = new CallAudioPipeline(AudioCodec.ADPCM, READ_BYTES, 16, channel::send);
+            byte[][] reads = reads();
+            capture(pipeline, reads, 50_000);  // Calentamiento: compilación JIT y cachés del JDK
+            Thread.sleep(100);
+
+            long sender = pipeline.getSenderThreadId();
+            long capturer = Thread.currentThread().getId();
+            long senderBefore = THREADS.getThreadAllocatedBytes(sender);
+            long captureBefore = THREADS.getThreadAllocatedBytes(capturer);
+            capture(pipeline, reads, 20_000);
+            Thread.sleep(100);
+            long captureBytes = THREADS.getThreadAllocatedBytes(capturer) - captureBefore;
+            long senderBytes = THREADS.getThreadAllocatedBytes(sender) - senderBefore;
+            pipeline.close();
+
+            ByteBuffer packet = ByteBuffer.allocate(MediaPacket.MAX_PACKET_LENGTH);
+            peer.receive(packet);
+            packet.flip();
+            assertEquals(42L, MediaPacket.token(packet));
+            channel.close();
+
+            // Unos pocos bytes de holgura por las llamadas de medición, nunca uno por trama
+            assertTrue(captureBytes < 4096, "capture thread allocated " + captureBytes + " bytes");
+            assertTrue(senderBytes < 4096, "sender thread allocated " + senderBytes + " bytes");
+        }
+    }
+}
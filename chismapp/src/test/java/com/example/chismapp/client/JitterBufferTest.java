@@ -0,0 +1,131 @@
+package com.example.chismapp.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class JitterBufferTest {
+
+    // 16 kHz, 16-bit mono: 320 bytes are 10 ms of audio
+    private static final float BYTES_PER_SECOND = 32_000;
+    private static final long FRAME_NANOS = 10_000_000;
+
+    private final JitterBuffer buffer = new JitterBuffer(BYTES_PER_SECOND);
+
+    private static byte[] frame(int sequence) {
+        byte[] audio = new byte[320];
+        Arrays.fill(audio, (byte) sequence);
+        return audio;
+    }
+
+    private void offerOnTime(int sequence) {
+        buffer.offer(sequence, frame(sequence), sequence * FRAME_NANOS);
+    }
+
+    private static int sequenceOf(byte[] audio) {
+        return audio[0];
+    }
+
+    @Test
+    void framesArePlayedInSequenceOrder() {
+        offerOnTime(0);
+        offerOnTime(2);
+        offerOnTime(1);
+        assertEquals(0, sequenceOf(buffer.poll()));
+        assertEquals(1, sequenceOf(buffer.poll()));
+        assertEquals(2, sequenceOf(buffer.poll()));
+    }
+
+    @Test
+    void missingFramesBecomeSilenceAndLateOnesAreDropped() {
+        offerOnTime(1);
+        offerOnTime(2);
+        offerOnTime(4);
+        assertEquals(1, sequenceOf(buffer.poll()));
+        assertEquals(2, sequenceOf(buffer.poll()));
+        byte[] gap = buffer.poll();
+        assertEquals(320, gap.length);
+        assertEquals(0, sequenceOf(gap));
+        assertEquals(1, buffer.getLostFrames());
+
+        offerOnTime(3);
+        assertEquals(1, buffer.getLateFrames());
+        assertEquals(4, sequenceOf(buffer.poll()));
+    }
+
+    @Test
+    void playoutWaitsForTheTargetDepthAfterAnUnderrun() {
+        offerOnTime(0);
+        assertNull(buffer.poll());
+        offerOnTime(1);
+        assertEquals(0, sequenceOf(buffer.poll()));
+        assertEquals(1, sequenceOf(buffer.poll()));
+        assertNull(buffer.poll());
+
+        offerOnTime(2);
+        assertNull(buffer.poll());
+        offerOnTime(3);
+        assertEquals(2, sequenceOf(buffer.poll()));
+    }
+
+    @Test
+    void targetDepthGrowsWithJitter() {
+        assertEquals(2, buffer.getTargetDepth());
+        for (int sequence = 0; sequence < 50; sequence++) {
+            long wobble = sequence % 2 == 0 ? 0 : 15_000_000;
+            buffer.offer(sequence, frame(sequence), sequence * FRAME_NANOS + wobble);
+            buffer.poll();
+        }
+        assertTrue(buffer.getJitterMillis() > 10, "jitter " + buffer.getJitterMillis());
+        assertTrue(buffer.getTargetDepth() > 4, "target " + buffer.getTargetDepth());
+    }
+
+    @Test
+    void latencyBuiltUpByABurstIsSkipped() {
+        for (int sequence = 0; sequence < 10; sequence++) {
+            offerOnTime(sequence);
+        }
+        assertEquals(10, buffer.getDepth());
+        assertEquals(6, sequenceOf(buffer.poll()));
+        assertEquals(6, buffer.getSkippedFrames());
+        assertEquals(3, buffer.getDepth());
+    }
+
+    @Test
+    void resetStartsANewStream() {
+        offerOnTime(5);
+        offerOnTime(6);
+        buffer.poll();
+        buffer.reset();
+        offerOnTime(0);
+        offerOnTime(1);
+        assertEquals(0, sequenceOf(buffer.poll()));
+        assertEquals(0, buffer.getLateFrames());
+    }
+
+    @Test
+    void comfortNoiseEndsATalkspurt() {
+        offerOnTime(0);
+        offerOnTime(1);
+        buffer.offerComfortNoise(2, 70, 2 * FRAME_NANOS);
+        assertEquals(0, sequenceOf(buffer.poll()));
+        assertEquals(1, sequenceOf(buffer.poll()));
+        assertNull(buffer.poll());
+        assertTrue(buffer.isSilent());
+        assertEquals(70, buffer.getComfortNoiseLevel());
+
+        // Tras un segundo de silencio la nueva racha no cuenta como jitter y vuelve a llenar el búfer
+        buffer.offer(3, frame(3), 100 * FRAME_NANOS);
+        assertNull(buffer.poll());
+        buffer.offer(4, frame(4), 101 * FRAME_NANOS);
+        assertEquals(3, sequenceOf(buffer.poll()));
+        assertFalse(buffer.isSilent());
+        assertEquals(0.0, buffer.getJitterMillis(), 1e-9);
+        assertEquals(0, buffer.getLostFrames());
+    }
+}
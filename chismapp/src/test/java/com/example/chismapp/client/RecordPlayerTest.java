@@ -0,0 +1,68 @@
+package com.example.chismapp.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.SourceDataLine;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RecordPlayerTest {
+
+    private static final int QUEUE_SIZE = 8;
+
+    private final AudioFormat format = new AudioFormat(16000, 16, 1, true, false);
+
+    @BeforeEach
+    void withoutAnAudioDevice() {
+        // With a device the playout thread would take notes off the queue while it is being filled
+        assumeFalse(AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, format)));
+    }
+
+    @Test
+    void aFullQueueDropsTheNewNote() {
+        RecordPlayer player = new RecordPlayer(format, PlaybackOverflowPolicy.DROP_NEWEST);
+        List<VoiceNoteStream> queued = new ArrayList<>();
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            queued.add(player.openVoiceNote());
+        }
+        assertEquals(0, player.getDroppedVoiceNotes());
+
+        assertFalse(player.initiateAudio(new byte[320]));
+        assertFalse(player.initiateAudio(new byte[320]));
+        assertEquals(2, player.getDroppedVoiceNotes());
+        for (VoiceNoteStream note : queued) {
+            assertFalse(note.isAbandoned());
+        }
+    }
+
+    @Test
+    void aFullQueueDropsTheOldestNote() {
+        RecordPlayer player = new RecordPlayer(format, PlaybackOverflowPolicy.DROP_OLDEST);
+        List<VoiceNoteStream> queued = new ArrayList<>();
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            queued.add(player.openVoiceNote());
+        }
+
+        assertTrue(player.initiateAudio(new byte[320]));
+        assertEquals(1, player.getDroppedVoiceNotes());
+        assertTrue(queued.get(0).isAbandoned());
+        assertFalse(queued.get(0).append(new byte[320]));
+        assertFalse(queued.get(1).isAbandoned());
+
+        VoiceNoteStream newest = player.openVoiceNote();
+        assertFalse(newest.isAbandoned());
+        assertEquals(2, player.getDroppedVoiceNotes());
+        assertTrue(queued.get(1).isAbandoned());
+        assertFalse(queued.get(2).isAbandoned());
+    }
+}
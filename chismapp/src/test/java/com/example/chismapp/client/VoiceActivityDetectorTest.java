@@ -0,0 +1,93 @@
+package com.example.chismapp.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class VoiceActivityDetectorTest {
+
+    private static final int SAMPLES = 512;
+
+    private final VoiceActivityDetector vad = new VoiceActivityDetector();
+    private final Random random = new Random(7);
+
+    // Ruido de fondo de poca amplitud, como el de una habitación tranquila
+    private byte[] noise(int amplitude) {
+        byte[] pcm = new byte[2 * SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            int sample = random.nextInt(2 * amplitude + 1) - amplitude;
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    private static byte[] tone(int amplitude) {
+        byte[] pcm = new byte[2 * SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            int sample = (int) (amplitude * Math.sin(2 * Math.PI * 200 * i / 16000.0));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    private boolean classify(byte[] pcm) {
+        return vad.isSpeech(pcm, 0, pcm.length);
+    }
+
+    @Test
+    void speechIsSentAndSilenceSuppressedAfterTheHangover() {
+        for (int i = 0; i < 20; i++) {
+            classify(noise(30));
+        }
+        assertFalse(classify(noise(30)));
+        assertTrue(classify(tone(4000)));
+
+        int hangover = 0;
+        while (classify(noise(30))) {
+            hangover++;
+        }
+        assertEquals(8, hangover);
+    }
+
+    @Test
+    void quietUnvoicedSoundsCountAsSpeech() {
+        for (int i = 0; i < 20; i++) {
+            classify(tone(40));
+        }
+        assertFalse(classify(tone(40)));
+        // Un sonido sordo: ruido blanco poco más fuerte que el fondo, con muchos cruces por cero
+        assertTrue(classify(noise(120)));
+    }
+
+    @Test
+    void comfortNoiseIsDueWhenSilenceStartsAndPeriodically() {
+        classify(tone(4000));
+        int markers = 0;
+        for (int i = 0; i < 8 + 60; i++) {
+            if (!classify(noise(30)) && vad.isComfortNoiseDue()) {
+                markers++;
+            }
+        }
+        assertEquals(3, markers);
+        assertTrue(vad.getNoiseLevel() > 60 && vad.getNoiseLevel() < 127, "level " + vad.getNoiseLevel());
+    }
+
+    @Test
+    void suppressionRatioCountsTheSilentFrames() {
+        for (int i = 0; i < 50; i++) {
+            classify(tone(4000));
+        }
+        for (int i = 0; i < 58; i++) {
+            classify(new byte[2 * SAMPLES]);
+        }
+        assertEquals(108, vad.getFrames());
+        assertEquals(50, vad.getSuppressedFrames());
+        assertEquals(50.0 / 108, vad.getSuppressionRatio(), 1e-9);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.chismapp.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class VoiceNoteStreamTest {
+
+    private final VoiceNoteStream note = new VoiceNoteStream();
+
+    @Test
+    void chunksPlayAsTheyArriveUntilTheNoteIsFinished() {
+        byte[] first = new byte[16];
+        note.append(first);
+        assertSame(first, note.nextChunk());
+        assertNull(note.nextChunk());
+        assertFalse(note.isDone(System.nanoTime()));
+
+        byte[] second = new byte[16];
+        note.append(second);
+        note.finish();
+        assertFalse(note.isDone(System.nanoTime()));
+        assertSame(second, note.nextChunk());
+        assertTrue(note.isDone(System.nanoTime()));
+    }
+
+    @Test
+    void chunksBeyondTheBoundAreDropped() {
+        int appended = 0;
+        while (note.append(new byte[1])) {
+            appended++;
+        }
+        assertTrue(appended > 0 && appended < 1000, "appended " + appended);
+        assertEquals(1, note.getDroppedChunks());
+    }
+
+    @Test
+    void aNoteWithoutNewsIsGivenUp() {
+        note.append(new byte[1]);
+        note.nextChunk();
+        assertFalse(note.isDone(System.nanoTime() + TimeUnit.SECONDS.toNanos(1)));
+        assertTrue(note.isDone(System.nanoTime() + TimeUnit.SECONDS.toNanos(10)));
+        assertTrue(note.isAbandoned());
+        assertFalse(note.append(new byte[1]));
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.chismapp.server;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Ayudas para las pruebas que hablan con un ChatServer por sockets con el protocolo de texto
+final class ChatSockets {
+
+    private ChatSockets() {
+    }
+
+    static void write(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    // Las deltas de presencia y los avisos llegan en cualquier momento y se saltan
+    static String expect(BufferedReader in, String prefix) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null && !line.startsWith(prefix)) {
+            assertTrue(line.startsWith(PresenceManager.DELTA_PREFIX) || line.startsWith("SYSTEM:")
+                    || line.startsWith("PRESENCE") || line.startsWith(VoiceBlobStore.STORE_PREFIX),
+                    "unexpected line " + line);
+        }
+        assertTrue(line != null, "connection closed while waiting for " + prefix);
+        return line;
+    }
+
+    // Conecta al usuario y lo desconecta, para que el servidor lo conozca como un usuario ausente
+    static void visit(ChatServer server, String userName) throws IOException, InterruptedException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(10_000);
+            write(socket.getOutputStream(), "USERNAME:" + userName);
+            expect(reader(socket), "SYSTEM: Welcome " + userName + "!");
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getContext().getUsers().containsKey(userName) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
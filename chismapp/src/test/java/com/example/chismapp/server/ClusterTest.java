@@ -0,0 +1,224 @@
+package com.example.chismapp.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClusterTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<ChatServer> servers = new ArrayList<>();
+    private final List<Socket> sockets = new ArrayList<>();
+
+    @AfterEach
+    void stop() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        for (ChatServer server : servers) {
+            server.close();
+        }
+    }
+
+    private ChatServer node(String id, String... peers) throws IOException {
+        return node(List.of(), id, peers);
+    }
+
+    private ChatServer node(List<String> options, String id, String... peers) throws IOException {
+        List<String> args = new ArrayList<>(List.of("--node-id=" + id, "--cluster-port=0", "--presence-tick-ms=20"));
+        args.addAll(options);
+        if (peers.length > 0) {
+            args.add("--peers=" + String.join(",", peers));
+        }
+        ChatServer server = ChatServer.start(ServerConfig.fromArgs(args.toArray(new String[0])));
+        servers.add(server);
+        return server;
+    }
+
+    private static String address(ChatServer server) {
+        return "127.0.0.1:" + server.getContext().getCluster().getPort();
+    }
+
+    private Client login(ChatServer server, String name) throws IOException {
+        Client client = new Client(new Socket("127.0.0.1", server.getPort()));
+        sockets.add(client.socket);
+        client.send("USERNAME:" + name);
+        client.expect("SYSTEM: Welcome " + name + "!");
+        return client;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Condition not met in time");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void messagesAndCallsAreRoutedAcrossNodes() throws Exception {
+        ChatServer a = node("a");
+        ChatServer b = node("b", address(a));
+        ChatServer c = node("c", address(a), address(b));
+        await(() -> a.getContext().getCluster().peerCount() == 2 && b.getContext().getCluster().peerCount() == 2);
+
+        Client alice = login(a, "alice");
+        Client bob = login(b, "bob");
+        Client carol = login(c, "carol");
+        await(() -> a.getContext().getCluster().isOnline("bob") && a.getContext().getCluster().isOnline("carol")
+                && b.getContext().getCluster().isOnline("alice"));
+        assertEquals("b", a.getContext().getCluster().homeOf("bob"));
+
+        alice.send("/dm bob hola bob");
+        bob.expect("[Direct Message] alice: hola bob");
+
+        bob.send("/group team");
+        carol.send("/group team");
+        bob.expect("SYSTEM: You have created/joined the group: team");
+        carol.expect("SYSTEM: You have created/joined the group: team");
+        // El grupo debe ser conocido en los nodos de ambos miembros, no solo en el primero que avise
+        await(() -> a.getContext().getCluster().nodesOf("team").equals(Set.of("b", "c")));
+        alice.send("/message team hola equipo");
+        bob.expect("[team] alice: hola equipo");
+        carol.expect("[team] alice: hola equipo");
+
+        alice.send("VOICE:carol:AAECAw==");
+        carol.expect("VOICE:alice:AAECAw==");
+
+        alice.send("CALL_INITIATE:bob");
+        alice.expect("SYSTEM: Call request sent to bob.");
+        bob.expect("CALL_REQUEST:alice");
+        bob.send("CALL_ACCEPT:alice");
+        bob.expect("SYSTEM: Call accepted with alice");
+        alice.expect("CALL_ACCEPTED:bob");
+        // El nodo de alice abre la sesión de audio y avisa a ambos participantes
+        alice.expect("MEDIA:" + a.getContext().getMediaRelay().getPort() + ":");
+        bob.expect("MEDIA:" + a.getContext().getMediaRelay().getPort() + ":");
+        assertTrue(a.getContext().getCallManager().isInCall("alice"));
+        assertTrue(b.getContext().getCallManager().isInCall("bob"));
+        alice.send("CALL_END:bob");
+        alice.expect("SYSTEM: Call ended with bob");
+        bob.expect("CALL_ENDED:alice");
+        await(() -> !b.getContext().getCallManager().isInCall("bob"));
+
+        alice.send("/who");
+        String snapshot = alice.expectPrefix("PRESENCE:");
+        assertTrue(snapshot.contains("bob") && snapshot.contains("carol"), snapshot);
+    }
+
+    @Test
+    void usersOfALostNodeAreForgotten() throws Exception {
+        ChatServer a = node("a");
+        ChatServer b = node("b", address(a));
+        await(() -> a.getContext().getCluster().peerCount() == 1);
+        Client alice = login(a, "alice");
+        login(b, "bob");
+        await(() -> a.getContext().getCluster().isOnline("bob"));
+
+        b.close();
+        await(() -> !a.getContext().getCluster().isOnline("bob"));
+        // El último nodo de bob no está: nadie puede guardarle el mensaje
+        alice.send("/dm bob hola");
+        alice.expect("SYSTEM: User bob not found.");
+        assertEquals(0, a.getContext().getOfflineMailboxes().size("bob"));
+    }
+
+    @Test
+    void aDirectMessageIsLoggedOnTheLastNodeOfTheRecipient() throws Exception {
+        ChatServer a = node("a");
+        ChatServer b = node(List.of("--message-log=" + directory), "b", address(a));
+        await(() -> a.getContext().getCluster().peerCount() == 1);
+        Client alice = login(a, "alice");
+        Client bob = login(b, "bob");
+        await(() -> a.getContext().getCluster().isOnline("bob"));
+
+        bob.socket.close();
+        await(() -> !a.getContext().getCluster().isOnline("bob"));
+        // El mensaje se guarda en el registro del último nodo de bob, que es donde vuelve a entrar
+        alice.send("/dm bob hola");
+        alice.expect("SYSTEM: User bob is offline, the message will be delivered when they reconnect.");
+        await(() -> b.getContext().getMessageLog().getNextOffset() == 1);
+        assertEquals(0, a.getContext().getOfflineMailboxes().size("bob"));
+        Client again = login(b, "bob");
+        again.send("REPLAY:-1");
+        again.expect("MSG:0:[Direct Message] alice: hola");
+        again.expect("REPLAY_END:0");
+    }
+
+    @Test
+    void aDirectMessageWaitsInTheMailboxOfTheLastNodeOfTheRecipient() throws Exception {
+        ChatServer a = node("a");
+        ChatServer b = node("b", address(a));
+        await(() -> a.getContext().getCluster().peerCount() == 1);
+        Client alice = login(a, "alice");
+        Client bob = login(b, "bob");
+        await(() -> a.getContext().getCluster().isOnline("bob"));
+
+        bob.socket.close();
+        await(() -> !a.getContext().getCluster().isOnline("bob"));
+        // Sin registro, el mensaje espera en el buzón de bob en su último nodo y no en el de alice
+        alice.send("/dm bob hola");
+        alice.expect("SYSTEM: User bob is offline, the message will be delivered when they reconnect.");
+        await(() -> b.getContext().getOfflineMailboxes().size("bob") == 1);
+        assertEquals(0, a.getContext().getOfflineMailboxes().size("bob"));
+        Client again = login(b, "bob");
+        again.expect("[Direct Message] alice: hola");
+    }
+
+    private static final class Client {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final OutputStream out;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setSoTimeout(10_000);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = socket.getOutputStream();
+        }
+
+        void send(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        void expect(String expected) throws IOException {
+            expectPrefix(expected);
+        }
+
+        // Las deltas de presencia llegan en cualquier momento y se saltan
+        String expectPrefix(String prefix) throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(prefix)) {
+                    return line;
+                }
+                if (!line.startsWith(PresenceManager.DELTA_PREFIX)) {
+                    fail("Expected " + prefix + " but got " + line);
+                }
+            }
+            fail("Connection closed while waiting for " + prefix);
+            return null;
+        }
+    }
+}
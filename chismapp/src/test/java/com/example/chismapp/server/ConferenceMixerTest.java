@@ -0,0 +1,178 @@
+package com.example.chismapp.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import com.example.chismapp.util.AudioCodec;
+import com.example.chismapp.util.MediaPacket;
+
+class ConferenceMixerTest {
+
+    private final Map<SocketAddress, ByteBuffer> sent = new HashMap<>();
+    private final ConferenceMixer mixer = new ConferenceMixer((packet, target) -> {
+        ByteBuffer copy = ByteBuffer.allocate(packet.remaining());
+        copy.put(packet).flip();
+        sent.put(target, copy);
+    });
+    private int nextPort = 40_000;
+
+    private ConferenceMixer.Participant join(String conference, String userName) {
+        MediaRelay.Endpoint endpoint = new MediaRelay.Endpoint(nextPort);
+        endpoint.latch(new InetSocketAddress("127.0.0.1", nextPort++));
+        return mixer.join(conference, userName, endpoint);
+    }
+
+    // Un paquete con `ticks` ticks de una muestra constante
+    private static ByteBuffer packet(AudioCodec codec, int sequence, int sample, int ticks) {
+        byte[] pcm = new byte[2 * ticks * ConferenceMixer.TICK_SAMPLES];
+        for (int i = 0; i < pcm.length; i += 2) {
+            pcm[i] = (byte) sample;
+            pcm[i + 1] = (byte) (sample >> 8);
+        }
+        byte[] unit = codec.encodeUnit(pcm, 0, pcm.length);
+        ByteBuffer packet = ByteBuffer.allocate(MediaPacket.MAX_PACKET_LENGTH);
+        MediaPacket.put(packet, 1L, sequence, unit, 0, unit.length);
+        return packet;
+    }
+
+    private ByteBuffer sentTo(ConferenceMixer.Participant participant) {
+        return sent.remove(participant.endpoint.address);
+    }
+
+    // Quien no envió audio recibe la mezcla en el códec por omisión
+    private static int firstSample(ByteBuffer packet) {
+        int audio = packet.position() + MediaPacket.HEADER_LENGTH;
+        byte[] pcm = AudioCodec.decodeUnit(packet.array(), audio, packet.limit() - audio);
+        assertEquals(2 * ConferenceMixer.TICK_SAMPLES, pcm.length);
+        return (short) ((pcm[0] & 0xFF) | (pcm[1] << 8));
+    }
+
+    @Test
+    void eachParticipantHearsTheOthersClipped() {
+        ConferenceMixer.Participant alice = join("team", "alice");
+        ConferenceMixer.Participant bob = join("team", "bob");
+        ConferenceMixer.Participant carol = join("team", "carol");
+        mixer.receive(alice, packet(AudioCodec.PCM, 0, 1000, 2));
+        mixer.receive(bob, packet(AudioCodec.PCM, 0, 2000, 2));
+        mixer.receive(carol, packet(AudioCodec.PCM, 0, 32000, 2));
+
+        mixer.tick();
+        assertEquals(Short.MAX_VALUE, firstSample(sentTo(alice)));
+        assertEquals(Short.MAX_VALUE, firstSample(sentTo(bob)));
+        assertEquals(3000, firstSample(sentTo(carol)));
+    }
+
+    @Test
+    void aLoneSpeakerGetsNothingAndSilenceEndsWithComfortNoise() {
+        ConferenceMixer.Participant alice = join("team", "alice");
+        ConferenceMixer.Participant bob = join("team", "bob");
+        mixer.receive(alice, packet(AudioCodec.PCM, 0, 500, 2));
+
+        mixer.tick();
+        assertNull(sentTo(alice));
+        assertEquals(500, firstSample(sentTo(bob)));
+        mixer.tick();
+        assertEquals(500, firstSample(sentTo(bob)));
+
+        // Alice dejó de hablar: Bob recibe un marcador de ruido de confort y después nada
+        mixer.tick();
+        ByteBuffer marker = sentTo(bob);
+        assertEquals(AudioCodec.COMFORT_NOISE_ID, marker.get(MediaPacket.HEADER_LENGTH));
+        assertEquals(2, MediaPacket.sequence(marker));
+        mixer.tick();
+        assertNull(sentTo(bob));
+    }
+
+    @Test
+    void lateAndRepeatedPacketsAreDropped() {
+        ConferenceMixer.Participant alice = join("team", "alice");
+        mixer.receive(alice, packet(AudioCodec.PCM, 5, 1, 1));
+        mixer.receive(alice, packet(AudioCodec.PCM, 5, 1, 1));
+        mixer.receive(alice, packet(AudioCodec.PCM, 4, 1, 1));
+        assertEquals(2, mixer.getDroppedPackets());
+    }
+
+    @Test
+    void conferencesAreSeparateAndEmptyOnesAreRemoved() {
+        join("team", "alice");
+        ConferenceMixer.Participant bob = join("team", "bob");
+        ConferenceMixer.Participant carol = join("other", "carol");
+        mixer.receive(carol, packet(AudioCodec.PCM, 0, 700, 2));
+        mixer.tick();
+        assertNull(sentTo(bob));
+
+        assertEquals(List.of("alice", "bob"), mixer.getParticipants("team"));
+        join("other", "bob");
+        assertEquals("other", mixer.getConference("bob"));
+        assertEquals(List.of("alice"), mixer.getParticipants("team"));
+        mixer.leave("alice");
+        assertNull(mixer.getConference("alice"));
+        assertTrue(mixer.getParticipants("team").isEmpty());
+    }
+
+    @Test
+    void fiftyConferencesMixInRealTimeWithoutAllocating() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long[] mixed = new long[1];
+        ConferenceMixer busy = new ConferenceMixer((packet, target) -> mixed[0] += packet.remaining());
+        int conferences = 50;
+        int participantsPerConference = 4;
+        ConferenceMixer.Participant[] participants = new ConferenceMixer.Participant[conferences * participantsPerConference];
+        ByteBuffer[] packets = new ByteBuffer[participants.length];
+        for (int i = 0; i < participants.length; i++) {
+            MediaRelay.Endpoint endpoint = new MediaRelay.Endpoint(i + 1);
+            endpoint.latch(new InetSocketAddress("127.0.0.1", 10_000 + i));
+            participants[i] = busy.join("conference-" + i / participantsPerConference, "user-" + i, endpoint);
+            packets[i] = packet(AudioCodec.ADPCM, 0, 1000 * (i % participantsPerConference + 1), 1);
+        }
+
+        int[] sequence = new int[1];
+        runTicks(busy, participants, packets, sequence, 200); // Calentar el JIT
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long start = System.nanoTime();
+        int ticks = 500;
+        runTicks(busy, participants, packets, sequence, ticks);
+        long elapsedNanos = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        assertEquals(0, busy.getDroppedPackets());
+        assertFalse(mixed[0] == 0);
+        assertTrue(allocated < 1024, "mixer allocated " + allocated + " bytes");
+        double millisPerTick = elapsedNanos / 1e6 / ticks;
+        assertTrue(millisPerTick < ConferenceMixer.TICK_MILLIS, "a tick took " + millisPerTick + " ms");
+    }
+
+    private static void runTicks(ConferenceMixer mixer, ConferenceMixer.Participant[] participants, ByteBuffer[] packets,
+            int[] sequence, int ticks) {
+        for (int tick = 0; tick < ticks; tick++) {
+            int next = sequence[0]++;
+            for (int i = 0; i < participants.length; i++) {
+                packets[i].putInt(8, next);
+                mixer.receive(participants[i], packets[i]);
+            }
+            mixer.tick();
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
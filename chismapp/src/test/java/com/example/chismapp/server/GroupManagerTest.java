@@ -0,0 +1,156 @@
+package com.example.chismapp.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class GroupManagerTest {
+
+    private final ServerConfig config = ServerConfig.fromArgs(new String[0]);
+
+    private final ServerContext context = new ServerContext(config);
+
+    private ClientHandler newClient() {
+        return new ClientHandler(null, context, task -> {});
+    }
+
+    @Test
+    void joiningTwiceKeepsOneMembership() {
+        GroupManager groupManager = new GroupManager();
+        ClientHandler client = newClient();
+        groupManager.createGroup("team", client);
+        groupManager.createGroup("team", client);
+        assertTrue(groupManager.isGroup("team"));
+        assertArrayEquals(new ClientHandler[] {client}, groupManager.snapshotMembers("team"));
+        assertEquals(0, groupManager.snapshotMembers("nobody").length);
+    }
+
+    @Test
+    void snapshotsAreNotChangedByLaterMembershipChanges() {
+        GroupManager groupManager = new GroupManager();
+        ClientHandler first = newClient();
+        ClientHandler second = newClient();
+        groupManager.createGroup("team", first);
+        ClientHandler[] snapshot = groupManager.snapshotMembers("team");
+        groupManager.createGroup("team", second);
+        groupManager.removeUserFromAllGroups(first);
+        assertArrayEquals(new ClientHandler[] {first}, snapshot);
+        assertArrayEquals(new ClientHandler[] {second}, groupManager.snapshotMembers("team"));
+    }
+
+    @Test
+    void concurrentJoinsAndLeavesAreNotLost() throws Exception {
+        GroupManager groupManager = new GroupManager();
+        int threads = 8;
+        int clientsPerThread = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<ClientHandler>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                List<ClientHandler> kept = new ArrayList<>();
+                for (int i = 0; i < clientsPerThread; i++) {
+                    ClientHandler client = newClient();
+                    groupManager.createGroup("shared", client);
+                    groupManager.createGroup("group-" + (i % 4), client);
+                    if (i % 2 == 0) {
+                        groupManager.removeUserFromAllGroups(client);
+                    } else {
+                        kept.add(client);
+                    }
+                }
+                return kept;
+            }));
+        }
+        start.countDown();
+        HashSet<ClientHandler> expected = new HashSet<>();
+        for (Future<List<ClientHandler>> result : results) {
+            expected.addAll(result.get(30, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        HashSet<ClientHandler> members = new HashSet<>(Arrays.asList(groupManager.snapshotMembers("shared")));
+        assertEquals(expected, members);
+        int inSmallGroups = 0;
+        for (int g = 0; g < 4; g++) {
+            inSmallGroups += groupManager.snapshotMembers("group-" + g).length;
+        }
+        assertEquals(expected.size(), inSmallGroups);
+        assertFalse(expected.isEmpty());
+    }
+
+    @Test
+    void lastMemberLeavingReclaimsTheGroup() {
+        GroupManager groupManager = new GroupManager();
+        ClientHandler first = newClient();
+        ClientHandler second = newClient();
+        groupManager.createGroup("team", first);
+        groupManager.createGroup("team", second);
+        groupManager.createGroup("other", first);
+        assertTrue(groupManager.leaveGroup("team", first));
+        assertFalse(groupManager.leaveGroup("team", first));
+        assertTrue(groupManager.isGroup("team"));
+        groupManager.removeUserFromAllGroups(second);
+        assertFalse(groupManager.isGroup("team"));
+        assertEquals(1, groupManager.groupCount());
+        groupManager.removeUserFromAllGroups(first);
+        assertEquals(0, groupManager.groupCount());
+
+        groupManager.createGroup("team", second);
+        assertArrayEquals(new ClientHandler[] {second}, groupManager.snapshotMembers("team"));
+    }
+
+    @Test
+    void joinsRacingWithReclamationAreNotLost() throws Exception {
+        GroupManager groupManager = new GroupManager();
+        int threads = 8;
+        int rounds = 2000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ClientHandler>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(pool.submit(() -> {
+                ClientHandler client = newClient();
+                start.await();
+                for (int i = 0; i < rounds; i++) {
+                    groupManager.createGroup("churn", client);
+                    groupManager.createGroup("churn-" + (i % 3), client);
+                    if (i % 2 == 0) {
+                        groupManager.leaveGroup("churn", client);
+                    }
+                    groupManager.removeUserFromAllGroups(client);
+                }
+                groupManager.createGroup("churn", client);
+                return client;
+            }));
+        }
+        start.countDown();
+        HashSet<ClientHandler> expected = new HashSet<>();
+        for (Future<ClientHandler> result : results) {
+            expected.add(result.get(30, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        HashSet<ClientHandler> members = new HashSet<>(Arrays.asList(groupManager.snapshotMembers("churn")));
+        assertEquals(expected, members);
+        assertEquals(1, groupManager.groupCount());
+        for (ClientHandler client : expected) {
+            groupManager.removeUserFromAllGroups(client);
+        }
+        assertEquals(0, groupManager.groupCount());
+    }
+}
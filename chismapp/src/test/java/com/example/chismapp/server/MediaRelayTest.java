@@ -0,0 +1,98 @@
+package com.example.chismapp.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.chismapp.util.MediaPacket;
+
+class MediaRelayTest {
+
+    private MediaRelay relay;
+    private DatagramSocket alice;
+    private DatagramSocket bob;
+
+    @BeforeEach
+    void start() throws IOException {
+        relay = new MediaRelay("127.0.0.1", 0);
+        relay.start();
+        alice = newSocket();
+        bob = newSocket();
+    }
+
+    @AfterEach
+    void stop() {
+        alice.close();
+        bob.close();
+        relay.close();
+    }
+
+    private static DatagramSocket newSocket() throws IOException {
+        DatagramSocket socket = new DatagramSocket(0);
+        socket.setSoTimeout(2_000);
+        return socket;
+    }
+
+    private void send(DatagramSocket socket, long token, int sequence, byte... audio) throws IOException {
+        ByteBuffer packet = ByteBuffer.allocate(MediaPacket.MAX_PACKET_LENGTH);
+        MediaPacket.put(packet, token, sequence, audio, 0, audio.length);
+        socket.send(new DatagramPacket(packet.array(), packet.limit(), new InetSocketAddress("127.0.0.1", relay.getPort())));
+    }
+
+    private static ByteBuffer receive(DatagramSocket socket) throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[MediaPacket.MAX_PACKET_LENGTH], MediaPacket.MAX_PACKET_LENGTH);
+        socket.receive(packet);
+        return ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+    }
+
+    @Test
+    void audioIsForwardedToTheOtherParticipant() throws IOException {
+        MediaRelay.Session session = relay.open("alice", "bob");
+        send(bob, session.recipient.token, 0);
+        send(alice, session.caller.token, 7, (byte) 1, (byte) 2, (byte) 3);
+
+        ByteBuffer packet = receive(bob);
+        assertEquals(0L, MediaPacket.token(packet));
+        assertEquals(7, MediaPacket.sequence(packet));
+        assertArrayEquals(new byte[] {1, 2, 3}, Arrays.copyOfRange(packet.array(), MediaPacket.HEADER_LENGTH, packet.limit()));
+
+        send(bob, session.recipient.token, 1, (byte) 4);
+        assertEquals(1, MediaPacket.sequence(receive(alice)));
+    }
+
+    @Test
+    void packetsFromAnotherAddressAreDropped() throws IOException {
+        MediaRelay.Session session = relay.open("alice", "bob");
+        send(bob, session.recipient.token, 0);
+        send(alice, session.caller.token, 0, (byte) 1);
+        receive(bob);
+
+        try (DatagramSocket intruder = newSocket()) {
+            send(intruder, session.caller.token, 1, (byte) 9);
+        }
+        assertThrows(SocketTimeoutException.class, () -> receive(bob));
+        assertEquals(1, relay.getDroppedPackets());
+    }
+
+    @Test
+    void closedSessionsStopForwarding() throws IOException {
+        MediaRelay.Session session = relay.open("alice", "bob");
+        send(bob, session.recipient.token, 0);
+        relay.closeSession("bob");
+        send(alice, session.caller.token, 0, (byte) 1);
+        assertThrows(SocketTimeoutException.class, () -> receive(bob));
+        assertEquals(0, relay.getForwardedPackets());
+    }
+}
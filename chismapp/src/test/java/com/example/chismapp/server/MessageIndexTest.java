@@ -0,0 +1,60 @@
+package com.example.chismapp.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MessageIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void splitsTextIntoLowercaseWords() {
+        assertEquals(List.of("hola", "año", "2024", "ok"), MessageIndex.words("¡Hola, AÑO 2024! ok..."));
+        assertEquals(List.of(), MessageIndex.words("  ?! "));
+    }
+
+    @Test
+    void findsTheNewestMessagesAcrossSegments() throws Exception {
+        MessageIndex index = new MessageIndex(directory, 100);
+        index.open();
+        for (int i = 0; i < 1_000; i++) {
+            // Cada décimo mensaje del grupo habla de pizza; los directos nunca se buscan por el grupo
+            if (i % 2 == 0) {
+                index.add(i, MessageLog.GROUP, "team", "[team] alice: " + (i % 10 == 0 ? "pizza tonight" : "hello"));
+            } else {
+                index.add(i, MessageLog.DIRECT, "bob", "[Direct Message] carol: pizza " + i);
+            }
+        }
+        assertTrue(index.segmentCount() >= 9);
+
+        assertEquals(List.of(990L, 980L, 970L), index.search(List.of("pizza"), List.of("group:team"), 3));
+        assertEquals(100, index.search(List.of("pizza", "tonight"), List.of("group:team"), 1_000).size());
+        assertEquals(List.of(999L), index.search(List.of("from:carol", "999"), List.of("dm:bob"), 5));
+        assertEquals(List.of(), index.search(List.of("pizza"), List.of("dm:alice", "group:other"), 5));
+        // Los dos ámbitos se unen, del más nuevo al más antiguo
+        assertEquals(List.of(993L, 991L, 990L, 989L), index.search(List.of("pizza"), List.of("group:team", "dm:bob"), 7).subList(3, 7));
+    }
+
+    @Test
+    void reopensTheSegmentsWrittenBefore() throws Exception {
+        MessageIndex index = new MessageIndex(directory, 100);
+        index.open();
+        for (int i = 0; i < 250; i++) {
+            index.add(i, MessageLog.GROUP, "team", "[team] alice: message " + i);
+        }
+        index.flush();
+
+        MessageIndex reopened = new MessageIndex(directory, 100);
+        reopened.open();
+        assertEquals(250, reopened.getNextOffset());
+        assertEquals(List.of(249L), reopened.search(List.of("249"), List.of("group:team"), 5));
+        assertEquals(List.of(120L), reopened.search(List.of("from:alice", "120"), List.of("group:team"), 5));
+    }
+}
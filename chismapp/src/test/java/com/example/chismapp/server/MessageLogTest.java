@@ -0,0 +1,243 @@
+package com.example.chismapp.server;
+
+import static com.example.chismapp.server.ChatSockets.expect;
+import static com.example.chismapp.server.ChatSockets.reader;
+import static com.example.chismapp.server.ChatSockets.visit;
+import static com.example.chismapp.server.ChatSockets.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MessageLogTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private static String text(TextMessage message) {
+        ByteBuffer frame = message.frameFor(false).view();
+        byte[] line = new byte[frame.remaining() - 1];
+        frame.get(line);
+        return new String(line, StandardCharsets.UTF_8);
+    }
+
+    private static String append(MessageLog log, byte kind, String target, String line) {
+        TextMessage message = TextMessage.chat(line.getBytes(StandardCharsets.UTF_8));
+        TextMessage logged = log.append(kind, target, message);
+        assertNotSame(message, logged);
+        String tagged = text(logged);
+        logged.release();
+        message.release();
+        return tagged;
+    }
+
+    // Reproduce para un usuario y devuelve las líneas recibidas seguidas de REPLAY_END
+    private static List<String> replay(MessageLog log, long after, String userName, Set<String> groups)
+            throws Exception {
+        List<String> lines = new ArrayList<>();
+        CompletableFuture<Long> end = new CompletableFuture<>();
+        log.replay(after, userName, groups, new MessageLog.ReplayListener() {
+            @Override
+            public boolean onMessage(TextMessage message) {
+                lines.add(text(message));
+                message.release();
+                return true;
+            }
+
+            @Override
+            public void onEnd(long last) {
+                end.complete(last);
+            }
+        });
+        lines.add("REPLAY_END:" + end.get(10, TimeUnit.SECONDS));
+        return lines;
+    }
+
+    @Test
+    void disabledLogKeepsNothing() throws Exception {
+        MessageLog log = new MessageLog(null);
+        log.start();
+        TextMessage message = TextMessage.chat("hola".getBytes(StandardCharsets.UTF_8));
+        assertSame(message, log.append(MessageLog.DIRECT, "bob", message));
+        log.close();
+    }
+
+    @Test
+    void replaysTheMessagesOfAUserAcrossSegments() throws Exception {
+        MessageLog log = new MessageLog(directory, SEGMENT_SIZE);
+        log.start();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            // Alterna mensajes para bob, para su grupo y para otros que no debe recibir
+            switch (i % 4) {
+                case 0 -> expected.add(append(log, MessageLog.DIRECT, "bob", "[Direct Message] alice: " + i));
+                case 1 -> expected.add(append(log, MessageLog.GROUP, "team", "[team] alice: " + i));
+                case 2 -> append(log, MessageLog.DIRECT, "carol", "[Direct Message] alice: " + i);
+                default -> append(log, MessageLog.GROUP, "other", "[other] alice: " + i);
+            }
+        }
+        assertEquals("MSG:0:[Direct Message] alice: 0", expected.get(0));
+
+        List<String> all = replay(log, -1, "bob", Set.of("team"));
+        assertEquals(expected, all.subList(0, all.size() - 1));
+        assertEquals("REPLAY_END:4999", all.get(all.size() - 1));
+        // La reproducción esperó al escritor, así que todos los segmentos ya existen
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.filter(path -> path.toString().endsWith(".log")).count() > 2);
+        }
+
+        // Desde un offset a mitad del registro, que el índice disperso localiza sin leer lo anterior
+        List<String> tail = replay(log, 3_999, "bob", Set.of("team"));
+        assertEquals(expected.subList(2_000, expected.size()), tail.subList(0, tail.size() - 1));
+        log.close();
+    }
+
+    @Test
+    void recoversTheLogAfterARestart() throws Exception {
+        MessageLog log = new MessageLog(directory, SEGMENT_SIZE);
+        log.start();
+        for (int i = 0; i < 2_000; i++) {
+            append(log, MessageLog.GROUP, "team", "[team] alice: " + i);
+        }
+        log.close();
+
+        MessageLog reopened = new MessageLog(directory, SEGMENT_SIZE);
+        reopened.start();
+        assertEquals(2_000, reopened.getNextOffset());
+        assertEquals("MSG:2000:[team] bob: back", append(reopened, MessageLog.GROUP, "team", "[team] bob: back"));
+        List<String> lines = replay(reopened, 1_997, "bob", Set.of("team"));
+        assertEquals(List.of("MSG:1998:[team] alice: 1998", "MSG:1999:[team] alice: 1999",
+                "MSG:2000:[team] bob: back", "REPLAY_END:2000"), lines);
+        reopened.close();
+    }
+
+    @Test
+    void appendsDoNotWaitForTheDisk() throws Exception {
+        MessageLog log = new MessageLog(directory);
+        log.start();
+        byte[] line = "[team] alice: a message of a usual length for this chat".getBytes(StandardCharsets.UTF_8);
+        TextMessage message = TextMessage.chat(line);
+        int count = 200_000;
+        long start = System.nanoTime();
+        int logged = 0;
+        for (int i = 0; i < count; i++) {
+            TextMessage tagged = log.append(MessageLog.GROUP, "team", message);
+            if (tagged != message) {
+                tagged.release();
+                logged++;
+            }
+        }
+        // Si el escritor se atrasa y la cola se llena, los mensajes salen sin registrar y se cuentan
+        assertEquals(count, logged + log.getDroppedRecords());
+        assertEquals(logged, log.getNextOffset());
+        // La reproducción espera a que el escritor haya guardado todo lo añadido
+        List<String> last = replay(log, logged - 2, "bob", Set.of("team"));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(List.of("MSG:" + (logged - 1) + ":[team] alice: a message of a usual length for this chat",
+                "REPLAY_END:" + (logged - 1)), last);
+        // 100.000 mensajes por segundo como mínimo, con margen para máquinas lentas
+        assertTrue(millis < 2 * count / 100, count + " messages took " + millis + " ms");
+        log.close();
+    }
+
+    @Test
+    void aClientGetsWhatItMissedWhenItComesBack() throws Exception {
+        ChatServer server = ChatServer.start(ServerConfig.fromArgs(new String[] {"--message-log=" + directory}));
+        try (Socket alice = new Socket("127.0.0.1", server.getPort())) {
+            alice.setSoTimeout(10_000);
+            BufferedReader aliceIn = reader(alice);
+            OutputStream aliceOut = alice.getOutputStream();
+            write(aliceOut, "USERNAME:alice");
+            expect(aliceIn, "SYSTEM: Welcome alice!");
+            write(aliceOut, "/group team");
+            expect(aliceIn, "SYSTEM: You have created/joined the group: team");
+
+            // Bob estuvo y se fue: el mensaje directo se guarda y el de grupo también
+            visit(server, "bob");
+            write(aliceOut, "/dm bob are you there?");
+            expect(aliceIn, "SYSTEM: User bob is offline");
+            write(aliceOut, "/message team hello team");
+            assertEquals("MSG:1:[team] alice: hello team", expect(aliceIn, "MSG:"));
+
+            try (Socket bob = new Socket("127.0.0.1", server.getPort())) {
+                bob.setSoTimeout(10_000);
+                BufferedReader bobIn = reader(bob);
+                OutputStream bobOut = bob.getOutputStream();
+                write(bobOut, "USERNAME:bob");
+                expect(bobIn, "SYSTEM: Welcome bob!");
+                write(bobOut, "/group team");
+                write(bobOut, "REPLAY:-1");
+                assertEquals("MSG:0:[Direct Message] alice: are you there?", expect(bobIn, "MSG:"));
+                assertEquals("MSG:1:[team] alice: hello team", expect(bobIn, "MSG:"));
+                assertEquals("REPLAY_END:1", expect(bobIn, "REPLAY_END:"));
+
+                // Los mensajes en vivo siguen con el offset siguiente
+                write(aliceOut, "/dm bob welcome back");
+                assertEquals("MSG:2:[Direct Message] alice: welcome back", expect(bobIn, "MSG:"));
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void searchesTheMessagesAUserCanRead() throws Exception {
+        ChatServer server = ChatServer.start(ServerConfig.fromArgs(new String[] {"--message-log=" + directory}));
+        try (Socket alice = new Socket("127.0.0.1", server.getPort())) {
+            alice.setSoTimeout(10_000);
+            BufferedReader aliceIn = reader(alice);
+            OutputStream aliceOut = alice.getOutputStream();
+            write(aliceOut, "USERNAME:alice");
+            expect(aliceIn, "SYSTEM: Welcome alice!");
+            write(aliceOut, "/group team");
+            expect(aliceIn, "SYSTEM: You have created/joined the group: team");
+            write(aliceOut, "/message team Pizza tonight?");
+            expect(aliceIn, "MSG:");
+            visit(server, "carol");
+            write(aliceOut, "/dm carol pizza is for team members");
+            expect(aliceIn, "SYSTEM: User carol is offline");
+
+            write(aliceOut, "/search pizza");
+            assertEquals("SEARCH:1:[Direct Message] alice: pizza is for team members", expect(aliceIn, "SEARCH:"));
+            assertEquals("SEARCH:0:[team] alice: Pizza tonight?", expect(aliceIn, "SEARCH:"));
+            assertEquals("SYSTEM: 2 messages found.", expect(aliceIn, "SYSTEM: 2"));
+            write(aliceOut, "/search pizza group:team from:alice");
+            assertEquals("SEARCH:0:[team] alice: Pizza tonight?", expect(aliceIn, "SEARCH:"));
+            assertEquals("SYSTEM: 1 messages found.", expect(aliceIn, "SYSTEM: 1"));
+
+            // Quien no está en el grupo ni recibió el mensaje directo no encuentra nada
+            try (Socket bob = new Socket("127.0.0.1", server.getPort())) {
+                bob.setSoTimeout(10_000);
+                BufferedReader bobIn = reader(bob);
+                OutputStream bobOut = bob.getOutputStream();
+                write(bobOut, "USERNAME:bob");
+                expect(bobIn, "SYSTEM: Welcome bob!");
+                write(bobOut, "/search pizza");
+                assertEquals("SYSTEM: 0 messages found.", expect(bobIn, "SYSTEM: 0"));
+                write(bobOut, "/search pizza group:team");
+                assertEquals("SYSTEM: You are not a member of the group: team", expect(bobIn, "SYSTEM: You are not"));
+            }
+        } finally {
+            server.close();
+        }
+    }
+}
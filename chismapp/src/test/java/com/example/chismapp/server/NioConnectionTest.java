@@ -0,0 +1,172 @@
+package com.example.chismapp.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.chismapp.util.WireProtocol;
+
+class NioConnectionTest {
+
+    private final ServerContext context = new ServerContext(ServerConfig.fromArgs(new String[0]));
+    private ServerSocketChannel listener;
+
+    @BeforeEach
+    void listen() throws IOException {
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    @AfterEach
+    void closeListener() throws IOException {
+        listener.close();
+    }
+
+    private SocketChannel connect() throws IOException {
+        return SocketChannel.open(listener.getLocalAddress());
+    }
+
+    private static void write(SocketChannel channel, byte[] data, int from, int to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, from, to - from);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Escribe cada trozo por separado y lo lee con su propia llamada a onReadable
+    private static void feed(NioConnection connection, SocketChannel client, byte[] data, int... cuts) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        int from = 0;
+        for (int i = 0; i <= cuts.length; i++) {
+            int to = i < cuts.length ? cuts[i] : data.length;
+            write(client, data, from, to);
+            connection.onReadable(buffer);
+            from = to;
+        }
+    }
+
+    @Test
+    void linesSplitAcrossReadsAreJoined() throws IOException {
+        Reactor reactor = new Reactor(0, context);
+        try (SocketChannel client = connect(); SocketChannel server = listener.accept()) {
+            NioConnection connection = new NioConnection(reactor, server);
+            RecordingHandler handler = new RecordingHandler(connection, context);
+            connection.attach(handler, null);
+
+            byte[] data = "hel|lo\r\nwor|ld\nfin\n".replace("|", "").getBytes(StandardCharsets.UTF_8);
+            feed(connection, client, data, 3, 10);
+            assertEquals(List.of("hello", "world", "fin"), handler.received);
+        }
+    }
+
+    @Test
+    void framesSplitAcrossReadsAreJoined() throws IOException {
+        Reactor reactor = new Reactor(0, context);
+        try (SocketChannel client = connect(); SocketChannel server = listener.accept()) {
+            NioConnection connection = new NioConnection(reactor, server);
+            RecordingHandler handler = new RecordingHandler(connection, context);
+            handler.binary = true;
+            connection.attach(handler, null);
+
+            ByteBuffer first = WireProtocol.encodeText("hola a todos");
+            ByteBuffer second = WireProtocol.encodeText("chao");
+            byte[] data = new byte[first.remaining() + second.remaining()];
+            first.get(data, 0, first.remaining());
+            second.get(data, data.length - second.remaining(), second.remaining());
+            // Cortes dentro de la cabecera, dentro del cuerpo y entre las dos tramas
+            feed(connection, client, data, 2, 9, 19);
+            assertEquals(List.of(WireProtocol.TEXT + ":hola a todos", WireProtocol.TEXT + ":chao"), handler.received);
+        }
+    }
+
+    @Test
+    void aFailingHandlerOnlyClosesItsConnection() throws Exception {
+        Reactor reactor = new Reactor(0, context);
+        reactor.start();
+        try (SocketChannel failing = connect(); SocketChannel healthy = connect()) {
+            RecordingHandler[] handlers = new RecordingHandler[2];
+            // El reactor crea los handlers en su hilo; se espera a que estén antes de usarlos
+            CountDownLatch registered = new CountDownLatch(handlers.length);
+            for (int i = 0; i < handlers.length; i++) {
+                int index = i;
+                reactor.register(listener.accept(), connection -> {
+                    handlers[index] = new RecordingHandler(connection, context);
+                    registered.countDown();
+                    return handlers[index];
+                });
+            }
+            assertTrue(registered.await(10, TimeUnit.SECONDS));
+            byte[] boom = "boom\n".getBytes(StandardCharsets.UTF_8);
+            write(failing, boom, 0, boom.length);
+            assertTrue(handlers[0].disconnected.await(10, TimeUnit.SECONDS));
+            // El otro cliente del mismo reactor sigue siendo atendido
+            byte[] ping = "ping\n".getBytes(StandardCharsets.UTF_8);
+            write(healthy, ping, 0, ping.length);
+            assertTrue(handlers[1].awaitReceived(1));
+            assertEquals(List.of("ping"), handlers[1].received);
+            assertEquals(1, handlers[1].disconnected.getCount());
+            // La conexión que falló quedó cerrada
+            assertEquals(-1, failing.read(ByteBuffer.allocate(16)));
+        } finally {
+            reactor.shutdown();
+        }
+    }
+
+    // Handler que registra lo que recibe en lugar de atender comandos; "boom" hace que falle
+    private static final class RecordingHandler extends ClientHandler {
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        volatile boolean binary;
+
+        RecordingHandler(NioConnection connection, ServerContext context) {
+            super(connection, context);
+        }
+
+        @Override
+        void handleCommand(byte[] input, int offset, int length) {
+            String line = new String(input, offset, length, StandardCharsets.UTF_8);
+            if (line.equals("boom")) {
+                throw new IllegalArgumentException("boom");
+            }
+            received.add(line);
+        }
+
+        @Override
+        void handleFrame(byte type, byte[] payload, int offset, int length) {
+            received.add(type + ":" + new String(Arrays.copyOfRange(payload, offset, offset + length), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        boolean isBinaryProtocol() {
+            return binary;
+        }
+
+        @Override
+        void handleDisconnect() {
+            disconnected.countDown();
+        }
+
+        boolean awaitReceived(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (received.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            return received.size() >= count;
+        }
+    }
+}
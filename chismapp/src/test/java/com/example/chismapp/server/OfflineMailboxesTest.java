@@ -0,0 +1,269 @@
+package com.example.chismapp.server;
+
+import static com.example.chismapp.server.ChatSockets.expect;
+import static com.example.chismapp.server.ChatSockets.reader;
+import static com.example.chismapp.server.ChatSockets.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OfflineMailboxesTest {
+
+    @TempDir
+    Path directory;
+
+    private static TextMessage chat(String line) {
+        return TextMessage.chat(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void deliversASpilledMailboxInOrderInAFewBatches() throws Exception {
+        OfflineMailboxes mailboxes = new OfflineMailboxes(true, directory, 100);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            String line = "[Direct Message] alice: message " + i;
+            TextMessage message = chat(line);
+            mailboxes.post("bob", message);
+            message.release();
+            expected.add(line);
+        }
+        assertEquals(10_000, mailboxes.size("bob"));
+        // Solo los primeros 100 quedan en memoria; el resto está en el archivo
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.filter(path -> path.toString().endsWith(".spill")).count());
+        }
+
+        List<String> received = new ArrayList<>();
+        int[] batches = new int[1];
+        CompletableFuture<Integer> end = new CompletableFuture<>();
+        mailboxes.deliver("bob", new OfflineMailboxes.Recipient() {
+            @Override
+            public boolean send(SharedMessage batch) {
+                batches[0]++;
+                ByteBuffer frame = batch.frameFor(false).view();
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+                    received.add(line);
+                }
+                return true;
+            }
+
+            @Override
+            public void onEnd(int delivered, int dropped) {
+                end.complete(delivered);
+            }
+        });
+        assertEquals(10_000, end.get(10, TimeUnit.SECONDS));
+        assertEquals(expected, received);
+        assertTrue(batches[0] <= 10, batches[0] + " batches");
+        assertEquals(0, mailboxes.size("bob"));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+        mailboxes.close();
+    }
+
+    @Test
+    void aClientThatStopsAcceptingLosesTheRestOfItsMailbox() throws Exception {
+        OfflineMailboxes mailboxes = new OfflineMailboxes(true, directory, 10);
+        String padding = "x".repeat(1000);
+        for (int i = 0; i < 1000; i++) {
+            TextMessage message = chat("[Direct Message] alice: " + i + " " + padding);
+            mailboxes.post("bob", message);
+            message.release();
+        }
+        // El cliente acepta la primera tanda y rechaza la segunda: el archivo no se sigue leyendo
+        int[] batches = new int[1];
+        CompletableFuture<int[]> end = new CompletableFuture<>();
+        mailboxes.deliver("bob", new OfflineMailboxes.Recipient() {
+            @Override
+            public boolean send(SharedMessage batch) {
+                return ++batches[0] == 1;
+            }
+
+            @Override
+            public void onEnd(int delivered, int dropped) {
+                end.complete(new int[] {delivered, dropped});
+            }
+        });
+        int[] counts = end.get(10, TimeUnit.SECONDS);
+        assertEquals(2, batches[0]);
+        assertTrue(counts[0] > 0 && counts[0] < 100, counts[0] + " delivered");
+        assertEquals(1000, counts[0] + counts[1]);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+        mailboxes.close();
+    }
+
+    @Test
+    void aStalledDeliveryDoesNotHoldBackTheOthers() throws Exception {
+        OfflineMailboxes mailboxes = new OfflineMailboxes(true, directory, 100);
+        TextMessage message = chat("[Direct Message] alice: hola");
+        mailboxes.post("bob", message);
+        mailboxes.post("carol", message);
+        message.release();
+        // El cliente de bob no avanza hasta que carol haya recibido su buzón
+        CountDownLatch carolDone = new CountDownLatch(1);
+        CompletableFuture<Integer> bobEnd = new CompletableFuture<>();
+        mailboxes.deliver("bob", new OfflineMailboxes.Recipient() {
+            @Override
+            public boolean send(SharedMessage batch) {
+                try {
+                    return carolDone.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            public void onEnd(int delivered, int dropped) {
+                bobEnd.complete(delivered);
+            }
+        });
+        mailboxes.deliver("carol", new OfflineMailboxes.Recipient() {
+            @Override
+            public boolean send(SharedMessage batch) {
+                return true;
+            }
+
+            @Override
+            public void onEnd(int delivered, int dropped) {
+                carolDone.countDown();
+            }
+        });
+        assertTrue(carolDone.await(5, TimeUnit.SECONDS));
+        assertEquals(1, bobEnd.get(10, TimeUnit.SECONDS));
+        mailboxes.close();
+    }
+
+    @Test
+    void theMailboxesOfUsersWhoDoNotComeBackExpire() throws Exception {
+        OfflineMailboxes mailboxes = new OfflineMailboxes(true, directory, 100, TimeUnit.MILLISECONDS.toNanos(50));
+        TextMessage message = chat("[team] alice: hola");
+        mailboxes.left("bob", List.of("team"));
+        mailboxes.postToGroup("team", message);
+        assertEquals(1, mailboxes.size("bob"));
+        Thread.sleep(100);
+        // El siguiente mensaje barre lo vencido: bob pierde su buzón y el grupo deja de guardarle mensajes
+        assertTrue(mailboxes.post("carol", message));
+        assertEquals(0, mailboxes.size("bob"));
+        mailboxes.postToGroup("team", message);
+        assertEquals(0, mailboxes.size("bob"));
+        assertEquals(1, mailboxes.size("carol"));
+        message.release();
+        mailboxes.close();
+    }
+
+    @Test
+    void theNumberOfMailboxesIsBounded() {
+        OfflineMailboxes mailboxes = new OfflineMailboxes(true, directory, 100);
+        TextMessage message = chat("[Direct Message] alice: hola");
+        for (int i = 0; i < OfflineMailboxes.MAX_MAILBOXES; i++) {
+            assertTrue(mailboxes.post("user" + i, message));
+        }
+        assertFalse(mailboxes.post("one-too-many", message));
+        // Quien ya tiene buzón sigue recibiendo
+        assertTrue(mailboxes.post("user0", message));
+        assertEquals(2, mailboxes.size("user0"));
+        message.release();
+        mailboxes.close();
+    }
+
+    @Test
+    void aUserWhoNeverLoggedInIsNotFound() throws Exception {
+        ChatServer server = ChatServer.start(ServerConfig.fromArgs(new String[] {"--mailbox-dir=" + directory}));
+        try (Socket alice = new Socket("127.0.0.1", server.getPort())) {
+            alice.setSoTimeout(10_000);
+            BufferedReader aliceIn = reader(alice);
+            OutputStream aliceOut = alice.getOutputStream();
+            write(aliceOut, "USERNAME:alice");
+            expect(aliceIn, "SYSTEM: Welcome alice!");
+            // Un nombre mal escrito no crea un buzón
+            write(aliceOut, "/dm bbo hola");
+            assertEquals("SYSTEM: User bbo not found.", expect(aliceIn, "SYSTEM: User"));
+            assertEquals(0, server.getContext().getOfflineMailboxes().size("bbo"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void aDisabledMailboxKeepsNothing() {
+        OfflineMailboxes mailboxes = new OfflineMailboxes(false, directory, 100);
+        TextMessage message = chat("[Direct Message] alice: hola");
+        assertTrue(!mailboxes.post("bob", message));
+        message.release();
+        assertEquals(0, mailboxes.size("bob"));
+    }
+
+    @Test
+    void aUserGetsItsMailboxWhenItLogsIn() throws Exception {
+        ChatServer server = ChatServer.start(ServerConfig.fromArgs(new String[] {
+                "--mailbox-dir=" + directory, "--mailbox-memory=4"}));
+        try (Socket alice = new Socket("127.0.0.1", server.getPort())) {
+            alice.setSoTimeout(10_000);
+            BufferedReader aliceIn = reader(alice);
+            OutputStream aliceOut = alice.getOutputStream();
+            write(aliceOut, "USERNAME:alice");
+            expect(aliceIn, "SYSTEM: Welcome alice!");
+            write(aliceOut, "/group team");
+            expect(aliceIn, "SYSTEM: You have created/joined the group: team");
+
+            try (Socket bob = new Socket("127.0.0.1", server.getPort())) {
+                bob.setSoTimeout(10_000);
+                BufferedReader bobIn = reader(bob);
+                OutputStream bobOut = bob.getOutputStream();
+                write(bobOut, "USERNAME:bob");
+                expect(bobIn, "SYSTEM: Welcome bob!");
+                write(bobOut, "/group team");
+                expect(bobIn, "SYSTEM: You have created/joined the group: team");
+            }
+            // Bob se fue del chat sin salir del grupo: sus mensajes lo esperan
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (server.getContext().getUsers().containsKey("bob") && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                write(aliceOut, "/dm bob direct " + i);
+                expect(aliceIn, "SYSTEM: User bob is offline");
+                expected.add("[Direct Message] alice: direct " + i);
+                write(aliceOut, "/message team group " + i);
+                expect(aliceIn, "[team] alice: group " + i);
+                expected.add("[team] alice: group " + i);
+            }
+
+            try (Socket bob = new Socket("127.0.0.1", server.getPort())) {
+                bob.setSoTimeout(10_000);
+                BufferedReader bobIn = reader(bob);
+                write(bob.getOutputStream(), "USERNAME:bob");
+                expect(bobIn, "SYSTEM: Welcome bob!");
+                for (String line : expected) {
+                    assertEquals(line, expect(bobIn, "["));
+                }
+                assertEquals("SYSTEM: 20 messages arrived while you were offline.", expect(bobIn, "SYSTEM: 20"));
+            }
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.chismapp.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class OutboundQueueTest {
+
+    private static SharedFrame frame(String content) {
+        SharedFrame frame = SharedFrame.allocate(content.length());
+        frame.buffer().put(content.getBytes(StandardCharsets.UTF_8));
+        return frame.seal();
+    }
+
+    // Encola una trama y suelta la referencia del remitente, como hacen los handlers
+    private static boolean offer(OutboundQueue queue, String content, boolean voice, boolean mayBlock) {
+        SharedFrame frame = frame(content);
+        boolean accepted = queue.offer(frame, voice, mayBlock);
+        frame.release();
+        return accepted;
+    }
+
+    private static List<String> drain(OutboundQueue queue) {
+        List<String> contents = new ArrayList<>();
+        SharedFrame frame;
+        while ((frame = queue.poll()) != null) {
+            ByteBuffer view = frame.view();
+            byte[] bytes = new byte[view.remaining()];
+            view.get(bytes);
+            contents.add(new String(bytes, StandardCharsets.UTF_8));
+            frame.release();
+        }
+        return contents;
+    }
+
+    @Test
+    void disconnectRejectsAFrameThatDoesNotFit() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DISCONNECT, 0);
+        assertTrue(offer(queue, "a", false, true));
+        assertTrue(offer(queue, "v", true, true));
+        assertEquals(2, queue.depth());
+        assertFalse(offer(queue, "b", false, true));
+        assertEquals(List.of("a", "v"), drain(queue));
+        assertEquals(0, queue.getDroppedFrames());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void dropOldestVoiceMakesRoomByDroppingVoice() {
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.DROP_OLDEST_VOICE, 0);
+        assertTrue(offer(queue, "v1", true, false));
+        assertTrue(offer(queue, "a", false, false));
+        assertTrue(offer(queue, "v2", true, false));
+        // La voz más antigua sale para dejar entrar el texto
+        assertTrue(offer(queue, "b", false, false));
+        assertEquals(1, queue.getDroppedFrames());
+        assertEquals(3, queue.depth());
+        assertEquals(List.of("a", "v2", "b"), drain(queue));
+
+        assertTrue(offer(queue, "c", false, false));
+        assertTrue(offer(queue, "d", false, false));
+        assertTrue(offer(queue, "e", false, false));
+        // Sin voz que sacar, una voz nueva se descarta y un texto desconecta al cliente
+        assertTrue(offer(queue, "v3", true, false));
+        assertEquals(2, queue.getDroppedFrames());
+        assertFalse(offer(queue, "f", false, false));
+        assertEquals(List.of("c", "d", "e"), drain(queue));
+    }
+
+    @Test
+    void blockWaitsForTheWriterToMakeRoom() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.BLOCK, 10_000);
+        assertTrue(offer(queue, "a", false, true));
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> offer(queue, "b", false, true));
+        Thread.sleep(100);
+        assertFalse(blocked.isDone());
+        SharedFrame head = queue.poll();
+        head.release();
+        assertTrue(blocked.get(10, TimeUnit.SECONDS));
+        assertEquals(List.of("b"), drain(queue));
+    }
+
+    @Test
+    void blockGivesUpAfterTheTimeoutOrOnAReactorThread() {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.BLOCK, 50);
+        assertTrue(offer(queue, "a", false, true));
+        long start = System.nanoTime();
+        assertFalse(offer(queue, "b", false, true));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        // Quien no puede esperar se rinde de inmediato
+        assertFalse(offer(queue, "c", false, false));
+        assertEquals(1, queue.depth());
+        assertEquals(0, queue.getDroppedFrames());
+    }
+
+    @Test
+    void closeReleasesThePendingFrames() throws Exception {
+        OutboundQueue queue = new OutboundQueue(4, OverflowPolicy.DISCONNECT, 0);
+        SharedFrame frame = frame("a");
+        queue.offer(frame, false, true);
+        queue.close();
+        assertTrue(queue.isClosed());
+        assertEquals(0, queue.depth());
+        assertNull(queue.take());
+        // Un cliente que se fue acepta y olvida lo que le envían
+        assertTrue(queue.offer(frame, false, true));
+        frame.release();
+        assertThrows(IllegalStateException.class, frame::retain);
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.chismapp.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class PresenceManagerTest {
+
+    @Test
+    void changesOfOneTickAreCoalesced() {
+        PresenceManager presence = new PresenceManager(List::of);
+        presence.userJoined("ana");
+        presence.userJoined("luis");
+        presence.userJoined("eva");
+        presence.userLeft("eva");
+        assertEquals("PRESENCE_DELTA:1:+ana,+luis", presence.drainDelta());
+        assertNull(presence.drainDelta());
+
+        presence.userLeft("ana");
+        presence.userJoined("ana");
+        presence.userLeft("luis");
+        assertEquals("PRESENCE_DELTA:2:-luis", presence.drainDelta());
+    }
+
+    @Test
+    void snapshotCarriesTheLastPublishedSequence() {
+        PresenceManager presence = new PresenceManager(List::of);
+        assertEquals("PRESENCE:0:", presence.snapshot());
+        presence.userJoined("ana");
+        assertEquals("PRESENCE:0:", presence.snapshot());
+        presence.drainDelta();
+        presence.userJoined("luis");
+        presence.drainDelta();
+        assertEquals("PRESENCE:2:ana,luis", presence.snapshot());
+    }
+
+    @Test
+    void leavesOfUnknownUsersAreIgnored() {
+        PresenceManager presence = new PresenceManager(List::of);
+        presence.userLeft("ghost");
+        assertNull(presence.drainDelta());
+        assertEquals("PRESENCE:0:", presence.snapshot());
+    }
+}
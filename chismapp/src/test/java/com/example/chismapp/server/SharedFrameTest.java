@@ -0,0 +1,89 @@
+package com.example.chismapp.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.chismapp.util.WireProtocol;
+
+class SharedFrameTest {
+
+    private static String text(ByteBuffer view) {
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void viewsAreIndependent() {
+        SharedFrame frame = SharedFrame.allocate(5);
+        frame.buffer().put("hello".getBytes(StandardCharsets.UTF_8));
+        frame.seal();
+        ByteBuffer first = frame.view();
+        ByteBuffer second = frame.view();
+        first.get(new byte[3]);
+        assertEquals(2, first.remaining());
+        assertEquals("hello", text(second));
+        assertTrue(first.isDirect());
+        frame.release();
+    }
+
+    @Test
+    void releasingTooOftenFails() {
+        SharedFrame frame = SharedFrame.allocate(10).seal();
+        frame.retain();
+        frame.release();
+        frame.release();
+        assertThrows(IllegalStateException.class, frame::retain);
+        assertThrows(IllegalStateException.class, frame::release);
+    }
+
+    @Test
+    void largeFramesAreNotPooled() {
+        SharedFrame frame = SharedFrame.allocate(SharedFrame.MAX_POOLED_SIZE + 1);
+        assertFalse(frame.buffer().isDirect());
+        frame.release();
+    }
+
+    @Test
+    void textMessageIsEncodedOncePerProtocol() {
+        TextMessage message = TextMessage.of("[team] ana: hola");
+        SharedFrame line = message.frameFor(false);
+        SharedFrame binary = message.frameFor(true);
+        assertSame(line, message.frameFor(false));
+        assertSame(binary, message.frameFor(true));
+        assertNotSame(line, binary);
+        assertEquals("[team] ana: hola\n", text(line.view()));
+        ByteBuffer frame = binary.view();
+        assertEquals(WireProtocol.TEXT, frame.get());
+        assertEquals(16, frame.getInt());
+        assertEquals("[team] ana: hola", text(frame));
+        message.release();
+        assertThrows(IllegalStateException.class, () -> message.frameFor(false));
+    }
+
+    @Test
+    void queueKeepsFramesAliveUntilWritten() {
+        OutboundQueue queue = new OutboundQueue(4, OverflowPolicy.DISCONNECT, 0);
+        TextMessage message = TextMessage.of("hello");
+        SharedFrame frame = message.frameFor(false);
+        assertTrue(queue.offer(frame, false, false));
+        assertTrue(queue.offer(frame, false, false));
+        message.release();
+
+        SharedFrame written = queue.poll();
+        assertEquals("hello\n", text(written.view()));
+        written.release();
+        queue.close();
+        // La cola soltó su última referencia al cerrarse
+        assertThrows(IllegalStateException.class, frame::retain);
+    }
+}
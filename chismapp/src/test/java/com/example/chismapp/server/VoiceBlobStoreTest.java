@@ -0,0 +1,213 @@
+package com.example.chismapp.server;
+
+import static com.example.chismapp.server.ChatSockets.expect;
+import static com.example.chismapp.server.ChatSockets.reader;
+import static com.example.chismapp.server.ChatSockets.write;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.example.chismapp.client.VoiceBlobCache;
+import com.example.chismapp.util.AudioCodec;
+import com.example.chismapp.util.VoiceNoteChunk;
+
+class VoiceBlobStoreTest {
+
+    @TempDir
+    Path directory;
+
+    // Seis segundos y cuarto de audio a 16 kHz y 16 bits
+    private static byte[] pcm() {
+        byte[] pcm = new byte[200_000];
+        for (int i = 0; i < pcm.length; i += 2) {
+            short sample = (short) (Math.sin(i / 40.0) * 8000);
+            pcm[i] = (byte) sample;
+            pcm[i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    // Entrega el mensaje al almacén y espera a que el escritor lo guarde
+    private static String collect(VoiceBlobStore store, String target, byte[] audio) throws InterruptedException {
+        VoiceMessage voice = VoiceMessage.fromAudio("alice", audio);
+        String[] ref = new String[1];
+        store.collect(target, voice, message -> ref[0] = new String(message.line(), StandardCharsets.UTF_8));
+        voice.release();
+        store.awaitWritten();
+        return ref[0];
+    }
+
+    @Test
+    void aNoteIsStoredOnceAndDownloadedInRanges() throws Exception {
+        VoiceBlobStore store = new VoiceBlobStore(directory, 0);
+        store.start();
+        try {
+            byte[] pcm = pcm();
+            byte[] unit = AudioCodec.PCM.encodeUnit(pcm, 0, pcm.length);
+            String ref = collect(store, "bob", unit);
+            String[] fields = ref.split(":");
+            assertEquals(VoiceBlobStore.REF_PREFIX, fields[0] + ":");
+            assertEquals("alice", fields[2]);
+            assertEquals("6250", fields[3]);
+            // La misma nota enviada a un grupo es el mismo blob
+            assertEquals(ref, collect(store, "team", unit));
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(1, files.count());
+            }
+
+            VoiceBlobCache cache = new VoiceBlobCache("127.0.0.1", store.getPort(), 1024 * 1024);
+            byte[] blob = cache.fetch(fields[1]);
+            assertEquals(4 + unit.length, blob.length);
+            assertArrayEquals(pcm, VoiceBlobCache.decode(blob));
+            // La segunda vez sale de la caché
+            assertTrue(blob == cache.fetch(fields[1]));
+            assertEquals(1, cache.getHits());
+            assertThrows(FileNotFoundException.class, () -> cache.fetch("0123456789abcdef0123456789abcdef"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void aNegativeRangeClosesTheConnection() throws Exception {
+        VoiceBlobStore store = new VoiceBlobStore(directory, 0);
+        store.start();
+        try {
+            byte[] pcm = pcm();
+            String id = collect(store, "bob", AudioCodec.PCM.encodeUnit(pcm, 0, pcm.length)).split(":")[1];
+            for (String range : new String[] {"-1 16", "0 -16"}) {
+                try (Socket client = new Socket("127.0.0.1", store.getPort())) {
+                    client.setSoTimeout(10_000);
+                    write(client.getOutputStream(), "GET " + id + " " + range);
+                    // Sin cabecera: el almacén cierra la conexión en lugar de responder el rango
+                    assertEquals(-1, client.getInputStream().read(), range);
+                }
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void idleConnectionsAreClosedAndFreeTheirThreads() throws Exception {
+        VoiceBlobStore store = new VoiceBlobStore(directory, 0, 200);
+        store.start();
+        List<Socket> idle = new ArrayList<>();
+        try {
+            byte[] pcm = pcm();
+            String id = collect(store, "bob", AudioCodec.PCM.encodeUnit(pcm, 0, pcm.length)).split(":")[1];
+            // Conexiones que no piden nada ocupan todos los hilos de descarga
+            for (int i = 0; i < VoiceBlobStore.DOWNLOAD_THREADS; i++) {
+                Socket client = new Socket("127.0.0.1", store.getPort());
+                client.setSoTimeout(10_000);
+                idle.add(client);
+            }
+            try (Socket client = new Socket("127.0.0.1", store.getPort())) {
+                client.setSoTimeout(10_000);
+                write(client.getOutputStream(), "GET " + id + " 0 16");
+                DataInputStream in = new DataInputStream(client.getInputStream());
+                assertTrue(in.readLong() > 0);
+                assertEquals(16, in.readInt());
+            }
+            for (Socket client : idle) {
+                assertEquals(-1, client.getInputStream().read());
+            }
+        } finally {
+            for (Socket client : idle) {
+                client.close();
+            }
+            store.close();
+        }
+    }
+
+    @Test
+    void chunksAndPartsAreReferencedOnceTheNoteEnds() throws Exception {
+        VoiceBlobStore store = new VoiceBlobStore(directory, 0);
+        store.start();
+        try {
+            byte[] pcm = pcm();
+            // Nota grabada en trozos: la referencia llega con el último
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            int step = 80_000;
+            String ref = null;
+            for (int offset = 0, index = 0; offset < pcm.length; offset += step, index++) {
+                int length = Math.min(step, pcm.length - offset);
+                boolean last = offset + length == pcm.length;
+                byte[] chunk = VoiceNoteChunk.encode(7, index, last, AudioCodec.ULAW, pcm, offset, length);
+                expected.writeBytes(AudioCodec.decodeUnit(chunk, VoiceNoteChunk.HEADER_LENGTH,
+                        chunk.length - VoiceNoteChunk.HEADER_LENGTH));
+                ref = collect(store, "bob", chunk);
+                assertEquals(last, ref != null);
+            }
+            assertEquals("6250", ref.split(":")[3]);
+            VoiceBlobCache cache = new VoiceBlobCache("127.0.0.1", store.getPort(), 1024 * 1024);
+            assertArrayEquals(expected.toByteArray(), VoiceBlobCache.decode(cache.fetch(ref.split(":")[1])));
+
+            // Nota larga que el servidor reenvía en partes: se decodifica entera al final
+            byte[] unit = AudioCodec.ADPCM.encodeUnit(pcm, 0, pcm.length);
+            int partLength = 24 * 1024;
+            ref = null;
+            for (int offset = 0, index = 0; offset < unit.length; offset += partLength, index++) {
+                int length = Math.min(partLength, unit.length - offset);
+                byte[] part = new byte[VoiceNoteChunk.HEADER_LENGTH + length];
+                VoiceNoteChunk.putPartHeader(part, 0, 3, index, offset + length == unit.length);
+                System.arraycopy(unit, offset, part, VoiceNoteChunk.HEADER_LENGTH, length);
+                assertNull(ref);
+                ref = collect(store, "team", part);
+            }
+            assertEquals("6250", ref.split(":")[3]);
+            byte[] decoded = VoiceBlobCache.decode(cache.fetch(ref.split(":")[1]));
+            assertTrue(Arrays.equals(AudioCodec.decodeUnit(unit, 0, unit.length), decoded));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void recipientsGetAReferenceInsteadOfTheAudio() throws Exception {
+        ChatServer server = ChatServer.start(ServerConfig.fromArgs(new String[] {"--voice-store=" + directory}));
+        try (Socket alice = new Socket("127.0.0.1", server.getPort());
+                Socket bob = new Socket("127.0.0.1", server.getPort())) {
+            alice.setSoTimeout(10_000);
+            bob.setSoTimeout(10_000);
+            BufferedReader aliceIn = reader(alice);
+            BufferedReader bobIn = reader(bob);
+            OutputStream aliceOut = alice.getOutputStream();
+            write(aliceOut, "USERNAME:alice");
+            expect(aliceIn, "SYSTEM: Welcome alice!");
+            write(bob.getOutputStream(), "USERNAME:bob");
+            expect(bobIn, "SYSTEM: Welcome bob!");
+            int port = Integer.parseInt(expect(bobIn, VoiceBlobStore.STORE_PREFIX).substring(VoiceBlobStore.STORE_PREFIX.length()));
+
+            byte[] pcm = pcm();
+            byte[] unit = AudioCodec.ULAW.encodeUnit(pcm, 0, pcm.length);
+            write(aliceOut, "VOICE:bob:" + Base64.getEncoder().encodeToString(unit));
+            String[] ref = expect(bobIn, VoiceBlobStore.REF_PREFIX).split(":");
+            assertEquals("alice", ref[2]);
+            VoiceBlobCache cache = new VoiceBlobCache("127.0.0.1", port, 1024 * 1024);
+            assertArrayEquals(AudioCodec.decodeUnit(unit, 0, unit.length), VoiceBlobCache.decode(cache.fetch(ref[1])));
+        } finally {
+            server.close();
+        }
+    }
+}
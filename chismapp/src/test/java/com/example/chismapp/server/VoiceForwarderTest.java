@@ -0,0 +1,187 @@
+package com.example.chismapp.server;
+
+import static com.example.chismapp.server.ChatSockets.expect;
+import static com.example.chismapp.server.ChatSockets.reader;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.chismapp.util.FrameReader;
+import com.example.chismapp.util.VoiceNoteChunk;
+import com.example.chismapp.util.WireProtocol;
+
+class VoiceForwarderTest {
+
+    private final List<byte[]> pieces = new ArrayList<>();
+
+    private VoiceForwarder forwarder() {
+        return new VoiceForwarder("alice", "bob", (recipient, voice) -> {
+            assertEquals("bob", recipient);
+            // La pieza se recupera de la trama binaria: [VOICE][largo][largo del nombre][alice][pieza]
+            ByteBuffer frame = voice.frameFor(true).view();
+            int audioStart = WireProtocol.HEADER_LENGTH + 1 + "alice".length();
+            byte[] piece = new byte[frame.remaining() - audioStart];
+            frame.position(audioStart).get(piece);
+            pieces.add(piece);
+            voice.release();
+            return true;
+        });
+    }
+
+    private static byte[] note(int length) {
+        byte[] note = new byte[length];
+        new Random(7).nextBytes(note);
+        return note;
+    }
+
+    // Une las piezas y comprueba su número, su orden y que solo la última lo diga
+    private static byte[] join(List<byte[]> pieces) {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < pieces.size(); i++) {
+            byte[] piece = pieces.get(i);
+            assertTrue(VoiceNoteChunk.isChunk(piece, 0, piece.length) && VoiceNoteChunk.isPart(piece, 0));
+            assertEquals(i, VoiceNoteChunk.index(piece, 0));
+            assertEquals(i == pieces.size() - 1, VoiceNoteChunk.isLast(piece, 0));
+            assertTrue(piece.length <= VoiceNoteChunk.HEADER_LENGTH + VoiceForwarder.PIECE_LENGTH);
+            joined.write(piece, VoiceNoteChunk.HEADER_LENGTH, piece.length - VoiceNoteChunk.HEADER_LENGTH);
+        }
+        return joined.toByteArray();
+    }
+
+    @Test
+    void audioIsForwardedInBoundedPieces() {
+        byte[] note = note(10 * VoiceForwarder.PIECE_LENGTH + 123);
+        VoiceForwarder forwarder = forwarder();
+        for (int offset = 0; offset < note.length; offset += 7_001) {
+            forwarder.appendAudio(note, offset, Math.min(7_001, note.length - offset));
+        }
+        assertTrue(forwarder.finish());
+        assertEquals(11, pieces.size());
+        assertArrayEquals(note, join(pieces));
+    }
+
+    @Test
+    void base64IsDecodedAsItArrives() {
+        byte[] note = note(3 * VoiceForwarder.PIECE_LENGTH);
+        byte[] text = (Base64.getEncoder().encodeToString(note) + "\r").getBytes(StandardCharsets.US_ASCII);
+        VoiceForwarder forwarder = forwarder();
+        // Trozos que no coinciden con los grupos de cuatro caracteres
+        for (int offset = 0; offset < text.length; offset += 1_001) {
+            forwarder.appendBase64(text, offset, Math.min(1_001, text.length - offset));
+        }
+        assertTrue(forwarder.finish());
+        assertEquals(3, pieces.size());
+        assertArrayEquals(note, join(pieces));
+    }
+
+    @Test
+    void malformedBase64StopsTheNote() {
+        VoiceForwarder forwarder = forwarder();
+        byte[] text = "QUJD*not-base64*".getBytes(StandardCharsets.US_ASCII);
+        forwarder.appendBase64(text, 0, text.length);
+        assertFalse(forwarder.finish());
+        assertTrue(pieces.isEmpty());
+    }
+
+    @Test
+    void longVoiceLinesAreForwardedInPiecesByTheReactor() throws Exception {
+        forwardsALongNote("nio", false);
+    }
+
+    @Test
+    void longVoiceLinesAreForwardedInPiecesByThePool() throws Exception {
+        forwardsALongNote("pool", false);
+    }
+
+    @Test
+    void longVoiceFramesAreForwardedInPiecesByTheReactor() throws Exception {
+        forwardsALongNote("nio", true);
+    }
+
+    @Test
+    void longVoiceFramesAreForwardedInPiecesByThePool() throws Exception {
+        forwardsALongNote("pool", true);
+    }
+
+    private static void forwardsALongNote(String engine, boolean binary) throws Exception {
+        byte[] note = note(1024 * 1024);
+        ChatServer server = ChatServer.start(ServerConfig.fromArgs(new String[] {"--engine=" + engine}));
+        try (Socket sender = new Socket("127.0.0.1", server.getPort());
+                Socket receiver = new Socket("127.0.0.1", server.getPort())) {
+            receiver.setSoTimeout(10_000);
+            BufferedReader in = reader(receiver);
+            receiver.getOutputStream().write("USERNAME:bob\n".getBytes(StandardCharsets.UTF_8));
+            expect(in, "SYSTEM: Welcome bob!");
+
+            OutputStream out = sender.getOutputStream();
+            String handshake = binary ? WireProtocol.HANDSHAKE_SUFFIX : "";
+            out.write(("USERNAME:alice" + handshake + "\n").getBytes(StandardCharsets.UTF_8));
+            expect(reader(sender), binary ? WireProtocol.HANDSHAKE_ACK : "SYSTEM: Welcome alice!");
+            if (binary) {
+                ByteBuffer frame = WireProtocol.encodeVoice("bob", note, 0, note.length);
+                out.write(frame.array(), 0, frame.limit());
+            } else {
+                String line = "VOICE:bob:" + Base64.getEncoder().encodeToString(note) + "\n";
+                out.write(line.getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+
+            // Bob recibe la nota en líneas VOICE acotadas, cada una con una parte
+            List<byte[]> received = new ArrayList<>();
+            do {
+                String line = expect(in, "VOICE:alice:");
+                assertTrue(line.length() < SharedFrame.MAX_POOLED_SIZE, "line of " + line.length() + " bytes");
+                received.add(Base64.getDecoder().decode(line.substring("VOICE:alice:".length())));
+            } while (!VoiceNoteChunk.isLast(received.get(received.size() - 1), 0));
+            assertArrayEquals(note, join(received));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void aMalformedVoiceLineIsRejectedBeforeItReachesTheRecipient() throws Exception {
+        ChatServer server = ChatServer.start(ServerConfig.fromArgs(new String[] {"--engine=nio"}));
+        try (Socket alice = new Socket("127.0.0.1", server.getPort());
+                Socket bob = new Socket("127.0.0.1", server.getPort())) {
+            alice.setSoTimeout(10_000);
+            bob.setSoTimeout(10_000);
+            alice.getOutputStream().write(("USERNAME:alice" + WireProtocol.HANDSHAKE_SUFFIX + "\n").getBytes(StandardCharsets.UTF_8));
+            FrameReader aliceIn = new FrameReader(alice.getInputStream());
+            assertTrue(aliceIn.readLine());
+            assertEquals(WireProtocol.HANDSHAKE_ACK, new String(aliceIn.getPayload(), 0, aliceIn.getPayloadLength(), StandardCharsets.UTF_8));
+            BufferedReader bobIn = reader(bob);
+            OutputStream bobOut = bob.getOutputStream();
+            bobOut.write("USERNAME:bob\n".getBytes(StandardCharsets.UTF_8));
+            expect(bobIn, "SYSTEM: Welcome bob!");
+
+            // El audio inválido se rechaza al remitente en lugar de fallar en el envío a Alice
+            bobOut.write("VOICE:alice:!!!!\n".getBytes(StandardCharsets.UTF_8));
+            expect(bobIn, "SYSTEM: Malformed VOICE message.");
+            bobOut.write("/dm alice hello\n".getBytes(StandardCharsets.UTF_8));
+            String line;
+            do {
+                assertTrue(aliceIn.readFrame());
+                assertEquals(WireProtocol.TEXT, aliceIn.getFrameType());
+                line = new String(aliceIn.getPayload(), 0, aliceIn.getPayloadLength(), StandardCharsets.UTF_8);
+            } while (!line.startsWith("[Direct Message]"));
+            assertEquals("[Direct Message] bob: hello", line);
+        } finally {
+            server.close();
+        }
+    }
+}
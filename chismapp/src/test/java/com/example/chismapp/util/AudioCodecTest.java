@@ -0,0 +1,82 @@
+package com.example.chismapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class AudioCodecTest {
+
+    // Un tono de 440 Hz en PCM de 16 kHz y 16 bits little-endian, como el que entrega el micrófono
+    private static byte[] tone(int samples) {
+        byte[] pcm = new byte[2 * samples];
+        for (int i = 0; i < samples; i++) {
+            int sample = (int) (8000 * Math.sin(2 * Math.PI * 440 * i / 16000.0));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    // Relación señal a ruido en dB entre el audio original y el decodificado
+    private static double snr(byte[] original, byte[] decoded) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < original.length; i += 2) {
+            int expected = (short) ((original[i] & 0xFF) | (original[i + 1] << 8));
+            int actual = (short) ((decoded[i] & 0xFF) | (decoded[i + 1] << 8));
+            signal += (double) expected * expected;
+            noise += (double) (expected - actual) * (expected - actual);
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1));
+    }
+
+    @Test
+    void everyCodecRoundTripsWithinItsQuality() {
+        byte[] pcm = tone(512);
+        assertArrayEquals(pcm, AudioCodec.decodeUnit(AudioCodec.PCM.encodeUnit(pcm, 0, pcm.length), 0, 1 + pcm.length));
+        for (AudioCodec codec : new AudioCodec[] {AudioCodec.ULAW, AudioCodec.ALAW, AudioCodec.ADPCM}) {
+            byte[] unit = codec.encodeUnit(pcm, 0, pcm.length);
+            byte[] decoded = AudioCodec.decodeUnit(unit, 0, unit.length);
+            assertEquals(pcm.length, decoded.length, codec.name());
+            assertTrue(snr(pcm, decoded) > 20, codec + " SNR " + snr(pcm, decoded));
+        }
+    }
+
+    @Test
+    void codecsCompressTheAudio() {
+        assertEquals(512, AudioCodec.ULAW.encodedLength(1024));
+        assertEquals(512, AudioCodec.ALAW.encodedLength(1024));
+        assertTrue(AudioCodec.ADPCM.encodedLength(1024) <= 1024 / 4 + 4);
+    }
+
+    @Test
+    void adpcmKeepsOddSampleCounts() {
+        for (int samples = 1; samples < 6; samples++) {
+            byte[] pcm = tone(samples);
+            byte[] unit = AudioCodec.ADPCM.encodeUnit(pcm, 0, pcm.length);
+            assertEquals(pcm.length, AudioCodec.decodeUnit(unit, 0, unit.length).length, samples + " samples");
+        }
+    }
+
+    @Test
+    void companderExtremesSurvive() {
+        byte[] pcm = {0, (byte) 0x80, (byte) 0xFF, 0x7F, 0, 0};
+        for (AudioCodec codec : new AudioCodec[] {AudioCodec.ULAW, AudioCodec.ALAW}) {
+            byte[] decoded = AudioCodec.decodeUnit(codec.encodeUnit(pcm, 0, pcm.length), 0, 4);
+            assertTrue((short) ((decoded[0] & 0xFF) | (decoded[1] << 8)) < -31000, codec.name());
+            assertTrue((short) ((decoded[2] & 0xFF) | (decoded[3] << 8)) > 31000, codec.name());
+            assertTrue(Math.abs((short) ((decoded[4] & 0xFF) | (decoded[5] << 8))) < 16, codec.name());
+        }
+    }
+
+    @Test
+    void unitsNameTheirCodec() {
+        assertSame(AudioCodec.ADPCM, AudioCodec.fromName("AdPcm", AudioCodec.PCM));
+        assertSame(AudioCodec.ULAW, AudioCodec.fromName("opus", AudioCodec.ULAW));
+        assertThrows(IllegalArgumentException.class, () -> AudioCodec.decodeUnit(new byte[] {9, 0}, 0, 2));
+    }
+}
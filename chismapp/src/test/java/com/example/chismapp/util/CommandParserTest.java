@@ -0,0 +1,130 @@
+package com.example.chismapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+class CommandParserTest {
+
+    private static final int ITERATIONS = 200_000;
+
+    private final CommandTable table;
+    private final CommandTable.Command group;
+    private final CommandTable.Command message;
+    private final CommandTable.Command voice;
+    private final CommandTable.Command userName;
+
+    CommandParserTest() {
+        CommandTable.Builder builder = CommandTable.builder();
+        userName = builder.rest("USERNAME:");
+        group = builder.split("/group", ' ', 2);
+        message = builder.split("/message", ' ', 3);
+        voice = builder.split("VOICE:", ':', 3);
+        table = builder.build();
+    }
+
+    @Test
+    void recognizesCommandsByPrefix() {
+        CommandParser parser = new CommandParser(table);
+        assertSame(group, parser.parse("/group friends"));
+        assertSame(message, parser.parse("/message friends hi"));
+        assertSame(userName, parser.parse("USERNAME:alice"));
+        assertNull(parser.parse("/unknown"));
+        assertNull(parser.parse(""));
+        assertNull(parser.parse("/gro"));
+    }
+
+    @Test
+    void splitsLikeStringSplitWithLimit() {
+        CommandParser parser = new CommandParser(table);
+        String[] lines = {
+                "/message friends hello there  ", "/message friends", "/message", "/message  friends hi",
+                "VOICE:bob:AAEC:extra", "VOICE:bob", "/group  spaced name ", "/group"
+        };
+        for (String line : lines) {
+            CommandTable.Command command = parser.parse(line);
+            String[] parts = line.split(command == voice ? ":" : " ", command == group ? 2 : 3);
+            assertEquals(parts.length - 1, parser.argumentCount(), line);
+            for (int i = 1; i < parts.length; i++) {
+                assertEquals(parts[i].trim(), parser.argument(i - 1), line);
+            }
+        }
+    }
+
+    @Test
+    void restKeepsEverythingAfterThePrefix() {
+        CommandParser parser = new CommandParser(table);
+        parser.parse("USERNAME: alice;proto=bin/1 ");
+        assertEquals(1, parser.argumentCount());
+        assertEquals("alice;proto=bin/1", parser.argument(0));
+        assertTrue(parser.hasArgument(0));
+        parser.parse("USERNAME:");
+        assertFalse(parser.hasArgument(0));
+    }
+
+    @Test
+    void argumentsAreViewsIntoTheInput() {
+        CommandParser parser = new CommandParser(table);
+        byte[] input = "xx/message team héllo wörld".getBytes(StandardCharsets.UTF_8);
+        assertSame(message, parser.parse(input, 2, input.length - 2));
+        assertSame(input, parser.buffer());
+        assertEquals(16, parser.argumentOffset(1));
+        assertEquals("héllo wörld", parser.argument(1));
+        assertEquals("team", parser.name(0));
+    }
+
+    @Test
+    void namesAreCached() {
+        CommandParser parser = new CommandParser(table);
+        parser.parse("/message team one");
+        String first = parser.name(0);
+        parser.parse("/message team two");
+        assertSame(first, parser.name(0));
+        parser.parse("/message other two");
+        assertEquals("other", parser.name(0));
+    }
+
+    @Test
+    void parsingHotCommandsDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        CommandParser parser = new CommandParser(table);
+        byte[] groupMessage = "/message friends hello everybody, how are you?".getBytes(StandardCharsets.UTF_8);
+        byte[] voiceMessage = ("VOICE:friends:" + "QUJD".repeat(400)).getBytes(StandardCharsets.UTF_8);
+
+        long sink = parseLoop(parser, groupMessage, voiceMessage); // Calentar el JIT
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        sink += parseLoop(parser, groupMessage, voiceMessage);
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        assertTrue(sink > 0);
+        assertTrue(allocated < 1024, "parser allocated " + allocated + " bytes");
+    }
+
+    private static long parseLoop(CommandParser parser, byte[] groupMessage, byte[] voiceMessage) {
+        long sink = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            parser.parse(groupMessage, 0, groupMessage.length);
+            sink += parser.name(0).length() + parser.argumentLength(1);
+            parser.parse(voiceMessage, 0, voiceMessage.length);
+            sink += parser.name(0).length() + parser.argumentLength(1);
+        }
+        return sink;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
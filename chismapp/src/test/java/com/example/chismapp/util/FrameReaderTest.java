@@ -0,0 +1,91 @@
+package com.example.chismapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class FrameReaderTest {
+
+    private static void put(ByteArrayOutputStream out, ByteBuffer frame) {
+        out.write(frame.array(), frame.position(), frame.remaining());
+    }
+
+    // Entrega un byte por lectura, para que cada cabecera y cada cuerpo lleguen partidos
+    private static InputStream trickle(byte[] data) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(1, length));
+            }
+        };
+    }
+
+    private static String payload(FrameReader reader) {
+        return new String(reader.getPayload(), 0, reader.getPayloadLength(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void linesAndFramesRoundTrip() throws Exception {
+        byte[] audio = new byte[3000];
+        for (int i = 0; i < audio.length; i++) {
+            audio[i] = (byte) i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(("USERNAME:ana" + WireProtocol.HANDSHAKE_SUFFIX + "\r\n").getBytes(StandardCharsets.UTF_8));
+        put(out, WireProtocol.encodeText("[team] ana: hola"));
+        put(out, WireProtocol.encodeVoice("bob", audio, 0, audio.length));
+        put(out, WireProtocol.encodeText(""));
+
+        FrameReader reader = new FrameReader(trickle(out.toByteArray()));
+        assertTrue(reader.readLine());
+        assertEquals("USERNAME:ana" + WireProtocol.HANDSHAKE_SUFFIX, payload(reader));
+        // Después del handshake la misma entrada se lee como tramas
+        assertTrue(reader.readFrame());
+        assertEquals(WireProtocol.TEXT, reader.getFrameType());
+        assertEquals("[team] ana: hola", payload(reader));
+        assertTrue(reader.readFrame());
+        assertEquals(WireProtocol.VOICE, reader.getFrameType());
+        byte[] payload = reader.getPayload();
+        int nameLength = WireProtocol.voiceNameLength(payload, 0);
+        assertEquals("bob", new String(payload, 1, nameLength, StandardCharsets.UTF_8));
+        assertArrayEquals(audio, Arrays.copyOfRange(payload, 1 + nameLength, reader.getPayloadLength()));
+        assertTrue(reader.readFrame());
+        assertEquals(0, reader.getPayloadLength());
+        assertFalse(reader.readFrame());
+    }
+
+    @Test
+    void payloadLengthIsBounded() throws Exception {
+        byte[] header = new byte[WireProtocol.HEADER_LENGTH];
+        ByteBuffer.wrap(header).put(WireProtocol.TEXT).putInt(WireProtocol.MAX_PAYLOAD_LENGTH);
+        assertEquals(WireProtocol.MAX_PAYLOAD_LENGTH, WireProtocol.payloadLength(header, 0));
+        ByteBuffer.wrap(header).put(WireProtocol.TEXT).putInt(WireProtocol.MAX_PAYLOAD_LENGTH + 1);
+        assertThrows(ProtocolException.class, () -> WireProtocol.payloadLength(header, 0));
+        ByteBuffer.wrap(header).put(WireProtocol.TEXT).putInt(-1);
+        assertThrows(ProtocolException.class, () -> WireProtocol.payloadLength(header, 0));
+        // El lector rechaza la cabecera antes de reservar el cuerpo
+        assertThrows(ProtocolException.class, () -> new FrameReader(new ByteArrayInputStream(header)).readFrame());
+    }
+
+    @Test
+    void aTruncatedFrameEndsWithEofException() {
+        ByteBuffer frame = WireProtocol.encodeText("una línea que no termina");
+        byte[] body = Arrays.copyOf(frame.array(), frame.remaining() - 1);
+        assertThrows(EOFException.class, () -> new FrameReader(trickle(body)).readFrame());
+        byte[] header = Arrays.copyOf(frame.array(), WireProtocol.HEADER_LENGTH - 2);
+        assertThrows(EOFException.class, () -> new FrameReader(trickle(header)).readFrame());
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.chismapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistorialRecorderTest {
+
+    @TempDir
+    Path directory;
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> listing = Files.list(directory)) {
+            return listing.sorted().toList();
+        }
+    }
+
+    @Test
+    void entriesAreAppendedToTheFile() throws Exception {
+        HistorialRecorder recorder = new HistorialRecorder(directory, 1024 * 1024, Long.MAX_VALUE);
+        recorder.addMessage("alice", eTypeRecord.STARTED_CONNECTION);
+        recorder.addMessage("alice sent message to the group team", eTypeRecord.TEXT);
+        recorder.generate();
+        recorder.addMessage("[team] bob: hola", eTypeRecord.RECEIVED);
+        recorder.generate();
+
+        // Cada /historical solo vuelca lo pendiente: el archivo conserva todo lo anterior
+        List<String> lines = Files.readAllLines(directory.resolve("Historical.txt"), StandardCharsets.UTF_8);
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).startsWith("-----"));
+        assertTrue(lines.get(1).startsWith("Initialicing connextion at time: ") && lines.get(1).endsWith("alice"));
+        assertEquals("Text:  alice sent message to the group team", lines.get(2));
+        assertEquals("[team] bob: hola", lines.get(3));
+    }
+
+    @Test
+    void aFullFileIsRotated() throws Exception {
+        HistorialRecorder recorder = new HistorialRecorder(directory, 1024, Long.MAX_VALUE);
+        String message = "x".repeat(99);
+        for (int i = 0; i < 50; i++) {
+            recorder.addMessage(message, eTypeRecord.RECEIVED);
+        }
+        recorder.generate();
+
+        // 5.000 bytes en archivos de algo más de 1 KB
+        List<Path> files = files();
+        assertTrue(files.size() >= 4, "files: " + files);
+        long entries = 0;
+        for (Path file : files) {
+            assertTrue(Files.size(file) <= 1024 + 100 + 57, file + " has " + Files.size(file) + " bytes");
+            entries += Files.readAllLines(file).stream().filter(message::equals).count();
+        }
+        assertEquals(50, entries);
+    }
+
+    @Test
+    void anOldFileIsRotated() throws Exception {
+        HistorialRecorder recorder = new HistorialRecorder(directory, Long.MAX_VALUE, 50);
+        recorder.addMessage("first", eTypeRecord.RECEIVED);
+        recorder.generate();
+        Thread.sleep(100);
+        recorder.addMessage("second", eTypeRecord.RECEIVED);
+        recorder.generate();
+
+        assertEquals(2, files().size());
+        List<String> current = Files.readAllLines(directory.resolve("Historical.txt"));
+        assertEquals("second", current.get(current.size() - 1));
+    }
+}
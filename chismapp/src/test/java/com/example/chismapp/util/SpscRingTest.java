@@ -0,0 +1,59 @@
+package com.example.chismapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class SpscRingTest {
+
+    @Test
+    void keepsOrderAndRejectsWhenFull() {
+        SpscRing<String> ring = new SpscRing<>(3);
+        assertEquals(4, ring.capacity());
+        assertNull(ring.poll());
+        for (String element : new String[] {"a", "b", "c", "d"}) {
+            assertTrue(ring.offer(element));
+        }
+        assertFalse(ring.offer("e"));
+        assertEquals(4, ring.size());
+        assertEquals("a", ring.poll());
+        assertTrue(ring.offer("e"));
+        assertEquals("b", ring.poll());
+        assertEquals("c", ring.poll());
+        assertEquals("d", ring.poll());
+        assertEquals("e", ring.poll());
+        assertNull(ring.poll());
+    }
+
+    @Test
+    @Timeout(30)
+    void handsElementsOverBetweenTwoThreadsInOrder() throws InterruptedException {
+        Integer[] elements = new Integer[20_000];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = i;
+        }
+        SpscRing<Integer> ring = new SpscRing<>(64);
+        Thread producer = new Thread(() -> {
+            for (Integer element : elements) {
+                while (!ring.offer(element)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        for (Integer expected : elements) {
+            Integer element;
+            while ((element = ring.poll()) == null) {
+                Thread.yield();
+            }
+            assertSame(expected, element);
+        }
+        producer.join();
+        assertNull(ring.poll());
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.chismapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TCPConnectionTest {
+
+    private ServerSocket server;
+    private Socket peer;
+    private TCPConnection connection;
+
+    @BeforeEach
+    void connect() throws Exception {
+        server = new ServerSocket(0);
+        connection = new TCPConnection();
+        connection.initAsClient("127.0.0.1", server.getLocalPort());
+        peer = server.accept();
+        peer.setSoTimeout(10_000);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        connection.close();
+        peer.close();
+        server.close();
+    }
+
+    @Test
+    void messagesArriveInOrderAndShareFlushes() throws Exception {
+        int count = 5_000;
+        for (int i = 0; i < count - 1; i++) {
+            connection.sendMessage("/message team " + i);
+        }
+        CompletableFuture<Void> last = connection.sendAsync("/message team " + (count - 1));
+        last.get(10, TimeUnit.SECONDS);
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(peer.getInputStream(), StandardCharsets.UTF_8));
+        for (int i = 0; i < count; i++) {
+            assertEquals("/message team " + i, in.readLine());
+        }
+        // Los mensajes encolados mientras se escribía salieron juntos
+        assertTrue(connection.getBatchesWritten() < count, "batches " + connection.getBatchesWritten());
+    }
+
+    @Test
+    void theConnectionSwitchesToFramesWhenTheServerAcceptsThem() throws Exception {
+        List<String> messages = new CopyOnWriteArrayList<>();
+        CompletableFuture<byte[]> voice = new CompletableFuture<>();
+        connection.setListener(messages::add);
+        connection.setVoiceListener((sender, audio, offset, length) ->
+                voice.complete((sender + ":" + new String(audio, offset, length, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8)));
+        connection.start();
+        CompletableFuture<Void> handshake = CompletableFuture.runAsync(() -> connection.sendHandshake("ana", true));
+
+        FrameReader in = new FrameReader(peer.getInputStream());
+        assertTrue(in.readLine());
+        assertEquals("USERNAME:ana" + WireProtocol.HANDSHAKE_SUFFIX,
+                new String(in.getPayload(), 0, in.getPayloadLength(), StandardCharsets.UTF_8));
+        // La confirmación es la última línea; lo que sigue son tramas
+        OutputStream out = peer.getOutputStream();
+        out.write((WireProtocol.HANDSHAKE_ACK + "\n").getBytes(StandardCharsets.UTF_8));
+        ByteBuffer welcome = WireProtocol.encodeText("SYSTEM: Welcome ana!");
+        out.write(welcome.array(), 0, welcome.limit());
+        byte[] audio = "audio".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer note = WireProtocol.encodeVoice("bob", audio, 0, audio.length);
+        out.write(note.array(), 0, note.limit());
+        out.flush();
+        handshake.get(10, TimeUnit.SECONDS);
+
+        assertEquals("bob:audio", new String(voice.get(10, TimeUnit.SECONDS), StandardCharsets.UTF_8));
+        assertEquals(List.of("SYSTEM: Welcome ana!"), messages);
+        // Los mensajes del cliente también viajan ya en tramas
+        connection.sendMessage("/who");
+        assertTrue(in.readFrame());
+        assertEquals(WireProtocol.TEXT, in.getFrameType());
+        assertEquals("/who", new String(in.getPayload(), 0, in.getPayloadLength(), StandardCharsets.UTF_8));
+        // El lector termina con el fin del flujo entre tramas, antes de cerrar la conexión
+        peer.shutdownOutput();
+        connection.join(10_000);
+        assertFalse(connection.isAlive());
+    }
+
+    @Test
+    void sendAsyncReportsAClosedConnection() {
+        connection.close();
+        CompletableFuture<Void> sent = connection.sendAsync("/who");
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> sent.get(5, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof java.io.IOException);
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.chismapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class VoiceNoteChunkTest {
+
+    @Test
+    void chunksCarryTheirNoteIndexAndAudio() {
+        byte[] pcm = new byte[640];
+        for (int i = 0; i < pcm.length; i += 2) {
+            pcm[i] = (byte) i;
+        }
+        byte[] chunk = VoiceNoteChunk.encode(-7, 3, false, AudioCodec.PCM, pcm, 0, pcm.length);
+
+        assertTrue(VoiceNoteChunk.isChunk(chunk, 0, chunk.length));
+        assertEquals(-7, VoiceNoteChunk.noteId(chunk, 0));
+        assertEquals(3, VoiceNoteChunk.index(chunk, 0));
+        assertFalse(VoiceNoteChunk.isLast(chunk, 0));
+        int audio = VoiceNoteChunk.HEADER_LENGTH;
+        assertArrayEquals(pcm, AudioCodec.decodeUnit(chunk, audio, chunk.length - audio));
+    }
+
+    @Test
+    void anEmptyLastChunkHasNoAudio() {
+        byte[] chunk = VoiceNoteChunk.encode(1, 9, true, AudioCodec.ADPCM, new byte[0], 0, 0);
+        assertEquals(VoiceNoteChunk.HEADER_LENGTH, chunk.length);
+        assertTrue(VoiceNoteChunk.isLast(chunk, 0));
+    }
+
+    @Test
+    void wholeNotesAreNotChunks() {
+        byte[] note = AudioCodec.ADPCM.encodeUnit(new byte[640], 0, 640);
+        assertFalse(VoiceNoteChunk.isChunk(note, 0, note.length));
+    }
+}